@@ -22,6 +22,7 @@ import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.auth.http.HttpCredentialsAdapter;
@@ -37,7 +38,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 /**
  * Utility functions for communicating with the realtime communication channel using Firebase. In
@@ -55,10 +62,22 @@ public final class FirebaseChannel {
   private static final String IDENTITY_ENDPOINT =
       "https://identitytoolkit.googleapis.com/google.identity.identitytoolkit.v1.IdentityToolkit";
 
+  private static final Gson GSON = new Gson();
+  // Stands in for the body of a delete in the map of pending messages.
+  private static final byte[] DELETE = new byte[0];
+
   private String firebaseDbUrl;
   private GoogleCredentials credential;
   // Keep this a package-private member variable, so that it can be mocked for unit tests
   HttpTransport httpTransport;
+  // Runs the requests of a fan-out. Threads on App Engine Standard must belong to the current
+  // request, so each send gets its own request thread, which ends before the request does.
+  Executor executor = command -> ThreadManager.createThreadForCurrentRequest(command).start();
+
+  private HttpTransport requestFactoryTransport;
+  private HttpRequestFactory requestFactory;
+  // The latest message for each channel that a send is in progress for.
+  private final ConcurrentMap<String, byte[]> pendingMessages = new ConcurrentHashMap<>();
 
   private static FirebaseChannel instance;
 
@@ -115,30 +134,128 @@ public final class FirebaseChannel {
     return firebaseSnippet.substring(openQuote + 1, closeQuote);
   }
 
+  /**
+   * Returns the request factory for the transport, authorized with the scoped credentials. The
+   * factory is created once and shared by every request, so the credentials refresh their access
+   * token only when it expires.
+   */
+  private synchronized HttpRequestFactory requestFactory() {
+    if (requestFactory == null || requestFactoryTransport != httpTransport) {
+      requestFactory = httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+      requestFactoryTransport = httpTransport;
+    }
+    return requestFactory;
+  }
+
   /**
    * sendFirebaseMessage.
    *
    * @param channelKey .
-   * @param game .
+   * @param game the game to send, or null to delete the channel.
    * @throws IOException .
    */
   public void sendFirebaseMessage(String channelKey, Game game) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    sendMessage(channelKey, null == game ? DELETE : toJson(game));
+  }
+
+  /**
+   * Sends the game to several channels at once. The game is serialized once, and each channel is
+   * updated on its own request thread.
+   *
+   * @param channelKeys .
+   * @param game .
+   * @throws IOException if any of the updates failed.
+   */
+  public void sendFirebaseMessages(List<String> channelKeys, Game game) throws IOException {
+    try {
+      sendFirebaseMessagesAsync(channelKeys, game).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Sends the game to several channels concurrently. The returned future completes when every
+   * channel has been updated, and must be waited on before the request ends.
+   *
+   * @param channelKeys .
+   * @param game .
+   * @return a future that completes exceptionally if any of the updates failed.
+   */
+  public CompletableFuture<Void> sendFirebaseMessagesAsync(List<String> channelKeys, Game game) {
+    byte[] gameJson = toJson(game);
+    CompletableFuture<?>[] sends = new CompletableFuture<?>[channelKeys.size()];
+    for (int i = 0; i < sends.length; i++) {
+      String channelKey = channelKeys.get(i);
+      sends[i] =
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  sendMessage(channelKey, gameJson);
+                } catch (IOException e) {
+                  throw new CompletionException(e);
+                }
+              },
+              executor);
+    }
+    return CompletableFuture.allOf(sends);
+  }
+
+  private static byte[] toJson(Game game) {
+    return GSON.toJson(game).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Sends a message to a channel, unless a send to the same channel is already in progress. Each
+   * message holds the whole state of the game, so only the latest one matters: the send in
+   * progress picks it up when it is done, even if it failed, and messages that were superseded
+   * meanwhile are never sent. The thread that sends throws the failure of the last message it
+   * sent, which is the latest state of the channel.
+   */
+  private void sendMessage(String channelKey, byte[] message) throws IOException {
+    if (pendingMessages.put(channelKey, message) != null) {
+      return;
+    }
     GenericUrl url =
         new GenericUrl(String.format("%s/channels/%s.json", firebaseDbUrl, channelKey));
+    byte[] sent = message;
+    while (true) {
+      try {
+        execute(url, sent);
+      } catch (IOException | RuntimeException e) {
+        if (pendingMessages.remove(channelKey, sent)) {
+          throw e;
+        }
+        // A newer message was queued behind the failed send. It supersedes the failed one, so
+        // send it rather than drop it.
+        sent = pendingMessages.get(channelKey);
+        continue;
+      }
+      // Only this send removes the channel's entry, so if it was replaced it is still there.
+      if (pendingMessages.remove(channelKey, sent)) {
+        return;
+      }
+      sent = pendingMessages.get(channelKey);
+    }
+  }
+
+  private void execute(GenericUrl url, byte[] message) throws IOException {
+    HttpRequestFactory requestFactory = requestFactory();
     HttpResponse response = null;
 
     try {
-      if (null == game) {
+      if (message == DELETE) {
         response = requestFactory.buildDeleteRequest(url).execute();
       } else {
-        String gameJson = new Gson().toJson(game);
         response =
             requestFactory
-                .buildPatchRequest(
-                    url, new ByteArrayContent("application/json", gameJson.getBytes()))
+                .buildPatchRequest(url, new ByteArrayContent("application/json", message))
                 .execute();
       }
 
@@ -175,7 +292,7 @@ public final class FirebaseChannel {
     claims.put("iat", epochTime);
     claims.put("exp", expire);
 
-    String payload = base64.encode(new Gson().toJson(claims).getBytes());
+    String payload = base64.encode(GSON.toJson(claims).getBytes());
     String toSign = String.format("%s.%s", header, payload);
     AppIdentityService.SigningResult result = appIdentity.signForApp(toSign.getBytes());
     return String.format("%s.%s", toSign, base64.encode(result.getSignature()));
@@ -194,12 +311,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebasePut(String path, Object object) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    HttpRequestFactory requestFactory = requestFactory();
 
-    String json = new Gson().toJson(object);
+    String json = GSON.toJson(object);
     GenericUrl url = new GenericUrl(path);
 
     return requestFactory
@@ -217,12 +331,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebasePatch(String path, Object object) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    HttpRequestFactory requestFactory = requestFactory();
 
-    String json = new Gson().toJson(object);
+    String json = GSON.toJson(object);
     GenericUrl url = new GenericUrl(path);
 
     return requestFactory
@@ -240,12 +351,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebasePost(String path, Object object) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    HttpRequestFactory requestFactory = requestFactory();
 
-    String json = new Gson().toJson(object);
+    String json = GSON.toJson(object);
     GenericUrl url = new GenericUrl(path);
 
     return requestFactory
@@ -262,10 +370,7 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebaseGet(String path) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    HttpRequestFactory requestFactory = requestFactory();
 
     GenericUrl url = new GenericUrl(path);
 
@@ -281,10 +386,7 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebaseDelete(String path) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    HttpRequestFactory requestFactory = requestFactory();
 
     GenericUrl url = new GenericUrl(path);
 
@@ -21,6 +21,8 @@ import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -137,21 +139,20 @@ public class Game {
     }
   }
 
-  private void sendUpdateToUser(String userId) throws IOException {
-    if (userId != null) {
-      String channelKey = getChannelKey(userId);
-      FirebaseChannel.getInstance().sendFirebaseMessage(channelKey, this);
-    }
-  }
-
   /**
-   * sendUpdateToClients.
+   * sendUpdateToClients. The game is serialized once, and both players are updated concurrently.
    *
    * @throws IOException if we had some kind of network issue.
    */
   public void sendUpdateToClients() throws IOException {
-    sendUpdateToUser(userX);
-    sendUpdateToUser(userO);
+    List<String> channelKeys = new ArrayList<>(2);
+    if (userX != null) {
+      channelKeys.add(getChannelKey(userX));
+    }
+    if (userO != null) {
+      channelKeys.add(getChannelKey(userO));
+    }
+    FirebaseChannel.getInstance().sendFirebaseMessages(channelKeys, this);
   }
   // [END send_updates]
 
@@ -30,6 +30,11 @@ import com.google.appengine.tools.development.testing.LocalAppIdentityServiceTes
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -123,6 +128,149 @@ public class FirebaseChannelTest {
         .buildRequest("DELETE", FIREBASE_DB_URL + "/channels/my_key.json");
   }
 
+  @Test
+  public void sendFirebaseMessages_fanOut() throws Exception {
+    // Mock out the firebase response. See
+    // http://g.co/dv/api-client-library/java/google-http-java-client/unit-testing
+    MockHttpTransport mockHttpTransport =
+        spy(
+            new MockHttpTransport() {
+              @Override
+              public LowLevelHttpRequest buildRequest(String method, String url)
+                  throws IOException {
+                return new MockLowLevelHttpRequest() {
+                  @Override
+                  public LowLevelHttpResponse execute() throws IOException {
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setStatusCode(200);
+                    return response;
+                  }
+                };
+              }
+            });
+    FirebaseChannel.getInstance().httpTransport = mockHttpTransport;
+
+    firebaseChannel.sendFirebaseMessages(Arrays.asList("key_x", "key_o"), new Game());
+
+    verify(mockHttpTransport, times(1))
+        .buildRequest("PATCH", FIREBASE_DB_URL + "/channels/key_x.json");
+    verify(mockHttpTransport, times(1))
+        .buildRequest("PATCH", FIREBASE_DB_URL + "/channels/key_o.json");
+  }
+
+  @Test
+  public void sendFirebaseMessage_coalescesUpdatesToSameChannel() throws Exception {
+    // Hold the first update in flight while more updates to the same channel come in.
+    final CountDownLatch firstSent = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    MockHttpTransport mockHttpTransport =
+        spy(
+            new MockHttpTransport() {
+              @Override
+              public LowLevelHttpRequest buildRequest(String method, String url)
+                  throws IOException {
+                return new MockLowLevelHttpRequest() {
+                  @Override
+                  public LowLevelHttpResponse execute() throws IOException {
+                    bodies.add(getContentAsString());
+                    if (bodies.size() == 1) {
+                      firstSent.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        throw new IOException(e);
+                      }
+                    }
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setStatusCode(200);
+                    return response;
+                  }
+                };
+              }
+            });
+    FirebaseChannel.getInstance().httpTransport = mockHttpTransport;
+
+    Thread first =
+        new Thread(
+            () -> {
+              try {
+                firebaseChannel.sendFirebaseMessage(
+                    "my_key", new Game("x", "o", "X        ", false));
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    first.start();
+    firstSent.await();
+    // These return at once, and only the latest is sent once the first update is done.
+    firebaseChannel.sendFirebaseMessage("my_key", new Game("x", "o", "XO       ", true));
+    firebaseChannel.sendFirebaseMessage("my_key", new Game("x", "o", "XOX      ", false));
+    release.countDown();
+    first.join();
+
+    verify(mockHttpTransport, times(2))
+        .buildRequest("PATCH", FIREBASE_DB_URL + "/channels/my_key.json");
+    assertThat(bodies).hasSize(2);
+    assertThat(bodies.get(1)).contains("\"board\":\"XOX      \"");
+  }
+
+  @Test
+  public void sendFirebaseMessage_sendsUpdateQueuedBehindFailedSend() throws Exception {
+    // Fail the first update while another update to the same channel is queued behind it.
+    final CountDownLatch firstSent = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    MockHttpTransport mockHttpTransport =
+        new MockHttpTransport() {
+          @Override
+          public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+            return new MockLowLevelHttpRequest() {
+              @Override
+              public LowLevelHttpResponse execute() throws IOException {
+                bodies.add(getContentAsString());
+                MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                if (bodies.size() == 1) {
+                  firstSent.countDown();
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    throw new IOException(e);
+                  }
+                  response.setStatusCode(500);
+                } else {
+                  response.setStatusCode(200);
+                }
+                return response;
+              }
+            };
+          }
+        };
+    FirebaseChannel.getInstance().httpTransport = mockHttpTransport;
+
+    final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+    Thread first =
+        new Thread(
+            () -> {
+              try {
+                firebaseChannel.sendFirebaseMessage(
+                    "failing_key", new Game("x", "o", "X        ", false));
+              } catch (IOException | RuntimeException e) {
+                failures.add(e);
+              }
+            });
+    first.start();
+    firstSent.await();
+    firebaseChannel.sendFirebaseMessage("failing_key", new Game("x", "o", "XO       ", true));
+    release.countDown();
+    first.join();
+
+    // The queued update is still sent, and it succeeding leaves the channel up to date.
+    assertThat(bodies).hasSize(2);
+    assertThat(bodies.get(1)).contains("\"board\":\"XO       \"");
+    assertThat(failures).isEmpty();
+  }
+
   @Test
   public void createFirebaseToken() throws Exception {
     Game game = new Game();
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bigtable;
+
+import com.google.cloud.bigtable.beam.AbstractCloudBigtableTableDoFn;
+import com.google.cloud.bigtable.beam.CloudBigtableConfiguration;
+import com.google.cloud.bigtable.beam.CloudBigtableTableConfiguration;
+import com.google.cloud.bigtable.hbase.BigtableConfiguration;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.io.GenerateSequence;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.Duration;
+
+/*
+A parameterised read/write/scan load generator for Bigtable. Each element of a GenerateSequence is
+one operation; the operation type, row key and cell values are all derived from the sequence number
+and the seed, so runs are repeatable.
+
+Latencies are recorded per stage into fixed-bucket histograms, exported as Beam counters, and
+merged into ops/s and percentiles when the pipeline finishes.
+ */
+public class BigtableBenchmark {
+
+  static final String COLUMN_FAMILY = "cf";
+
+  /** What one element of the sequence does. */
+  enum Operation {
+    WRITE,
+    READ,
+    SCAN;
+
+    static Operation forSequence(long sequence, long seed, int readPercent, int scanPercent) {
+      int draw = (int) Long.remainderUnsigned(KeyGenerator.mix(sequence ^ ~seed), 100);
+      if (draw < readPercent) {
+        return READ;
+      }
+      return draw < readPercent + scanPercent ? SCAN : WRITE;
+    }
+  }
+
+  /** Where the time goes. GENERATE is building a Put, WRITE is one batch of Puts. */
+  enum Stage {
+    GENERATE,
+    WRITE,
+    READ,
+    SCAN
+  }
+
+  public static void main(String[] args) throws IOException {
+    BenchmarkOptions options =
+        PipelineOptionsFactory.fromArgs(args).withValidation().as(BenchmarkOptions.class);
+    if (options.getCreateTable()) {
+      createTableIfMissing(options);
+    }
+    long start = System.nanoTime();
+    PipelineResult result = run(options);
+    result.waitUntilFinish();
+    System.out.print(report(result.metrics().allMetrics(), System.nanoTime() - start));
+  }
+
+  static PipelineResult run(BenchmarkOptions options) {
+    Preconditions.checkArgument(
+        options.getReadPercent() >= 0
+            && options.getScanPercent() >= 0
+            && options.getReadPercent() + options.getScanPercent() <= 100,
+        "readPercent and scanPercent must add up to at most 100");
+    Preconditions.checkArgument(options.getWriteBatchSize() > 0, "writeBatchSize must be positive");
+
+    CloudBigtableTableConfiguration bigtableTableConfig =
+        new CloudBigtableTableConfiguration.Builder()
+            .withProjectId(options.getProject())
+            .withInstanceId(options.getBigtableInstanceId())
+            .withTableId(options.getBigtableTableId())
+            .build();
+
+    System.out.println(
+        "Running "
+            + options.getOperations()
+            + " operations ("
+            + options.getReadPercent()
+            + "% reads, "
+            + options.getScanPercent()
+            + "% scans) over "
+            + options.getKeyCount()
+            + " "
+            + options.getKeyDistribution()
+            + " keys.");
+
+    GenerateSequence sequence = GenerateSequence.from(0).to(options.getOperations());
+    if (options.getRate() > 0) {
+      sequence = sequence.withRate(options.getRate(), Duration.standardSeconds(1));
+    }
+
+    Pipeline p = Pipeline.create(options);
+    p.apply(sequence).apply(ParDo.of(new BenchmarkFn(bigtableTableConfig, options)));
+    return p.run();
+  }
+
+  static void createTableIfMissing(BenchmarkOptions options) throws IOException {
+    try (Connection connection =
+            BigtableConfiguration.connect(options.getProject(), options.getBigtableInstanceId());
+        Admin admin = connection.getAdmin()) {
+      TableName tableName = TableName.valueOf(options.getBigtableTableId());
+      if (!admin.tableExists(tableName)) {
+        HTableDescriptor descriptor = new HTableDescriptor(tableName);
+        descriptor.addFamily(new HColumnDescriptor(COLUMN_FAMILY));
+        admin.createTable(descriptor);
+      }
+    }
+  }
+
+  /** Turns the counters exported by BenchmarkFn into a throughput and latency summary. */
+  static String report(MetricQueryResults metrics, long elapsedNanos) {
+    Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    Map<Operation, Long> operations = new EnumMap<>(Operation.class);
+    for (MetricResult<Long> counter : metrics.getCounters()) {
+      if (!counter.getName().getNamespace().equals(BenchmarkFn.class.getName())) {
+        continue;
+      }
+      String name = counter.getName().getName();
+      long value = counter.getAttempted();
+      int separator = name.indexOf('_');
+      if (separator < 0) {
+        continue;
+      }
+      String prefix = name.substring(0, separator);
+      String suffix = name.substring(separator + 1);
+      if (suffix.equals("ops")) {
+        operations.put(Operation.valueOf(prefix), value);
+      } else if (suffix.equals("micros")) {
+        histograms
+            .computeIfAbsent(Stage.valueOf(prefix), s -> new LatencyHistogram())
+            .addTotalMicros(value);
+      } else if (suffix.startsWith("bucket")) {
+        histograms
+            .computeIfAbsent(Stage.valueOf(prefix), s -> new LatencyHistogram())
+            .add(Integer.parseInt(suffix.substring("bucket".length())), value);
+      }
+    }
+
+    double seconds = elapsedNanos / 1e9;
+    long total = 0;
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<Operation, Long> entry : operations.entrySet()) {
+      total += entry.getValue();
+      report.append(
+          String.format(
+              "%-8s %12d ops %12.1f ops/s%n",
+              entry.getKey(), entry.getValue(), entry.getValue() / seconds));
+    }
+    report.append(
+        String.format(
+            "%-8s %12d ops %12.1f ops/s in %.1fs%n", "TOTAL", total, total / seconds, seconds));
+    report.append(
+        String.format(
+            "%n%-8s %12s %10s %10s %10s %10s %10s%n",
+            "stage", "count", "mean(us)", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)"));
+    for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      report.append(
+          String.format(
+              "%-8s %12d %10.0f %10d %10d %10d %10d%n",
+              entry.getKey(),
+              histogram.getCount(),
+              histogram.meanMicros(),
+              histogram.percentileMicros(50),
+              histogram.percentileMicros(90),
+              histogram.percentileMicros(99),
+              histogram.percentileMicros(99.9)));
+    }
+    return report.toString();
+  }
+
+  static class BenchmarkFn extends AbstractCloudBigtableTableDoFn<Long, Void> {
+
+    private static final byte[] FAMILY = Bytes.toBytes(COLUMN_FAMILY);
+
+    private final String tableId;
+    private final KeyGenerator keys;
+    private final PayloadGenerator payloads;
+    private final long seed;
+    private final int readPercent;
+    private final int scanPercent;
+    private final int columnsPerRow;
+    private final int scanLength;
+    private final int writeBatchSize;
+
+    private transient ByteBuffer[] qualifiers;
+    private transient LatencyHistogram[] histograms;
+    private transient long[] operations;
+    private transient List<Put> pendingPuts;
+    private transient Table table;
+
+    BenchmarkFn(CloudBigtableConfiguration config, BenchmarkOptions options) {
+      super(config);
+      this.tableId = options.getBigtableTableId();
+      this.keys =
+          new KeyGenerator(
+              options.getKeyDistribution(),
+              options.getKeyCount(),
+              options.getSeed(),
+              options.getZipfianExponent(),
+              options.getHotKeyFraction(),
+              options.getHotKeyProbability());
+      this.payloads = new PayloadGenerator(options.getValueSize(), options.getSeed());
+      this.seed = options.getSeed();
+      this.readPercent = options.getReadPercent();
+      this.scanPercent = options.getScanPercent();
+      this.columnsPerRow = options.getColumnsPerRow();
+      this.scanLength = options.getScanLength();
+      this.writeBatchSize = options.getWriteBatchSize();
+    }
+
+    @Setup
+    public void setup() {
+      qualifiers = new ByteBuffer[columnsPerRow];
+      for (int i = 0; i < columnsPerRow; i++) {
+        qualifiers[i] = ByteBuffer.wrap(Bytes.toBytes(Integer.toString(i)));
+      }
+      histograms = new LatencyHistogram[Stage.values().length];
+      for (int i = 0; i < histograms.length; i++) {
+        histograms[i] = new LatencyHistogram();
+      }
+      operations = new long[Operation.values().length];
+      pendingPuts = new ArrayList<>(writeBatchSize);
+    }
+
+    @StartBundle
+    public void startBundle() throws IOException {
+      table = getConnection().getTable(TableName.valueOf(tableId));
+    }
+
+    @ProcessElement
+    public void processElement(@Element Long sequence) throws IOException {
+      long start = System.nanoTime();
+      Operation operation = Operation.forSequence(sequence, seed, readPercent, scanPercent);
+      long index = keys.index(sequence);
+      byte[] row = keys.key(index);
+      operations[operation.ordinal()]++;
+      switch (operation) {
+        case WRITE:
+          Put put = new Put(row);
+          for (int column = 0; column < columnsPerRow; column++) {
+            put.addColumn(
+                FAMILY,
+                qualifiers[column].duplicate(),
+                HConstants.LATEST_TIMESTAMP,
+                payloads.value(index, column));
+          }
+          record(Stage.GENERATE, start);
+          pendingPuts.add(put);
+          if (pendingPuts.size() >= writeBatchSize) {
+            flush();
+          }
+          break;
+        case READ:
+          table.get(new Get(row));
+          record(Stage.READ, start);
+          break;
+        case SCAN:
+          Scan scan = new Scan(row).setCaching(scanLength).setFilter(new PageFilter(scanLength));
+          try (ResultScanner scanner = table.getScanner(scan)) {
+            scanner.next(scanLength);
+          }
+          record(Stage.SCAN, start);
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation " + operation);
+      }
+    }
+
+    @FinishBundle
+    public void finishBundle() throws IOException {
+      try {
+        flush();
+      } finally {
+        table.close();
+        table = null;
+      }
+      publish();
+    }
+
+    private void flush() throws IOException {
+      if (pendingPuts.isEmpty()) {
+        return;
+      }
+      long start = System.nanoTime();
+      table.put(pendingPuts);
+      record(Stage.WRITE, start);
+      pendingPuts.clear();
+    }
+
+    private void record(Stage stage, long startNanos) {
+      histograms[stage.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /** Adds this bundle's histograms to the Beam counters, and starts over. */
+    private void publish() {
+      for (Operation operation : Operation.values()) {
+        if (operations[operation.ordinal()] > 0) {
+          Metrics.counter(BenchmarkFn.class, operation + "_ops")
+              .inc(operations[operation.ordinal()]);
+          operations[operation.ordinal()] = 0;
+        }
+      }
+      for (Stage stage : Stage.values()) {
+        LatencyHistogram histogram = histograms[stage.ordinal()];
+        if (histogram.getCount() == 0) {
+          continue;
+        }
+        Metrics.counter(BenchmarkFn.class, stage + "_micros").inc(histogram.getTotalMicros());
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+          long count = histogram.getBucketCount(bucket);
+          if (count > 0) {
+            Metrics.counter(BenchmarkFn.class, stage + "_bucket" + bucket).inc(count);
+          }
+        }
+        histogram.reset();
+      }
+    }
+  }
+
+  public interface BenchmarkOptions extends DataflowPipelineOptions {
+
+    @Description("The Bigtable instance ID")
+    @Default.String("bigtable-instance")
+    String getBigtableInstanceId();
+
+    void setBigtableInstanceId(String bigtableInstanceId);
+
+    @Description("The Bigtable table ID in the instance.")
+    @Default.String("bigtable-table")
+    String getBigtableTableId();
+
+    void setBigtableTableId(String bigtableTableId);
+
+    @Description("Create the table, with a 'cf' column family, if it does not exist.")
+    @Default.Boolean(false)
+    Boolean getCreateTable();
+
+    void setCreateTable(Boolean createTable);
+
+    @Description("The number of operations to run.")
+    @Default.Long(1_000_000)
+    Long getOperations();
+
+    void setOperations(Long operations);
+
+    @Description("The maximum operations per second, or 0 to run as fast as possible.")
+    @Default.Integer(0)
+    Integer getRate();
+
+    void setRate(Integer rate);
+
+    @Description("The percentage of operations that are single-row reads.")
+    @Default.Integer(0)
+    Integer getReadPercent();
+
+    void setReadPercent(Integer readPercent);
+
+    @Description("The percentage of operations that are scans. The rest are writes.")
+    @Default.Integer(0)
+    Integer getScanPercent();
+
+    void setScanPercent(Integer scanPercent);
+
+    @Description("The number of distinct row keys.")
+    @Default.Long(1_000_000)
+    Long getKeyCount();
+
+    void setKeyCount(Long keyCount);
+
+    @Description("How operations pick keys: SEQUENTIAL, REVERSED, ZIPFIAN or HOTSPOT.")
+    @Default.Enum("SEQUENTIAL")
+    KeyGenerator.Distribution getKeyDistribution();
+
+    void setKeyDistribution(KeyGenerator.Distribution keyDistribution);
+
+    @Description("The skew of the ZIPFIAN distribution, between 0 and 1 exclusive.")
+    @Default.Double(0.99)
+    Double getZipfianExponent();
+
+    void setZipfianExponent(Double zipfianExponent);
+
+    @Description("The fraction of the key space that is hot in the HOTSPOT distribution.")
+    @Default.Double(0.01)
+    Double getHotKeyFraction();
+
+    void setHotKeyFraction(Double hotKeyFraction);
+
+    @Description("The fraction of operations that go to hot keys in the HOTSPOT distribution.")
+    @Default.Double(0.9)
+    Double getHotKeyProbability();
+
+    void setHotKeyProbability(Double hotKeyProbability);
+
+    @Description("The number of columns written per row.")
+    @Default.Integer(1)
+    Integer getColumnsPerRow();
+
+    void setColumnsPerRow(Integer columnsPerRow);
+
+    @Description("The size of each cell value in bytes.")
+    @Default.Integer(1024)
+    Integer getValueSize();
+
+    void setValueSize(Integer valueSize);
+
+    @Description("The number of rows each scan reads.")
+    @Default.Integer(100)
+    Integer getScanLength();
+
+    void setScanLength(Integer scanLength);
+
+    @Description("The number of rows sent to Bigtable in each write batch.")
+    @Default.Integer(100)
+    Integer getWriteBatchSize();
+
+    void setWriteBatchSize(Integer writeBatchSize);
+
+    @Description("The seed for keys, operation mix and payloads. Same seed, same workload.")
+    @Default.Long(42)
+    Long getSeed();
+
+    void setSeed(Long seed);
+  }
+}
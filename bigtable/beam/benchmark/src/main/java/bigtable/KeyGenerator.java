@@ -0,0 +1,173 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bigtable;
+
+import com.google.common.base.Preconditions;
+import java.io.Serializable;
+
+/*
+Maps operation sequence numbers to row keys. The mapping is a pure function of the sequence number
+and the seed, so every worker, and every rerun, touches the same keys in the same order.
+
+Keys are fixed-width zero-padded decimal numbers, written digit by digit into the key array rather
+than through String.format.
+ */
+public class KeyGenerator implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Above this many keys, the tail of the zipfian normalization constant is approximated. */
+  private static final long EXACT_ZETA_LIMIT = 10_000_000L;
+
+  public enum Distribution {
+    /** Key i for operation i, wrapping around the key space. */
+    SEQUENTIAL,
+    /** Like SEQUENTIAL, but with the digits reversed so consecutive writes spread out. */
+    REVERSED,
+    /** A few keys get most of the traffic; popular keys are scattered over the key space. */
+    ZIPFIAN,
+    /** A contiguous range of keys at the start of the key space gets most of the traffic. */
+    HOTSPOT
+  }
+
+  private final Distribution distribution;
+  private final long keyCount;
+  private final int keyWidth;
+  private final long seed;
+  private final long hotKeyCount;
+  private final double hotProbability;
+
+  // Parameters of the zipfian generator from Gray et al., "Quickly generating billion-record
+  // synthetic databases". They are computed once on the launcher and shipped with the DoFn.
+  private final double theta;
+  private final double zetaN;
+  private final double alpha;
+  private final double eta;
+
+  public KeyGenerator(
+      Distribution distribution,
+      long keyCount,
+      long seed,
+      double zipfianExponent,
+      double hotKeyFraction,
+      double hotProbability) {
+    Preconditions.checkArgument(keyCount > 0, "keyCount must be positive");
+    Preconditions.checkArgument(
+        zipfianExponent > 0 && zipfianExponent < 1, "zipfianExponent must be in (0, 1)");
+    Preconditions.checkArgument(
+        hotKeyFraction > 0 && hotKeyFraction <= 1, "hotKeyFraction must be in (0, 1]");
+    Preconditions.checkArgument(
+        hotProbability >= 0 && hotProbability <= 1, "hotProbability must be in [0, 1]");
+    this.distribution = distribution;
+    this.keyCount = keyCount;
+    this.keyWidth = Long.toString(keyCount - 1).length();
+    this.seed = seed;
+    this.hotKeyCount = Math.max(1, (long) (keyCount * hotKeyFraction));
+    this.hotProbability = hotProbability;
+
+    this.theta = zipfianExponent;
+    if (distribution == Distribution.ZIPFIAN) {
+      this.zetaN = zeta(keyCount, theta);
+      double zeta2 = 1 + Math.pow(0.5, theta);
+      this.alpha = 1 / (1 - theta);
+      this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta2 / zetaN);
+    } else {
+      this.zetaN = 0;
+      this.alpha = 0;
+      this.eta = 0;
+    }
+  }
+
+  /** Returns the index of the key that operation {@code sequence} touches. */
+  public long index(long sequence) {
+    switch (distribution) {
+      case SEQUENTIAL:
+      case REVERSED:
+        return Math.floorMod(sequence, keyCount);
+      case ZIPFIAN:
+        // Scramble the rank so the most popular keys do not all share a tablet.
+        return Math.floorMod(mix(zipfianRank(sequence) ^ seed), keyCount);
+      case HOTSPOT:
+        if (uniform(sequence, 1) < hotProbability || hotKeyCount == keyCount) {
+          return (long) (uniform(sequence, 2) * hotKeyCount);
+        }
+        return hotKeyCount + (long) (uniform(sequence, 2) * (keyCount - hotKeyCount));
+      default:
+        throw new IllegalStateException("Unknown distribution " + distribution);
+    }
+  }
+
+  /** Returns the row key of the key at {@code index}. */
+  public byte[] key(long index) {
+    byte[] key = new byte[keyWidth];
+    long value = index;
+    if (distribution == Distribution.REVERSED) {
+      for (int i = 0; i < keyWidth; i++) {
+        key[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+    } else {
+      for (int i = keyWidth - 1; i >= 0; i--) {
+        key[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+    }
+    return key;
+  }
+
+  /** Returns a uniform double in [0, 1) for the given operation and stream. */
+  double uniform(long sequence, int stream) {
+    return (mix(seed + sequence * 0x9E3779B97F4A7C15L + stream) >>> 11) * 0x1.0p-53;
+  }
+
+  private long zipfianRank(long sequence) {
+    double u = uniform(sequence, 3);
+    double uz = u * zetaN;
+    if (uz < 1) {
+      return 0;
+    }
+    if (uz < 1 + Math.pow(0.5, theta)) {
+      return 1;
+    }
+    return Math.min(keyCount - 1, (long) (keyCount * Math.pow(eta * u - eta + 1, alpha)));
+  }
+
+  /** The generalized harmonic number H(n, theta), the normalization constant of the zipfian. */
+  static double zeta(long n, double theta) {
+    long exact = Math.min(n, EXACT_ZETA_LIMIT);
+    double sum = 0;
+    for (long i = 1; i <= exact; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    if (n > exact) {
+      // Euler-Maclaurin: the integral of x^-theta plus the endpoint correction.
+      double a = exact;
+      double b = n;
+      sum +=
+          (Math.pow(b, 1 - theta) - Math.pow(a, 1 - theta)) / (1 - theta)
+              + (Math.pow(b, -theta) - Math.pow(a, -theta)) / 2;
+    }
+    return sum;
+  }
+
+  /** The SplitMix64 finalizer. */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bigtable;
+
+import java.util.Arrays;
+
+/*
+A fixed-bucket latency histogram. Bucket bounds grow by 1 microsecond, or by 20% once that is
+larger, up to about a minute, so any percentile read from it is within 20% of the true value.
+Because the bounds are fixed, histograms recorded on different workers can be merged by adding
+bucket counts, which is how they travel through Beam counters.
+ */
+public class LatencyHistogram {
+
+  static final int BUCKETS = 100;
+
+  /** The inclusive upper bound of each bucket, in microseconds. */
+  private static final long[] UPPER_BOUNDS = new long[BUCKETS];
+
+  static {
+    double bound = 1;
+    long previous = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      UPPER_BOUNDS[i] = Math.max(previous + 1, (long) Math.ceil(bound));
+      previous = UPPER_BOUNDS[i];
+      bound *= 1.2;
+    }
+    UPPER_BOUNDS[BUCKETS - 1] = Long.MAX_VALUE;
+  }
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long totalMicros;
+
+  public void record(long micros) {
+    add(bucket(micros), 1);
+    totalMicros += micros;
+  }
+
+  void add(int bucket, long n) {
+    counts[bucket] += n;
+    count += n;
+  }
+
+  void addTotalMicros(long micros) {
+    totalMicros += micros;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  long getBucketCount(int bucket) {
+    return counts[bucket];
+  }
+
+  long getTotalMicros() {
+    return totalMicros;
+  }
+
+  public double meanMicros() {
+    return count == 0 ? 0 : (double) totalMicros / count;
+  }
+
+  /** Returns the upper bound of the bucket holding the given percentile, in microseconds. */
+  public long percentileMicros(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return UPPER_BOUNDS[i];
+      }
+    }
+    return UPPER_BOUNDS[BUCKETS - 1];
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    totalMicros = 0;
+  }
+
+  static int bucket(long micros) {
+    int bucket = Arrays.binarySearch(UPPER_BOUNDS, micros);
+    return bucket >= 0 ? bucket : -bucket - 1;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bigtable;
+
+import com.google.common.base.Preconditions;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/*
+Produces cell values without generating random bytes per cell. A block of random bytes is filled
+once per worker from the seed, and each value is a window into that block at an offset derived
+from the key and column. Values are therefore deterministic, differ between cells, and do not
+compress to nothing, while costing no more than the copy the Put makes anyway.
+ */
+public class PayloadGenerator implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** The number of distinct offsets a value can start at. */
+  static final int WINDOWS = 4096;
+
+  private final int valueSize;
+  private final long seed;
+
+  private transient byte[] block;
+
+  public PayloadGenerator(int valueSize, long seed) {
+    Preconditions.checkArgument(valueSize >= 0, "valueSize must not be negative");
+    this.valueSize = valueSize;
+    this.seed = seed;
+  }
+
+  public int getValueSize() {
+    return valueSize;
+  }
+
+  /**
+   * Returns the value of the given column of the key at {@code index}. The buffer shares the
+   * generator's block, so it must be copied (as Put.addColumn does) rather than modified.
+   */
+  public ByteBuffer value(long index, int column) {
+    byte[] bytes = block();
+    int offset = (int) Long.remainderUnsigned(KeyGenerator.mix(index * 31 + column), WINDOWS);
+    return ByteBuffer.wrap(bytes, offset, valueSize).slice();
+  }
+
+  private byte[] block() {
+    if (block == null) {
+      byte[] bytes = new byte[valueSize + WINDOWS];
+      SplittableRandom random = new SplittableRandom(seed);
+      for (int i = 0; i < bytes.length; i += 8) {
+        long bits = random.nextLong();
+        for (int j = i; j < Math.min(i + 8, bytes.length); j++) {
+          bytes[j] = (byte) bits;
+          bits >>>= 8;
+        }
+      }
+      block = bytes;
+    }
+    return block;
+  }
+}
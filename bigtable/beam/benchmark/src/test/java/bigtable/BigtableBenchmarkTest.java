@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bigtable;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import bigtable.BigtableBenchmark.Operation;
+import bigtable.KeyGenerator.Distribution;
+import com.google.common.collect.Range;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class BigtableBenchmarkTest {
+
+  private static KeyGenerator keys(Distribution distribution, long keyCount) {
+    return new KeyGenerator(distribution, keyCount, 42, 0.99, 0.01, 0.9);
+  }
+
+  @Test
+  public void testSequentialKeys() {
+    KeyGenerator keys = keys(Distribution.SEQUENTIAL, 1000);
+    assertThat(keys.index(7)).isEqualTo(7);
+    assertThat(keys.index(1007)).isEqualTo(7);
+    assertThat(Bytes.toString(keys.key(7))).isEqualTo("007");
+    assertThat(Bytes.toString(keys.key(999))).isEqualTo("999");
+  }
+
+  @Test
+  public void testReversedKeys() {
+    KeyGenerator keys = keys(Distribution.REVERSED, 1000);
+    assertThat(Bytes.toString(keys.key(7))).isEqualTo("700");
+    assertThat(Bytes.toString(keys.key(123))).isEqualTo("321");
+  }
+
+  @Test
+  public void testZipfianKeysAreSkewedAndDeterministic() {
+    KeyGenerator keys = keys(Distribution.ZIPFIAN, 100_000);
+    KeyGenerator sameSeed = keys(Distribution.ZIPFIAN, 100_000);
+    int[] hits = new int[100_000];
+    for (long i = 0; i < 100_000; i++) {
+      long index = keys.index(i);
+      assertThat(index).isAtLeast(0L);
+      assertThat(index).isLessThan(100_000L);
+      assertThat(sameSeed.index(i)).isEqualTo(index);
+      hits[(int) index]++;
+    }
+    int hottest = 0;
+    for (int count : hits) {
+      hottest = Math.max(hottest, count);
+    }
+    // With theta = 0.99 the most popular key gets about 8% of the traffic.
+    assertThat(hottest).isGreaterThan(5_000);
+  }
+
+  @Test
+  public void testHotspotKeys() {
+    KeyGenerator keys = keys(Distribution.HOTSPOT, 100_000);
+    int hot = 0;
+    for (long i = 0; i < 10_000; i++) {
+      if (keys.index(i) < 1_000) {
+        hot++;
+      }
+    }
+    assertThat(hot).isIn(Range.closed(8_800, 9_200));
+  }
+
+  @Test
+  public void testZetaApproximation() {
+    double exact = 0;
+    for (int i = 1; i <= 20_000_000; i++) {
+      exact += 1 / Math.pow(i, 0.99);
+    }
+    assertThat(KeyGenerator.zeta(20_000_000, 0.99)).isWithin(1e-6).of(exact);
+  }
+
+  @Test
+  public void testPayloadsAreDeterministic() {
+    PayloadGenerator payloads = new PayloadGenerator(100, 42);
+    ByteBuffer value = payloads.value(5, 0);
+    assertThat(value.remaining()).isEqualTo(100);
+    assertThat(new PayloadGenerator(100, 42).value(5, 0)).isEqualTo(value);
+    assertThat(payloads.value(5, 1)).isNotEqualTo(value);
+
+    Set<ByteBuffer> distinct = new HashSet<>();
+    for (long i = 0; i < 100; i++) {
+      distinct.add(payloads.value(i, 0));
+    }
+    assertThat(distinct.size()).isGreaterThan(95);
+  }
+
+  @Test
+  public void testOperationMix() {
+    int[] counts = new int[Operation.values().length];
+    for (long i = 0; i < 10_000; i++) {
+      counts[Operation.forSequence(i, 42, 30, 10).ordinal()]++;
+    }
+    assertThat(counts[Operation.READ.ordinal()]).isIn(Range.closed(2_800, 3_200));
+    assertThat(counts[Operation.SCAN.ordinal()]).isIn(Range.closed(800, 1_200));
+  }
+
+  @Test
+  public void testLatencyPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    assertThat(histogram.getCount()).isEqualTo(1000);
+    assertThat(histogram.meanMicros()).isWithin(0.01).of(500.5);
+    // Percentiles are bucket upper bounds: never below the true value, at most 20% above it.
+    assertThat(histogram.percentileMicros(50)).isIn(Range.closed(500L, 600L));
+    assertThat(histogram.percentileMicros(99)).isIn(Range.closed(990L, 1188L));
+  }
+}
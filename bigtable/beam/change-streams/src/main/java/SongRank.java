@@ -30,6 +30,7 @@ import org.apache.beam.sdk.io.gcp.bigtable.BigtableIO;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Combine;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -41,6 +42,7 @@ import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
 import org.apache.beam.sdk.transforms.windowing.Repeatedly;
 import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 
@@ -55,8 +57,9 @@ public class SongRank {
     Preconditions.checkArgument(options.getOutputLocation().endsWith("/"),
         "Output location must end with a slash.");
 
-    // [START bigtable_cdc_tut_readchangestream]
-    p.apply(
+    PCollection<String> songs =
+        // [START bigtable_cdc_tut_readchangestream]
+        p.apply(
             "Stream from Bigtable",
             BigtableIO.readChangeStream()
                 .withProjectId(options.getBigtableProjectId())
@@ -76,11 +79,26 @@ public class SongRank {
                             .pastFirstElementInPane()
                             .plusDelayOf(Duration.standardSeconds(10))
                     ))
-                .discardingFiredPanes())
-        // [START bigtable_cdc_tut_countrank]
-        .apply(Count.perElement())
-        .apply("Top songs", Top.of(5, new SongComparator()).withoutDefaults())
-        // [END bigtable_cdc_tut_countrank]
+                .discardingFiredPanes());
+
+    PCollection<List<KV<String, Long>>> topSongs;
+    if (options.getSketchCapacity() == 0) {
+      topSongs = songs
+          // [START bigtable_cdc_tut_countrank]
+          .apply(Count.perElement())
+          .apply("Top songs",
+              Top.of(options.getTopSongsCount(), new SongComparator()).withoutDefaults());
+          // [END bigtable_cdc_tut_countrank]
+    } else {
+      // Each worker keeps a bounded Space-Saving summary instead of counting every song, which
+      // suits catalogues with millions of songs.
+      topSongs = songs.apply("Top songs",
+          Combine.globally(
+              new TopSongs(options.getTopSongsCount(), options.getSketchCapacity()))
+              .withoutDefaults());
+    }
+
+    topSongs
         // [START bigtable_cdc_tut_output]
         .apply("Print", ParDo.of(new PrintFn()))
         .apply(
@@ -131,11 +149,11 @@ public class SongRank {
   }
   // [END bigtable_cdc_tut_songname]
 
-  private static class SongComparator implements Comparator<KV<String, Long>>, Serializable {
+  static class SongComparator implements Comparator<KV<String, Long>>, Serializable {
 
     @Override
     public int compare(KV<String, Long> o1, KV<String, Long> o2) {
-      return (int) (o1.getValue() - o2.getValue());
+      return Long.compare(o1.getValue(), o2.getValue());
     }
   }
 
@@ -179,5 +197,18 @@ public class SongRank {
     String getOutputLocation();
 
     void setOutputLocation(String value);
+
+    @Description("The number of songs in each chart.")
+    @Default.Integer(5)
+    Integer getTopSongsCount();
+
+    void setTopSongsCount(Integer value);
+
+    @Description("The number of songs each worker tracks, for approximate charts with bounded "
+        + "memory. 0 counts every song exactly.")
+    @Default.Integer(0)
+    Integer getSketchCapacity();
+
+    void setSketchCapacity(Integer value);
   }
 }
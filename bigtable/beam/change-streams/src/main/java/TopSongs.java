@@ -0,0 +1,323 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.values.KV;
+
+/**
+ * Finds the most played songs with the Space-Saving algorithm (Metwally et al., "Efficient
+ * computation of frequent and top-k elements in data streams").
+ *
+ * <p>Each accumulator keeps at most {@code capacity} counters, so memory stays bounded however
+ * large the catalogue is. A reported count can overestimate the true count by at most the total
+ * number of plays divided by the capacity, and any song played more often than that is reported.
+ * While there are fewer songs than counters, the counts are exact.
+ *
+ * <p>The size of the accumulator and the largest possible overcount among the reported songs are
+ * exported as the {@code sketchBytes} and {@code maxOvercount} gauges.
+ */
+public class TopSongs extends CombineFn<String, TopSongs.Sketch, List<KV<String, Long>>> {
+
+  private final int count;
+  private final int capacity;
+
+  /**
+   * @param count the number of songs to output.
+   * @param capacity the number of counters per accumulator, at least {@code count}.
+   */
+  public TopSongs(int count, int capacity) {
+    Preconditions.checkArgument(count > 0, "count must be positive");
+    Preconditions.checkArgument(capacity >= count, "capacity must be at least count");
+    this.count = count;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public Sketch createAccumulator() {
+    return new Sketch(capacity);
+  }
+
+  @Override
+  public Sketch addInput(Sketch sketch, String song) {
+    sketch.offer(song, 1);
+    return sketch;
+  }
+
+  @Override
+  public Sketch mergeAccumulators(Iterable<Sketch> sketches) {
+    Iterator<Sketch> it = sketches.iterator();
+    Sketch merged = it.next();
+    while (it.hasNext()) {
+      merged.merge(it.next());
+    }
+    return merged;
+  }
+
+  @Override
+  public List<KV<String, Long>> extractOutput(Sketch sketch) {
+    List<Sketch.Counter> top = sketch.top(count);
+    List<KV<String, Long>> songs = new ArrayList<>(top.size());
+    long maxOvercount = 0;
+    for (Sketch.Counter counter : top) {
+      songs.add(KV.of(counter.item, counter.count));
+      maxOvercount = Math.max(maxOvercount, counter.error);
+    }
+    Metrics.gauge(TopSongs.class, "sketchBytes").set(sketch.estimatedBytes());
+    Metrics.gauge(TopSongs.class, "maxOvercount").set(maxOvercount);
+    return songs;
+  }
+
+  @Override
+  public Coder<Sketch> getAccumulatorCoder(CoderRegistry registry, Coder<String> inputCoder) {
+    return SketchCoder.INSTANCE;
+  }
+
+  /**
+   * A Space-Saving summary: a counter per monitored song, and a min-heap over the counters so the
+   * least played one can be replaced when a new song arrives and the summary is full.
+   */
+  static class Sketch {
+
+    /**
+     * Rough heap footprint of one counter, excluding the song's characters: the Counter, its
+     * HashMap entry, the map and heap slots, and the String and its array headers.
+     */
+    private static final int COUNTER_OVERHEAD_BYTES = 136;
+
+    static class Counter {
+      String item;
+      /** The estimated count, never below the true count. */
+      long count;
+      /** How much of {@code count} may have been inherited from evicted songs. */
+      long error;
+
+      int heapIndex;
+
+      Counter(String item, long count, long error) {
+        this.item = item;
+        this.count = count;
+        this.error = error;
+      }
+    }
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private Counter[] heap = new Counter[16];
+    private int size;
+    private long total;
+
+    Sketch(int capacity) {
+      this.capacity = capacity;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** The number of plays seen, including the ones merged in from other sketches. */
+    long total() {
+      return total;
+    }
+
+    void offer(String item, long plays) {
+      total += plays;
+      add(item, plays);
+    }
+
+    /**
+     * Merges {@code other} into this sketch, following Agarwal et al., "Mergeable summaries". A
+     * song missing from a full sketch may have been played up to that sketch's minimum count, so
+     * that minimum is added to both its count and its error.
+     */
+    void merge(Sketch other) {
+      long minThis = size == capacity ? heap[0].count : 0;
+      long minOther = other.size == other.capacity ? other.heap[0].count : 0;
+
+      List<Counter> candidates = new ArrayList<>(size + other.size);
+      for (int i = 0; i < size; i++) {
+        Counter counter = heap[i];
+        Counter match = other.counters.get(counter.item);
+        candidates.add(
+            match == null
+                ? new Counter(counter.item, counter.count + minOther, counter.error + minOther)
+                : new Counter(
+                    counter.item, counter.count + match.count, counter.error + match.error));
+      }
+      for (int i = 0; i < other.size; i++) {
+        Counter counter = other.heap[i];
+        if (!counters.containsKey(counter.item)) {
+          candidates.add(
+              new Counter(counter.item, counter.count + minThis, counter.error + minThis));
+        }
+      }
+      if (candidates.size() > capacity) {
+        candidates.sort((a, b) -> Long.compare(b.count, a.count));
+        candidates = candidates.subList(0, capacity);
+      }
+
+      long mergedTotal = total + other.total;
+      clear();
+      total = mergedTotal;
+      for (Counter counter : candidates) {
+        insert(counter);
+      }
+    }
+
+    /** Returns the {@code k} counters with the highest counts, highest first. */
+    List<Counter> top(int k) {
+      Counter[] sorted = Arrays.copyOf(heap, size);
+      Arrays.sort(
+          sorted,
+          (a, b) -> {
+            int byCount = Long.compare(b.count, a.count);
+            return byCount != 0 ? byCount : a.item.compareTo(b.item);
+          });
+      return Arrays.asList(sorted).subList(0, Math.min(k, size));
+    }
+
+    long estimatedBytes() {
+      long bytes = 0;
+      for (int i = 0; i < size; i++) {
+        bytes += COUNTER_OVERHEAD_BYTES + heap[i].item.length();
+      }
+      return bytes;
+    }
+
+    private void add(String item, long plays) {
+      Counter counter = counters.get(item);
+      if (counter != null) {
+        counter.count += plays;
+        siftDown(counter.heapIndex);
+      } else if (size < capacity) {
+        insert(new Counter(item, plays, 0));
+      } else {
+        // Evict the least played song; the newcomer may have been played that often before.
+        Counter min = heap[0];
+        counters.remove(min.item);
+        min.item = item;
+        min.error = min.count;
+        min.count += plays;
+        counters.put(item, min);
+        siftDown(0);
+      }
+    }
+
+    private void insert(Counter counter) {
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, size * 2);
+      }
+      counters.put(counter.item, counter);
+      counter.heapIndex = size;
+      heap[size++] = counter;
+      siftUp(counter.heapIndex);
+    }
+
+    private void clear() {
+      counters.clear();
+      Arrays.fill(heap, 0, size, null);
+      size = 0;
+      total = 0;
+    }
+
+    private void siftUp(int index) {
+      Counter counter = heap[index];
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (heap[parent].count <= counter.count) {
+          break;
+        }
+        place(heap[parent], index);
+        index = parent;
+      }
+      place(counter, index);
+    }
+
+    private void siftDown(int index) {
+      Counter counter = heap[index];
+      int half = size >>> 1;
+      while (index < half) {
+        int child = 2 * index + 1;
+        if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+          child++;
+        }
+        if (counter.count <= heap[child].count) {
+          break;
+        }
+        place(heap[child], index);
+        index = child;
+      }
+      place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+      heap[index] = counter;
+      counter.heapIndex = index;
+    }
+  }
+
+  /** Encodes a sketch as its capacity, total and counters. */
+  static class SketchCoder extends CustomCoder<Sketch> {
+
+    static final SketchCoder INSTANCE = new SketchCoder();
+
+    private static final VarIntCoder INT_CODER = VarIntCoder.of();
+    private static final VarLongCoder LONG_CODER = VarLongCoder.of();
+    private static final StringUtf8Coder STRING_CODER = StringUtf8Coder.of();
+
+    @Override
+    public void encode(Sketch sketch, OutputStream out) throws IOException {
+      INT_CODER.encode(sketch.capacity, out);
+      LONG_CODER.encode(sketch.total, out);
+      INT_CODER.encode(sketch.size, out);
+      for (int i = 0; i < sketch.size; i++) {
+        Sketch.Counter counter = sketch.heap[i];
+        STRING_CODER.encode(counter.item, out);
+        LONG_CODER.encode(counter.count, out);
+        LONG_CODER.encode(counter.error, out);
+      }
+    }
+
+    @Override
+    public Sketch decode(InputStream in) throws IOException {
+      Sketch sketch = new Sketch(INT_CODER.decode(in));
+      sketch.total = LONG_CODER.decode(in);
+      int size = INT_CODER.decode(in);
+      for (int i = 0; i < size; i++) {
+        sketch.insert(
+            new Sketch.Counter(
+                STRING_CODER.decode(in), LONG_CODER.decode(in), LONG_CODER.decode(in)));
+      }
+      return sketch;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.junit.Test;
+
+public class TopSongsTest {
+
+  @Test
+  public void testExactWhileBelowCapacity() {
+    TopSongs topSongs = new TopSongs(2, 10);
+    TopSongs.Sketch first = topSongs.createAccumulator();
+    TopSongs.Sketch second = topSongs.createAccumulator();
+    for (String song : new String[] {"a", "b", "a", "c"}) {
+      topSongs.addInput(first, song);
+    }
+    for (String song : new String[] {"b", "b", "b"}) {
+      topSongs.addInput(second, song);
+    }
+
+    List<KV<String, Long>> chart =
+        topSongs.extractOutput(topSongs.mergeAccumulators(Arrays.asList(first, second)));
+
+    assertThat(chart).containsExactly(KV.of("b", 4L), KV.of("a", 2L)).inOrder();
+  }
+
+  @Test
+  public void testFindsHeavyHittersInLargeCatalogue() {
+    int capacity = 500;
+    TopSongs topSongs = new TopSongs(5, capacity);
+    TopSongs.Sketch[] sketches = new TopSongs.Sketch[4];
+    for (int i = 0; i < sketches.length; i++) {
+      sketches[i] = topSongs.createAccumulator();
+    }
+
+    // A zipfian catalogue of 100,000 songs, spread over four workers.
+    int catalogue = 100_000;
+    double[] cdf = new double[catalogue];
+    double sum = 0;
+    for (int i = 0; i < catalogue; i++) {
+      sum += 1 / Math.pow(i + 1, 1.1);
+      cdf[i] = sum;
+    }
+    Random random = new Random(1);
+    Map<String, Long> exact = new HashMap<>();
+    int plays = 200_000;
+    for (int i = 0; i < plays; i++) {
+      int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+      String song = "song " + (index < 0 ? -index - 1 : index);
+      exact.merge(song, 1L, Long::sum);
+      topSongs.addInput(sketches[i % sketches.length], song);
+    }
+
+    TopSongs.Sketch merged = topSongs.mergeAccumulators(Arrays.asList(sketches));
+    assertThat(merged.size()).isAtMost(capacity);
+    assertThat(merged.total()).isEqualTo(plays);
+
+    List<KV<String, Long>> chart = topSongs.extractOutput(merged);
+    assertThat(chart).hasSize(5);
+    for (int i = 0; i < chart.size(); i++) {
+      KV<String, Long> entry = chart.get(i);
+      assertThat(entry.getKey()).isEqualTo("song " + i);
+      assertThat(entry.getValue()).isAtLeast(exact.get(entry.getKey()));
+      assertThat(entry.getValue()).isAtMost(exact.get(entry.getKey()) + plays / capacity);
+    }
+  }
+
+  @Test
+  public void testSketchCoder() throws Exception {
+    TopSongs topSongs = new TopSongs(2, 3);
+    TopSongs.Sketch sketch = topSongs.createAccumulator();
+    for (String song : new String[] {"a", "b", "c", "d", "a"}) {
+      topSongs.addInput(sketch, song);
+    }
+
+    TopSongs.Sketch decoded =
+        CoderUtils.decodeFromByteArray(
+            TopSongs.SketchCoder.INSTANCE,
+            CoderUtils.encodeToByteArray(TopSongs.SketchCoder.INSTANCE, sketch));
+
+    assertThat(decoded.total()).isEqualTo(5);
+    assertThat(topSongs.extractOutput(decoded)).isEqualTo(topSongs.extractOutput(sketch));
+  }
+
+  @Test
+  public void testSongComparatorDoesNotOverflow() {
+    SongRank.SongComparator comparator = new SongRank.SongComparator();
+    assertThat(comparator.compare(KV.of("a", Long.MAX_VALUE), KV.of("b", -1L)))
+        .isGreaterThan(0);
+    assertThat(comparator.compare(KV.of("a", 1L << 32), KV.of("b", 0L))).isGreaterThan(0);
+  }
+}
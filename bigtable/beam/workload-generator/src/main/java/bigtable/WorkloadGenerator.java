@@ -20,23 +20,41 @@ import com.google.api.services.dataflow.model.Job;
 import com.google.cloud.bigtable.beam.AbstractCloudBigtableTableDoFn;
 import com.google.cloud.bigtable.beam.CloudBigtableConfiguration;
 import com.google.cloud.bigtable.beam.CloudBigtableTableConfiguration;
+import com.google.common.base.Preconditions;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.beam.runners.dataflow.DataflowClient;
 import org.apache.beam.runners.dataflow.DataflowPipelineJob;
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.PipelineResult;
 import org.apache.beam.sdk.io.GenerateSequence;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Gauge;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
-import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.ColumnPaginationFilter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.filter.SkipFilter;
 import org.joda.time.Duration;
 
 public class WorkloadGenerator {
@@ -48,6 +66,12 @@ public class WorkloadGenerator {
   }
 
   static PipelineResult generateWorkload(BigtableWorkloadOptions options) {
+    Preconditions.checkArgument(
+        options.getMultiGetPercent() >= 0
+            && options.getScanPercent() >= 0
+            && options.getMultiGetPercent() + options.getScanPercent() <= 100,
+        "multiGetPercent and scanPercent must add up to at most 100");
+
     CloudBigtableTableConfiguration bigtableTableConfig =
         new CloudBigtableTableConfiguration.Builder()
             .withProjectId(options.getProject())
@@ -88,19 +112,227 @@ public class WorkloadGenerator {
     client.updateJob(jobId, job);
   }
 
+  /** The kinds of read the workload is made of. */
+  enum Operation {
+    GET,
+    MULTI_GET,
+    SCAN;
+
+    final String metricPrefix = name().toLowerCase();
+  }
+
+  /** Filters applied to scans, taken from the hbase Filters samples. */
+  public enum ScanFilter {
+    /** Every cell of every row. */
+    NONE {
+      @Override
+      void apply(Scan scan, FilterList filters) {}
+    },
+    /** A random 75% of the rows. */
+    ROW_SAMPLE {
+      @Override
+      void apply(Scan scan, FilterList filters) {
+        filters.addFilter(new RandomRowFilter(.75f));
+      }
+    },
+    /** At most two cells per row. */
+    CELLS_PER_ROW {
+      @Override
+      void apply(Scan scan, FilterList filters) {
+        filters.addFilter(new ColumnPaginationFilter(2, 0));
+      }
+    },
+    /** At most two versions of each column. */
+    CELLS_PER_COL {
+      @Override
+      void apply(Scan scan, FilterList filters) {
+        scan.setMaxVersions(2);
+      }
+    },
+    /** Nothing; the server reads the rows but returns no data. */
+    BLOCK_ALL {
+      @Override
+      void apply(Scan scan, FilterList filters) {
+        filters.addFilter(new SkipFilter(new RandomRowFilter(1)));
+      }
+    };
+
+    abstract void apply(Scan scan, FilterList filters);
+  }
+
+  /*
+  Issues one read per element. Row keys are picked from a pool sampled when the DoFn starts: the
+  table's region start keys come from SampleRowKeys, and a few real row keys are read after each
+  of them, so reads are spread across every tablet.
+
+  Each operation's client-side latency is recorded in a Distribution and in a set of latency
+  bucket counters, and the achieved QPS of the worker is reported as a Gauge.
+   */
   public static class ReadFromTableFn extends AbstractCloudBigtableTableDoFn<Long, Void> {
 
+    /** The inclusive upper bounds of the latency bucket counters, in milliseconds. */
+    static final long[] LATENCY_BUCKETS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 5000};
+
+    private static final long QPS_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // Shared by every instance in the worker, so the gauge reports the worker's QPS.
+    private static final AtomicLong windowOperations = new AtomicLong();
+    private static final AtomicLong windowStartNanos = new AtomicLong(System.nanoTime());
+
+    private final Gauge qps = Metrics.gauge(ReadFromTableFn.class, "qps");
+    private final Counter errors = Metrics.counter(ReadFromTableFn.class, "errors");
+    private final Counter rowsRead = Metrics.counter(ReadFromTableFn.class, "rows_read");
+
+    private transient BigtableWorkloadOptions options;
+    private transient List<byte[]> keys;
+    private transient Table table;
+
     public ReadFromTableFn(CloudBigtableConfiguration config) {
       super(config);
       System.out.println("Connected to table.");
     }
 
+    @StartBundle
+    public void startBundle(StartBundleContext context) throws IOException {
+      if (options == null) {
+        options = context.getPipelineOptions().as(BigtableWorkloadOptions.class);
+      }
+      table = getConnection().getTable(TableName.valueOf(options.getBigtableTableId()));
+      if (keys == null) {
+        keys = sampleKeys(options.getSampledKeyCount());
+      }
+    }
+
     @ProcessElement
-    public void processElement(PipelineOptions po) throws IOException {
-      BigtableWorkloadOptions options = po.as(BigtableWorkloadOptions.class);
+    public void processElement() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int draw = random.nextInt(100);
+      Operation operation;
+      if (keys.isEmpty() || draw < options.getScanPercent()) {
+        // With no keys to read, scanning from the start of the table is all that can be done.
+        operation = Operation.SCAN;
+      } else if (draw < options.getScanPercent() + options.getMultiGetPercent()) {
+        operation = Operation.MULTI_GET;
+      } else {
+        operation = Operation.GET;
+      }
+
+      long start = System.nanoTime();
+      try {
+        rowsRead.inc(run(operation, random));
+      } catch (IOException e) {
+        errors.inc();
+        System.out.println("Failed to run " + operation + ": " + e);
+        return;
+      }
+      record(operation, System.nanoTime() - start);
+    }
+
+    @FinishBundle
+    public void finishBundle() throws IOException {
+      table.close();
+      table = null;
+    }
+
+    /** Runs one operation, and returns the number of rows it read. */
+    private int run(Operation operation, ThreadLocalRandom random) throws IOException {
+      switch (operation) {
+        case GET:
+          return table.get(new Get(randomKey(random))).isEmpty() ? 0 : 1;
+        case MULTI_GET:
+          List<Get> gets = new ArrayList<>(options.getMultiGetSize());
+          for (int i = 0; i < options.getMultiGetSize(); i++) {
+            gets.add(new Get(randomKey(random)));
+          }
+          int found = 0;
+          for (Result result : table.get(gets)) {
+            if (!result.isEmpty()) {
+              found++;
+            }
+          }
+          return found;
+        case SCAN:
+          int limit = options.getScanRowLimit();
+          try (ResultScanner scanner = table.getScanner(scan(random, limit))) {
+            return scanner.next(limit).length;
+          }
+        default:
+          throw new IllegalStateException("Unknown operation " + operation);
+      }
+    }
+
+    private Scan scan(ThreadLocalRandom random, int limit) {
       Scan scan = new Scan();
-      Table table = getConnection().getTable(TableName.valueOf(options.getBigtableTableId()));
-      table.getScanner(scan);
+      if (!keys.isEmpty()) {
+        byte[] key = randomKey(random);
+        int prefixLength = options.getScanPrefixLength();
+        if (prefixLength > 0) {
+          scan.setRowPrefixFilter(Arrays.copyOf(key, Math.min(prefixLength, key.length)));
+        } else {
+          scan.setStartRow(key);
+        }
+      }
+      FilterList filters = new FilterList(new PageFilter(limit));
+      options.getScanFilter().apply(scan, filters);
+      return scan.setFilter(filters).setCaching(limit);
+    }
+
+    private byte[] randomKey(ThreadLocalRandom random) {
+      return keys.get(random.nextInt(keys.size()));
+    }
+
+    /** Reads up to {@code count} row keys, spread evenly over the table's tablets. */
+    private List<byte[]> sampleKeys(int count) throws IOException {
+      List<byte[]> sampled = new ArrayList<>(count);
+      // Bigtable answers getStartKeys with SampleRowKeys.
+      byte[][] startKeys = getConnection().getRegionLocator(table.getName()).getStartKeys();
+      int perTablet = Math.max(1, (count + startKeys.length - 1) / Math.max(1, startKeys.length));
+      for (byte[] startKey : startKeys) {
+        Scan scan =
+            new Scan(startKey)
+                .setFilter(
+                    new FilterList(
+                        new FirstKeyOnlyFilter(), new KeyOnlyFilter(), new PageFilter(perTablet)));
+        try (ResultScanner scanner = table.getScanner(scan)) {
+          for (Result result : scanner.next(perTablet)) {
+            sampled.add(result.getRow());
+          }
+        }
+        if (sampled.size() >= count) {
+          break;
+        }
+      }
+      System.out.println("Sampled " + sampled.size() + " row keys.");
+      return sampled;
+    }
+
+    private void record(Operation operation, long nanos) {
+      long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+      Metrics.counter(ReadFromTableFn.class, operation.metricPrefix + "_ops").inc();
+      Metrics.distribution(ReadFromTableFn.class, operation.metricPrefix + "_latency_us")
+          .update(micros);
+      Metrics.counter(ReadFromTableFn.class, latencyBucket(operation, micros)).inc();
+
+      windowOperations.incrementAndGet();
+      long windowStart = windowStartNanos.get();
+      long now = System.nanoTime();
+      if (now - windowStart >= QPS_WINDOW_NANOS
+          && windowStartNanos.compareAndSet(windowStart, now)) {
+        qps.set(windowOperations.getAndSet(0) * TimeUnit.SECONDS.toNanos(1) / (now - windowStart));
+      }
+    }
+
+    /** Returns the name of the latency bucket counter, e.g. get_latency_le_5ms. */
+    static String latencyBucket(Operation operation, long micros) {
+      for (long bound : LATENCY_BUCKETS_MILLIS) {
+        if (micros <= bound * 1000) {
+          return operation.metricPrefix + "_latency_le_" + bound + "ms";
+        }
+      }
+      return operation.metricPrefix
+          + "_latency_gt_"
+          + LATENCY_BUCKETS_MILLIS[LATENCY_BUCKETS_MILLIS.length - 1]
+          + "ms";
     }
   }
 
@@ -129,5 +361,48 @@ public class WorkloadGenerator {
     Integer getWorkloadDurationMinutes();
 
     void setWorkloadDurationMinutes(Integer workloadDurationMinutes);
+
+    @Description("The percentage of operations that read several rows with one multi-get.")
+    @Default.Integer(0)
+    Integer getMultiGetPercent();
+
+    void setMultiGetPercent(Integer multiGetPercent);
+
+    @Description("The percentage of operations that are scans. The rest are point gets.")
+    @Default.Integer(0)
+    Integer getScanPercent();
+
+    void setScanPercent(Integer scanPercent);
+
+    @Description("The number of rows read by each multi-get.")
+    @Default.Integer(10)
+    Integer getMultiGetSize();
+
+    void setMultiGetSize(Integer multiGetSize);
+
+    @Description("The maximum number of rows read by each scan.")
+    @Default.Integer(100)
+    Integer getScanRowLimit();
+
+    void setScanRowLimit(Integer scanRowLimit);
+
+    @Description(
+        "Restrict scans to rows sharing the first N bytes of a sampled key. 0 scans from the key.")
+    @Default.Integer(0)
+    Integer getScanPrefixLength();
+
+    void setScanPrefixLength(Integer scanPrefixLength);
+
+    @Description("The filter applied to scans.")
+    @Default.Enum("NONE")
+    ScanFilter getScanFilter();
+
+    void setScanFilter(ScanFilter scanFilter);
+
+    @Description("The number of row keys sampled from the table for reads to pick from.")
+    @Default.Integer(1000)
+    Integer getSampledKeyCount();
+
+    void setSampledKeyCount(Integer sampledKeyCount);
   }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertNotNull;
 
 import bigtable.WorkloadGenerator.BigtableWorkloadOptions;
 import bigtable.WorkloadGenerator.ReadFromTableFn;
+import bigtable.WorkloadGenerator.ScanFilter;
 import com.google.api.services.dataflow.model.Job;
 import com.google.bigtable.repackaged.com.google.cloud.monitoring.v3.MetricServiceClient;
 import com.google.bigtable.repackaged.com.google.cloud.monitoring.v3.MetricServiceClient.ListTimeSeriesPagedResponse;
@@ -40,12 +41,17 @@ import com.google.dataflow.v1beta3.LaunchFlexTemplateResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import org.apache.beam.runners.dataflow.DataflowClient;
 import org.apache.beam.runners.dataflow.DataflowPipelineJob;
 import org.apache.beam.runners.dataflow.DataflowRunner;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.io.GenerateSequence;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -54,6 +60,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
@@ -91,6 +98,19 @@ public class WorkloadGeneratorTest {
       HTableDescriptor descriptor = new HTableDescriptor(TableName.valueOf(TABLE_ID));
       descriptor.addFamily(new HColumnDescriptor(COLUMN_FAMILY_NAME));
       admin.createTable(descriptor);
+
+      try (Table table = connection.getTable(TableName.valueOf(TABLE_ID))) {
+        List<Put> puts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+          puts.add(
+              new Put(Bytes.toBytes("phone#" + (i % 4) + "#" + i))
+                  .addColumn(
+                      Bytes.toBytes(COLUMN_FAMILY_NAME),
+                      Bytes.toBytes("connected_cell"),
+                      Bytes.toBytes(i % 2)));
+        }
+        table.put(puts);
+      }
     } catch (Exception e) {
       System.out.println("Error during beforeClass: \n" + e.toString());
     }
@@ -140,6 +160,52 @@ public class WorkloadGeneratorTest {
     assertThat(output).contains("Connected to table");
   }
 
+  @Test
+  public void testReadMix() {
+    BigtableWorkloadOptions options = PipelineOptionsFactory.create()
+        .as(BigtableWorkloadOptions.class);
+    options.setBigtableInstanceId(instanceId);
+    options.setBigtableTableId(TABLE_ID);
+    options.setRegion(REGION_ID);
+    options.setMultiGetPercent(30);
+    options.setScanPercent(30);
+    options.setScanPrefixLength(7);
+    options.setScanFilter(ScanFilter.CELLS_PER_ROW);
+
+    Pipeline p = Pipeline.create(options);
+
+    CloudBigtableTableConfiguration bigtableTableConfig =
+        new CloudBigtableTableConfiguration.Builder()
+            .withProjectId(options.getProject())
+            .withInstanceId(options.getBigtableInstanceId())
+            .withTableId(options.getBigtableTableId())
+            .build();
+
+    p.apply(GenerateSequence.from(0).to(200))
+        .apply(ParDo.of(new ReadFromTableFn(bigtableTableConfig)));
+    PipelineResult result = p.run();
+    result.waitUntilFinish();
+    MetricQueryResults metrics = result.metrics().allMetrics();
+
+    long operations = 0;
+    long rowsRead = 0;
+    long bucketed = 0;
+    for (MetricResult<Long> counter : metrics.getCounters()) {
+      String name = counter.getName().getName();
+      if (name.endsWith("_ops")) {
+        operations += counter.getAttempted();
+      } else if (name.equals("rows_read")) {
+        rowsRead = counter.getAttempted();
+      } else if (name.contains("_latency_")) {
+        bucketed += counter.getAttempted();
+      }
+    }
+    assertThat(operations).isEqualTo(200);
+    assertThat(bucketed).isEqualTo(200);
+    assertThat(rowsRead).isGreaterThan(200L);
+    assertThat(bout.toString()).contains("Sampled 100 row keys.");
+  }
+
   // todo: Fix test flakiness
   @Ignore
   @Test
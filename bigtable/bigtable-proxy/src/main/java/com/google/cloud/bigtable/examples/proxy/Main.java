@@ -16,6 +16,7 @@
 
 package com.google.cloud.bigtable.examples.proxy;
 
+import com.google.cloud.bigtable.examples.proxy.commands.Bench;
 import com.google.cloud.bigtable.examples.proxy.commands.Serve;
 import com.google.cloud.bigtable.examples.proxy.commands.Verify;
 import org.slf4j.bridge.SLF4JBridgeHandler;
@@ -27,7 +28,7 @@ import picocli.CommandLine.Command;
  * com.google.cloud.bigtable.examples.proxy.commands}.
  */
 @Command(
-    subcommands = {Serve.class, Verify.class},
+    subcommands = {Serve.class, Verify.class, Bench.class},
     name = "bigtable-proxy")
 public final class Main {
   public static void main(String[] args) {
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.admission;
+
+import com.google.auto.value.AutoValue;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Maintains a {@link ConcurrencyLimiter} per resource name, app profile and method.
+ *
+ * <p>Keeping a separate limiter per key ensures that a single misbehaving client can only exhaust
+ * its own limit, leaving the rest of the proxy's tenants unaffected. Limiters for keys that haven't
+ * been seen in a while are dropped to bound memory.
+ */
+public class AdmissionController {
+  private final AdmissionSettings settings;
+  private final ScheduledExecutorService executor;
+
+  private final Cache<LimiterKey, ConcurrencyLimiter> limiters =
+      CacheBuilder.newBuilder().expireAfterAccess(Duration.ofHours(1)).maximumSize(1000).build();
+
+  /**
+   * @param settings configuration applied to every limiter
+   * @param executor used to time out calls that are waiting in the queue
+   */
+  public AdmissionController(AdmissionSettings settings, ScheduledExecutorService executor) {
+    this.settings = settings;
+    this.executor = executor;
+  }
+
+  public ConcurrencyLimiter getLimiter(CallLabels callLabels) {
+    LimiterKey key = LimiterKey.from(callLabels);
+    try {
+      return limiters.get(key, () -> new ConcurrencyLimiter(settings, executor));
+    } catch (ExecutionException e) {
+      // The loader can't throw checked exceptions
+      throw new IllegalStateException("Failed to create a limiter for " + key, e);
+    }
+  }
+
+  @AutoValue
+  abstract static class LimiterKey {
+    abstract String getResource();
+
+    abstract String getAppProfileId();
+
+    abstract String getMethodName();
+
+    static LimiterKey from(CallLabels callLabels) {
+      return new AutoValue_AdmissionController_LimiterKey(
+          callLabels.getResourceNameLabel(),
+          callLabels.getAppProfileIdLabel(),
+          callLabels.getMethodName());
+    }
+  }
+}
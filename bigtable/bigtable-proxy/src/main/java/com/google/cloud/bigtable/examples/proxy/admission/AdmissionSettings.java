@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.admission;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+
+/**
+ * Settings to control {@link ConcurrencyLimiter} behavior.
+ *
+ * <p>Each limiter starts with {@link #getInitialLimit()} concurrent calls. The limit grows by one
+ * for every successful call that completes while the limiter is at least half utilized and shrinks
+ * by {@link #getBackoffRatio()} whenever a call is slower than {@link #getLatencyThreshold()} or
+ * fails with an overload status.
+ */
+@AutoValue
+public abstract class AdmissionSettings {
+  /** The concurrency limit that a new limiter starts with. */
+  public abstract int getInitialLimit();
+
+  /** The limit will never drop below this value. */
+  public abstract int getMinLimit();
+
+  /** The limit will never exceed this value. */
+  public abstract int getMaxLimit();
+
+  /** Multiplier applied to the limit when an overload is detected. Must be in (0, 1). */
+  public abstract double getBackoffRatio();
+
+  /** Calls that take longer than this are treated as a sign of overload. */
+  public abstract Duration getLatencyThreshold();
+
+  /**
+   * The maximum number of calls that can wait for a permit per limiter. Calls beyond this will be
+   * rejected immediately with {@code RESOURCE_EXHAUSTED}.
+   */
+  public abstract int getMaxQueueSize();
+
+  /**
+   * The maximum time a call can wait for a permit before it is rejected with {@code
+   * RESOURCE_EXHAUSTED}.
+   */
+  public abstract Duration getMaxQueueWait();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_AdmissionSettings.Builder()
+        .setInitialLimit(20)
+        .setMinLimit(1)
+        .setMaxLimit(1000)
+        .setBackoffRatio(0.9)
+        .setLatencyThreshold(Duration.ofSeconds(5))
+        .setMaxQueueSize(100)
+        .setMaxQueueWait(Duration.ofSeconds(1));
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setInitialLimit(int limit);
+
+    public abstract Builder setMinLimit(int limit);
+
+    public abstract Builder setMaxLimit(int limit);
+
+    public abstract Builder setBackoffRatio(double ratio);
+
+    public abstract Builder setLatencyThreshold(Duration threshold);
+
+    public abstract Builder setMaxQueueSize(int size);
+
+    public abstract Builder setMaxQueueWait(Duration wait);
+
+    abstract AdmissionSettings autoBuild();
+
+    public AdmissionSettings build() {
+      AdmissionSettings s = autoBuild();
+
+      Preconditions.checkState(s.getMinLimit() > 0, "Minimum limit must be at least 1");
+      Preconditions.checkState(s.getMinLimit() <= s.getMaxLimit(), "limit range is invalid");
+      Preconditions.checkState(
+          s.getMinLimit() <= s.getInitialLimit() && s.getInitialLimit() <= s.getMaxLimit(),
+          "initial limit must be between the min and max limits");
+      Preconditions.checkState(
+          s.getBackoffRatio() > 0 && s.getBackoffRatio() < 1, "backoff ratio must be in (0, 1)");
+      Preconditions.checkState(s.getMaxQueueSize() >= 0, "max queue size can't be negative");
+      Preconditions.checkState(!s.getMaxQueueWait().isNegative(), "max wait can't be negative");
+      return s;
+    }
+  }
+}
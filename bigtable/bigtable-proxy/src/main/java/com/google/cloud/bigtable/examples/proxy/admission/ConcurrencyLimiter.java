@@ -0,0 +1,233 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.admission;
+
+import com.google.cloud.bigtable.examples.proxy.metrics.Tracer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * An AIMD (additive increase, multiplicative decrease) concurrency limiter.
+ *
+ * <p>The limiter admits up to {@code limit} concurrent calls. Calls over the limit wait in a
+ * bounded FIFO queue for up to {@link AdmissionSettings#getMaxQueueWait()}. When a call finishes,
+ * its latency and status adjust the limit: slow or overloaded calls shrink it multiplicatively,
+ * while successful calls on a busy limiter grow it by one.
+ *
+ * <p>Latency is measured from the moment a permit is granted, so time spent waiting in the queue
+ * doesn't feed back into the limit.
+ */
+public class ConcurrencyLimiter {
+  private final AdmissionSettings settings;
+  private final ScheduledExecutorService executor;
+
+  @GuardedBy("this")
+  private double limit;
+
+  @GuardedBy("this")
+  private int inFlight;
+
+  @GuardedBy("this")
+  private final ArrayDeque<PendingAcquire> queue = new ArrayDeque<>();
+
+  ConcurrencyLimiter(AdmissionSettings settings, ScheduledExecutorService executor) {
+    this.settings = settings;
+    this.executor = executor;
+    this.limit = settings.getInitialLimit();
+  }
+
+  /**
+   * Try to acquire a permit for a call.
+   *
+   * <p>If a permit is available, {@code onGranted} is invoked synchronously. Otherwise the request
+   * is queued and {@code onGranted} will be invoked on the thread that releases a permit, or {@code
+   * onRejected} will be invoked if the queue is full or the wait times out.
+   *
+   * @return a handle that can be used to abandon the request while it is queued.
+   */
+  public PendingAcquire acquire(Tracer tracer, Consumer<Permit> onGranted, Runnable onRejected) {
+    PendingAcquire pending = new PendingAcquire(tracer, onGranted, onRejected);
+    boolean granted = false;
+    boolean rejected = false;
+
+    synchronized (this) {
+      if (queue.isEmpty() && inFlight < getLimitLocked()) {
+        inFlight++;
+        granted = true;
+      } else if (queue.size() >= settings.getMaxQueueSize()) {
+        rejected = true;
+      } else {
+        queue.add(pending);
+        pending.timeoutFuture =
+            executor.schedule(
+                pending::onTimeout,
+                settings.getMaxQueueWait().toNanos(),
+                TimeUnit.NANOSECONDS);
+      }
+    }
+
+    if (granted) {
+      pending.grant();
+    } else if (rejected) {
+      pending.reject();
+    }
+    return pending;
+  }
+
+  @VisibleForTesting
+  synchronized int getLimit() {
+    return getLimitLocked();
+  }
+
+  @VisibleForTesting
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  @VisibleForTesting
+  synchronized int getQueueSize() {
+    return queue.size();
+  }
+
+  @GuardedBy("this")
+  private int getLimitLocked() {
+    return (int) limit;
+  }
+
+  private void release(Permit permit, Status status, Duration latency) {
+    List<PendingAcquire> toGrant = new ArrayList<>();
+    int prevLimit;
+    int newLimit;
+
+    synchronized (this) {
+      prevLimit = getLimitLocked();
+      boolean utilized = inFlight * 2 >= prevLimit;
+      inFlight--;
+
+      if (isOverloaded(status, latency)) {
+        limit = Math.max(settings.getMinLimit(), limit * settings.getBackoffRatio());
+      } else if (status.isOk() && utilized) {
+        limit = Math.min(settings.getMaxLimit(), limit + 1);
+      }
+      newLimit = getLimitLocked();
+
+      while (inFlight < newLimit && !queue.isEmpty()) {
+        PendingAcquire next = queue.poll();
+        inFlight++;
+        toGrant.add(next);
+      }
+    }
+
+    if (prevLimit != newLimit) {
+      permit.tracer.onConcurrencyLimitChanged(newLimit);
+    }
+    for (PendingAcquire pending : toGrant) {
+      pending.timeoutFuture.cancel(false);
+      pending.grant();
+    }
+  }
+
+  private boolean isOverloaded(Status status, Duration latency) {
+    switch (status.getCode()) {
+      case RESOURCE_EXHAUSTED:
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+        return true;
+      default:
+        return latency.compareTo(settings.getLatencyThreshold()) > 0;
+    }
+  }
+
+  /** A request for a permit that may still be waiting in the queue. */
+  public class PendingAcquire {
+    private final Tracer tracer;
+    private final Consumer<Permit> onGranted;
+    private final Runnable onRejected;
+    private final Stopwatch waitStopwatch = Stopwatch.createStarted();
+    private ScheduledFuture<?> timeoutFuture;
+
+    private PendingAcquire(Tracer tracer, Consumer<Permit> onGranted, Runnable onRejected) {
+      this.tracer = tracer;
+      this.onGranted = onGranted;
+      this.onRejected = onRejected;
+    }
+
+    /**
+     * Abandon the request if its still queued.
+     *
+     * @return true if the request was removed from the queue, false if it was already granted or
+     *     rejected.
+     */
+    public boolean cancel() {
+      synchronized (ConcurrencyLimiter.this) {
+        if (!queue.remove(this)) {
+          return false;
+        }
+      }
+      timeoutFuture.cancel(false);
+      return true;
+    }
+
+    private void onTimeout() {
+      synchronized (ConcurrencyLimiter.this) {
+        if (!queue.remove(this)) {
+          return;
+        }
+      }
+      reject();
+    }
+
+    private void grant() {
+      tracer.onAdmitted(waitStopwatch.elapsed());
+      onGranted.accept(new Permit(tracer));
+    }
+
+    private void reject() {
+      tracer.onAdmissionRejected();
+      onRejected.run();
+    }
+  }
+
+  /** A granted slot in the limiter. It must be released exactly once when the call completes. */
+  public class Permit {
+    private final Tracer tracer;
+    private final Stopwatch stopwatch = Stopwatch.createStarted();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(Tracer tracer) {
+      this.tracer = tracer;
+    }
+
+    /** Return the permit to the limiter and feed the call's outcome into the limit. */
+    public void release(Status status) {
+      if (released.compareAndSet(false, true)) {
+        ConcurrencyLimiter.this.release(this, status, stopwatch.elapsed());
+      }
+    }
+  }
+}
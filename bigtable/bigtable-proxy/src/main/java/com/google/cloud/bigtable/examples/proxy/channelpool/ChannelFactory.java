@@ -19,11 +19,15 @@
 // Changes:
 // - package name
 // - removed InternalApi annotation
+// - added createSingleChannelAsync
 
 package com.google.cloud.bigtable.examples.proxy.channelpool;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import io.grpc.ManagedChannel;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * This interface represents a factory for creating one ManagedChannel
@@ -32,4 +36,17 @@ import java.io.IOException;
  */
 public interface ChannelFactory {
   ManagedChannel createSingleChannel() throws IOException;
+
+  /**
+   * Create a channel without blocking the caller. The returned future should only complete once
+   * the channel is ready to serve RPCs.
+   *
+   * <p>The default implementation runs {@link #createSingleChannel()} on the given executor.
+   */
+  default ListenableFuture<? extends ManagedChannel> createSingleChannelAsync(Executor executor) {
+    ListenableFutureTask<ManagedChannel> task =
+        ListenableFutureTask.create(this::createSingleChannel);
+    executor.execute(task);
+    return task;
+  }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.channelpool;
+
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPool.Entry;
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings.LoadBalancingStrategy;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Strategy for choosing which {@link ChannelPool} entry should serve the next call.
+ *
+ * <p>Implementations must be threadsafe and cheap: they are invoked on every call. The returned
+ * index is taken modulo the size of the entry list at the time the entry is retained, so it is
+ * safe for the pool to be resized between picking and retaining.
+ */
+interface ChannelPicker {
+
+  /** Returns the index of the entry in {@code entries} that should serve the next call. */
+  int pickIndex(List<Entry> entries);
+
+  static ChannelPicker create(LoadBalancingStrategy strategy) {
+    switch (strategy) {
+      case ROUND_ROBIN:
+        return new RoundRobin();
+      case LEAST_IN_FLIGHT:
+        return new LeastInFlight();
+      case POWER_OF_TWO_LEAST_IN_FLIGHT:
+        return new PowerOfTwoLeastInFlight();
+      default:
+        throw new IllegalArgumentException("Unknown load balancing strategy: " + strategy);
+    }
+  }
+
+  /** Cycles through the entries, ignoring their load. */
+  class RoundRobin implements ChannelPicker {
+    private final AtomicInteger indexTicker = new AtomicInteger();
+
+    @Override
+    public int pickIndex(List<Entry> entries) {
+      return Math.abs(indexTicker.getAndIncrement() % entries.size());
+    }
+  }
+
+  /**
+   * Scans all of the entries and picks the one with the fewest outstanding RPCs. Ties are broken by
+   * starting the scan at a random offset, so that idle pools still spread load.
+   */
+  class LeastInFlight implements ChannelPicker {
+    @Override
+    public int pickIndex(List<Entry> entries) {
+      int size = entries.size();
+      int offset = ThreadLocalRandom.current().nextInt(size);
+
+      int bestIndex = offset;
+      int bestCount = Integer.MAX_VALUE;
+      for (int i = 0; i < size; i++) {
+        int index = (offset + i) % size;
+        int count = entries.get(index).outstandingRpcs.get();
+        if (count < bestCount) {
+          bestIndex = index;
+          bestCount = count;
+          if (count == 0) {
+            break;
+          }
+        }
+      }
+      return bestIndex;
+    }
+  }
+
+  /**
+   * Samples two distinct entries at random and picks the one with fewer outstanding RPCs. This
+   * avoids the O(n) scan of {@link LeastInFlight} while still steering away from a backed up
+   * channel.
+   */
+  class PowerOfTwoLeastInFlight implements ChannelPicker {
+    @Override
+    public int pickIndex(List<Entry> entries) {
+      int size = entries.size();
+      if (size == 1) {
+        return 0;
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int first = random.nextInt(size);
+      // Pick a second index that is guaranteed to differ from the first
+      int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+      int firstCount = entries.get(first).outstandingRpcs.get();
+      int secondCount = entries.get(second).outstandingRpcs.get();
+      return secondCount < firstCount ? second : first;
+    }
+  }
+}
@@ -17,9 +17,15 @@
 package com.google.cloud.bigtable.examples.proxy.channelpool;
 
 import com.google.api.core.InternalApi;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgeGroup;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
@@ -33,7 +39,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -44,18 +52,25 @@ import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
 /**
- * A {@link ManagedChannel} that will send requests round-robin via a set of channels.
+ * A {@link ManagedChannel} that will send requests via a set of channels. The channel for each call
+ * is chosen by the {@link ChannelPoolSettings.LoadBalancingStrategy} configured in the settings.
  *
  * <p>In addition to spreading requests over a set of child connections, the pool will also actively
- * manage the lifecycle of the channels. Currently, lifecycle management is limited to pre-emptively
- * replacing channels every hour. In the future it will dynamically size the pool based on number of
- * outstanding requests.
+ * manage the lifecycle of the channels. It dynamically sizes the pool based on the number of
+ * outstanding requests and pre-emptively replaces every channel before the hourly GFE disconnect.
+ * Replacements are staggered across the refresh period, one channel at a time, and a replacement is
+ * only swapped in once it has been primed.
  *
  * <p>Package-private for internal use.
  */
 public class ChannelPool extends ManagedChannel {
   @VisibleForTesting static final Logger LOG = Logger.getLogger(ChannelPool.class.getName());
-  private static final java.time.Duration REFRESH_PERIOD = java.time.Duration.ofMinutes(50);
+  @VisibleForTesting
+  static final java.time.Duration REFRESH_PERIOD = java.time.Duration.ofMinutes(50);
+  // How often to look for a channel that is due to be refreshed
+  private static final java.time.Duration REFRESH_CHECK_INTERVAL = java.time.Duration.ofSeconds(5);
+  // How long to keep using a channel after its replacement failed to be created
+  private static final java.time.Duration REFRESH_RETRY_DELAY = java.time.Duration.ofMinutes(1);
 
   private final ChannelPoolSettings settings;
   private final ChannelFactory channelFactory;
@@ -63,12 +78,34 @@ public class ChannelPool extends ManagedChannel {
 
   private final Object entryWriteLock = new Object();
   @VisibleForTesting final AtomicReference<ImmutableList<Entry>> entries = new AtomicReference<>();
-  private final AtomicInteger indexTicker = new AtomicInteger();
+  private final ChannelPicker channelPicker;
   private final String authority;
 
+  // Used to create and warm new channels without blocking the executor.
+  private final ExecutorService channelCreationExecutor;
+  private final ResizeListener resizeListener;
+  // Number of channels that are being created off-thread and will join the pool when ready.
+  private final AtomicInteger pendingChannels = new AtomicInteger();
+  // Only accessed from the resizer task.
+  private double demandEwma = Double.NaN;
+  private long lastExpandNanos;
+  private long lastShrinkNanos;
+
+  // Set while a replacement channel is being created by the staggered refresher.
+  private final AtomicBoolean refreshInProgress = new AtomicBoolean();
+
+  private volatile boolean shutdownRequested;
+
   public static ChannelPool create(ChannelPoolSettings settings, ChannelFactory channelFactory)
       throws IOException {
-    return new ChannelPool(settings, channelFactory, Executors.newSingleThreadScheduledExecutor());
+    return create(settings, channelFactory, ResizeListener.NOOP);
+  }
+
+  public static ChannelPool create(
+      ChannelPoolSettings settings, ChannelFactory channelFactory, ResizeListener resizeListener)
+      throws IOException {
+    return new ChannelPool(
+        settings, channelFactory, Executors.newSingleThreadScheduledExecutor(), resizeListener);
   }
 
   /**
@@ -84,8 +121,20 @@ public class ChannelPool extends ManagedChannel {
       ChannelFactory channelFactory,
       ScheduledExecutorService executor)
       throws IOException {
+    this(settings, channelFactory, executor, ResizeListener.NOOP);
+  }
+
+  @VisibleForTesting
+  ChannelPool(
+      ChannelPoolSettings settings,
+      ChannelFactory channelFactory,
+      ScheduledExecutorService executor,
+      ResizeListener resizeListener)
+      throws IOException {
     this.settings = settings;
+    this.resizeListener = resizeListener;
     this.channelFactory = channelFactory;
+    this.channelPicker = ChannelPicker.create(settings.getLoadBalancingStrategy());
 
     ImmutableList.Builder<Entry> initialListBuilder = ImmutableList.builder();
 
@@ -94,10 +143,25 @@ public class ChannelPool extends ManagedChannel {
     }
 
     entries.set(initialListBuilder.build());
+    staggerRefreshDeadlines(entries.get(), System.nanoTime());
     authority = entries.get().get(0).channel.authority();
     this.executor = executor;
-
-    if (!settings.isStaticSize()) {
+    this.channelCreationExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("channel-pool-creator-%d")
+                .build());
+    this.lastExpandNanos = System.nanoTime();
+    this.lastShrinkNanos = lastExpandNanos;
+
+    if (!settings.isStaticSize() && settings.isPredictiveResizeEnabled()) {
+      executor.scheduleAtFixedRate(
+          this::sampleAndResizeSafely,
+          settings.getResizeSampleInterval().toMillis(),
+          settings.getResizeSampleInterval().toMillis(),
+          TimeUnit.MILLISECONDS);
+    } else if (!settings.isStaticSize()) {
       executor.scheduleAtFixedRate(
           this::resizeSafely,
           ChannelPoolSettings.RESIZE_INTERVAL.getSeconds(),
@@ -106,13 +170,26 @@ public class ChannelPool extends ManagedChannel {
     }
     if (settings.isPreemptiveRefreshEnabled()) {
       executor.scheduleAtFixedRate(
-          this::refreshSafely,
-          REFRESH_PERIOD.getSeconds(),
-          REFRESH_PERIOD.getSeconds(),
+          this::refreshNextChannelSafely,
+          REFRESH_CHECK_INTERVAL.getSeconds(),
+          REFRESH_CHECK_INTERVAL.getSeconds(),
           TimeUnit.SECONDS);
     }
   }
 
+  /**
+   * Spread the refresh deadlines of the initial channels evenly across the refresh period, so that
+   * they don't all get replaced at the same time. Replacements inherit the spacing since each one
+   * is due a full refresh period after it was created.
+   */
+  private static void staggerRefreshDeadlines(List<Entry> localEntries, long nowNanos) {
+    long periodNanos = REFRESH_PERIOD.toNanos();
+    for (int i = 0; i < localEntries.size(); i++) {
+      localEntries.get(i).refreshDeadlineNanos =
+          nowNanos + periodNanos * (i + 1) / localEntries.size();
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public String authority() {
@@ -120,15 +197,36 @@ public class ChannelPool extends ManagedChannel {
   }
 
   /**
-   * Create a {@link ClientCall} on a Channel from the pool chosen in a round-robin fashion to the
-   * remote operation specified by the given {@link MethodDescriptor}. The returned {@link
-   * ClientCall} does not trigger any remote behavior until {@link
+   * Create a {@link ClientCall} on a Channel from the pool chosen by the configured {@link
+   * ChannelPicker} to the remote operation specified by the given {@link MethodDescriptor}. The
+   * returned {@link ClientCall} does not trigger any remote behavior until {@link
    * ClientCall#start(ClientCall.Listener, io.grpc.Metadata)} is invoked.
+   *
+   * <p>If the call is an attempt of a {@link HedgeGroup}, channels that were used by the other
+   * attempts are skipped, unless all of the channels were used.
    */
   @Override
   public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
       MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
-    return getChannel(indexTicker.getAndIncrement()).newCall(methodDescriptor, callOptions);
+    List<Entry> localEntries = entries.get();
+    int index = channelPicker.pickIndex(localEntries);
+
+    HedgeGroup hedgeGroup = callOptions.getOption(HedgeGroup.CALL_OPTION_KEY);
+    if (hedgeGroup != null) {
+      index = skipUsedChannels(localEntries, index, hedgeGroup);
+    }
+    return getChannel(index).newCall(methodDescriptor, callOptions);
+  }
+
+  private static int skipUsedChannels(List<Entry> localEntries, int index, HedgeGroup hedgeGroup) {
+    int size = localEntries.size();
+    for (int i = 0; i < size; i++) {
+      int candidate = (index + i) % size;
+      if (!hedgeGroup.isUsed(localEntries.get(candidate).channel)) {
+        return candidate;
+      }
+    }
+    return index;
   }
 
   Channel getChannel(int affinity) {
@@ -140,7 +238,11 @@ public class ChannelPool extends ManagedChannel {
   public ManagedChannel shutdown() {
     LOG.fine("Initiating graceful shutdown due to explicit request");
 
-    List<Entry> localEntries = entries.get();
+    List<Entry> localEntries;
+    synchronized (entryWriteLock) {
+      shutdownRequested = true;
+      localEntries = entries.get();
+    }
     for (Entry entry : localEntries) {
       entry.channel.shutdown();
     }
@@ -148,6 +250,7 @@ public class ChannelPool extends ManagedChannel {
       // shutdownNow will cancel scheduled tasks
       executor.shutdownNow();
     }
+    channelCreationExecutor.shutdownNow();
     return this;
   }
 
@@ -160,7 +263,7 @@ public class ChannelPool extends ManagedChannel {
         return false;
       }
     }
-    return executor == null || executor.isShutdown();
+    return channelCreationExecutor.isShutdown() && (executor == null || executor.isShutdown());
   }
 
   /** {@inheritDoc} */
@@ -173,7 +276,8 @@ public class ChannelPool extends ManagedChannel {
       }
     }
 
-    return executor == null || executor.isTerminated();
+    return channelCreationExecutor.isTerminated()
+        && (executor == null || executor.isTerminated());
   }
 
   /** {@inheritDoc} */
@@ -181,13 +285,18 @@ public class ChannelPool extends ManagedChannel {
   public ManagedChannel shutdownNow() {
     LOG.fine("Initiating immediate shutdown due to explicit request");
 
-    List<Entry> localEntries = entries.get();
+    List<Entry> localEntries;
+    synchronized (entryWriteLock) {
+      shutdownRequested = true;
+      localEntries = entries.get();
+    }
     for (Entry entry : localEntries) {
       entry.channel.shutdownNow();
     }
     if (executor != null) {
       executor.shutdownNow();
     }
+    channelCreationExecutor.shutdownNow();
     return this;
   }
 
@@ -207,6 +316,8 @@ public class ChannelPool extends ManagedChannel {
       long awaitTimeNanos = endTimeNanos - System.nanoTime();
       executor.awaitTermination(awaitTimeNanos, TimeUnit.NANOSECONDS);
     }
+    channelCreationExecutor.awaitTermination(
+        endTimeNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
     return isTerminated();
   }
 
@@ -279,6 +390,7 @@ public class ChannelPool extends ManagedChannel {
               "Detected throughput peak of %d, expanding channel pool size: %d -> %d.",
               actualOutstandingRpcs, currentSize, dampenedTarget));
 
+      resizeListener.onResize("trend", currentSize, dampenedTarget);
       expand(dampenedTarget);
     } else if (localEntries.size() > maxChannels) {
       LOG.fine(
@@ -286,10 +398,146 @@ public class ChannelPool extends ManagedChannel {
               "Detected throughput drop to %d, shrinking channel pool size: %d -> %d.",
               actualOutstandingRpcs, currentSize, dampenedTarget));
 
+      resizeListener.onResize("drop", currentSize, dampenedTarget);
       shrink(dampenedTarget);
     }
   }
 
+  private void sampleAndResizeSafely() {
+    try {
+      sampleAndResize(System.nanoTime());
+    } catch (Exception e) {
+      LOG.log(Level.WARNING, "Failed to resize channel pool", e);
+    }
+  }
+
+  /**
+   * Predictive counterpart of {@link #resize()}, invoked every {@link
+   * ChannelPoolSettings#getResizeSampleInterval()}.
+   *
+   * <p>On every invocation it will:
+   *
+   * <ul>
+   *   <li>Get the peak number of outstanding RPCs since the last sample
+   *   <li>Detect a burst if the peak exceeds the moving average by {@link
+   *       ChannelPoolSettings#BURST_RATIO}, then fold the peak into the moving average
+   *   <li>Size the pool for the peak during a burst or for the moving average otherwise
+   *   <li>Start creating any missing channels off-thread. They will join the pool once they have
+   *       been warmed
+   *   <li>Shrink by at most {@link ChannelPoolSettings#MAX_RESIZE_DELTA}, and only if the pool
+   *       hasn't been resized in the last {@link ChannelPoolSettings#RESIZE_INTERVAL}
+   * </ul>
+   *
+   * <p>Must only be called from a single thread.
+   */
+  @VisibleForTesting
+  void sampleAndResize(long nowNanos) {
+    List<Entry> localEntries = entries.get();
+    int peak = localEntries.stream().mapToInt(Entry::getAndResetMaxOutstanding).sum();
+
+    boolean burst =
+        !Double.isNaN(demandEwma) && peak > demandEwma * ChannelPoolSettings.BURST_RATIO;
+    if (Double.isNaN(demandEwma)) {
+      demandEwma = peak;
+    } else {
+      demandEwma =
+          ChannelPoolSettings.DEMAND_EWMA_WEIGHT * peak
+              + (1 - ChannelPoolSettings.DEMAND_EWMA_WEIGHT) * demandEwma;
+    }
+    double demand = burst ? peak : Math.max(demandEwma, peak);
+
+    int minChannels = (int) Math.ceil(demand / settings.getMaxRpcsPerChannel());
+    minChannels = Math.max(minChannels, settings.getMinChannelCount());
+    int maxChannels = (int) Math.ceil(demandEwma / settings.getMinRpcsPerChannel());
+    maxChannels = Math.min(maxChannels, settings.getMaxChannelCount());
+    maxChannels = Math.max(maxChannels, minChannels);
+
+    int currentSize = localEntries.size();
+    int projectedSize = currentSize + pendingChannels.get();
+
+    if (projectedSize < minChannels) {
+      // Aim for the middle of the range to leave room for growth, but never beyond the maximum
+      int target = Math.min((minChannels + maxChannels) / 2, settings.getMaxChannelCount());
+      target = Math.max(target, minChannels);
+      String reason = burst ? "burst" : "trend";
+      LOG.fine(
+          String.format(
+              "Detected %s of %d outstanding RPCs (average %.1f), expanding channel pool: %d ->"
+                  + " %d.",
+              reason, peak, demandEwma, projectedSize, target));
+      resizeListener.onResize(reason, projectedSize, target);
+      expandAsync(target - projectedSize);
+      lastExpandNanos = nowNanos;
+      return;
+    }
+
+    long resizeIntervalNanos = ChannelPoolSettings.RESIZE_INTERVAL.toNanos();
+    if (currentSize > maxChannels
+        && pendingChannels.get() == 0
+        && nowNanos - lastExpandNanos >= resizeIntervalNanos
+        && nowNanos - lastShrinkNanos >= resizeIntervalNanos) {
+      int target = Math.max(currentSize - ChannelPoolSettings.MAX_RESIZE_DELTA, maxChannels);
+      LOG.fine(
+          String.format(
+              "Detected throughput drop to %.1f, shrinking channel pool size: %d -> %d.",
+              demandEwma, currentSize, target));
+      resizeListener.onResize("drop", currentSize, target);
+      synchronized (entryWriteLock) {
+        if (entries.get().size() > target) {
+          shrink(target);
+        }
+      }
+      lastShrinkNanos = nowNanos;
+    }
+  }
+
+  /**
+   * Start creating channels without blocking the caller. Each channel is added to the pool as soon
+   * as it's ready, which includes priming for {@link DataChannel}.
+   */
+  private void expandAsync(int count) {
+    for (int i = 0; i < count; i++) {
+      ListenableFuture<? extends ManagedChannel> future;
+      pendingChannels.incrementAndGet();
+      try {
+        future = channelFactory.createSingleChannelAsync(channelCreationExecutor);
+      } catch (RejectedExecutionException e) {
+        pendingChannels.decrementAndGet();
+        return;
+      }
+      Futures.addCallback(
+          future,
+          new FutureCallback<ManagedChannel>() {
+            @Override
+            public void onSuccess(ManagedChannel channel) {
+              try {
+                addChannel(channel);
+              } finally {
+                pendingChannels.decrementAndGet();
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              LOG.log(Level.WARNING, "Failed to add channel", t);
+              pendingChannels.decrementAndGet();
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+  }
+
+  private void addChannel(ManagedChannel channel) {
+    synchronized (entryWriteLock) {
+      if (shutdownRequested) {
+        channel.shutdown();
+        return;
+      }
+      entries.set(
+          ImmutableList.<Entry>builder().addAll(entries.get()).add(new Entry(channel)).build());
+    }
+  }
+
   /** Not threadsafe, must be called under the entryWriteLock monitor */
   private void shrink(int desiredSize) {
     ImmutableList<Entry> localEntries = entries.get();
@@ -322,20 +570,97 @@ public class ChannelPool extends ManagedChannel {
     entries.set(newEntries.build());
   }
 
-  private void refreshSafely() {
+  private void refreshNextChannelSafely() {
     try {
-      refresh();
+      refreshNextChannel(System.nanoTime());
     } catch (Exception e) {
       LOG.log(Level.WARNING, "Failed to pre-emptively refresh channnels", e);
     }
   }
 
+  /**
+   * Start replacing the channel that is most overdue for a refresh, if any.
+   *
+   * <p>Only one replacement is in flight at a time. The replacement is created and primed without
+   * blocking the caller, and the old channel keeps serving RPCs until the replacement is ready. If
+   * the replacement fails to be created, the old channel will be retried after {@link
+   * #REFRESH_RETRY_DELAY}. If the old channel was removed from the pool in the meantime, the
+   * replacement is discarded.
+   */
+  @VisibleForTesting
+  void refreshNextChannel(long nowNanos) {
+    if (!refreshInProgress.compareAndSet(false, true)) {
+      return;
+    }
+
+    Entry stale = null;
+    for (Entry entry : entries.get()) {
+      if (nowNanos - entry.refreshDeadlineNanos >= 0
+          && (stale == null || entry.refreshDeadlineNanos - stale.refreshDeadlineNanos < 0)) {
+        stale = entry;
+      }
+    }
+    if (stale == null) {
+      refreshInProgress.set(false);
+      return;
+    }
+
+    ListenableFuture<? extends ManagedChannel> future;
+    try {
+      future = channelFactory.createSingleChannelAsync(channelCreationExecutor);
+    } catch (RuntimeException e) {
+      refreshInProgress.set(false);
+      throw e;
+    }
+
+    Entry finalStale = stale;
+    Futures.addCallback(
+        future,
+        new FutureCallback<ManagedChannel>() {
+          @Override
+          public void onSuccess(ManagedChannel channel) {
+            try {
+              replaceChannel(finalStale, channel);
+            } finally {
+              refreshInProgress.set(false);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            LOG.log(Level.WARNING, "Failed to refresh channel, leaving old channel", t);
+            finalStale.refreshDeadlineNanos = System.nanoTime() + REFRESH_RETRY_DELAY.toNanos();
+            refreshInProgress.set(false);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void replaceChannel(Entry stale, ManagedChannel channel) {
+    synchronized (entryWriteLock) {
+      List<Entry> localEntries = entries.get();
+      int index = localEntries.indexOf(stale);
+      if (shutdownRequested || index < 0) {
+        channel.shutdown();
+        return;
+      }
+      ArrayList<Entry> newEntries = new ArrayList<>(localEntries);
+      newEntries.set(index, new Entry(channel));
+      entries.set(ImmutableList.copyOf(newEntries));
+    }
+    LOG.fine("Refreshed channel " + stale.channel);
+    stale.requestShutdown();
+  }
+
   /**
    * Replace all of the channels in the channel pool with fresh ones. This is meant to mitigate the
    * hourly GFE disconnects by giving clients the ability to prime the channel on reconnect.
    *
    * <p>This is done on a best effort basis. If the replacement channel fails to construct, the old
    * channel will continue to be used.
+   *
+   * <p>Unlike {@link #refreshNextChannel(long)}, this blocks until all of the replacements have
+   * been created.
    */
   @InternalApi("Visible for testing")
   void refresh() {
@@ -358,6 +683,7 @@ public class ChannelPool extends ManagedChannel {
       }
 
       ImmutableList<Entry> replacedEntries = entries.getAndSet(ImmutableList.copyOf(newEntries));
+      staggerRefreshDeadlines(newEntries, System.nanoTime());
 
       // Shutdown the channels that were cycled out.
       for (Entry e : replacedEntries) {
@@ -406,9 +732,21 @@ public class ChannelPool extends ManagedChannel {
     return localEntries.get(index);
   }
 
+  /** Observer of the predictive resizer's decisions. */
+  public interface ResizeListener {
+    ResizeListener NOOP = (reason, fromSize, toSize) -> {};
+
+    /**
+     * @param reason why the pool is being resized: {@code burst}, {@code trend} or {@code drop}
+     * @param fromSize the pool size, including channels that are still being created
+     * @param toSize the desired pool size
+     */
+    void onResize(String reason, int fromSize, int toSize);
+  }
+
   /** Bundles a gRPC {@link ManagedChannel} with some usage accounting. */
   static class Entry {
-    private final ManagedChannel channel;
+    @VisibleForTesting final ManagedChannel channel;
 
     /**
      * The primary purpose of keeping a count for outstanding RPCs is to track when a channel is
@@ -433,8 +771,13 @@ public class ChannelPool extends ManagedChannel {
     // Flag that the channel has been closed.
     private final AtomicBoolean shutdownInitiated = new AtomicBoolean();
 
-    private Entry(ManagedChannel channel) {
+    // When the channel should be replaced by the staggered refresher.
+    private volatile long refreshDeadlineNanos;
+
+    @VisibleForTesting
+    Entry(ManagedChannel channel) {
       this.channel = channel;
+      this.refreshDeadlineNanos = System.nanoTime() + REFRESH_PERIOD.toNanos();
     }
 
     int getAndResetMaxOutstanding() {
@@ -520,6 +863,11 @@ public class ChannelPool extends ManagedChannel {
 
       Entry entry = getRetainedEntry(affinity);
 
+      HedgeGroup hedgeGroup = callOptions.getOption(HedgeGroup.CALL_OPTION_KEY);
+      if (hedgeGroup != null) {
+        hedgeGroup.markUsed(entry.channel);
+      }
+
       return new ReleasingClientCall<>(entry.channel.newCall(methodDescriptor, callOptions), entry);
     }
   }
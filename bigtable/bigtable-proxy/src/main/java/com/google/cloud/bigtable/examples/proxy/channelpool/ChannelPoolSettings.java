@@ -45,6 +45,26 @@ public abstract class ChannelPoolSettings {
   static final Duration RESIZE_INTERVAL = Duration.ofMinutes(1);
   /** The maximum number of channels that can be added or removed at a time. */
   static final int MAX_RESIZE_DELTA = 2;
+  /**
+   * Weight of the newest sample in the exponentially weighted moving average of outstanding RPCs
+   * used by the predictive resizer.
+   */
+  static final double DEMAND_EWMA_WEIGHT = 0.3;
+  /**
+   * When the peak of a single sample exceeds the moving average by this ratio, the predictive
+   * resizer treats it as a burst and scales up to the peak immediately.
+   */
+  static final double BURST_RATIO = 2.0;
+
+  /** How the {@link ChannelPool} chooses a channel for each new call. */
+  public enum LoadBalancingStrategy {
+    /** Cycle through the channels regardless of their load. */
+    ROUND_ROBIN,
+    /** Pick the channel with the fewest outstanding RPCs. */
+    LEAST_IN_FLIGHT,
+    /** Pick the less loaded of 2 randomly chosen channels. */
+    POWER_OF_TWO_LEAST_IN_FLIGHT
+  }
 
   /**
    * Threshold to start scaling down the channel pool.
@@ -94,6 +114,31 @@ public abstract class ChannelPoolSettings {
    */
   public abstract boolean isPreemptiveRefreshEnabled();
 
+  /**
+   * The strategy used to pick a channel for each new call.
+   *
+   * <p>Round robin ignores the load on each channel, so a single slow channel will accumulate a
+   * queue. The least in flight strategies use the outstanding RPC count that the pool already
+   * tracks to steer new calls away from backed up channels.
+   */
+  public abstract LoadBalancingStrategy getLoadBalancingStrategy();
+
+  /**
+   * If the pool should be resized using the predictive resizer.
+   *
+   * <p>The default resizer looks at the peak number of outstanding RPCs once every {@link
+   * #RESIZE_INTERVAL} and moves at most {@link #MAX_RESIZE_DELTA} channels at a time, which can
+   * take minutes to catch up with a sudden ramp in traffic. The predictive resizer samples the pool
+   * every {@link #getResizeSampleInterval()}, smooths the samples with an exponentially weighted
+   * moving average and scales up to the peak immediately when it detects a burst. New channels are
+   * created and warmed off-thread and only join the pool once they are ready. Scaling down is still
+   * limited to {@link #MAX_RESIZE_DELTA} channels every {@link #RESIZE_INTERVAL}.
+   */
+  public abstract boolean isPredictiveResizeEnabled();
+
+  /** How often the predictive resizer samples the outstanding RPCs. */
+  public abstract Duration getResizeSampleInterval();
+
   /** Helper to check if the {@link ChannelPool} implementation can skip dynamic size logic */
   boolean isStaticSize() {
     // When range is restricted to a single size
@@ -127,7 +172,10 @@ public abstract class ChannelPoolSettings {
         .setMaxChannelCount(200)
         .setMinRpcsPerChannel(0)
         .setMaxRpcsPerChannel(Integer.MAX_VALUE)
-        .setPreemptiveRefreshEnabled(false);
+        .setPreemptiveRefreshEnabled(false)
+        .setLoadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN)
+        .setPredictiveResizeEnabled(false)
+        .setResizeSampleInterval(Duration.ofMillis(500));
   }
 
   @AutoValue.Builder
@@ -144,6 +192,12 @@ public abstract class ChannelPoolSettings {
 
     public abstract Builder setPreemptiveRefreshEnabled(boolean enabled);
 
+    public abstract Builder setLoadBalancingStrategy(LoadBalancingStrategy strategy);
+
+    public abstract Builder setPredictiveResizeEnabled(boolean enabled);
+
+    public abstract Builder setResizeSampleInterval(Duration interval);
+
     abstract ChannelPoolSettings autoBuild();
 
     public ChannelPoolSettings build() {
@@ -163,6 +217,9 @@ public abstract class ChannelPoolSettings {
           "initial channel count must be less than maxChannelCount");
       Preconditions.checkState(
           s.getInitialChannelCount() > 0, "Initial channel count must be greater than 0");
+      Preconditions.checkState(
+          !s.getResizeSampleInterval().isNegative() && !s.getResizeSampleInterval().isZero(),
+          "Resize sample interval must be positive");
       return s;
     }
   }
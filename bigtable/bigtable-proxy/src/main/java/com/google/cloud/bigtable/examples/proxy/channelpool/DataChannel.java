@@ -23,7 +23,11 @@ import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
 import com.google.cloud.bigtable.examples.proxy.core.CallLabels.PrimingKey;
 import com.google.cloud.bigtable.examples.proxy.metrics.Metrics;
 import com.google.cloud.bigtable.examples.proxy.metrics.Tracer;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import io.grpc.CallCredentials;
 import io.grpc.CallOptions;
@@ -33,20 +37,22 @@ import io.grpc.ConnectivityState;
 import io.grpc.Deadline;
 import io.grpc.ExperimentalApi;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.Metadata;
 import io.grpc.Metadata.Key;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,22 +91,36 @@ public class DataChannel extends ManagedChannel {
       int port,
       ScheduledExecutorService warmingExecutor,
       Metrics metrics) {
-    this.resourceCollector = resourceCollector;
-
-    this.callCredentials = callCredentials;
-    inner =
-        ManagedChannelBuilder.forAddress(endpoint, port)
-            .userAgent(userAgent)
-            .disableRetry()
-            .maxInboundMessageSize(256 * 1024 * 1024)
-            .keepAliveTime(30, TimeUnit.SECONDS)
-            .keepAliveTimeout(10, TimeUnit.SECONDS)
-            .build();
-
-    this.warmingExecutor = warmingExecutor;
-    this.metrics = metrics;
+    this(
+        resourceCollector,
+        userAgent,
+        callCredentials,
+        endpoint,
+        port,
+        warmingExecutor,
+        metrics,
+        builder -> {});
+  }
 
-    new StateTransitionWatcher().run();
+  /**
+   * @param builderConfigurator applied to the channel builder after the defaults, to configure the
+   *     transport's executor and event loop.
+   */
+  public DataChannel(
+      ResourceCollector resourceCollector,
+      String userAgent,
+      CallCredentials callCredentials,
+      String endpoint,
+      int port,
+      ScheduledExecutorService warmingExecutor,
+      Metrics metrics,
+      Consumer<NettyChannelBuilder> builderConfigurator) {
+    this(
+        resourceCollector,
+        callCredentials,
+        createInner(userAgent, endpoint, port, builderConfigurator),
+        warmingExecutor,
+        metrics);
 
     try {
       warm();
@@ -113,6 +133,88 @@ public class DataChannel extends ManagedChannel {
       throw e;
     }
 
+    start();
+  }
+
+  private DataChannel(
+      ResourceCollector resourceCollector,
+      CallCredentials callCredentials,
+      ManagedChannel inner,
+      ScheduledExecutorService warmingExecutor,
+      Metrics metrics) {
+    this.resourceCollector = resourceCollector;
+    this.callCredentials = callCredentials;
+    this.inner = inner;
+    this.warmingExecutor = warmingExecutor;
+    this.metrics = metrics;
+
+    new StateTransitionWatcher().run();
+  }
+
+  /**
+   * Create a channel without blocking the caller on priming. The returned future resolves once the
+   * channel has been primed with the known resources. If priming fails, the channel is shut down
+   * and the future fails.
+   */
+  public static ListenableFuture<DataChannel> createAsync(
+      ResourceCollector resourceCollector,
+      String userAgent,
+      CallCredentials callCredentials,
+      String endpoint,
+      int port,
+      ScheduledExecutorService warmingExecutor,
+      Metrics metrics,
+      Consumer<NettyChannelBuilder> builderConfigurator) {
+    DataChannel channel =
+        new DataChannel(
+            resourceCollector,
+            callCredentials,
+            createInner(userAgent, endpoint, port, builderConfigurator),
+            warmingExecutor,
+            metrics);
+
+    SettableFuture<DataChannel> result = SettableFuture.create();
+    Futures.addCallback(
+        channel.warmAsync(),
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void ignored) {
+            channel.start();
+            result.set(channel);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            try {
+              channel.inner.shutdown();
+            } catch (RuntimeException e) {
+              t.addSuppressed(e);
+            }
+            result.setException(t);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private static ManagedChannel createInner(
+      String userAgent,
+      String endpoint,
+      int port,
+      Consumer<NettyChannelBuilder> builderConfigurator) {
+    NettyChannelBuilder builder =
+        NettyChannelBuilder.forAddress(endpoint, port)
+            .userAgent(userAgent)
+            .disableRetry()
+            .maxInboundMessageSize(256 * 1024 * 1024)
+            .keepAliveTime(30, TimeUnit.SECONDS)
+            .keepAliveTimeout(10, TimeUnit.SECONDS);
+    builderConfigurator.accept(builder);
+    return builder.build();
+  }
+
+  /** Start the anti idle pings. Must be called once the channel has been primed. */
+  private void start() {
     antiIdleTask =
         warmingExecutor.schedule(this::warmTask, nextWarmup().toMillis(), TimeUnit.MILLISECONDS);
     metrics.updateChannelCount(1);
@@ -141,9 +243,25 @@ public class DataChannel extends ManagedChannel {
   }
 
   private void warm() {
+    try {
+      warmAsync().get();
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException("Failed to prime channel", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while priming channel", e);
+    }
+  }
+
+  /**
+   * Send a PingAndWarm for every known resource. The returned future fails if most of the priming
+   * requests failed.
+   */
+  private ListenableFuture<Void> warmAsync() {
     List<PrimingKey> primingKeys = resourceCollector.getPrimingKeys();
     if (primingKeys.isEmpty()) {
-      return;
+      return Futures.immediateVoidFuture();
     }
 
     LOGGER.debug("Warming channel {} with: {}", inner, primingKeys);
@@ -151,12 +269,23 @@ public class DataChannel extends ManagedChannel {
     List<ListenableFuture<PingAndWarmResponse>> futures =
         primingKeys.stream().map(this::sendPingAndWarm).collect(Collectors.toList());
 
+    return Futures.whenAllComplete(futures)
+        .call(
+            () -> {
+              checkPrimingResults(primingKeys, futures);
+              return null;
+            },
+            MoreExecutors.directExecutor());
+  }
+
+  private void checkPrimingResults(
+      List<PrimingKey> primingKeys, List<ListenableFuture<PingAndWarmResponse>> futures) {
     int successCount = 0;
     int failures = 0;
     for (ListenableFuture<PingAndWarmResponse> future : futures) {
       PrimingKey request = primingKeys.get(successCount + failures);
       try {
-        future.get();
+        Futures.getDone(future);
         successCount++;
       } catch (ExecutionException e) {
         // All permanent errors are ignored and treated as a success
@@ -186,8 +315,6 @@ public class DataChannel extends ManagedChannel {
         }
 
         failures++;
-      } catch (InterruptedException e) {
-        throw new RuntimeException("Interrupted while priming channel with request: " + request, e);
       }
     }
     if (successCount < failures) {
@@ -369,6 +496,83 @@ public class DataChannel extends ManagedChannel {
     return inner.authority();
   }
 
+  /** {@link ChannelFactory} that primes new channels without blocking the pool's threads. */
+  public static class Factory implements ChannelFactory {
+    private final ResourceCollector resourceCollector;
+    private final String userAgent;
+    private final CallCredentials callCredentials;
+    private final String endpoint;
+    private final int port;
+    private final ScheduledExecutorService warmingExecutor;
+    private final Metrics metrics;
+    private final Consumer<NettyChannelBuilder> builderConfigurator;
+
+    public Factory(
+        ResourceCollector resourceCollector,
+        String userAgent,
+        CallCredentials callCredentials,
+        String endpoint,
+        int port,
+        ScheduledExecutorService warmingExecutor,
+        Metrics metrics) {
+      this(
+          resourceCollector,
+          userAgent,
+          callCredentials,
+          endpoint,
+          port,
+          warmingExecutor,
+          metrics,
+          builder -> {});
+    }
+
+    public Factory(
+        ResourceCollector resourceCollector,
+        String userAgent,
+        CallCredentials callCredentials,
+        String endpoint,
+        int port,
+        ScheduledExecutorService warmingExecutor,
+        Metrics metrics,
+        Consumer<NettyChannelBuilder> builderConfigurator) {
+      this.resourceCollector = resourceCollector;
+      this.userAgent = userAgent;
+      this.callCredentials = callCredentials;
+      this.endpoint = endpoint;
+      this.port = port;
+      this.warmingExecutor = warmingExecutor;
+      this.metrics = metrics;
+      this.builderConfigurator = builderConfigurator;
+    }
+
+    @Override
+    public ManagedChannel createSingleChannel() {
+      return new DataChannel(
+          resourceCollector,
+          userAgent,
+          callCredentials,
+          endpoint,
+          port,
+          warmingExecutor,
+          metrics,
+          builderConfigurator);
+    }
+
+    /** Priming is driven by gRPC callbacks, so the executor is not needed. */
+    @Override
+    public ListenableFuture<DataChannel> createSingleChannelAsync(Executor executor) {
+      return createAsync(
+          resourceCollector,
+          userAgent,
+          callCredentials,
+          endpoint,
+          port,
+          warmingExecutor,
+          metrics,
+          builderConfigurator);
+    }
+  }
+
   class StateTransitionWatcher implements Runnable {
     private ConnectivityState prevState = null;
 
@@ -27,13 +27,30 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Collects the resources that the proxy has seen recently, so that new channels can be primed for
+ * them.
+ *
+ * <p>{@link #collect(CallLabels)} is called for every RPC. To keep that cheap, labels that were
+ * collected recently are skipped after a single hash lookup, and only refresh their {@link
+ * PrimingKey} once every {@link #RECOLLECT_INTERVAL}.
+ */
 public class ResourceCollector {
   private static final Logger LOG = LoggerFactory.getLogger(ResourceCollector.class);
+  private static final Duration RECOLLECT_INTERVAL = Duration.ofMinutes(1);
 
   private final Cache<PrimingKey, Boolean> primingKeys =
       CacheBuilder.newBuilder().expireAfterWrite(Duration.ofHours(1)).maximumSize(100).build();
 
+  private final Cache<CallLabels, Boolean> recentlyCollected =
+      CacheBuilder.newBuilder().expireAfterWrite(RECOLLECT_INTERVAL).maximumSize(1000).build();
+
   public void collect(CallLabels labels) {
+    if (recentlyCollected.getIfPresent(labels) != null) {
+      return;
+    }
+    recentlyCollected.put(labels, true);
+
     try {
       PrimingKey.from(labels).ifPresent(k -> primingKeys.put(k, true));
     } catch (ParsingException e) {
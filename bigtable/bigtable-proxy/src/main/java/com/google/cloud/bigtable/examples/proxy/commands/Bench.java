@@ -0,0 +1,670 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.commands;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.bigtable.v2.BigtableGrpc.BigtableImplBase;
+import com.google.bigtable.v2.BigtableGrpc.BigtableStub;
+import com.google.bigtable.v2.MutateRowRequest;
+import com.google.bigtable.v2.MutateRowResponse;
+import com.google.bigtable.v2.MutateRowsRequest;
+import com.google.bigtable.v2.MutateRowsResponse;
+import com.google.bigtable.v2.Mutation;
+import com.google.bigtable.v2.Mutation.SetCell;
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.ReadRowsResponse;
+import com.google.bigtable.v2.ReadRowsResponse.CellChunk;
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings.LoadBalancingStrategy;
+import com.google.cloud.bigtable.examples.proxy.metrics.LatencyHistogram;
+import com.google.cloud.bigtable.examples.proxy.metrics.NoopMetrics;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.StringValue;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Option;
+
+/**
+ * Measures the latency that the proxy adds to calls.
+ *
+ * <p>A fake Bigtable service is started in this process. The proxy forwards calls to it over an
+ * in-process transport using the same channel pool that {@link Serve} uses, so only the proxy's own
+ * overhead is measured and no network access is needed. The same fake is also exposed on a local
+ * port, so that the workload can be run directly against it as a baseline. The difference between
+ * both runs is reported as the latency added by the proxy.
+ */
+@Command(
+    name = "bench",
+    description = "Measure the proxy's overhead using an in-process fake Bigtable service")
+public class Bench implements Callable<Void> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Bench.class);
+
+  private static final String TABLE_NAME =
+      "projects/fake-project/instances/fake-instance/tables/fake-table";
+  private static final Key<String> REQUEST_PARAMS_KEY =
+      Key.of("x-goog-request-params", Metadata.ASCII_STRING_MARSHALLER);
+
+  /** The calls that the benchmark can send. */
+  enum Workload {
+    READ_ROWS,
+    MUTATE_ROWS,
+    MUTATE_ROW
+  }
+
+  @Option(
+      names = "--workload",
+      split = ",",
+      defaultValue = "READ_ROWS=1,MUTATE_ROWS=1,MUTATE_ROW=1",
+      description =
+          "Relative weight of each call in the mix. Valid calls: READ_ROWS, MUTATE_ROWS and"
+              + " MUTATE_ROW",
+      showDefaultValue = Visibility.ALWAYS)
+  Map<Workload, Integer> workloadWeights;
+
+  @Option(
+      names = "--concurrency",
+      description = "Maximum number of outstanding calls",
+      showDefaultValue = Visibility.ALWAYS)
+  int concurrency = 32;
+
+  @Option(
+      names = "--qps",
+      description =
+          "Target number of calls per second. 0 sends a new call as soon as one completes, up to"
+              + " --concurrency",
+      showDefaultValue = Visibility.ALWAYS)
+  int qps = 0;
+
+  @Option(
+      names = "--warmup-seconds",
+      description = "How long to send calls before measuring, for each run",
+      showDefaultValue = Visibility.ALWAYS)
+  int warmupSeconds = 10;
+
+  @Option(
+      names = "--duration-seconds",
+      description = "How long to measure calls, for each run",
+      showDefaultValue = Visibility.ALWAYS)
+  int durationSeconds = 30;
+
+  @Option(
+      names = "--rows-per-read",
+      description = "Number of rows returned by each ReadRows call",
+      showDefaultValue = Visibility.ALWAYS)
+  int rowsPerRead = 10;
+
+  @Option(
+      names = "--entries-per-mutate-rows",
+      description = "Number of entries sent in each MutateRows call",
+      showDefaultValue = Visibility.ALWAYS)
+  int entriesPerMutateRows = 10;
+
+  @Option(
+      names = "--value-size",
+      description = "Size in bytes of each cell value that is read or written",
+      showDefaultValue = Visibility.ALWAYS)
+  int valueSize = 100;
+
+  @Option(
+      names = "--direct-baseline",
+      negatable = true,
+      description =
+          "Also run the workload directly against the fake service to compute the latency added"
+              + " by the proxy",
+      showDefaultValue = Visibility.ALWAYS)
+  boolean directBaseline = true;
+
+  @Option(
+      names = "--channel-pool-lb-strategy",
+      description =
+          "How the data channel pool picks a channel for each call. Valid values:"
+              + " ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  LoadBalancingStrategy loadBalancingStrategy = LoadBalancingStrategy.ROUND_ROBIN;
+
+  @Option(
+      names = "--passthrough-marshaller",
+      negatable = true,
+      description =
+          "Forward message buffers between the inbound and outbound calls without copying them"
+              + " onto the heap",
+      showDefaultValue = Visibility.ALWAYS)
+  boolean passthroughMarshaller = true;
+
+  @Option(
+      names = "--server-executor",
+      description =
+          "Where the proxy's server callbacks are executed. Valid values:"
+              + " ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  ExecutorMode serverExecutorMode = ExecutorMode.DEFAULT;
+
+  @Option(
+      names = "--server-executor-threads",
+      description = "Number of threads when --server-executor is BOUNDED",
+      showDefaultValue = Visibility.ALWAYS)
+  int serverExecutorThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+  @Option(
+      names = "--server-event-loop-threads",
+      description =
+          "Number of Netty event loop threads for accepted connections. 0 uses gRPC's shared"
+              + " event loop",
+      showDefaultValue = Visibility.ALWAYS)
+  int serverEventLoopThreads = 0;
+
+  private ReadRowsRequest readRowsRequest;
+  private MutateRowsRequest mutateRowsRequest;
+  private MutateRowRequest mutateRowRequest;
+
+  @Override
+  public Void call() throws Exception {
+    Report report = run();
+    report.print(System.out);
+    return null;
+  }
+
+  Report run() throws IOException, InterruptedException {
+    Preconditions.checkArgument(concurrency > 0, "--concurrency must be positive");
+    Preconditions.checkArgument(qps >= 0, "--qps can't be negative");
+    Preconditions.checkArgument(durationSeconds > 0, "--duration-seconds must be positive");
+    Workload[] schedule = createSchedule(workloadWeights);
+
+    ByteString value = ByteString.copyFrom(new byte[valueSize]);
+    createRequests(value);
+    FakeBigtable fakeBigtable = new FakeBigtable(rowsPerRead, entriesPerMutateRows, value);
+
+    String fakeServerName = "fake-bigtable-" + UUID.randomUUID();
+    Server fakeInProcessServer =
+        InProcessServerBuilder.forName(fakeServerName)
+            .directExecutor()
+            .addService(fakeBigtable)
+            .build()
+            .start();
+    Server fakeLocalServer =
+        NettyServerBuilder.forAddress(
+                new InetSocketAddress("localhost", 0), InsecureServerCredentials.create())
+            .directExecutor()
+            .addService(fakeBigtable)
+            .build()
+            .start();
+
+    Serve serve = new Serve();
+    serve.listenPort = 0;
+    serve.loadBalancingStrategy = loadBalancingStrategy;
+    serve.passthroughMarshaller = passthroughMarshaller;
+    serve.serverExecutorMode = serverExecutorMode;
+    serve.serverExecutorThreads = serverExecutorThreads;
+    serve.serverEventLoopThreads = serverEventLoopThreads;
+    serve.credentials = GoogleCredentials.create(new AccessToken("fake-token", null));
+    serve.metrics = new NoopMetrics();
+    serve.dataChannelFactory = () -> InProcessChannelBuilder.forName(fakeServerName).build();
+    serve.adminChannel = InProcessChannelBuilder.forName(fakeServerName).build();
+
+    try {
+      serve.start();
+
+      PhaseResult direct = null;
+      if (directBaseline) {
+        direct = runPhase("direct", fakeLocalServer.getPort(), schedule);
+      }
+      PhaseResult proxied = runPhase("proxy", serve.server.getPort(), schedule);
+      return new Report(direct, proxied);
+    } finally {
+      if (serve.server != null) {
+        serve.server.shutdownNow();
+      }
+      // Also releases the channels and threads of a proxy that failed to start
+      serve.cleanup();
+      fakeLocalServer.shutdownNow();
+      fakeInProcessServer.shutdownNow();
+    }
+  }
+
+  /** Expands the weights into a list that calls can be uniformly picked from. */
+  private static Workload[] createSchedule(Map<Workload, Integer> weights) {
+    List<Workload> schedule = new ArrayList<>();
+    for (Map.Entry<Workload, Integer> e : weights.entrySet()) {
+      Preconditions.checkArgument(
+          e.getValue() >= 0, "--workload weight for %s can't be negative", e.getKey());
+      for (int i = 0; i < e.getValue(); i++) {
+        schedule.add(e.getKey());
+      }
+    }
+    Preconditions.checkArgument(!schedule.isEmpty(), "--workload must have a positive weight");
+    return schedule.toArray(new Workload[0]);
+  }
+
+  private void createRequests(ByteString value) {
+    Mutation mutation =
+        Mutation.newBuilder()
+            .setSetCell(
+                SetCell.newBuilder()
+                    .setFamilyName("cf")
+                    .setColumnQualifier(ByteString.copyFromUtf8("q"))
+                    .setValue(value))
+            .build();
+
+    readRowsRequest =
+        ReadRowsRequest.newBuilder().setTableName(TABLE_NAME).setRowsLimit(rowsPerRead).build();
+
+    MutateRowsRequest.Builder mutateRowsBuilder =
+        MutateRowsRequest.newBuilder().setTableName(TABLE_NAME);
+    for (int i = 0; i < entriesPerMutateRows; i++) {
+      mutateRowsBuilder
+          .addEntriesBuilder()
+          .setRowKey(ByteString.copyFromUtf8("row-" + i))
+          .addMutations(mutation);
+    }
+    mutateRowsRequest = mutateRowsBuilder.build();
+
+    mutateRowRequest =
+        MutateRowRequest.newBuilder()
+            .setTableName(TABLE_NAME)
+            .setRowKey(ByteString.copyFromUtf8("row"))
+            .addMutations(mutation)
+            .build();
+  }
+
+  private PhaseResult runPhase(String name, int port, Workload[] schedule)
+      throws InterruptedException {
+    ManagedChannel channel =
+        ManagedChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+
+    Metadata headers = new Metadata();
+    headers.put(
+        REQUEST_PARAMS_KEY,
+        "table_name=" + URLEncoder.encode(TABLE_NAME, StandardCharsets.UTF_8));
+
+    try {
+      BigtableStub stub =
+          BigtableGrpc.newStub(channel)
+              .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+
+      LOGGER.info("Warming up {} for {}s", name, warmupSeconds);
+      drive(stub, schedule, TimeUnit.SECONDS.toNanos(warmupSeconds), new PhaseResult(name));
+
+      LOGGER.info("Measuring {} for {}s", name, durationSeconds);
+      PhaseResult result = new PhaseResult(name);
+      long allocatedBytesBefore = getAllocatedBytes();
+      long startNanos = System.nanoTime();
+      drive(stub, schedule, TimeUnit.SECONDS.toNanos(durationSeconds), result);
+      result.elapsedNanos = System.nanoTime() - startNanos;
+      long allocatedBytesAfter = getAllocatedBytes();
+      if (allocatedBytesBefore >= 0 && allocatedBytesAfter >= 0) {
+        result.allocatedBytes = allocatedBytesAfter - allocatedBytesBefore;
+      }
+      return result;
+    } finally {
+      channel.shutdownNow();
+      channel.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Sends calls until the duration elapses and waits for all of them to complete.
+   *
+   * <p>When a target qps is set, each call's latency is measured from when it was supposed to be
+   * sent, so that time spent waiting for an outstanding call slot is included in the results.
+   */
+  private void drive(BigtableStub stub, Workload[] schedule, long durationNanos, PhaseResult result)
+      throws InterruptedException {
+    Semaphore outstanding = new Semaphore(concurrency);
+    Random random = new Random();
+    long intervalNanos = qps > 0 ? TimeUnit.SECONDS.toNanos(1) / qps : 0;
+    long deadlineNanos = System.nanoTime() + durationNanos;
+    long nextStartNanos = System.nanoTime();
+
+    while (true) {
+      long startNanos = nextStartNanos;
+      if (intervalNanos > 0) {
+        nextStartNanos += intervalNanos;
+        long waitNanos;
+        while ((waitNanos = startNanos - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(waitNanos);
+        }
+      }
+      if (System.nanoTime() >= deadlineNanos) {
+        break;
+      }
+      outstanding.acquire();
+      if (intervalNanos == 0) {
+        startNanos = System.nanoTime();
+      }
+      send(stub, schedule[random.nextInt(schedule.length)], startNanos, result, outstanding);
+    }
+
+    if (!outstanding.tryAcquire(concurrency, 1, TimeUnit.MINUTES)) {
+      LOGGER.warn("Timed out waiting for outstanding calls to complete");
+    }
+  }
+
+  private void send(
+      BigtableStub stub,
+      Workload workload,
+      long startNanos,
+      PhaseResult result,
+      Semaphore outstanding) {
+    switch (workload) {
+      case READ_ROWS:
+        stub.readRows(
+            readRowsRequest, new CallObserver<>(workload, startNanos, result, outstanding));
+        break;
+      case MUTATE_ROWS:
+        stub.mutateRows(
+            mutateRowsRequest, new CallObserver<>(workload, startNanos, result, outstanding));
+        break;
+      case MUTATE_ROW:
+        stub.mutateRow(
+            mutateRowRequest, new CallObserver<>(workload, startNanos, result, outstanding));
+        break;
+      default:
+        throw new IllegalStateException("Unexpected workload: " + workload);
+    }
+  }
+
+  /**
+   * @return the total number of bytes allocated by all live threads, or -1 if the JVM can't
+   *     measure it. Threads that exit are not accounted for.
+   */
+  private static long getAllocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+    if (!sunBean.isThreadAllocatedMemorySupported()
+        || !sunBean.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long total = 0;
+    for (long bytes : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+  private static class CallObserver<RespT> implements StreamObserver<RespT> {
+    private final Workload workload;
+    private final long startNanos;
+    private final PhaseResult result;
+    private final Semaphore outstanding;
+
+    CallObserver(Workload workload, long startNanos, PhaseResult result, Semaphore outstanding) {
+      this.workload = workload;
+      this.startNanos = startNanos;
+      this.result = result;
+      this.outstanding = outstanding;
+    }
+
+    @Override
+    public void onNext(RespT value) {}
+
+    @Override
+    public void onError(Throwable t) {
+      result.recordError();
+      outstanding.release();
+    }
+
+    @Override
+    public void onCompleted() {
+      result.record(workload, System.nanoTime() - startNanos);
+      outstanding.release();
+    }
+  }
+
+  /** The measurements of a single run. */
+  static final class PhaseResult {
+    private final String name;
+    private final Map<Workload, LatencyHistogram> histograms = new EnumMap<>(Workload.class);
+    private final AtomicLong errors = new AtomicLong();
+    private long elapsedNanos;
+    private long allocatedBytes = -1;
+
+    PhaseResult(String name) {
+      this.name = name;
+      for (Workload workload : Workload.values()) {
+        histograms.put(workload, new LatencyHistogram());
+      }
+    }
+
+    void record(Workload workload, long latencyNanos) {
+      histograms.get(workload).record(latencyNanos);
+    }
+
+    void recordError() {
+      errors.incrementAndGet();
+    }
+
+    String getName() {
+      return name;
+    }
+
+    LatencyHistogram getHistogram(Workload workload) {
+      return histograms.get(workload);
+    }
+
+    LatencyHistogram getTotal() {
+      LatencyHistogram total = new LatencyHistogram();
+      for (LatencyHistogram histogram : histograms.values()) {
+        total.add(histogram);
+      }
+      return total;
+    }
+
+    long getErrorCount() {
+      return errors.get();
+    }
+
+    double getCallsPerSecond() {
+      return getTotal().getCount() / (elapsedNanos / 1e9);
+    }
+
+    /** @return the average number of bytes allocated per call, or -1 if it couldn't be measured */
+    long getAllocatedBytesPerCall() {
+      long count = getTotal().getCount();
+      if (allocatedBytes < 0 || count == 0) {
+        return -1;
+      }
+      return allocatedBytes / count;
+    }
+  }
+
+  /** The results of the direct and proxied runs. */
+  static final class Report {
+    private static final ImmutableMap<String, Double> PERCENTILES =
+        ImmutableMap.of("p50", 50.0, "p99", 99.0, "p999", 99.9);
+
+    @Nullable private final PhaseResult direct;
+    private final PhaseResult proxied;
+
+    Report(@Nullable PhaseResult direct, PhaseResult proxied) {
+      this.direct = direct;
+      this.proxied = proxied;
+    }
+
+    @Nullable
+    PhaseResult getDirect() {
+      return direct;
+    }
+
+    PhaseResult getProxied() {
+      return proxied;
+    }
+
+    void print(PrintStream out) {
+      if (direct != null) {
+        print(out, direct);
+        out.println();
+      }
+      print(out, proxied);
+
+      if (direct == null) {
+        return;
+      }
+      out.println();
+      LatencyHistogram directTotal = direct.getTotal();
+      LatencyHistogram proxiedTotal = proxied.getTotal();
+      StringBuilder added = new StringBuilder("Latency added by the proxy:");
+      for (Map.Entry<String, Double> percentile : PERCENTILES.entrySet()) {
+        long delta =
+            proxiedTotal.getValueAtPercentile(percentile.getValue())
+                - directTotal.getValueAtPercentile(percentile.getValue());
+        added.append(String.format(" %s %+.1fus", percentile.getKey(), delta / 1e3));
+      }
+      out.println(added);
+      if (direct.getAllocatedBytesPerCall() >= 0 && proxied.getAllocatedBytesPerCall() >= 0) {
+        out.printf(
+            "Allocations added by the proxy: %+d bytes/call%n",
+            proxied.getAllocatedBytesPerCall() - direct.getAllocatedBytesPerCall());
+      }
+    }
+
+    private static void print(PrintStream out, PhaseResult result) {
+      out.printf(
+          "%s: %d calls, %.0f calls/s, %d errors%n",
+          result.getName(),
+          result.getTotal().getCount(),
+          result.getCallsPerSecond(),
+          result.getErrorCount());
+
+      StringBuilder header = new StringBuilder(String.format("  %-12s %10s", "call", "count"));
+      for (String percentile : PERCENTILES.keySet()) {
+        header.append(String.format(" %10s", percentile + " (us)"));
+      }
+      header.append(String.format(" %10s", "max (us)"));
+      out.println(header);
+
+      for (Workload workload : Workload.values()) {
+        LatencyHistogram histogram = result.getHistogram(workload);
+        if (histogram.getCount() > 0) {
+          printRow(out, workload.name(), histogram);
+        }
+      }
+      printRow(out, "ALL", result.getTotal());
+
+      long allocatedBytesPerCall = result.getAllocatedBytesPerCall();
+      if (allocatedBytesPerCall >= 0) {
+        out.printf("  allocated: %d bytes/call%n", allocatedBytesPerCall);
+      } else {
+        out.println("  allocated: unavailable on this JVM");
+      }
+    }
+
+    private static void printRow(PrintStream out, String name, LatencyHistogram histogram) {
+      StringBuilder row =
+          new StringBuilder(String.format("  %-12s %10d", name, histogram.getCount()));
+      for (double percentile : PERCENTILES.values()) {
+        row.append(String.format(" %10.1f", histogram.getValueAtPercentile(percentile) / 1e3));
+      }
+      row.append(String.format(" %10.1f", histogram.getMax() / 1e3));
+      out.println(row);
+    }
+  }
+
+  /** Responds to every call immediately with prebuilt responses. */
+  private static class FakeBigtable extends BigtableImplBase {
+    private final ImmutableList<ReadRowsResponse> readRowsResponses;
+    private final MutateRowsResponse mutateRowsResponse;
+
+    FakeBigtable(int rowsPerRead, int entriesPerMutateRows, ByteString value) {
+      ImmutableList.Builder<ReadRowsResponse> readRowsBuilder = ImmutableList.builder();
+      for (int i = 0; i < rowsPerRead; i++) {
+        readRowsBuilder.add(
+            ReadRowsResponse.newBuilder()
+                .addChunks(
+                    CellChunk.newBuilder()
+                        .setRowKey(ByteString.copyFromUtf8(String.format("row-%08d", i)))
+                        .setFamilyName(StringValue.of("cf"))
+                        .setQualifier(BytesValue.of(ByteString.copyFromUtf8("q")))
+                        .setTimestampMicros(1_000)
+                        .setValue(value)
+                        .setCommitRow(true))
+                .build());
+      }
+      readRowsResponses = readRowsBuilder.build();
+
+      MutateRowsResponse.Builder mutateRowsBuilder = MutateRowsResponse.newBuilder();
+      for (int i = 0; i < entriesPerMutateRows; i++) {
+        mutateRowsBuilder.addEntriesBuilder().setIndex(i);
+      }
+      mutateRowsResponse = mutateRowsBuilder.build();
+    }
+
+    @Override
+    public void readRows(
+        ReadRowsRequest request, StreamObserver<ReadRowsResponse> responseObserver) {
+      for (ReadRowsResponse response : readRowsResponses) {
+        responseObserver.onNext(response);
+      }
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void mutateRows(
+        MutateRowsRequest request, StreamObserver<MutateRowsResponse> responseObserver) {
+      responseObserver.onNext(mutateRowsResponse);
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void mutateRow(
+        MutateRowRequest request, StreamObserver<MutateRowResponse> responseObserver) {
+      responseObserver.onNext(MutateRowResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.commands;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+
+/**
+ * How gRPC callbacks are executed for the proxy's server and its upstream channels.
+ *
+ * <p>The proxy handlers never block, so running callbacks directly on the Netty event loop avoids
+ * a thread hop per message. The other modes trade that for isolation from slow callbacks.
+ */
+enum ExecutorMode {
+  /** gRPC's shared, unbounded cached thread pool. */
+  DEFAULT,
+  /** Run callbacks on the transport thread that delivered them. */
+  DIRECT,
+  /** A fixed size thread pool. */
+  BOUNDED,
+  /** A virtual thread per task. Requires Java 21+. */
+  VIRTUAL;
+
+  /**
+   * Create the executor for this mode.
+   *
+   * @param name used to name the threads of the pool
+   * @param threads number of threads for {@link #BOUNDED}, ignored otherwise
+   * @return null for {@link #DEFAULT}, which means that gRPC should use its own executor. Any
+   *     returned {@link ExecutorService} is owned by the caller and must be shut down.
+   */
+  @Nullable
+  Executor createExecutor(String name, int threads) {
+    switch (this) {
+      case DEFAULT:
+        return null;
+      case DIRECT:
+        return MoreExecutors.directExecutor();
+      case BOUNDED:
+        return Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build());
+      case VIRTUAL:
+        return newVirtualThreadPerTaskExecutor();
+      default:
+        throw new IllegalStateException("Unexpected executor mode: " + this);
+    }
+  }
+
+  // The proxy targets Java 11, so virtual threads can only be used reflectively
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(
+          "Virtual threads require Java 21+, current version: " + Runtime.version(), e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Failed to create a virtual thread executor", e);
+    }
+  }
+}
@@ -21,31 +21,55 @@ import com.google.auth.oauth2.GoogleCredentials;
 import com.google.bigtable.admin.v2.BigtableInstanceAdminGrpc;
 import com.google.bigtable.admin.v2.BigtableTableAdminGrpc;
 import com.google.bigtable.v2.BigtableGrpc;
+import com.google.cloud.bigtable.examples.proxy.admission.AdmissionController;
+import com.google.cloud.bigtable.examples.proxy.admission.AdmissionSettings;
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelFactory;
 import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPool;
 import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings;
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings.LoadBalancingStrategy;
 import com.google.cloud.bigtable.examples.proxy.channelpool.DataChannel;
 import com.google.cloud.bigtable.examples.proxy.channelpool.ResourceCollector;
 import com.google.cloud.bigtable.examples.proxy.core.ProxyHandler;
 import com.google.cloud.bigtable.examples.proxy.core.Registry;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgingController;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgingSettings;
 import com.google.cloud.bigtable.examples.proxy.metrics.InstrumentedCallCredentials;
 import com.google.cloud.bigtable.examples.proxy.metrics.Metrics;
 import com.google.cloud.bigtable.examples.proxy.metrics.MetricsImpl;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.Exporter;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.HistogramAggregation;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.longrunning.OperationsGrpc;
 import io.grpc.CallCredentials;
+import io.grpc.HandlerRegistry;
 import io.grpc.InsecureServerCredentials;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
 import io.grpc.ServerCallHandler;
 import io.grpc.auth.MoreCallCredentials;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine.Command;
@@ -77,18 +101,218 @@ public class Serve implements Callable<Void> {
       showDefaultValue = Visibility.ALWAYS)
   Endpoint adminEndpoint = Endpoint.create("bigtableadmin.googleapis.com", 443);
 
+  @Option(
+      names = "--metrics-exporter",
+      description =
+          "Where metrics are exported to. NONE disables metrics collection. Valid values:"
+              + " ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  Exporter metricsExporter = Exporter.GOOGLE_CLOUD;
+
   @Option(
       names = "--metrics-project-id",
-      required = true,
-      description = "The project id where metrics should be exported")
+      description =
+          "The project id where metrics should be exported. Required when --metrics-exporter is"
+              + " GOOGLE_CLOUD")
   String metricsProjectId = null;
 
+  @Option(
+      names = "--metrics-prometheus-port",
+      description = "Local port of the Prometheus endpoint when --metrics-exporter is PROMETHEUS",
+      showDefaultValue = Visibility.ALWAYS)
+  int metricsPrometheusPort = 9464;
+
+  @Option(
+      names = "--metrics-otlp-endpoint",
+      description = "URL of the OTLP gRPC collector when --metrics-exporter is OTLP",
+      showDefaultValue = Visibility.ALWAYS)
+  String metricsOtlpEndpoint = "http://localhost:4317";
+
+  @Option(
+      names = "--metrics-histogram",
+      description =
+          "How latency and size histograms are aggregated. Valid values: ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  HistogramAggregation metricsHistogramAggregation = HistogramAggregation.EXPLICIT_BUCKETS;
+
+  @Option(
+      names = "--metrics-max-attribute-values",
+      description =
+          "Maximum number of distinct values of each call attribute (ie. resource or api client)."
+              + " Additional values are reported as <overflow>",
+      showDefaultValue = Visibility.ALWAYS)
+  int metricsMaxAttributeValues = 100;
+
+  @Option(
+      names = "--channel-pool-lb-strategy",
+      description =
+          "How the data channel pool picks a channel for each call. Valid values:"
+              + " ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  LoadBalancingStrategy loadBalancingStrategy = LoadBalancingStrategy.ROUND_ROBIN;
+
+  @Option(
+      names = "--channel-pool-predictive-resize",
+      negatable = true,
+      description =
+          "Resize the data channel pool using sub-second sampling and burst detection instead of"
+              + " once a minute",
+      showDefaultValue = Visibility.ALWAYS)
+  boolean predictiveResize = false;
+
+  @Option(
+      names = "--passthrough-marshaller",
+      negatable = true,
+      description =
+          "Forward message buffers between the inbound and outbound calls without copying them"
+              + " onto the heap",
+      showDefaultValue = Visibility.ALWAYS)
+  boolean passthroughMarshaller = true;
+
+  @Option(
+      names = "--admission-control",
+      description =
+          "Limit the number of concurrent data calls per resource, app profile and method. Calls"
+              + " over the limit are queued and then rejected with RESOURCE_EXHAUSTED",
+      showDefaultValue = Visibility.ALWAYS)
+  boolean admissionControlEnabled = false;
+
+  @Option(
+      names = "--admission-initial-limit",
+      description = "The initial concurrency limit for each admission key",
+      showDefaultValue = Visibility.ALWAYS)
+  int admissionInitialLimit = 20;
+
+  @Option(
+      names = "--admission-max-limit",
+      description = "The maximum concurrency limit for each admission key",
+      showDefaultValue = Visibility.ALWAYS)
+  int admissionMaxLimit = 1000;
+
+  @Option(
+      names = "--admission-latency-threshold-ms",
+      description = "Calls slower than this will shrink the concurrency limit",
+      showDefaultValue = Visibility.ALWAYS)
+  long admissionLatencyThresholdMs = 5_000;
+
+  @Option(
+      names = "--admission-max-queue-size",
+      description = "The maximum number of calls waiting for admission for each admission key",
+      showDefaultValue = Visibility.ALWAYS)
+  int admissionMaxQueueSize = 100;
+
+  @Option(
+      names = "--admission-max-queue-wait-ms",
+      description = "The maximum time a call can wait for admission before being rejected",
+      showDefaultValue = Visibility.ALWAYS)
+  long admissionMaxQueueWaitMs = 1_000;
+
+  @Option(
+      names = "--hedging",
+      description =
+          "Send a duplicate of slow ReadRows and SampleRowKeys calls on another channel and use"
+              + " whichever response arrives first",
+      showDefaultValue = Visibility.ALWAYS)
+  boolean hedgingEnabled = false;
+
+  @Option(
+      names = "--hedging-latency-percentile",
+      description =
+          "Calls are hedged once they've waited longer than this percentile of the recent first"
+              + " response latencies",
+      showDefaultValue = Visibility.ALWAYS)
+  double hedgingLatencyPercentile = 95;
+
+  @Option(
+      names = "--hedging-min-delay-ms",
+      description = "Calls are never hedged sooner than this",
+      showDefaultValue = Visibility.ALWAYS)
+  long hedgingMinDelayMs = 5;
+
+  @Option(
+      names = "--hedging-max-delay-ms",
+      description = "Calls are always hedged after this",
+      showDefaultValue = Visibility.ALWAYS)
+  long hedgingMaxDelayMs = 1_000;
+
+  @Option(
+      names = "--hedging-budget-ratio",
+      description = "The maximum number of hedges per hedgeable call, averaged over time",
+      showDefaultValue = Visibility.ALWAYS)
+  double hedgingBudgetRatio = 0.05;
+
+  @Option(
+      names = "--server-executor",
+      description =
+          "Where the proxy's server callbacks are executed. DIRECT runs them on the Netty event"
+              + " loop and VIRTUAL requires Java 21+. Valid values: ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  ExecutorMode serverExecutorMode = ExecutorMode.DEFAULT;
+
+  @Option(
+      names = "--server-executor-threads",
+      description = "Number of threads when --server-executor is BOUNDED",
+      showDefaultValue = Visibility.ALWAYS)
+  int serverExecutorThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+  @Option(
+      names = "--channel-executor",
+      description =
+          "Where the data channels' callbacks are executed. Valid values:"
+              + " ${COMPLETION-CANDIDATES}",
+      showDefaultValue = Visibility.ALWAYS)
+  ExecutorMode channelExecutorMode = ExecutorMode.DEFAULT;
+
+  @Option(
+      names = "--channel-executor-threads",
+      description = "Number of threads when --channel-executor is BOUNDED",
+      showDefaultValue = Visibility.ALWAYS)
+  int channelExecutorThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+  @Option(
+      names = "--server-event-loop-threads",
+      description =
+          "Number of Netty event loop threads for accepted connections. 0 uses gRPC's shared"
+              + " event loop",
+      showDefaultValue = Visibility.ALWAYS)
+  int serverEventLoopThreads = 0;
+
+  @Option(
+      names = "--channel-event-loop-threads",
+      description =
+          "Number of Netty event loop threads for the data channels. 0 uses gRPC's shared event"
+              + " loop",
+      showDefaultValue = Visibility.ALWAYS)
+  int channelEventLoopThreads = 0;
+
+  @Option(
+      names = "--maintenance-threads",
+      description = "Number of threads used to warm, refresh and resize channels",
+      showDefaultValue = Visibility.ALWAYS)
+  int maintenanceThreads = 1;
+
+  @Option(
+      names = "--call-timer-threads",
+      description =
+          "Number of threads that fire the hedge delays and admission queue timeouts of calls."
+              + " Only used with --hedging or --admission-control",
+      showDefaultValue = Visibility.ALWAYS)
+  int callTimerThreads = 2;
+
   ManagedChannel adminChannel = null;
   ManagedChannel dataChannel = null;
+  // Creates the channels of the data channel pool, defaults to DataChannel.Factory
+  ChannelFactory dataChannelFactory = null;
   Credentials credentials = null;
   Server server;
   Metrics metrics;
+  AdmissionController admissionController = null;
+  HedgingController hedgingController = null;
   private ScheduledExecutorService refreshExecutor;
+  // Per call timers are kept off refreshExecutor, so that they don't wait behind channel warming
+  @Nullable private ScheduledExecutorService callTimerExecutor;
+  private final List<ExecutorService> ownedExecutors = new ArrayList<>();
+  private final List<EventLoopGroup> ownedEventLoopGroups = new ArrayList<>();
 
   @Override
   public Void call() throws Exception {
@@ -109,11 +333,41 @@ public class Serve implements Callable<Void> {
       // InstrumentedCallCredentials expect to only be called when a Tracer is available in the
       // CallOptions. This is only true for DataChannel pingAndWarm and things invoked by
       // ProxyHandler. MetricsImpl does not do this, so it must get undecorated credentials.
-      metrics = new MetricsImpl(credentials, metricsProjectId);
+      metrics =
+          MetricsImpl.create(
+              MetricsSettings.builder()
+                  .setExporter(metricsExporter)
+                  .setProjectId(metricsProjectId)
+                  .setPrometheusPort(metricsPrometheusPort)
+                  .setOtlpEndpoint(metricsOtlpEndpoint)
+                  .setHistogramAggregation(metricsHistogramAggregation)
+                  .setMaxAttributeValues(metricsMaxAttributeValues)
+                  .build(),
+              credentials);
     }
 
     ResourceCollector resourceCollector = new ResourceCollector();
-    refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+    refreshExecutor =
+        Executors.newScheduledThreadPool(
+            maintenanceThreads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("proxy-maintenance-%d")
+                .build());
+
+    Executor channelExecutor =
+        createExecutor(channelExecutorMode, "proxy-channel", channelExecutorThreads);
+    EventLoopGroup channelEventLoopGroup =
+        createEventLoopGroup(channelEventLoopThreads, "proxy-channel-event-loop");
+    Consumer<NettyChannelBuilder> channelConfigurator =
+        builder -> {
+          if (channelExecutor != null) {
+            builder.executor(channelExecutor);
+          }
+          if (channelEventLoopGroup != null) {
+            builder.eventLoopGroup(channelEventLoopGroup).channelType(NioSocketChannel.class);
+          }
+        };
 
     ChannelPoolSettings poolSettings =
         ChannelPoolSettings.builder()
@@ -123,21 +377,48 @@ public class Serve implements Callable<Void> {
             .setMinRpcsPerChannel(5)
             .setMaxRpcsPerChannel(50)
             .setPreemptiveRefreshEnabled(true)
+            .setLoadBalancingStrategy(loadBalancingStrategy)
+            .setPredictiveResizeEnabled(predictiveResize)
             .build();
 
     if (dataChannel == null) {
+      if (dataChannelFactory == null) {
+        dataChannelFactory =
+            new DataChannel.Factory(
+                resourceCollector,
+                userAgent,
+                callCredentials,
+                dataEndpoint.getName(),
+                dataEndpoint.getPort(),
+                refreshExecutor,
+                metrics,
+                channelConfigurator);
+      }
       dataChannel =
-          ChannelPool.create(
-              poolSettings,
-              () ->
-                  new DataChannel(
-                      resourceCollector,
-                      userAgent,
-                      callCredentials,
-                      dataEndpoint.getName(),
-                      dataEndpoint.getPort(),
-                      refreshExecutor,
-                      metrics));
+          ChannelPool.create(poolSettings, dataChannelFactory, metrics::recordChannelPoolResize);
+    }
+
+    if (admissionControlEnabled && admissionController == null) {
+      AdmissionSettings admissionSettings =
+          AdmissionSettings.builder()
+              .setInitialLimit(admissionInitialLimit)
+              .setMaxLimit(admissionMaxLimit)
+              .setLatencyThreshold(Duration.ofMillis(admissionLatencyThresholdMs))
+              .setMaxQueueSize(admissionMaxQueueSize)
+              .setMaxQueueWait(Duration.ofMillis(admissionMaxQueueWaitMs))
+              .build();
+      admissionController = new AdmissionController(admissionSettings, getCallTimerExecutor());
+    }
+
+    if (hedgingEnabled && hedgingController == null) {
+      HedgingSettings hedgingSettings =
+          HedgingSettings.builder()
+              .setLatencyPercentile(hedgingLatencyPercentile)
+              .setMinDelay(Duration.ofMillis(hedgingMinDelayMs))
+              .setMaxDelay(Duration.ofMillis(hedgingMaxDelayMs))
+              .setBudgetRatio(hedgingBudgetRatio)
+              .build();
+      hedgingController = new HedgingController(hedgingSettings, getCallTimerExecutor());
     }
 
     if (adminChannel == null) {
@@ -148,31 +429,122 @@ public class Serve implements Callable<Void> {
               .build();
     }
 
-    Map<String, ServerCallHandler<byte[], byte[]>> serviceMap =
-        ImmutableMap.of(
-            BigtableGrpc.SERVICE_NAME,
-            new ProxyHandler<>(metrics, dataChannel, callCredentials),
-            BigtableInstanceAdminGrpc.SERVICE_NAME,
-            new ProxyHandler<>(metrics, adminChannel, callCredentials),
-            BigtableTableAdminGrpc.SERVICE_NAME,
-            new ProxyHandler<>(metrics, adminChannel, callCredentials),
-            OperationsGrpc.SERVICE_NAME,
-            new ProxyHandler<>(metrics, adminChannel, callCredentials));
+    HandlerRegistry registry =
+        passthroughMarshaller
+            ? Registry.passthrough(createServiceMap(callCredentials))
+            : Registry.copying(createServiceMap(callCredentials));
 
-    server =
+    NettyServerBuilder serverBuilder =
         NettyServerBuilder.forAddress(
                 new InetSocketAddress("localhost", listenPort), InsecureServerCredentials.create())
-            .fallbackHandlerRegistry(new Registry(serviceMap))
-            .maxInboundMessageSize(256 * 1024 * 1024)
-            .build();
+            .fallbackHandlerRegistry(registry)
+            .maxInboundMessageSize(256 * 1024 * 1024);
+
+    Executor serverExecutor =
+        createExecutor(serverExecutorMode, "proxy-server", serverExecutorThreads);
+    if (serverExecutor != null) {
+      serverBuilder.executor(serverExecutor);
+    }
+    EventLoopGroup serverEventLoopGroup =
+        createEventLoopGroup(serverEventLoopThreads, "proxy-server-event-loop");
+    if (serverEventLoopGroup != null) {
+      serverBuilder
+          .bossEventLoopGroup(createEventLoopGroup(1, "proxy-server-boss"))
+          .workerEventLoopGroup(serverEventLoopGroup)
+          .channelType(NioServerSocketChannel.class);
+    }
+
+    server = serverBuilder.build();
 
     server.start();
     LOGGER.info("Listening on port {}", server.getPort());
   }
 
+  private <T> Map<String, ServerCallHandler<T, T>> createServiceMap(
+      CallCredentials callCredentials) {
+    return ImmutableMap.of(
+        BigtableGrpc.SERVICE_NAME,
+        new ProxyHandler<>(
+            metrics, dataChannel, callCredentials, admissionController, hedgingController),
+        BigtableInstanceAdminGrpc.SERVICE_NAME,
+        new ProxyHandler<>(metrics, adminChannel, callCredentials),
+        BigtableTableAdminGrpc.SERVICE_NAME,
+        new ProxyHandler<>(metrics, adminChannel, callCredentials),
+        OperationsGrpc.SERVICE_NAME,
+        new ProxyHandler<>(metrics, adminChannel, callCredentials));
+  }
+
+  private ScheduledExecutorService getCallTimerExecutor() {
+    if (callTimerExecutor == null) {
+      callTimerExecutor =
+          Executors.newScheduledThreadPool(
+              callTimerThreads,
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("proxy-call-timer-%d")
+                  .build());
+    }
+    return callTimerExecutor;
+  }
+
+  /**
+   * @return the executor for the mode, or null if gRPC should use its default. Executors that
+   *     need to be shut down are tracked for {@link #cleanup()}.
+   */
+  @Nullable
+  private Executor createExecutor(ExecutorMode mode, String name, int threads) {
+    Executor executor = mode.createExecutor(name, threads);
+    if (executor instanceof ExecutorService) {
+      ownedExecutors.add((ExecutorService) executor);
+    }
+    return executor;
+  }
+
+  /** @return a dedicated event loop group, or null if gRPC should use its shared event loop. */
+  @Nullable
+  private EventLoopGroup createEventLoopGroup(int threads, String name) {
+    if (threads <= 0) {
+      return null;
+    }
+    EventLoopGroup group =
+        new NioEventLoopGroup(
+            threads,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build());
+    ownedEventLoopGroups.add(group);
+    return group;
+  }
+
+  /** Releases everything {@link #start()} created, even if it failed part way through. */
   void cleanup() throws InterruptedException {
-    refreshExecutor.shutdown();
-    dataChannel.shutdown();
-    adminChannel.shutdown();
+    if (refreshExecutor != null) {
+      refreshExecutor.shutdown();
+    }
+    if (callTimerExecutor != null) {
+      callTimerExecutor.shutdown();
+    }
+    if (dataChannel != null) {
+      dataChannel.shutdown();
+    }
+    if (adminChannel != null) {
+      adminChannel.shutdown();
+    }
+
+    if (ownedExecutors.isEmpty() && ownedEventLoopGroups.isEmpty()) {
+      return;
+    }
+    // Stop the transports before tearing down the threads they run on
+    if (server != null) {
+      server.shutdownNow();
+      server.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    if (dataChannel != null) {
+      dataChannel.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    for (ExecutorService executor : ownedExecutors) {
+      executor.shutdown();
+    }
+    for (EventLoopGroup group : ownedEventLoopGroups) {
+      group.shutdownGracefully();
+    }
   }
 }
@@ -17,9 +17,12 @@
 package com.google.cloud.bigtable.examples.proxy.core;
 
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.bigtable.v2.PingAndWarmRequest;
 import com.google.bigtable.v2.PingAndWarmRequest.Builder;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import io.grpc.Metadata;
 import io.grpc.Metadata.Key;
@@ -30,6 +33,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +68,12 @@ public abstract class CallLabels {
   static final Key<String> API_CLIENT =
       Key.of("x-goog-api-client", Metadata.ASCII_STRING_MARSHALLER);
 
+  private static final String MISSING_LABEL = "<missing>";
+  private static final String ERROR_LABEL = "<error>";
+
+  private static final Cache<String, ParsedRequestParams> PARSED_REQUEST_PARAMS =
+      CacheBuilder.newBuilder().maximumSize(10_000).build();
+
   enum ResourceNameType {
     Parent("parent", 0),
     Name("name", 1),
@@ -144,8 +154,62 @@ public abstract class CallLabels {
     if (getRequestParams().isEmpty()) {
       return getLegacyResourcePrefix();
     }
+    return getParsedRequestParams().getResourceName();
+  }
+
+  /**
+   * Extracts the app profile id from {@link #getRequestParams()}. Returns {@link Optional#empty()}
+   * if the key is missing. The value will be url decoded.
+   */
+  public Optional<String> extractAppProfileId() throws ParsingException {
+    return getParsedRequestParams().getAppProfileId();
+  }
+
+  /**
+   * Returns the resource name as a label to key per resource state and metrics by. Unlike {@link
+   * #extractResourceName()} this never fails: {@code <missing>} stands in for an absent resource
+   * name and {@code <error>} for one that can't be parsed.
+   */
+  public String getResourceNameLabel() {
+    try {
+      return extractResourceName().orElse(MISSING_LABEL);
+    } catch (ParsingException e) {
+      LOG.warn("Failed to extract resource from callLabels: {}", this, e);
+      return ERROR_LABEL;
+    }
+  }
 
+  /**
+   * Returns the app profile id as a label, with the same fallbacks as {@link
+   * #getResourceNameLabel()}.
+   */
+  public String getAppProfileIdLabel() {
+    try {
+      return extractAppProfileId().orElse(MISSING_LABEL);
+    } catch (ParsingException e) {
+      LOG.warn("Failed to extract app profile from callLabels: {}", this, e);
+      return ERROR_LABEL;
+    }
+  }
+
+  /**
+   * Looks up the parsed form of {@link #getRequestParams()}. Clients send the same handful of
+   * header values over and over, so the parsed values are interned by the raw header value. This
+   * makes the per call cost a hash lookup instead of splitting and url decoding the header.
+   */
+  @Memoized
+  ParsedRequestParams getParsedRequestParams() {
     String requestParams = getRequestParams().orElse("");
+    ParsedRequestParams parsed = PARSED_REQUEST_PARAMS.getIfPresent(requestParams);
+    if (parsed == null) {
+      parsed = ParsedRequestParams.parse(requestParams);
+      PARSED_REQUEST_PARAMS.put(requestParams, parsed);
+    }
+    return parsed;
+  }
+
+  private static Optional<String> parseResourceName(String requestParams)
+      throws ParsingException {
     String[] encodedKvPairs = requestParams.split("&");
     Optional<ResourceName> resourceName = Optional.empty();
 
@@ -187,13 +251,8 @@ public abstract class CallLabels {
     return Optional.empty();
   }
 
-  /**
-   * Extracts the app profile id from {@link #getRequestParams()}. Returns {@link Optional#empty()}
-   * if the key is missing. The value will be url decoded.
-   */
-  public Optional<String> extractAppProfileId() throws ParsingException {
-    String requestParams = getRequestParams().orElse("");
-
+  private static Optional<String> parseAppProfileId(String requestParams)
+      throws ParsingException {
     for (String encodedPair : requestParams.split("&")) {
       if (!encodedPair.startsWith("app_profile_id=")) {
         continue;
@@ -213,6 +272,63 @@ public abstract class CallLabels {
     }
   }
 
+  /**
+   * The values extracted from a {@code x-goog-request-params} header. Parsing failures are
+   * captured, so that a malformed header is only parsed once as well.
+   */
+  static final class ParsedRequestParams {
+    private final Optional<String> resourceName;
+    @Nullable private final ParsingException resourceNameError;
+    private final Optional<String> appProfileId;
+    @Nullable private final ParsingException appProfileIdError;
+
+    private ParsedRequestParams(
+        Optional<String> resourceName,
+        @Nullable ParsingException resourceNameError,
+        Optional<String> appProfileId,
+        @Nullable ParsingException appProfileIdError) {
+      this.resourceName = resourceName;
+      this.resourceNameError = resourceNameError;
+      this.appProfileId = appProfileId;
+      this.appProfileIdError = appProfileIdError;
+    }
+
+    static ParsedRequestParams parse(String requestParams) {
+      Optional<String> resourceName = Optional.empty();
+      ParsingException resourceNameError = null;
+      try {
+        resourceName = parseResourceName(requestParams);
+      } catch (ParsingException e) {
+        resourceNameError = e;
+      }
+
+      Optional<String> appProfileId = Optional.empty();
+      ParsingException appProfileIdError = null;
+      try {
+        appProfileId = parseAppProfileId(requestParams);
+      } catch (ParsingException e) {
+        appProfileIdError = e;
+      }
+
+      return new ParsedRequestParams(
+          resourceName, resourceNameError, appProfileId, appProfileIdError);
+    }
+
+    Optional<String> getResourceName() throws ParsingException {
+      if (resourceNameError != null) {
+        throw new ParsingException(resourceNameError.getMessage(), resourceNameError.getCause());
+      }
+      return resourceName;
+    }
+
+    Optional<String> getAppProfileId() throws ParsingException {
+      if (appProfileIdError != null) {
+        throw new ParsingException(appProfileIdError.getMessage(), appProfileIdError.getCause());
+      }
+      return appProfileId;
+    }
+  }
+
   /**
    * Can be derived from {@link CallLabels} to create a priming request to keep the channel active
    * for future RPCs.
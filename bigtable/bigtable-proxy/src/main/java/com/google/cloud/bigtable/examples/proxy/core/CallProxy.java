@@ -22,6 +22,8 @@ import io.grpc.ClientCall;
 import io.grpc.Metadata;
 import io.grpc.ServerCall;
 import io.grpc.Status;
+import java.io.Closeable;
+import java.io.IOException;
 import javax.annotation.concurrent.GuardedBy;
 
 /** A per gppc RPC proxy. */
@@ -33,6 +35,11 @@ class CallProxy<ReqT, RespT> {
 
   private final Stopwatch downstreamStopwatch = Stopwatch.createUnstarted();
 
+  // Set once a call can no longer deliver messages. A cancelled or closed call may drop a message
+  // without closing it, so messages for it are released here instead.
+  private volatile boolean clientCallDone;
+  private volatile boolean serverCallDone;
+
   /**
    * @param tracer a lifecycle observer to publish metrics.
    * @param serverCall the incoming server call. This will be triggered a customer client.
@@ -53,6 +60,22 @@ class CallProxy<ReqT, RespT> {
     clientCallListener = new ResponseProxy(serverCall);
   }
 
+  /**
+   * Messages produced by {@link PassthroughMarshaller} hold on to transport buffers until they are
+   * closed. The transport closes them once they are written, but if the write is rejected, or the
+   * call is done and drops them, they must be closed here to avoid leaking the buffers. Closing a
+   * message that was already closed does nothing.
+   */
+  private static void releaseQuietly(Object message) {
+    if (message instanceof Closeable) {
+      try {
+        ((Closeable) message).close();
+      } catch (IOException | RuntimeException ignored) {
+        // Best effort
+      }
+    }
+  }
+
   /**
    * Back pressure aware message pump of request messages from a customer's downstream client to
    * upstream Bigtable service.
@@ -79,6 +102,8 @@ class CallProxy<ReqT, RespT> {
 
     @Override
     public void onCancel() {
+      serverCallDone = true;
+      clientCallDone = true;
       clientCall.cancel("Server cancelled", null);
     }
 
@@ -89,7 +114,21 @@ class CallProxy<ReqT, RespT> {
 
     @Override
     public void onMessage(ReqT message) {
-      clientCall.sendMessage(message);
+      if (clientCallDone) {
+        releaseQuietly(message);
+        return;
+      }
+      try {
+        clientCall.sendMessage(message);
+      } catch (RuntimeException e) {
+        releaseQuietly(message);
+        throw e;
+      }
+      if (clientCallDone) {
+        // The call finished while the message was being sent, and may have dropped it.
+        releaseQuietly(message);
+        return;
+      }
       synchronized (this) {
         if (clientCall.isReady()) {
           clientCallListener.serverCall.request(1);
@@ -140,8 +179,10 @@ class CallProxy<ReqT, RespT> {
 
     @Override
     public void onClose(Status status, Metadata trailers) {
+      clientCallDone = true;
       tracer.onCallFinished(status);
 
+      serverCallDone = true;
       serverCall.close(status, trailers);
     }
 
@@ -152,7 +193,21 @@ class CallProxy<ReqT, RespT> {
 
     @Override
     public void onMessage(RespT message) {
-      serverCall.sendMessage(message);
+      if (serverCallDone) {
+        releaseQuietly(message);
+        return;
+      }
+      try {
+        serverCall.sendMessage(message);
+      } catch (RuntimeException e) {
+        releaseQuietly(message);
+        throw e;
+      }
+      if (serverCallDone) {
+        // The call was cancelled while the message was being sent, and may have dropped it.
+        releaseQuietly(message);
+        return;
+      }
       synchronized (this) {
         if (serverCall.isReady()) {
           serverCallListener.clientCall.request(1);
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgeGroup;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgePolicy;
+import com.google.cloud.bigtable.examples.proxy.metrics.Tracer;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A per gRPC RPC proxy that hedges slow calls.
+ *
+ * <p>The call is first sent like {@link CallProxy} would. If its first response hasn't arrived
+ * once the {@link HedgePolicy}'s delay expires, and the hedge budget allows it, a duplicate is sent
+ * on a different channel of the pool. The first attempt to respond wins: its responses are relayed
+ * to the customer's client and the other attempt is cancelled.
+ *
+ * <p>Only methods with a single request message can be hedged, the request is buffered so that it
+ * can be sent again.
+ */
+class HedgingCallProxy<ReqT, RespT> {
+  private final Tracer tracer;
+  private final HedgePolicy policy;
+  private final Channel channel;
+  private final ServerCall<ReqT, RespT> serverCall;
+  private final MethodDescriptor<ReqT, RespT> method;
+  private final CallOptions hedgeCallOptions;
+  private final Metadata hedgeHeaders;
+  private final Context context;
+  private final long startNanos = System.nanoTime();
+
+  private final Attempt primary;
+  final RequestListener serverCallListener = new RequestListener();
+
+  private final Object lock = new Object();
+
+  // Set once and never changed, volatile so that the responses of the winner skip the lock
+  @GuardedBy("lock")
+  private volatile Attempt winner;
+
+  @GuardedBy("lock")
+  private boolean cancelled;
+
+  @GuardedBy("lock")
+  private final List<Attempt> attempts = new ArrayList<>(2);
+
+  @GuardedBy("lock")
+  private byte[] request;
+
+  @GuardedBy("lock")
+  private ScheduledFuture<?> hedgeTimer;
+
+  private final Stopwatch downstreamStopwatch = Stopwatch.createUnstarted();
+
+  /**
+   * @param tracer a lifecycle observer to publish metrics.
+   * @param policy decides when to send the hedge.
+   * @param channel the channel pool to send the attempts on.
+   * @param serverCall the incoming server call.
+   * @param callOptions the options of the outgoing calls, without a {@link Tracer}.
+   * @param headers the headers of the outgoing calls.
+   * @param context the incoming call's context, which the hedge inherits its deadline and
+   *     cancellation from. Calls admitted from a queue are started on another call's thread, so
+   *     this can't be read from {@link Context#current()}.
+   */
+  HedgingCallProxy(
+      Tracer tracer,
+      HedgePolicy policy,
+      Channel channel,
+      ServerCall<ReqT, RespT> serverCall,
+      CallOptions callOptions,
+      Metadata headers,
+      Context context) {
+    this.tracer = tracer;
+    this.policy = policy;
+    this.channel = channel;
+    this.serverCall = serverCall;
+    this.method = serverCall.getMethodDescriptor();
+    this.context = context;
+
+    callOptions = callOptions.withOption(HedgeGroup.CALL_OPTION_KEY, new HedgeGroup());
+    // Only the first attempt is observed by the tracer's stream callbacks, otherwise messages
+    // would be counted twice
+    this.hedgeCallOptions = tracer.injectIntoAttemptCallOptions(callOptions);
+
+    // The transport can modify the headers once a call is started
+    this.hedgeHeaders = new Metadata();
+    hedgeHeaders.merge(headers);
+
+    policy.onCallStarted();
+    // A new call inherits the current context, which must be the incoming call's
+    Context previous = context.attach();
+    try {
+      primary =
+          new Attempt(
+              channel.newCall(method, tracer.injectIntoCallOptions(callOptions)), false, headers);
+    } finally {
+      context.detach(previous);
+    }
+  }
+
+  void start() {
+    synchronized (lock) {
+      attempts.add(primary);
+    }
+    primary.start();
+    serverCall.request(1);
+  }
+
+  private static void releaseQuietly(Object message) {
+    if (message instanceof Closeable) {
+      try {
+        ((Closeable) message).close();
+      } catch (IOException | RuntimeException ignored) {
+        // Best effort
+      }
+    }
+  }
+
+  private ReqT copyRequest(byte[] bytes) {
+    return method.parseRequest(new ByteArrayInputStream(bytes));
+  }
+
+  private void sendHedge() {
+    synchronized (lock) {
+      hedgeTimer = null;
+      if (winner != null || cancelled || request == null) {
+        return;
+      }
+      if (!policy.tryAcquireHedge()) {
+        tracer.onHedgeThrottled();
+        return;
+      }
+      // Started while holding the lock, so that it can't be cancelled by a commit before it starts
+      Attempt hedge = new Attempt(channel.newCall(method, hedgeCallOptions), true, hedgeHeaders);
+      attempts.add(hedge);
+      hedge.start();
+      hedge.clientCall.sendMessage(copyRequest(request));
+      hedge.clientCall.halfClose();
+    }
+    tracer.onHedgeSent();
+  }
+
+  /** Must be called while holding the lock. Returns the attempts that must be cancelled. */
+  @GuardedBy("lock")
+  private List<Attempt> commit(Attempt attempt, boolean succeeded) {
+    winner = attempt;
+    request = null;
+    if (hedgeTimer != null) {
+      hedgeTimer.cancel(false);
+      hedgeTimer = null;
+    }
+    if (succeeded) {
+      policy.recordFirstResponseLatency(System.nanoTime() - startNanos);
+    }
+    if (attempt.isHedge) {
+      tracer.onHedgeWon();
+    }
+    if (attempt.headers != null) {
+      serverCall.sendHeaders(attempt.headers);
+    }
+
+    List<Attempt> losers = new ArrayList<>(attempts.size());
+    for (Attempt other : attempts) {
+      if (other != attempt && !other.closed) {
+        losers.add(other);
+      }
+    }
+    return losers;
+  }
+
+  private static void cancelAll(List<Attempt> attempts, String message) {
+    for (Attempt attempt : attempts) {
+      attempt.clientCall.cancel(message, null);
+    }
+  }
+
+  /** Buffers the request and sends it to the first attempt, then arms the hedge timer. */
+  class RequestListener extends ServerCall.Listener<ReqT> {
+    @Override
+    public void onMessage(ReqT message) {
+      byte[] bytes;
+      try {
+        bytes = ByteStreams.toByteArray(method.streamRequest(message));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to buffer the request", e);
+      } finally {
+        releaseQuietly(message);
+      }
+      synchronized (lock) {
+        request = bytes;
+      }
+      primary.clientCall.sendMessage(copyRequest(bytes));
+    }
+
+    @Override
+    public void onHalfClose() {
+      primary.clientCall.halfClose();
+
+      synchronized (lock) {
+        if (winner != null || cancelled) {
+          return;
+        }
+        long delayNanos =
+            Math.max(0, policy.getHedgeDelayNanos() - (System.nanoTime() - startNanos));
+        hedgeTimer = policy.schedule(context.wrap(HedgingCallProxy.this::sendHedge), delayNanos);
+      }
+    }
+
+    @Override
+    public void onCancel() {
+      List<Attempt> toCancel;
+      synchronized (lock) {
+        cancelled = true;
+        if (hedgeTimer != null) {
+          hedgeTimer.cancel(false);
+          hedgeTimer = null;
+        }
+        toCancel = new ArrayList<>(attempts);
+      }
+      cancelAll(toCancel, "Server cancelled");
+    }
+
+    @Override
+    public void onReady() {
+      Attempt localWinner = winner;
+      if (localWinner != null) {
+        localWinner.onServerReady();
+      }
+    }
+  }
+
+  /**
+   * One of the outgoing calls. Its responses are held back until it becomes the winner, after
+   * which it behaves like the back pressure aware pump of {@link CallProxy}.
+   */
+  private class Attempt extends ClientCall.Listener<RespT> {
+    private final ClientCall<ReqT, RespT> clientCall;
+    private final boolean isHedge;
+    private final Metadata startHeaders;
+
+    @GuardedBy("lock")
+    private Metadata headers;
+
+    @GuardedBy("lock")
+    private boolean closed;
+
+    @GuardedBy("this")
+    private boolean needToRequest;
+
+    Attempt(ClientCall<ReqT, RespT> clientCall, boolean isHedge, Metadata startHeaders) {
+      this.clientCall = clientCall;
+      this.isHedge = isHedge;
+      this.startHeaders = startHeaders;
+    }
+
+    void start() {
+      clientCall.start(this, startHeaders);
+      clientCall.request(1);
+    }
+
+    @Override
+    public void onHeaders(Metadata headers) {
+      synchronized (lock) {
+        if (winner == null) {
+          this.headers = headers;
+          return;
+        }
+      }
+      if (winner == this) {
+        serverCall.sendHeaders(headers);
+      }
+    }
+
+    @Override
+    public void onMessage(RespT message) {
+      if (winner == null) {
+        List<Attempt> losers = null;
+        synchronized (lock) {
+          if (winner == null) {
+            losers = commit(this, true);
+          }
+        }
+        if (losers != null) {
+          cancelAll(losers, "Hedged call lost");
+        }
+      }
+      if (winner != this) {
+        releaseQuietly(message);
+        return;
+      }
+
+      try {
+        serverCall.sendMessage(message);
+      } catch (RuntimeException e) {
+        releaseQuietly(message);
+        throw e;
+      }
+      synchronized (this) {
+        if (serverCall.isReady()) {
+          clientCall.request(1);
+        } else {
+          // The incoming call is not ready for more responses. Stop requesting additional data
+          // and wait for it to catch up.
+          needToRequest = true;
+          downstreamStopwatch.reset().start();
+        }
+      }
+    }
+
+    @Override
+    public void onClose(Status status, Metadata trailers) {
+      List<Attempt> losers = null;
+      synchronized (lock) {
+        closed = true;
+        if (winner == null && (status.isOk() || allClosed())) {
+          losers = commit(this, status.isOk());
+        }
+      }
+      if (losers != null) {
+        cancelAll(losers, "Hedged call lost");
+      }
+      if (winner != this) {
+        return;
+      }
+
+      tracer.onCallFinished(status);
+      serverCall.close(status, trailers);
+    }
+
+    @GuardedBy("lock")
+    private boolean allClosed() {
+      // The hedge can still be sent while the timer is pending, but a failed first attempt
+      // shouldn't wait for it
+      for (Attempt attempt : attempts) {
+        if (!attempt.closed) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    synchronized void onServerReady() {
+      if (downstreamStopwatch.isRunning()) {
+        tracer.onDownstreamLatency(downstreamStopwatch.elapsed());
+        downstreamStopwatch.stop();
+      }
+      if (needToRequest) {
+        clientCall.request(1);
+        needToRequest = false;
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import com.google.common.io.ByteStreams;
+import io.grpc.Detachable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link MethodDescriptor.Marshaller} that hands the transport's message stream from one call to
+ * another without copying it.
+ *
+ * <p>When the transport supports it ({@link Detachable}), the parsed message is the detached stream
+ * that still references the transport's pooled buffers. Streaming it on the other call simply
+ * returns the same stream, so the transport drains the buffers directly into its outbound frames.
+ * The transport closes the stream once it has been written, which releases the buffers.
+ *
+ * <p>Transports that don't support detaching fall back to a single heap copy, which is still one
+ * fewer than {@link ByteMarshaller}.
+ */
+class PassthroughMarshaller implements MethodDescriptor.Marshaller<InputStream> {
+
+  @Override
+  public InputStream parse(InputStream stream) {
+    if (stream instanceof Detachable) {
+      return ((Detachable) stream).detach();
+    }
+    try {
+      return new KnownLengthInputStream(ByteStreams.toByteArray(stream));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public InputStream stream(InputStream value) {
+    return value;
+  }
+
+  /** Heap fallback that still lets the transport size the frame upfront. */
+  private static class KnownLengthInputStream extends ByteArrayInputStream implements KnownLength {
+    KnownLengthInputStream(byte[] buf) {
+      super(buf);
+    }
+  }
+}
@@ -16,15 +16,27 @@
 
 package com.google.cloud.bigtable.examples.proxy.core;
 
+import com.google.cloud.bigtable.examples.proxy.admission.AdmissionController;
+import com.google.cloud.bigtable.examples.proxy.admission.ConcurrencyLimiter.PendingAcquire;
+import com.google.cloud.bigtable.examples.proxy.admission.ConcurrencyLimiter.Permit;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgePolicy;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgingController;
 import com.google.cloud.bigtable.examples.proxy.metrics.Metrics;
 import com.google.cloud.bigtable.examples.proxy.metrics.Tracer;
 import io.grpc.CallCredentials;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
 import io.grpc.Metadata;
 import io.grpc.ServerCall;
 import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /** A factory pairing of an incoming server call to an outgoing client call. */
 public final class ProxyHandler<ReqT, RespT> implements ServerCallHandler<ReqT, RespT> {
@@ -34,11 +46,42 @@ public final class ProxyHandler<ReqT, RespT> implements ServerCallHandler<ReqT,
   private final Metrics metrics;
   private final Channel channel;
   private final CallCredentials callCredentials;
+  @Nullable private final AdmissionController admissionController;
+  @Nullable private final HedgingController hedgingController;
 
   public ProxyHandler(Metrics metrics, Channel channel, CallCredentials callCredentials) {
+    this(metrics, channel, callCredentials, null);
+  }
+
+  /**
+   * @param admissionController if set, every call must be admitted by the controller before it is
+   *     forwarded to the channel.
+   */
+  public ProxyHandler(
+      Metrics metrics,
+      Channel channel,
+      CallCredentials callCredentials,
+      @Nullable AdmissionController admissionController) {
+    this(metrics, channel, callCredentials, admissionController, null);
+  }
+
+  /**
+   * @param admissionController if set, every call must be admitted by the controller before it is
+   *     forwarded to the channel.
+   * @param hedgingController if set, slow calls of the methods that it allows will be hedged on
+   *     another channel.
+   */
+  public ProxyHandler(
+      Metrics metrics,
+      Channel channel,
+      CallCredentials callCredentials,
+      @Nullable AdmissionController admissionController,
+      @Nullable HedgingController hedgingController) {
     this.metrics = metrics;
     this.channel = channel;
     this.callCredentials = callCredentials;
+    this.admissionController = admissionController;
+    this.hedgingController = hedgingController;
   }
 
   @Override
@@ -46,13 +89,62 @@ public final class ProxyHandler<ReqT, RespT> implements ServerCallHandler<ReqT,
     CallLabels callLabels = CallLabels.create(serverCall.getMethodDescriptor(), headers);
     Tracer tracer = new Tracer(metrics, callLabels);
 
+    if (admissionController == null) {
+      return startProxy(tracer, serverCall, headers, Context.current());
+    }
+
+    // A queued call is granted on the thread of the call that releases its permit. The outgoing
+    // call must inherit this call's context, not the releasing call's, which is cancelled as soon
+    // as that call completes.
+    Context context = Context.current();
+    PendingListener<ReqT> pendingListener = new PendingListener<>(tracer);
+    pendingListener.pendingAcquire =
+        admissionController
+            .getLimiter(callLabels)
+            .acquire(
+                tracer,
+                permit ->
+                    context.run(
+                        () ->
+                            pendingListener.setDelegate(
+                                startProxy(
+                                    tracer,
+                                    new ReleasingServerCall<>(serverCall, permit),
+                                    headers,
+                                    context))),
+                () -> {
+                  Status status =
+                      Status.RESOURCE_EXHAUSTED.withDescription(
+                          "Proxy concurrency limit exceeded for " + callLabels.getMethodName());
+                  tracer.onCallFinished(status);
+                  serverCall.close(status, new Metadata());
+                });
+    return pendingListener;
+  }
+
+  /**
+   * @param context the incoming call's context, which may not be the current one if the call was
+   *     admitted from another call's thread.
+   */
+  private ServerCall.Listener<ReqT> startProxy(
+      Tracer tracer, ServerCall<ReqT, RespT> serverCall, Metadata headers, Context context) {
     // Inject proxy credentials
     CallOptions callOptions = CallOptions.DEFAULT.withCallCredentials(callCredentials);
-    callOptions = tracer.injectIntoCallOptions(callOptions);
 
     // Strip incoming credentials
     headers.removeAll(AUTHORIZATION_KEY);
 
+    HedgePolicy hedgePolicy =
+        hedgingController == null ? null : hedgingController.getPolicy(tracer.getCallLabels());
+    if (hedgePolicy != null) {
+      HedgingCallProxy<ReqT, RespT> proxy =
+          new HedgingCallProxy<>(
+              tracer, hedgePolicy, channel, serverCall, callOptions, headers, context);
+      proxy.start();
+      return proxy.serverCallListener;
+    }
+
+    callOptions = tracer.injectIntoCallOptions(callOptions);
     ClientCall<ReqT, RespT> clientCall =
         channel.newCall(serverCall.getMethodDescriptor(), callOptions);
 
@@ -62,4 +154,127 @@ public final class ProxyHandler<ReqT, RespT> implements ServerCallHandler<ReqT,
     clientCall.request(1);
     return proxy.serverCallListener;
   }
+
+  /** Returns the admission permit once the call is closed. */
+  private static class ReleasingServerCall<ReqT, RespT>
+      extends SimpleForwardingServerCall<ReqT, RespT> {
+    private final Permit permit;
+
+    ReleasingServerCall(ServerCall<ReqT, RespT> delegate, Permit permit) {
+      super(delegate);
+      this.permit = permit;
+    }
+
+    @Override
+    public void close(Status status, Metadata trailers) {
+      try {
+        super.close(status, trailers);
+      } finally {
+        permit.release(status);
+      }
+    }
+  }
+
+  /**
+   * Placeholder listener for a call that is waiting to be admitted.
+   *
+   * <p>No messages are requested from the server call until the proxy is started, but a client can
+   * half-close without sending any, and messages can arrive between the proxy's first request and
+   * the delegate being set. Those events are held until the delegate is set, and replayed in order.
+   */
+  private static class PendingListener<ReqT> extends ServerCall.Listener<ReqT> {
+    private final Tracer tracer;
+    volatile PendingAcquire pendingAcquire;
+
+    @GuardedBy("this")
+    private ServerCall.Listener<ReqT> delegate;
+
+    @GuardedBy("this")
+    private final List<ReqT> pendingMessages = new ArrayList<>();
+
+    @GuardedBy("this")
+    private boolean halfClosed;
+
+    @GuardedBy("this")
+    private boolean cancelled;
+
+    PendingListener(Tracer tracer) {
+      this.tracer = tracer;
+    }
+
+    synchronized void setDelegate(ServerCall.Listener<ReqT> delegate) {
+      this.delegate = delegate;
+      for (ReqT message : pendingMessages) {
+        delegate.onMessage(message);
+      }
+      pendingMessages.clear();
+      if (halfClosed) {
+        delegate.onHalfClose();
+      }
+      if (cancelled) {
+        delegate.onCancel();
+      }
+    }
+
+    private synchronized ServerCall.Listener<ReqT> getDelegate() {
+      return delegate;
+    }
+
+    @Override
+    public void onCancel() {
+      synchronized (this) {
+        cancelled = true;
+        if (delegate != null) {
+          delegate.onCancel();
+          return;
+        }
+      }
+      PendingAcquire localPending = pendingAcquire;
+      if (localPending != null && localPending.cancel()) {
+        tracer.onCallFinished(Status.CANCELLED);
+      }
+    }
+
+    @Override
+    public void onMessage(ReqT message) {
+      ServerCall.Listener<ReqT> localDelegate;
+      synchronized (this) {
+        if (delegate == null) {
+          pendingMessages.add(message);
+          return;
+        }
+        localDelegate = delegate;
+      }
+      localDelegate.onMessage(message);
+    }
+
+    @Override
+    public void onHalfClose() {
+      ServerCall.Listener<ReqT> localDelegate;
+      synchronized (this) {
+        if (delegate == null) {
+          halfClosed = true;
+          return;
+        }
+        localDelegate = delegate;
+      }
+      localDelegate.onHalfClose();
+    }
+
+    @Override
+    public void onComplete() {
+      ServerCall.Listener<ReqT> localDelegate = getDelegate();
+      if (localDelegate != null) {
+        localDelegate.onComplete();
+      }
+    }
+
+    @Override
+    public void onReady() {
+      ServerCall.Listener<ReqT> localDelegate = getDelegate();
+      if (localDelegate != null) {
+        localDelegate.onReady();
+      }
+    }
+  }
 }
@@ -21,30 +21,47 @@ import io.grpc.HandlerRegistry;
 import io.grpc.MethodDescriptor;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerMethodDefinition;
+import java.io.InputStream;
 import java.util.Map;
 
 /**
  * Contains the service name -> handler mapping. This acts as an aggregate service.
  *
- * <p>The handlers treat requests and responses as raw byte arrays.
+ * <p>The handlers treat requests and responses as opaque messages of type {@code T}, which are
+ * never deserialized. Use {@link #copying(Map)} to buffer each message in a byte array or {@link
+ * #passthrough(Map)} to forward the transport's buffers without copying them.
  */
-public class Registry extends HandlerRegistry {
-  private final MethodDescriptor.Marshaller<byte[]> byteMarshaller = new ByteMarshaller();
-  private final Map<String, ServerCallHandler<byte[], byte[]>> serviceMap;
+public class Registry<T> extends HandlerRegistry {
+  private final MethodDescriptor.Marshaller<T> marshaller;
+  private final Map<String, ServerCallHandler<T, T>> serviceMap;
 
-  public Registry(Map<String, ServerCallHandler<byte[], byte[]>> serviceMap) {
+  /** Creates a registry that copies every message into a {@code byte[]}. */
+  public static Registry<byte[]> copying(
+      Map<String, ServerCallHandler<byte[], byte[]>> serviceMap) {
+    return new Registry<>(new ByteMarshaller(), serviceMap);
+  }
+
+  /** Creates a registry that forwards the transport buffers of every message without copying. */
+  public static Registry<InputStream> passthrough(
+      Map<String, ServerCallHandler<InputStream, InputStream>> serviceMap) {
+    return new Registry<>(new PassthroughMarshaller(), serviceMap);
+  }
+
+  private Registry(
+      MethodDescriptor.Marshaller<T> marshaller, Map<String, ServerCallHandler<T, T>> serviceMap) {
+    this.marshaller = marshaller;
     this.serviceMap = ImmutableMap.copyOf(serviceMap);
   }
 
   @Override
   public ServerMethodDefinition<?, ?> lookupMethod(String methodName, String authority) {
-    MethodDescriptor<byte[], byte[]> methodDescriptor =
-        MethodDescriptor.newBuilder(byteMarshaller, byteMarshaller)
+    MethodDescriptor<T, T> methodDescriptor =
+        MethodDescriptor.newBuilder(marshaller, marshaller)
             .setFullMethodName(methodName)
             .setType(MethodDescriptor.MethodType.UNKNOWN)
             .build();
 
-    ServerCallHandler<byte[], byte[]> handler = serviceMap.get(methodDescriptor.getServiceName());
+    ServerCallHandler<T, T> handler = serviceMap.get(methodDescriptor.getServiceName());
     if (handler == null) {
       return null;
     }
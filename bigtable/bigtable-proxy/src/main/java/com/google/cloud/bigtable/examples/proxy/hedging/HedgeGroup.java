@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.hedging;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the channels used by the attempts of a single hedged call.
+ *
+ * <p>The group is attached to the {@link CallOptions} of every attempt, so that the channel pool
+ * can send the hedge on a different channel than the attempt that is stuck.
+ */
+public final class HedgeGroup {
+  public static final CallOptions.Key<HedgeGroup> CALL_OPTION_KEY =
+      CallOptions.Key.create("bigtable-proxy-hedge-group");
+
+  private final Set<Channel> usedChannels = ConcurrentHashMap.newKeySet();
+
+  public boolean isUsed(Channel channel) {
+    return usedChannels.contains(channel);
+  }
+
+  public void markUsed(Channel channel) {
+    usedChannels.add(channel);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.hedging;
+
+import com.google.cloud.bigtable.examples.proxy.metrics.LatencyHistogram;
+import com.google.common.annotations.VisibleForTesting;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decides when calls for a single resource, app profile and method should be hedged.
+ *
+ * <p>The first response latencies are collected in fixed windows. At the end of each window, the
+ * hedge delay is updated to the configured percentile of that window. Until the first window with
+ * enough samples completes, calls are hedged after {@link HedgingSettings#getMaxDelay()}.
+ */
+public class HedgePolicy {
+  @VisibleForTesting static final Duration WINDOW = Duration.ofSeconds(10);
+  @VisibleForTesting static final int MIN_WINDOW_SAMPLES = 20;
+
+  private final HedgingController controller;
+  private final HedgingSettings settings;
+  private final AtomicReference<Window> window;
+  private volatile long hedgeDelayNanos;
+
+  HedgePolicy(HedgingController controller, HedgingSettings settings) {
+    this.controller = controller;
+    this.settings = settings;
+    this.window = new AtomicReference<>(new Window(System.nanoTime()));
+    this.hedgeDelayNanos = settings.getMaxDelay().toNanos();
+  }
+
+  /** Must be called once for every call that uses this policy, to fund the hedge budget. */
+  public void onCallStarted() {
+    controller.depositBudget();
+  }
+
+  /** @return how long after the start of a call, a hedge should be sent. */
+  public long getHedgeDelayNanos() {
+    return hedgeDelayNanos;
+  }
+
+  /** @return true if the budget allows sending another hedge. */
+  public boolean tryAcquireHedge() {
+    return controller.tryWithdrawBudget();
+  }
+
+  /** Runs the task on the controller's executor after the delay. */
+  public ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+    return controller.schedule(task, delayNanos);
+  }
+
+  /** Record how long it took for the first response of a call to arrive. */
+  public void recordFirstResponseLatency(long latencyNanos) {
+    recordFirstResponseLatency(latencyNanos, System.nanoTime());
+  }
+
+  @VisibleForTesting
+  void recordFirstResponseLatency(long latencyNanos, long nowNanos) {
+    Window current = window.get();
+    if (nowNanos - current.startNanos >= WINDOW.toNanos()) {
+      Window next = new Window(nowNanos);
+      if (window.compareAndSet(current, next)) {
+        if (current.histogram.getCount() >= MIN_WINDOW_SAMPLES) {
+          long percentile = current.histogram.getValueAtPercentile(settings.getLatencyPercentile());
+          hedgeDelayNanos =
+              Math.max(
+                  settings.getMinDelay().toNanos(),
+                  Math.min(settings.getMaxDelay().toNanos(), percentile));
+        }
+      }
+      current = window.get();
+    }
+    current.histogram.record(latencyNanos);
+  }
+
+  private static class Window {
+    private final long startNanos;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Window(long startNanos) {
+      this.startNanos = startNanos;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.hedging;
+
+import com.google.auto.value.AutoValue;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Maintains a {@link HedgePolicy} per resource name, app profile and method, and the hedge budget
+ * that is shared by all of them.
+ *
+ * <p>The budget is a token bucket: every hedgeable call deposits {@link
+ * HedgingSettings#getBudgetRatio()} tokens and every hedge withdraws a whole token. This bounds
+ * the extra load to the budget ratio, while still allowing short bursts of hedges when a channel
+ * stalls.
+ */
+public class HedgingController {
+  // Tokens are tracked in thousandths to avoid floating point CAS loops
+  private static final long TOKEN = 1000;
+  @VisibleForTesting static final long MAX_TOKENS = 10 * TOKEN;
+
+  private final HedgingSettings settings;
+  private final ScheduledExecutorService executor;
+  private final long depositPerCall;
+  // Start with a full bucket, so that a stall right after startup can still be hedged
+  private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+
+  // Each policy holds a latency histogram, so only the most active keys are tracked
+  private final Cache<PolicyKey, HedgePolicy> policies =
+      CacheBuilder.newBuilder().expireAfterAccess(Duration.ofHours(1)).maximumSize(100).build();
+
+  /**
+   * @param settings configuration applied to every policy
+   * @param executor used to send the hedges once their delay expires
+   */
+  public HedgingController(HedgingSettings settings, ScheduledExecutorService executor) {
+    this.settings = settings;
+    this.executor = executor;
+    this.depositPerCall = Math.max(1, Math.round(settings.getBudgetRatio() * TOKEN));
+  }
+
+  /** @return the policy for the call, or null if the call's method can't be hedged. */
+  @Nullable
+  public HedgePolicy getPolicy(CallLabels callLabels) {
+    if (!settings.getMethods().contains(callLabels.getMethodName())) {
+      return null;
+    }
+    PolicyKey key = PolicyKey.from(callLabels);
+    try {
+      return policies.get(key, () -> new HedgePolicy(this, settings));
+    } catch (ExecutionException e) {
+      // The loader can't throw checked exceptions
+      throw new IllegalStateException("Failed to create a hedge policy for " + key, e);
+    }
+  }
+
+  void depositBudget() {
+    tokens.accumulateAndGet(
+        depositPerCall, (current, deposit) -> Math.min(MAX_TOKENS, current + deposit));
+  }
+
+  boolean tryWithdrawBudget() {
+    while (true) {
+      long current = tokens.get();
+      if (current < TOKEN) {
+        return false;
+      }
+      if (tokens.compareAndSet(current, current - TOKEN)) {
+        return true;
+      }
+    }
+  }
+
+  ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+    return executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @AutoValue
+  abstract static class PolicyKey {
+    abstract String getResource();
+
+    abstract String getAppProfileId();
+
+    abstract String getMethodName();
+
+    static PolicyKey from(CallLabels callLabels) {
+      return new AutoValue_HedgingController_PolicyKey(
+          callLabels.getResourceNameLabel(),
+          callLabels.getAppProfileIdLabel(),
+          callLabels.getMethodName());
+    }
+  }
+}
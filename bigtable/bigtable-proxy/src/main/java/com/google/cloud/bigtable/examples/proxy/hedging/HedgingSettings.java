@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.hedging;
+
+import com.google.auto.value.AutoValue;
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.time.Duration;
+
+/**
+ * Settings to control {@link HedgingController} behavior.
+ *
+ * <p>A call is hedged when its first response takes longer than the {@link
+ * #getLatencyPercentile()} of the recent calls with the same resource, app profile and method,
+ * clamped to [{@link #getMinDelay()}, {@link #getMaxDelay()}]. Hedges are limited to {@link
+ * #getBudgetRatio()} of the calls, so that hedging can't amplify an overload.
+ */
+@AutoValue
+public abstract class HedgingSettings {
+  /** Full names of the methods that are safe to hedge: idempotent and with a single request. */
+  public abstract ImmutableSet<String> getMethods();
+
+  /** The percentile of the first response latency after which a call is hedged. */
+  public abstract double getLatencyPercentile();
+
+  /** Calls are never hedged sooner than this. */
+  public abstract Duration getMinDelay();
+
+  /** Calls are always hedged after this, also used until enough latencies have been observed. */
+  public abstract Duration getMaxDelay();
+
+  /** The maximum number of hedges per call, averaged over time. Must be in (0, 1]. */
+  public abstract double getBudgetRatio();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_HedgingSettings.Builder()
+        .setMethods(
+            ImmutableSet.of(
+                BigtableGrpc.getReadRowsMethod().getFullMethodName(),
+                BigtableGrpc.getSampleRowKeysMethod().getFullMethodName()))
+        .setLatencyPercentile(95)
+        .setMinDelay(Duration.ofMillis(5))
+        .setMaxDelay(Duration.ofSeconds(1))
+        .setBudgetRatio(0.05);
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setMethods(ImmutableSet<String> methods);
+
+    public abstract Builder setLatencyPercentile(double percentile);
+
+    public abstract Builder setMinDelay(Duration delay);
+
+    public abstract Builder setMaxDelay(Duration delay);
+
+    public abstract Builder setBudgetRatio(double ratio);
+
+    abstract HedgingSettings autoBuild();
+
+    public HedgingSettings build() {
+      HedgingSettings s = autoBuild();
+
+      Preconditions.checkState(
+          s.getLatencyPercentile() > 0 && s.getLatencyPercentile() < 100,
+          "latency percentile must be in (0, 100)");
+      Preconditions.checkState(!s.getMinDelay().isNegative(), "min delay can't be negative");
+      Preconditions.checkState(
+          s.getMinDelay().compareTo(s.getMaxDelay()) <= 0, "delay range is invalid");
+      Preconditions.checkState(
+          s.getBudgetRatio() > 0 && s.getBudgetRatio() <= 1, "budget ratio must be in (0, 1]");
+      return s;
+    }
+  }
+}
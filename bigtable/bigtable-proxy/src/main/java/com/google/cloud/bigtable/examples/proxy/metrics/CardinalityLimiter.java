@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the number of distinct values of a single metric attribute.
+ *
+ * <p>The attributes of each call are derived from client supplied headers, so a misconfigured
+ * client could create an unbounded number of time series. Up to {@code maxValues} values are kept
+ * as is, any other value is replaced with {@link #OVERFLOW_VALUE}. Values that haven't been seen
+ * for {@link #VALUE_EXPIRY} free their slot, like the attributes cached by {@link MetricsImpl}.
+ */
+class CardinalityLimiter {
+  private static final Logger LOG = LoggerFactory.getLogger(CardinalityLimiter.class);
+
+  static final String OVERFLOW_VALUE = "<overflow>";
+  static final Duration VALUE_EXPIRY = Duration.ofHours(1);
+
+  private final String attributeName;
+  private final int maxValues;
+  private final Cache<String, Boolean> values;
+  private final AtomicBoolean overflowLogged = new AtomicBoolean();
+
+  CardinalityLimiter(String attributeName, int maxValues) {
+    this(attributeName, maxValues, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CardinalityLimiter(String attributeName, int maxValues, Ticker ticker) {
+    this.attributeName = attributeName;
+    this.maxValues = maxValues;
+    this.values = CacheBuilder.newBuilder().expireAfterAccess(VALUE_EXPIRY).ticker(ticker).build();
+  }
+
+  String limit(String value) {
+    if (values.getIfPresent(value) != null) {
+      return value;
+    }
+    synchronized (this) {
+      if (values.size() >= maxValues) {
+        // Expired values are only evicted lazily, and still count towards the size until then
+        values.cleanUp();
+      }
+      if (values.size() < maxValues) {
+        values.put(value, Boolean.TRUE);
+        return value;
+      }
+    }
+    if (overflowLogged.compareAndSet(false, true)) {
+      LOG.warn(
+          "Metric attribute {} has more than {} distinct values, new values will be reported as {}",
+          attributeName,
+          maxValues,
+          OVERFLOW_VALUE);
+    }
+    return OVERFLOW_VALUE;
+  }
+}
@@ -48,7 +48,29 @@ public interface Metrics {
 
   void recordChannelStateChange(ConnectivityState prevState, ConnectivityState newState);
 
+  void recordChannelPoolResize(String reason, int fromSize, int toSize);
+
   void recordDownstreamLatency(MetricsAttributes attrs, Duration latency);
 
+  void recordAdmissionLatency(MetricsAttributes attrs, Duration duration);
+
+  void recordAdmissionRejected(MetricsAttributes attrs);
+
+  void recordConcurrencyLimit(MetricsAttributes attrs, int limit);
+
+  void recordHedgeSent(MetricsAttributes attrs);
+
+  void recordHedgeWon(MetricsAttributes attrs);
+
+  void recordHedgeThrottled(MetricsAttributes attrs);
+
+  /**
+   * @return false if all measurements are discarded, which allows callers to skip the work of
+   *     collecting them
+   */
+  default boolean isEnabled() {
+    return true;
+  }
+
   interface MetricsAttributes {}
 }
@@ -19,27 +19,37 @@ package com.google.cloud.bigtable.examples.proxy.metrics;
 import com.google.auth.Credentials;
 import com.google.auto.value.AutoValue;
 import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
-import com.google.cloud.bigtable.examples.proxy.core.CallLabels.ParsingException;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.Exporter;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.HistogramAggregation;
 import com.google.cloud.opentelemetry.metric.GoogleCloudMetricExporter;
 import com.google.cloud.opentelemetry.metric.MetricConfiguration;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import io.grpc.ConnectivityState;
 import io.grpc.Status;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
-import io.opentelemetry.api.common.AttributesBuilder;
 import io.opentelemetry.api.metrics.DoubleHistogram;
 import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongGauge;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.LongUpDownCounter;
 import io.opentelemetry.api.metrics.Meter;
 import io.opentelemetry.api.metrics.MeterProvider;
 import io.opentelemetry.api.metrics.ObservableLongGauge;
 import io.opentelemetry.contrib.gcp.resource.GCPResourceProvider;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
+import io.opentelemetry.exporter.prometheus.PrometheusHttpServer;
 import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.InstrumentType;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.metrics.View;
 import io.opentelemetry.sdk.metrics.data.MetricData;
 import io.opentelemetry.sdk.metrics.export.MetricExporter;
 import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
@@ -55,8 +65,6 @@ import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Central definition of all the {@link OpenTelemetry} metrics in this application.
@@ -65,8 +73,6 @@ import org.slf4j.LoggerFactory;
  */
 @SuppressWarnings("ClassEscapesDefinedScope")
 public class MetricsImpl implements Closeable, Metrics {
-  private static final Logger LOG = LoggerFactory.getLogger(MetricsImpl.class);
-
   private static final InstrumentationScopeInfo INSTRUMENTATION_SCOPE_INFO =
       InstrumentationScopeInfo.builder("bigtable-proxy").setVersion("0.0.1").build();
 
@@ -82,6 +88,10 @@ public class MetricsImpl implements Closeable, Metrics {
       AttributeKey.stringKey("prev_state");
   private static final AttributeKey<String> CURRENT_CHANNEL_STATE =
       AttributeKey.stringKey("current_state");
+  private static final AttributeKey<String> RESIZE_REASON_KEY = AttributeKey.stringKey("reason");
+
+  private static final Resource SERVICE_RESOURCE =
+      Resource.create(Attributes.of(AttributeKey.stringKey("service.name"), "bigtable-proxy"));
 
   private static final String METRIC_PRESENCE_NAME = METRIC_PREFIX + "presence";
   private static final String METRIC_PRESENCE_DESC = "Number of proxy processes";
@@ -96,10 +106,18 @@ public class MetricsImpl implements Closeable, Metrics {
   private final DoubleHistogram clientCallLatencies;
   private final DoubleHistogram clientCallFirstByteLatencies;
   private final DoubleHistogram downstreamLatencies;
+  private final DoubleHistogram admissionLatencies;
+  private final LongCounter admissionRejections;
+  private final LongGauge concurrencyLimits;
+  private final LongCounter hedgesSent;
+  private final LongCounter hedgesWon;
+  private final LongCounter hedgesThrottled;
   private final LongCounter serverCallsStarted;
   private final LongHistogram requestSizes;
   private final LongHistogram responseSizes;
   private final LongCounter channelStateChangeCounter;
+  private final LongCounter channelPoolResizeCounter;
+  private final LongGauge channelPoolTargetSize;
 
   private final ObservableLongGauge outstandingRpcCountGauge;
   private final ObservableLongGauge presenceGauge;
@@ -108,29 +126,89 @@ public class MetricsImpl implements Closeable, Metrics {
   private final AtomicInteger numOutstandingRpcs = new AtomicInteger();
   private final AtomicInteger maxSeen = new AtomicInteger();
 
-  public MetricsImpl(Credentials credentials, String projectId) throws IOException {
-    this(createMeterProvider(credentials, projectId));
-  }
+  private final Cache<AttributesKey, MetricsAttributesImpl> attributesCache =
+      CacheBuilder.newBuilder().expireAfterAccess(Duration.ofHours(1)).maximumSize(1000).build();
+  private final CardinalityLimiter methodLimiter;
+  private final CardinalityLimiter apiClientLimiter;
+  private final CardinalityLimiter resourceLimiter;
+  private final CardinalityLimiter appProfileLimiter;
 
-  private static SdkMeterProvider createMeterProvider(Credentials credentials, String projectId) {
-    MetricConfiguration config =
-        MetricConfiguration.builder()
-            .setProjectId(projectId)
-            .setCredentials(credentials)
-            .setInstrumentationLibraryLabelsEnabled(false)
-            .build();
+  /**
+   * Creates the {@link Metrics} for the settings. If metrics are disabled, the returned instance
+   * doesn't build any per call state.
+   */
+  public static Metrics create(MetricsSettings settings, Credentials credentials)
+      throws IOException {
+    if (settings.getExporter() == Exporter.NONE) {
+      return new NoopMetrics();
+    }
+    return new MetricsImpl(
+        createMeterProvider(settings, credentials), settings.getMaxAttributeValues());
+  }
 
-    MetricExporter exporter = GoogleCloudMetricExporter.createWithConfiguration(config);
+  private static SdkMeterProvider createMeterProvider(
+      MetricsSettings settings, Credentials credentials) throws IOException {
+    SdkMeterProviderBuilder builder = SdkMeterProvider.builder();
+
+    switch (settings.getExporter()) {
+      case GOOGLE_CLOUD:
+        MetricConfiguration config =
+            MetricConfiguration.builder()
+                .setProjectId(settings.getProjectId())
+                .setCredentials(credentials)
+                .setInstrumentationLibraryLabelsEnabled(false)
+                .build();
+        MetricExporter exporter = GoogleCloudMetricExporter.createWithConfiguration(config);
+        builder
+            .setResource(Resource.create(new GCPResourceProvider().getAttributes()))
+            .registerMetricReader(
+                PeriodicMetricReader.builder(exporter)
+                    .setInterval(settings.getExportInterval())
+                    .build());
+        break;
+      case PROMETHEUS:
+        builder
+            .setResource(Resource.getDefault().merge(SERVICE_RESOURCE))
+            .registerMetricReader(
+                PrometheusHttpServer.builder()
+                    .setHost("localhost")
+                    .setPort(settings.getPrometheusPort())
+                    .build());
+        break;
+      case OTLP:
+        builder
+            .setResource(Resource.getDefault().merge(SERVICE_RESOURCE))
+            .registerMetricReader(
+                PeriodicMetricReader.builder(
+                        OtlpGrpcMetricExporter.builder()
+                            .setEndpoint(settings.getOtlpEndpoint())
+                            .build())
+                    .setInterval(settings.getExportInterval())
+                    .build());
+        break;
+      default:
+        throw new IllegalArgumentException(
+            "Unsupported metrics exporter: " + settings.getExporter());
+    }
 
-    return SdkMeterProvider.builder()
-        .setResource(Resource.create(new GCPResourceProvider().getAttributes()))
-        .registerMetricReader(
-            PeriodicMetricReader.builder(exporter).setInterval(Duration.ofMinutes(1)).build())
-        .build();
+    if (settings.getHistogramAggregation() == HistogramAggregation.EXPONENTIAL) {
+      builder.registerView(
+          InstrumentSelector.builder().setType(InstrumentType.HISTOGRAM).build(),
+          View.builder().setAggregation(Aggregation.base2ExponentialBucketHistogram()).build());
+    }
+    return builder.build();
   }
 
   MetricsImpl(MeterProvider meterProvider) {
+    this(meterProvider, MetricsSettings.builder().build().getMaxAttributeValues());
+  }
+
+  MetricsImpl(MeterProvider meterProvider, int maxAttributeValues) {
     this.meterProvider = meterProvider;
+    this.methodLimiter = new CardinalityLimiter(METHOD_KEY.getKey(), maxAttributeValues);
+    this.apiClientLimiter = new CardinalityLimiter(API_CLIENT_KEY.getKey(), maxAttributeValues);
+    this.resourceLimiter = new CardinalityLimiter(RESOURCE_KEY.getKey(), maxAttributeValues);
+    this.appProfileLimiter = new CardinalityLimiter(APP_PROFILE_KEY.getKey(), maxAttributeValues);
     @SuppressWarnings("DataFlowIssue")
     Meter meter =
         meterProvider
@@ -221,6 +299,49 @@ public class MetricsImpl implements Closeable, Metrics {
             .setUnit("ms")
             .build();
 
+    admissionLatencies =
+        meter
+            .histogramBuilder(METRIC_PREFIX + "server.call.admission.duration")
+            .setDescription("Time a call spent waiting for the concurrency limiter to admit it")
+            .setUnit("ms")
+            .build();
+
+    admissionRejections =
+        meter
+            .counterBuilder(METRIC_PREFIX + "server.call.admission_rejected.count")
+            .setDescription("Count of calls rejected by the concurrency limiter")
+            .setUnit("{call}")
+            .build();
+
+    concurrencyLimits =
+        meter
+            .gaugeBuilder(METRIC_PREFIX + "server.call.concurrency_limit")
+            .setDescription("Current concurrency limit of the limiter that admitted the call")
+            .setUnit("{call}")
+            .ofLongs()
+            .build();
+
+    hedgesSent =
+        meter
+            .counterBuilder(METRIC_PREFIX + "client.call.hedge.sent_count")
+            .setDescription("Count of hedged duplicates sent for slow calls")
+            .setUnit("{call}")
+            .build();
+
+    hedgesWon =
+        meter
+            .counterBuilder(METRIC_PREFIX + "client.call.hedge.won_count")
+            .setDescription("Count of hedged duplicates that responded before the original call")
+            .setUnit("{call}")
+            .build();
+
+    hedgesThrottled =
+        meter
+            .counterBuilder(METRIC_PREFIX + "client.call.hedge.throttled_count")
+            .setDescription("Count of hedged duplicates that weren't sent due to the hedge budget")
+            .setUnit("{call}")
+            .build();
+
     channelCounter =
         meter
             .upDownCounterBuilder(METRIC_PREFIX + "client.channel.count")
@@ -250,6 +371,21 @@ public class MetricsImpl implements Closeable, Metrics {
             .setDescription("Counter of channel state transitions")
             .setUnit("{change}")
             .build();
+
+    channelPoolResizeCounter =
+        meter
+            .counterBuilder(METRIC_PREFIX + "client.channel_pool.resize_count")
+            .setDescription("Counter of channel pool resize decisions by reason")
+            .setUnit("{resize}")
+            .build();
+
+    channelPoolTargetSize =
+        meter
+            .gaugeBuilder(METRIC_PREFIX + "client.channel_pool.target_size")
+            .setDescription("Number of channels the channel pool is resizing to")
+            .setUnit("{channel}")
+            .ofLongs()
+            .build();
   }
 
   @Override
@@ -262,32 +398,34 @@ public class MetricsImpl implements Closeable, Metrics {
     }
   }
 
+  /**
+   * Returns the attributes for a call. Attribute sets are interned by their values, so that calls
+   * for the same method, client and resource share a single pre-built {@link Attributes} instance.
+   * The number of distinct values of each attribute is bounded by {@link
+   * MetricsSettings#getMaxAttributeValues()}.
+   */
   @Override
   public MetricsAttributesImpl createAttributes(CallLabels callLabels) {
-    AttributesBuilder attrs =
-        Attributes.builder()
-            .put(METHOD_KEY, callLabels.getMethodName())
-            .put(API_CLIENT_KEY, callLabels.getApiClient().orElse("<missing>"));
-
-    String resourceValue;
-    try {
-      resourceValue = callLabels.extractResourceName().orElse("<missing>");
-    } catch (ParsingException e) {
-      LOG.warn("Failed to extract resource from callLabels: {}", callLabels, e);
-      resourceValue = "<error>";
-    }
-    attrs.put(MetricsImpl.RESOURCE_KEY, resourceValue);
-
-    String appProfile;
-    try {
-      appProfile = callLabels.extractAppProfileId().orElse("<missing>");
-    } catch (ParsingException e) {
-      LOG.warn("Failed to extract app profile from callLabels: {}", callLabels, e);
-      appProfile = "<error>";
+    AttributesKey key =
+        new AutoValue_MetricsImpl_AttributesKey(
+            callLabels.getMethodName(),
+            callLabels.getApiClient().orElse("<missing>"),
+            callLabels.getResourceNameLabel(),
+            callLabels.getAppProfileIdLabel());
+
+    MetricsAttributesImpl attrs = attributesCache.getIfPresent(key);
+    if (attrs == null) {
+      attrs =
+          new AutoValue_MetricsImpl_MetricsAttributesImpl(
+              Attributes.builder()
+                  .put(METHOD_KEY, methodLimiter.limit(key.getMethodName()))
+                  .put(API_CLIENT_KEY, apiClientLimiter.limit(key.getApiClient()))
+                  .put(RESOURCE_KEY, resourceLimiter.limit(key.getResource()))
+                  .put(APP_PROFILE_KEY, appProfileLimiter.limit(key.getAppProfile()))
+                  .build());
+      attributesCache.put(key, attrs);
     }
-    attrs.put(MetricsImpl.APP_PROFILE_KEY, appProfile);
-
-    return new AutoValue_MetricsImpl_MetricsAttributesImpl(attrs.build());
+    return attrs;
   }
 
   @Override
@@ -300,9 +438,7 @@ public class MetricsImpl implements Closeable, Metrics {
 
   @Override
   public void recordCredLatency(MetricsAttributes attrs, Status status, Duration duration) {
-    Attributes attributes =
-        unwrap(attrs).toBuilder().put(STATUS_KEY, status.getCode().name()).build();
-    clientCredLatencies.record(toMs(duration), attributes);
+    clientCredLatencies.record(toMs(duration), unwrap(attrs, status));
   }
 
   @Override
@@ -332,10 +468,7 @@ public class MetricsImpl implements Closeable, Metrics {
 
   @Override
   public void recordCallLatency(MetricsAttributes attrs, Status status, Duration duration) {
-    Attributes attributes =
-        unwrap(attrs).toBuilder().put(STATUS_KEY, status.getCode().name()).build();
-
-    clientCallLatencies.record(toMs(duration), attributes);
+    clientCallLatencies.record(toMs(duration), unwrap(attrs, status));
     numOutstandingRpcs.decrementAndGet();
   }
 
@@ -362,11 +495,47 @@ public class MetricsImpl implements Closeable, Metrics {
     channelStateChangeCounter.add(1, attributes);
   }
 
+  @Override
+  public void recordChannelPoolResize(String reason, int fromSize, int toSize) {
+    channelPoolResizeCounter.add(1, Attributes.of(RESIZE_REASON_KEY, reason));
+    channelPoolTargetSize.set(toSize);
+  }
+
   @Override
   public void recordDownstreamLatency(MetricsAttributes attrs, Duration latency) {
     downstreamLatencies.record(toMs(latency), unwrap(attrs));
   }
 
+  @Override
+  public void recordAdmissionLatency(MetricsAttributes attrs, Duration duration) {
+    admissionLatencies.record(toMs(duration), unwrap(attrs));
+  }
+
+  @Override
+  public void recordAdmissionRejected(MetricsAttributes attrs) {
+    admissionRejections.add(1, unwrap(attrs));
+  }
+
+  @Override
+  public void recordConcurrencyLimit(MetricsAttributes attrs, int limit) {
+    concurrencyLimits.set(limit, unwrap(attrs));
+  }
+
+  @Override
+  public void recordHedgeSent(MetricsAttributes attrs) {
+    hedgesSent.add(1, unwrap(attrs));
+  }
+
+  @Override
+  public void recordHedgeWon(MetricsAttributes attrs) {
+    hedgesWon.add(1, unwrap(attrs));
+  }
+
+  @Override
+  public void recordHedgeThrottled(MetricsAttributes attrs) {
+    hedgesThrottled.add(1, unwrap(attrs));
+  }
+
   private static double toMs(Duration duration) {
     return duration.toNanos() / 1_000_000.0;
   }
@@ -375,6 +544,10 @@ public class MetricsImpl implements Closeable, Metrics {
     return ((MetricsAttributesImpl) wrapped).getAttributes();
   }
 
+  private static Attributes unwrap(MetricsAttributes wrapped, Status status) {
+    return ((MetricsAttributesImpl) wrapped).getAttributesWithStatus(status);
+  }
+
   /**
    * Generate a test data point to test permissions for exporting metrics. Used in {@link
    * com.google.cloud.bigtable.examples.proxy.commands.Verify}.
@@ -401,6 +574,31 @@ public class MetricsImpl implements Closeable, Metrics {
   @VisibleForTesting
   @AutoValue
   abstract static class MetricsAttributesImpl implements MetricsAttributes {
+    // Lazily populated, racing threads will build equivalent instances
+    private final Attributes[] attributesByStatus = new Attributes[Status.Code.values().length];
+
     abstract Attributes getAttributes();
+
+    Attributes getAttributesWithStatus(Status status) {
+      int index = status.getCode().ordinal();
+      Attributes attributes = attributesByStatus[index];
+      if (attributes == null) {
+        attributes =
+            getAttributes().toBuilder().put(STATUS_KEY, status.getCode().name()).build();
+        attributesByStatus[index] = attributes;
+      }
+      return attributes;
+    }
+  }
+
+  @AutoValue
+  abstract static class AttributesKey {
+    abstract String getMethodName();
+
+    abstract String getApiClient();
+
+    abstract String getResource();
+
+    abstract String getAppProfile();
   }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.metrics;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+import javax.annotation.Nullable;
+
+/** Settings to control where {@link MetricsImpl} exports metrics to and how they are aggregated. */
+@AutoValue
+public abstract class MetricsSettings {
+  /** Where metrics are exported to. */
+  public enum Exporter {
+    /** Periodically push metrics to Google Cloud Monitoring. */
+    GOOGLE_CLOUD,
+    /** Serve metrics on a local HTTP endpoint for a Prometheus scraper. */
+    PROMETHEUS,
+    /** Periodically push metrics to an OTLP collector over gRPC. */
+    OTLP,
+    /** Don't collect any metrics. */
+    NONE
+  }
+
+  /** How histogram metrics (ie. latencies) are aggregated. */
+  public enum HistogramAggregation {
+    /** OpenTelemetry's default fixed buckets. */
+    EXPLICIT_BUCKETS,
+    /**
+     * Base 2 exponential buckets, which keep a bounded relative error over any range of values
+     * with a fixed number of buckets.
+     */
+    EXPONENTIAL
+  }
+
+  public abstract Exporter getExporter();
+
+  /** The project that metrics are exported to, only used by {@link Exporter#GOOGLE_CLOUD}. */
+  @Nullable
+  public abstract String getProjectId();
+
+  /** The local port of the Prometheus endpoint, only used by {@link Exporter#PROMETHEUS}. */
+  public abstract int getPrometheusPort();
+
+  /** The collector's URL, only used by {@link Exporter#OTLP}. */
+  public abstract String getOtlpEndpoint();
+
+  /** How often metrics are pushed. Not used by {@link Exporter#PROMETHEUS}. */
+  public abstract Duration getExportInterval();
+
+  public abstract HistogramAggregation getHistogramAggregation();
+
+  /**
+   * The maximum number of distinct values that each call attribute (ie. resource or api client)
+   * can have. Once this is reached, all new values will be reported as {@code <overflow>}.
+   */
+  public abstract int getMaxAttributeValues();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_MetricsSettings.Builder()
+        .setExporter(Exporter.GOOGLE_CLOUD)
+        .setPrometheusPort(9464)
+        .setOtlpEndpoint("http://localhost:4317")
+        .setExportInterval(Duration.ofMinutes(1))
+        .setHistogramAggregation(HistogramAggregation.EXPLICIT_BUCKETS)
+        .setMaxAttributeValues(100);
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setExporter(Exporter exporter);
+
+    public abstract Builder setProjectId(@Nullable String projectId);
+
+    public abstract Builder setPrometheusPort(int port);
+
+    public abstract Builder setOtlpEndpoint(String endpoint);
+
+    public abstract Builder setExportInterval(Duration interval);
+
+    public abstract Builder setHistogramAggregation(HistogramAggregation aggregation);
+
+    public abstract Builder setMaxAttributeValues(int maxValues);
+
+    abstract MetricsSettings autoBuild();
+
+    public MetricsSettings build() {
+      MetricsSettings s = autoBuild();
+
+      Preconditions.checkState(
+          s.getExporter() != Exporter.GOOGLE_CLOUD || s.getProjectId() != null,
+          "A project id is required to export metrics to Google Cloud Monitoring");
+      Preconditions.checkState(
+          s.getPrometheusPort() >= 0 && s.getPrometheusPort() <= 65535,
+          "Prometheus port is invalid");
+      Preconditions.checkState(
+          !s.getExportInterval().isNegative() && !s.getExportInterval().isZero(),
+          "export interval must be positive");
+      Preconditions.checkState(
+          s.getMaxAttributeValues() > 0, "max attribute values must be positive");
+      return s;
+    }
+  }
+}
@@ -21,8 +21,14 @@ import io.grpc.ConnectivityState;
 import io.grpc.Status;
 import java.time.Duration;
 
+/** A {@link Metrics} implementation that discards all measurements. */
 public class NoopMetrics implements Metrics {
 
+  @Override
+  public boolean isEnabled() {
+    return false;
+  }
+
   @Override
   public MetricsAttributes createAttributes(CallLabels callLabels) {
     return null;
@@ -58,9 +64,30 @@ public class NoopMetrics implements Metrics {
   @Override
   public void recordDownstreamLatency(MetricsAttributes attrs, Duration latency) {}
 
+  @Override
+  public void recordAdmissionLatency(MetricsAttributes attrs, Duration duration) {}
+
+  @Override
+  public void recordAdmissionRejected(MetricsAttributes attrs) {}
+
+  @Override
+  public void recordConcurrencyLimit(MetricsAttributes attrs, int limit) {}
+
+  @Override
+  public void recordHedgeSent(MetricsAttributes attrs) {}
+
+  @Override
+  public void recordHedgeWon(MetricsAttributes attrs) {}
+
+  @Override
+  public void recordHedgeThrottled(MetricsAttributes attrs) {}
+
   @Override
   public void updateChannelCount(int delta) {}
 
   @Override
   public void recordChannelStateChange(ConnectivityState prevState, ConnectivityState newState) {}
+
+  @Override
+  public void recordChannelPoolResize(String reason, int fromSize, int toSize) {}
 }
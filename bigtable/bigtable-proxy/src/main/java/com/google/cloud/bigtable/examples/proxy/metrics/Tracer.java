@@ -51,12 +51,13 @@ public class Tracer extends ClientStreamTracer {
   private final Stopwatch stopwatch;
   private volatile Optional<Duration> grpcQueueDuration = Optional.empty();
   private final AtomicLong responseSize = new AtomicLong();
-  private volatile Duration downstreamLatency;
+  private volatile Duration downstreamLatency = Duration.ZERO;
 
   public Tracer(Metrics metrics, CallLabels callLabels) {
     this.metrics = metrics;
     this.callLabels = callLabels;
-    this.attrs = metrics.createAttributes(callLabels);
+    // Don't parse the call labels when the attributes would be discarded anyway
+    this.attrs = metrics.isEnabled() ? metrics.createAttributes(callLabels) : null;
 
     stopwatch = Stopwatch.createStarted();
 
@@ -64,15 +65,26 @@ public class Tracer extends ClientStreamTracer {
   }
 
   public CallOptions injectIntoCallOptions(CallOptions callOptions) {
-    return callOptions
-        .withOption(CALL_OPTION_KEY, this)
-        .withStreamTracerFactory(
-            new Factory() {
-              @Override
-              public ClientStreamTracer newClientStreamTracer(StreamInfo info, Metadata headers) {
-                return Tracer.this;
-              }
-            });
+    callOptions = callOptions.withOption(CALL_OPTION_KEY, this);
+    if (!metrics.isEnabled()) {
+      // The stream tracer callbacks only collect measurements, skip them for every message
+      return callOptions;
+    }
+    return callOptions.withStreamTracerFactory(
+        new Factory() {
+          @Override
+          public ClientStreamTracer newClientStreamTracer(StreamInfo info, Metadata headers) {
+            return Tracer.this;
+          }
+        });
+  }
+
+  /**
+   * Like {@link #injectIntoCallOptions(CallOptions)}, but without observing the stream. Used for
+   * additional attempts of the same call (ie. hedges), so that their messages aren't counted twice.
+   */
+  public CallOptions injectIntoAttemptCallOptions(CallOptions callOptions) {
+    return callOptions.withOption(CALL_OPTION_KEY, this);
   }
 
   public static Tracer extractTracerFromCallOptions(CallOptions callOptions) {
@@ -134,4 +146,28 @@ public class Tracer extends ClientStreamTracer {
   public void onDownstreamLatency(Duration latency) {
     downstreamLatency = downstreamLatency.plus(latency);
   }
+
+  public void onAdmitted(Duration waitDuration) {
+    metrics.recordAdmissionLatency(attrs, waitDuration);
+  }
+
+  public void onAdmissionRejected() {
+    metrics.recordAdmissionRejected(attrs);
+  }
+
+  public void onConcurrencyLimitChanged(int limit) {
+    metrics.recordConcurrencyLimit(attrs, limit);
+  }
+
+  public void onHedgeSent() {
+    metrics.recordHedgeSent(attrs);
+  }
+
+  public void onHedgeWon() {
+    metrics.recordHedgeWon(attrs);
+  }
+
+  public void onHedgeThrottled() {
+    metrics.recordHedgeThrottled(attrs);
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.admission;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.cloud.bigtable.examples.proxy.admission.ConcurrencyLimiter.Permit;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
+import com.google.cloud.bigtable.examples.proxy.metrics.NoopMetrics;
+import com.google.cloud.bigtable.examples.proxy.metrics.Tracer;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConcurrencyLimiterTest {
+  private ScheduledExecutorService executor;
+  private final List<Permit> permits = new ArrayList<>();
+  private final AtomicInteger rejections = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testGrantsUpToLimitThenQueues() {
+    ConcurrencyLimiter limiter = createLimiter(settings().setMaxQueueSize(1).build());
+
+    acquire(limiter);
+    acquire(limiter);
+    assertThat(permits).hasSize(2);
+
+    // Third call is queued, fourth is rejected because the queue is full
+    acquire(limiter);
+    assertThat(limiter.getQueueSize()).isEqualTo(1);
+    acquire(limiter);
+    assertThat(rejections.get()).isEqualTo(1);
+
+    // Releasing a permit admits the queued call
+    permits.get(0).release(Status.OK);
+    assertThat(permits).hasSize(3);
+    assertThat(limiter.getQueueSize()).isEqualTo(0);
+    assertThat(limiter.getInFlight()).isEqualTo(2);
+  }
+
+  @Test
+  public void testQueueTimeout() throws InterruptedException {
+    ConcurrencyLimiter limiter =
+        createLimiter(settings().setMaxQueueWait(Duration.ofMillis(10)).build());
+
+    acquire(limiter);
+    acquire(limiter);
+    acquire(limiter);
+    assertThat(limiter.getQueueSize()).isEqualTo(1);
+
+    for (int i = 0; i < 100 && rejections.get() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(rejections.get()).isEqualTo(1);
+    assertThat(limiter.getQueueSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCancelQueued() {
+    ConcurrencyLimiter limiter = createLimiter(settings().build());
+
+    acquire(limiter);
+    acquire(limiter);
+    ConcurrencyLimiter.PendingAcquire pending = acquire(limiter);
+
+    assertThat(pending.cancel()).isTrue();
+    assertThat(limiter.getQueueSize()).isEqualTo(0);
+
+    // Cancelled calls are not admitted
+    permits.get(0).release(Status.OK);
+    assertThat(permits).hasSize(2);
+  }
+
+  @Test
+  public void testOverloadShrinksLimit() {
+    ConcurrencyLimiter limiter =
+        createLimiter(settings().setInitialLimit(10).setBackoffRatio(0.5).build());
+
+    acquire(limiter);
+    permits.get(0).release(Status.RESOURCE_EXHAUSTED);
+    assertThat(limiter.getLimit()).isEqualTo(5);
+
+    acquire(limiter);
+    permits.get(1).release(Status.UNAVAILABLE);
+    assertThat(limiter.getLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSuccessGrowsLimitWhenUtilized() {
+    ConcurrencyLimiter limiter = createLimiter(settings().setInitialLimit(4).build());
+
+    // Only a single call in flight: the limiter is underutilized and shouldn't grow
+    acquire(limiter);
+    permits.get(0).release(Status.OK);
+    assertThat(limiter.getLimit()).isEqualTo(4);
+
+    acquire(limiter);
+    acquire(limiter);
+    permits.get(1).release(Status.OK);
+    assertThat(limiter.getLimit()).isEqualTo(5);
+  }
+
+  @Test
+  public void testLimitIsBounded() {
+    ConcurrencyLimiter limiter =
+        createLimiter(settings().setInitialLimit(2).setMinLimit(2).setMaxLimit(2).build());
+
+    acquire(limiter);
+    acquire(limiter);
+    permits.get(0).release(Status.OK);
+    assertThat(limiter.getLimit()).isEqualTo(2);
+
+    permits.get(1).release(Status.DEADLINE_EXCEEDED);
+    assertThat(limiter.getLimit()).isEqualTo(2);
+  }
+
+  private static AdmissionSettings.Builder settings() {
+    return AdmissionSettings.builder().setInitialLimit(2).setMaxQueueSize(10);
+  }
+
+  private ConcurrencyLimiter createLimiter(AdmissionSettings settings) {
+    return new ConcurrencyLimiter(settings, executor);
+  }
+
+  private ConcurrencyLimiter.PendingAcquire acquire(ConcurrencyLimiter limiter) {
+    return limiter.acquire(createTracer(), permits::add, rejections::incrementAndGet);
+  }
+
+  private static Tracer createTracer() {
+    return new Tracer(
+        new NoopMetrics(),
+        CallLabels.create(
+            BigtableGrpc.getReadRowsMethod(),
+            Optional.empty(),
+            Optional.empty(),
+            Optional.empty(),
+            Optional.empty(),
+            Optional.empty()));
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.channelpool;
+
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPool.Entry;
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings.LoadBalancingStrategy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the tail latency of the {@link ChannelPicker} strategies.
+ *
+ * <p>Each benchmark thread simulates a call: it picks an entry, holds it for a simulated service
+ * time and then releases it. The service time grows with the number of calls already outstanding on
+ * the entry, and one of the entries is much slower than the rest to model a stalled frontend. The
+ * sampled percentiles in the JMH report show how well each strategy steers around the slow entry.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPickerBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(32)
+public class ChannelPickerBenchmark {
+  /** Simulated cost of a call on a healthy, idle channel. */
+  private static final long BASE_TOKENS = 2_000;
+
+  @Param({"ROUND_ROBIN", "LEAST_IN_FLIGHT", "POWER_OF_TWO_LEAST_IN_FLIGHT"})
+  public LoadBalancingStrategy strategy;
+
+  @Param({"10"})
+  public int numChannels;
+
+  @Param({"20"})
+  public int slowChannelPenalty;
+
+  private List<Entry> entries;
+  private ChannelPicker picker;
+
+  @Setup
+  public void setup() {
+    entries = new ArrayList<>();
+    for (int i = 0; i < numChannels; i++) {
+      entries.add(new Entry(null));
+    }
+    picker = ChannelPicker.create(strategy);
+  }
+
+  @Benchmark
+  public void call() {
+    int index = picker.pickIndex(entries);
+    Entry entry = entries.get(index);
+
+    int queued = entry.outstandingRpcs.incrementAndGet();
+    try {
+      long tokens = BASE_TOKENS * queued;
+      if (index == 0) {
+        tokens *= slowChannelPenalty;
+      }
+      Blackhole.consumeCPU(tokens);
+    } finally {
+      entry.outstandingRpcs.decrementAndGet();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder().include(ChannelPickerBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
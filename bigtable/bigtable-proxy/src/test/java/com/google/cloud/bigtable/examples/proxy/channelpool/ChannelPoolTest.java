@@ -22,10 +22,13 @@ import static io.grpc.MethodDescriptor.generateFullMethodName;
 import com.google.bigtable.v2.BigtableGrpc;
 import com.google.bigtable.v2.MutateRowRequest;
 import com.google.bigtable.v2.MutateRowResponse;
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings.LoadBalancingStrategy;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgeGroup;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.type.Color;
 import com.google.type.Money;
 import io.grpc.CallOptions;
@@ -43,6 +46,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -105,6 +109,91 @@ public class ChannelPoolTest {
     verifyTargetChannel(pool, channels, sub1);
   }
 
+  @Test
+  public void testLeastInFlight() throws IOException {
+    ManagedChannel sub1 = Mockito.mock(ManagedChannel.class);
+    ManagedChannel sub2 = Mockito.mock(ManagedChannel.class);
+
+    ArrayList<ManagedChannel> channels = Lists.newArrayList(sub1, sub2);
+    pool =
+        ChannelPool.create(
+            ChannelPoolSettings.staticallySized(channels.size()).toBuilder()
+                .setLoadBalancingStrategy(LoadBalancingStrategy.LEAST_IN_FLIGHT)
+                .build(),
+            new FakeChannelFactory(channels));
+
+    // Keep sub1 busy, all new calls should go to the idle sub2
+    pool.entries.get().get(0).outstandingRpcs.set(10);
+    verifyTargetChannel(pool, channels, sub2);
+    verifyTargetChannel(pool, channels, sub2);
+
+    // Once sub2 is busier, the calls should shift back to sub1
+    pool.entries.get().get(1).outstandingRpcs.set(20);
+    verifyTargetChannel(pool, channels, sub1);
+  }
+
+  @Test
+  public void testPowerOfTwoLeastInFlight() throws IOException {
+    ManagedChannel sub1 = Mockito.mock(ManagedChannel.class);
+    ManagedChannel sub2 = Mockito.mock(ManagedChannel.class);
+
+    ArrayList<ManagedChannel> channels = Lists.newArrayList(sub1, sub2);
+    pool =
+        ChannelPool.create(
+            ChannelPoolSettings.staticallySized(channels.size()).toBuilder()
+                .setLoadBalancingStrategy(LoadBalancingStrategy.POWER_OF_TWO_LEAST_IN_FLIGHT)
+                .build(),
+            new FakeChannelFactory(channels));
+
+    // With only 2 channels, both are always sampled so the less loaded one must always win
+    pool.entries.get().get(1).outstandingRpcs.set(10);
+    for (int i = 0; i < 10; i++) {
+      verifyTargetChannel(pool, channels, sub1);
+    }
+  }
+
+  @Test
+  public void testLeastInFlightPicksIdlestEntry() {
+    List<ChannelPool.Entry> entries = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      ChannelPool.Entry entry = new ChannelPool.Entry(Mockito.mock(ManagedChannel.class));
+      entry.outstandingRpcs.set(5 - i);
+      entries.add(entry);
+    }
+    ChannelPicker picker = ChannelPicker.create(LoadBalancingStrategy.LEAST_IN_FLIGHT);
+    for (int i = 0; i < 10; i++) {
+      assertThat(picker.pickIndex(entries)).isEqualTo(4);
+    }
+  }
+
+  @Test
+  public void testHedgeGroupSkipsUsedChannels() throws IOException {
+    ManagedChannel sub1 = Mockito.mock(ManagedChannel.class);
+    ManagedChannel sub2 = Mockito.mock(ManagedChannel.class);
+
+    ArrayList<ManagedChannel> channels = Lists.newArrayList(sub1, sub2);
+    pool =
+        ChannelPool.create(
+            ChannelPoolSettings.staticallySized(channels.size()), new FakeChannelFactory(channels));
+
+    MethodDescriptor<MutateRowRequest, MutateRowResponse> methodDescriptor =
+        BigtableGrpc.getMutateRowMethod();
+    HedgeGroup hedgeGroup = new HedgeGroup();
+    CallOptions callOptions =
+        CallOptions.DEFAULT.withOption(HedgeGroup.CALL_OPTION_KEY, hedgeGroup);
+
+    // The first attempt is sent on the channel picked by round robin
+    pool.newCall(methodDescriptor, callOptions);
+    Mockito.verify(sub1, Mockito.times(1)).newCall(methodDescriptor, callOptions);
+    assertThat(hedgeGroup.isUsed(sub1)).isTrue();
+
+    // Advance round robin past sub2, so that it would pick sub1 again for the hedge
+    pool.newCall(methodDescriptor, CallOptions.DEFAULT);
+    pool.newCall(methodDescriptor, callOptions);
+    Mockito.verify(sub1, Mockito.times(1)).newCall(methodDescriptor, callOptions);
+    Mockito.verify(sub2, Mockito.times(1)).newCall(methodDescriptor, callOptions);
+  }
+
   private void verifyTargetChannel(
       ChannelPool pool, List<ManagedChannel> channels, ManagedChannel targetChannel) {
     MethodDescriptor<MutateRowRequest, MutateRowResponse> methodDescriptor =
@@ -203,7 +292,7 @@ public class ChannelPoolTest {
 
   // Test channelPrimer is called periodically, if there's an executorService
   @Test
-  public void channelPrimerIsCalledPeriodically() throws IOException {
+  public void channelPrimerIsCalledPeriodically() throws Exception {
     ChannelPrimer mockChannelPrimer = Mockito.mock(ChannelPrimer.class);
     ManagedChannel channel1 = Mockito.mock(ManagedChannel.class);
     ManagedChannel channel2 = Mockito.mock(ManagedChannel.class);
@@ -238,16 +327,92 @@ public class ChannelPoolTest {
     // 1 call during the creation
     Mockito.verify(mockChannelPrimer, Mockito.times(1))
         .primeChannel(Mockito.any(ManagedChannel.class));
+    assertThat(channelRefreshers).hasSize(1);
 
+    // The channel isn't due for a refresh yet
     channelRefreshers.get(0).run();
+    Mockito.verify(mockChannelPrimer, Mockito.times(1))
+        .primeChannel(Mockito.any(ManagedChannel.class));
+
+    refreshAndAwait(System.nanoTime() + ChannelPool.REFRESH_PERIOD.toNanos());
     // 1 more call during channel refresh
     Mockito.verify(mockChannelPrimer, Mockito.times(2))
         .primeChannel(Mockito.any(ManagedChannel.class));
+    assertThat(pool.entries.get().get(0).channel).isSameInstanceAs(channel2);
 
-    channelRefreshers.get(0).run();
+    refreshAndAwait(System.nanoTime() + ChannelPool.REFRESH_PERIOD.toNanos());
     // 1 more call during channel refresh
     Mockito.verify(mockChannelPrimer, Mockito.times(3))
         .primeChannel(Mockito.any(ManagedChannel.class));
+    assertThat(pool.entries.get().get(0).channel).isSameInstanceAs(channel3);
+  }
+
+  private void refreshAndAwait(long nowNanos) throws InterruptedException {
+    ChannelPool.Entry prevEntry = pool.entries.get().get(0);
+    pool.refreshNextChannel(nowNanos);
+    // Replacements are created off-thread
+    for (int i = 0; i < 100 && pool.entries.get().get(0) == prevEntry; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void refreshIsStaggered() throws IOException {
+    ManualChannelFactory channelFactory = new ManualChannelFactory();
+    pool =
+        new ChannelPool(
+            ChannelPoolSettings.staticallySized(3),
+            channelFactory,
+            Mockito.mock(ScheduledExecutorService.class));
+    List<ChannelPool.Entry> initialEntries = pool.entries.get();
+
+    // Half way through the refresh period, only the first channel is due
+    pool.refreshNextChannel(System.nanoTime() + ChannelPool.REFRESH_PERIOD.toNanos() / 2);
+    assertThat(channelFactory.pending).hasSize(1);
+    channelFactory.pending.get(0).set(Mockito.mock(ManagedChannel.class));
+
+    List<ChannelPool.Entry> newEntries = pool.entries.get();
+    assertThat(newEntries.get(0)).isNotSameInstanceAs(initialEntries.get(0));
+    assertThat(newEntries.subList(1, 3)).containsExactlyElementsIn(initialEntries.subList(1, 3));
+    Mockito.verify(initialEntries.get(0).channel).shutdown();
+
+    // Nothing else is due yet
+    pool.refreshNextChannel(System.nanoTime() + ChannelPool.REFRESH_PERIOD.toNanos() / 2);
+    assertThat(channelFactory.pending).hasSize(1);
+  }
+
+  @Test
+  public void refreshSwapsChannelOnlyWhenReady() throws IOException {
+    ManualChannelFactory channelFactory = new ManualChannelFactory();
+    pool =
+        new ChannelPool(
+            ChannelPoolSettings.staticallySized(2),
+            channelFactory,
+            Mockito.mock(ScheduledExecutorService.class));
+    List<ChannelPool.Entry> initialEntries = pool.entries.get();
+    long farFuture = System.nanoTime() + 2 * ChannelPool.REFRESH_PERIOD.toNanos();
+
+    // While the replacement is being primed, the old channel keeps serving and no other refresh
+    // starts
+    pool.refreshNextChannel(farFuture);
+    pool.refreshNextChannel(farFuture);
+    assertThat(channelFactory.pending).hasSize(1);
+    assertThat(pool.entries.get()).containsExactlyElementsIn(initialEntries).inOrder();
+    Mockito.verify(initialEntries.get(0).channel, Mockito.never()).shutdown();
+
+    // A failed replacement leaves the old channel in place
+    channelFactory.pending.get(0).setException(new IOException("fake priming failure"));
+    assertThat(pool.entries.get()).containsExactlyElementsIn(initialEntries).inOrder();
+    Mockito.verify(initialEntries.get(0).channel, Mockito.never()).shutdown();
+
+    // The failed channel is retried later, and swapped in once its replacement is ready
+    pool.refreshNextChannel(farFuture);
+    assertThat(channelFactory.pending).hasSize(2);
+    ManagedChannel replacement = Mockito.mock(ManagedChannel.class);
+    channelFactory.pending.get(1).set(replacement);
+    assertThat(pool.entries.get().get(0).channel).isSameInstanceAs(replacement);
+    assertThat(pool.entries.get().get(1)).isSameInstanceAs(initialEntries.get(1));
+    Mockito.verify(initialEntries.get(0).channel).shutdown();
   }
 
   // ----
@@ -505,6 +670,92 @@ public class ChannelPoolTest {
     assertThat(pool.entries.get()).hasSize(2);
   }
 
+  @Test
+  public void predictiveResizeExpandsOnBurst() throws Exception {
+    ScheduledExecutorService executor = Mockito.mock(ScheduledExecutorService.class);
+    List<String> resizeReasons = new ArrayList<>();
+
+    ChannelFactory channelFactory =
+        () -> {
+          ManagedChannel channel = Mockito.mock(ManagedChannel.class);
+          Mockito.when(channel.newCall(Mockito.any(), Mockito.any()))
+              .thenAnswer(
+                  invocation -> {
+                    @SuppressWarnings("unchecked")
+                    ClientCall<Object, Object> clientCall = Mockito.mock(ClientCall.class);
+                    return clientCall;
+                  });
+          return channel;
+        };
+
+    pool =
+        new ChannelPool(
+            ChannelPoolSettings.builder()
+                .setInitialChannelCount(1)
+                .setMinRpcsPerChannel(1)
+                .setMaxRpcsPerChannel(2)
+                .setMaxChannelCount(20)
+                .setPredictiveResizeEnabled(true)
+                .build(),
+            channelFactory,
+            executor,
+            (reason, fromSize, toSize) -> resizeReasons.add(reason));
+
+    // Establish an idle baseline
+    long now = System.nanoTime();
+    pool.sampleAndResize(now);
+    assertThat(resizeReasons).isEmpty();
+
+    // A sudden burst of 10 RPCs needs at least 5 channels, which should be added in one step
+    for (int i = 0; i < 10; i++) {
+      ClientCalls.futureUnaryCall(
+          pool.newCall(BigtableGrpc.getMutateRowMethod(), CallOptions.DEFAULT),
+          MutateRowRequest.getDefaultInstance());
+    }
+    pool.sampleAndResize(now + TimeUnit.MILLISECONDS.toNanos(500));
+    assertThat(resizeReasons).containsExactly("burst");
+
+    // Channels are created off-thread
+    for (int i = 0; i < 100 && pool.entries.get().size() < 5; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(pool.entries.get().size()).isAtLeast(5);
+  }
+
+  @Test
+  public void predictiveResizeDelaysShrinking() throws Exception {
+    ScheduledExecutorService executor = Mockito.mock(ScheduledExecutorService.class);
+    List<ManagedChannel> channels = new ArrayList<>();
+
+    ChannelFactory channelFactory =
+        () -> {
+          ManagedChannel channel = Mockito.mock(ManagedChannel.class);
+          channels.add(channel);
+          return channel;
+        };
+
+    pool =
+        new ChannelPool(
+            ChannelPoolSettings.builder()
+                .setInitialChannelCount(2)
+                .setMinRpcsPerChannel(1)
+                .setMaxRpcsPerChannel(2)
+                .setPredictiveResizeEnabled(true)
+                .build(),
+            channelFactory,
+            executor);
+
+    // The pool was just created, so it should hold on to its channels
+    long now = System.nanoTime();
+    pool.sampleAndResize(now);
+    assertThat(pool.entries.get()).hasSize(2);
+
+    // After a full resize interval of idleness, the pool should shrink
+    pool.sampleAndResize(now + ChannelPoolSettings.RESIZE_INTERVAL.toNanos());
+    assertThat(pool.entries.get()).hasSize(1);
+    Mockito.verify(channels.get(1), Mockito.times(1)).shutdown();
+  }
+
   @Test
   public void removedIdleChannelsAreShutdown() throws Exception {
     ScheduledExecutorService executor = Mockito.mock(ScheduledExecutorService.class);
@@ -696,6 +947,23 @@ public class ChannelPoolTest {
     }
   }
 
+  /** Creates channels synchronously, but lets the test complete asynchronous creation. */
+  static class ManualChannelFactory implements ChannelFactory {
+    final List<SettableFuture<ManagedChannel>> pending = new ArrayList<>();
+
+    @Override
+    public ManagedChannel createSingleChannel() {
+      return Mockito.mock(ManagedChannel.class);
+    }
+
+    @Override
+    public ListenableFuture<ManagedChannel> createSingleChannelAsync(Executor executor) {
+      SettableFuture<ManagedChannel> future = SettableFuture.create();
+      pending.add(future);
+      return future;
+    }
+  }
+
   static class FakeLogHandler extends Handler {
     List<LogRecord> records = new ArrayList<>();
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.commands;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.bigtable.examples.proxy.commands.Bench.PhaseResult;
+import com.google.cloud.bigtable.examples.proxy.commands.Bench.Report;
+import com.google.cloud.bigtable.examples.proxy.commands.Bench.Workload;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import picocli.CommandLine;
+
+@RunWith(JUnit4.class)
+public class BenchTest {
+  @Test
+  public void testDefaults() {
+    Bench bench = new Bench();
+    new CommandLine(bench).parseArgs();
+
+    assertThat(bench.workloadWeights)
+        .containsExactly(Workload.READ_ROWS, 1, Workload.MUTATE_ROWS, 1, Workload.MUTATE_ROW, 1);
+    assertThat(bench.concurrency).isEqualTo(32);
+    assertThat(bench.qps).isEqualTo(0);
+    assertThat(bench.directBaseline).isTrue();
+  }
+
+  @Test
+  public void testWorkloadOverride() {
+    Bench bench = new Bench();
+    new CommandLine(bench).parseArgs("--workload=READ_ROWS=3,MUTATE_ROW=1");
+
+    assertThat(bench.workloadWeights)
+        .containsExactly(Workload.READ_ROWS, 3, Workload.MUTATE_ROW, 1);
+  }
+
+  @Test
+  public void testClosedLoop() throws Exception {
+    Bench bench = new Bench();
+    new CommandLine(bench)
+        .parseArgs("--warmup-seconds=0", "--duration-seconds=1", "--concurrency=4");
+
+    Report report = bench.run();
+
+    for (PhaseResult result : new PhaseResult[] {report.getDirect(), report.getProxied()}) {
+      assertThat(result.getErrorCount()).isEqualTo(0);
+      for (Workload workload : Workload.values()) {
+        assertThat(result.getHistogram(workload).getCount()).isGreaterThan(0);
+      }
+    }
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    report.print(new PrintStream(output, true, StandardCharsets.UTF_8));
+    assertThat(output.toString(StandardCharsets.UTF_8)).contains("Latency added by the proxy:");
+  }
+
+  @Test
+  public void testTargetQps() throws Exception {
+    Bench bench = new Bench();
+    new CommandLine(bench)
+        .parseArgs(
+            "--warmup-seconds=0",
+            "--duration-seconds=1",
+            "--qps=100",
+            "--workload=MUTATE_ROW=1",
+            "--no-direct-baseline");
+
+    Report report = bench.run();
+
+    assertThat(report.getDirect()).isNull();
+    PhaseResult result = report.getProxied();
+    assertThat(result.getErrorCount()).isEqualTo(0);
+    assertThat(result.getHistogram(Workload.MUTATE_ROW).getCount()).isAtLeast(50);
+    assertThat(result.getHistogram(Workload.MUTATE_ROW).getCount()).isAtMost(101);
+    assertThat(result.getHistogram(Workload.READ_ROWS).getCount()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.commands;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.bigtable.v2.BigtableGrpc.BigtableBlockingStub;
+import com.google.bigtable.v2.BigtableGrpc.BigtableImplBase;
+import com.google.bigtable.v2.MutateRowRequest;
+import com.google.bigtable.v2.MutateRowResponse;
+import com.google.cloud.bigtable.examples.proxy.metrics.NoopMetrics;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Load test for the proxy's server {@link ExecutorMode}s.
+ *
+ * <p>Each benchmark thread sends unary MutateRow calls through a real proxy server to an in-process
+ * fake Bigtable that responds immediately, so the results isolate the proxy's own threading
+ * overhead. The report includes the throughput and the sampled latency percentiles (including p99)
+ * for each mode. {@code VIRTUAL} is skipped unless the benchmark is run on Java 21+.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.bigtable.examples.proxy.commands.ExecutorModeBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(32)
+public class ExecutorModeBenchmark {
+  // ExecutorMode is package-private, so it can't be used directly by the generated benchmark code
+  @Param({"DEFAULT", "DIRECT", "BOUNDED", "VIRTUAL"})
+  public String executorMode;
+
+  @Param({"0", "2"})
+  public int serverEventLoopThreads;
+
+  private Server fakeServer;
+  private ManagedChannel fakeServiceChannel;
+  private Serve serve;
+  private ManagedChannel proxyChannel;
+  private BigtableBlockingStub stub;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    String serverName = "fake-bigtable-" + UUID.randomUUID();
+    fakeServer =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new FakeDataService())
+            .build()
+            .start();
+    fakeServiceChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+
+    serve = new Serve();
+    serve.serverExecutorMode = ExecutorMode.valueOf(executorMode);
+    serve.serverEventLoopThreads = serverEventLoopThreads;
+    serve.dataChannel = fakeServiceChannel;
+    serve.adminChannel = fakeServiceChannel;
+    serve.credentials = GoogleCredentials.create(new AccessToken("fake-token", null));
+    serve.metrics = new NoopMetrics();
+    try (ServerSocket serverSocket = new ServerSocket(0)) {
+      serve.listenPort = serverSocket.getLocalPort();
+    }
+    serve.start();
+
+    proxyChannel =
+        ManagedChannelBuilder.forAddress("localhost", serve.listenPort).usePlaintext().build();
+    stub = BigtableGrpc.newBlockingStub(proxyChannel);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    proxyChannel.shutdownNow();
+    serve.cleanup();
+    serve.server.shutdownNow();
+    fakeServer.shutdownNow();
+  }
+
+  @Benchmark
+  public MutateRowResponse mutateRow() {
+    return stub.mutateRow(
+        MutateRowRequest.newBuilder()
+            .setTableName("projects/fake-project/instances/fake-instance/tables/fake-table")
+            .build());
+  }
+
+  private static class FakeDataService extends BigtableImplBase {
+    @Override
+    public void mutateRow(
+        MutateRowRequest request, StreamObserver<MutateRowResponse> responseObserver) {
+      responseObserver.onNext(MutateRowResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    OptionsBuilder options = new OptionsBuilder();
+    options.include(ExecutorModeBenchmark.class.getSimpleName());
+    if (Runtime.version().feature() < 21) {
+      options.param("executorMode", "DEFAULT", "DIRECT", "BOUNDED");
+    }
+    new Runner(options.build()).run();
+  }
+}
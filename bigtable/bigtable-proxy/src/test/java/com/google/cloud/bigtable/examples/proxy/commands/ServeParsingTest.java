@@ -18,6 +18,9 @@ package com.google.cloud.bigtable.examples.proxy.commands;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.cloud.bigtable.examples.proxy.channelpool.ChannelPoolSettings.LoadBalancingStrategy;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.Exporter;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.HistogramAggregation;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -35,6 +38,96 @@ public class ServeParsingTest {
     assertThat(serve.userAgent).isEqualTo("bigtable-java-proxy");
     assertThat(serve.dataEndpoint).isEqualTo(Endpoint.create("bigtable.googleapis.com", 443));
     assertThat(serve.adminEndpoint).isEqualTo(Endpoint.create("bigtableadmin.googleapis.com", 443));
+    assertThat(serve.loadBalancingStrategy).isEqualTo(LoadBalancingStrategy.ROUND_ROBIN);
+    assertThat(serve.passthroughMarshaller).isTrue();
+    assertThat(serve.serverExecutorMode).isEqualTo(ExecutorMode.DEFAULT);
+    assertThat(serve.channelExecutorMode).isEqualTo(ExecutorMode.DEFAULT);
+    assertThat(serve.serverEventLoopThreads).isEqualTo(0);
+    assertThat(serve.channelEventLoopThreads).isEqualTo(0);
+    assertThat(serve.metricsExporter).isEqualTo(Exporter.GOOGLE_CLOUD);
+    assertThat(serve.metricsHistogramAggregation)
+        .isEqualTo(HistogramAggregation.EXPLICIT_BUCKETS);
+    assertThat(serve.metricsMaxAttributeValues).isEqualTo(100);
+    assertThat(serve.hedgingEnabled).isFalse();
+  }
+
+  @Test
+  public void testHedging() {
+    Serve serve = new Serve();
+    new CommandLine(serve)
+        .parseArgs(
+            "--listen-port=1234",
+            "--metrics-project-id=fake-project",
+            "--hedging",
+            "--hedging-latency-percentile=99",
+            "--hedging-min-delay-ms=10",
+            "--hedging-max-delay-ms=200",
+            "--hedging-budget-ratio=0.1");
+    assertThat(serve.hedgingEnabled).isTrue();
+    assertThat(serve.hedgingLatencyPercentile).isEqualTo(99);
+    assertThat(serve.hedgingMinDelayMs).isEqualTo(10);
+    assertThat(serve.hedgingMaxDelayMs).isEqualTo(200);
+    assertThat(serve.hedgingBudgetRatio).isEqualTo(0.1);
+  }
+
+  @Test
+  public void testLocalMetricsExporter() {
+    Serve serve = new Serve();
+    new CommandLine(serve)
+        .parseArgs(
+            "--listen-port=1234",
+            "--metrics-exporter=PROMETHEUS",
+            "--metrics-prometheus-port=9090",
+            "--metrics-histogram=EXPONENTIAL",
+            "--metrics-max-attribute-values=10");
+
+    assertThat(serve.metricsProjectId).isNull();
+    assertThat(serve.metricsExporter).isEqualTo(Exporter.PROMETHEUS);
+    assertThat(serve.metricsPrometheusPort).isEqualTo(9090);
+    assertThat(serve.metricsHistogramAggregation).isEqualTo(HistogramAggregation.EXPONENTIAL);
+    assertThat(serve.metricsMaxAttributeValues).isEqualTo(10);
+  }
+
+  @Test
+  public void testExecutorOverrides() {
+    Serve serve = new Serve();
+    new CommandLine(serve)
+        .parseArgs(
+            "--listen-port=1234",
+            "--metrics-project-id=fake-project",
+            "--server-executor=DIRECT",
+            "--channel-executor=BOUNDED",
+            "--channel-executor-threads=8",
+            "--server-event-loop-threads=4",
+            "--channel-event-loop-threads=2");
+    assertThat(serve.serverExecutorMode).isEqualTo(ExecutorMode.DIRECT);
+    assertThat(serve.channelExecutorMode).isEqualTo(ExecutorMode.BOUNDED);
+    assertThat(serve.channelExecutorThreads).isEqualTo(8);
+    assertThat(serve.serverEventLoopThreads).isEqualTo(4);
+    assertThat(serve.channelEventLoopThreads).isEqualTo(2);
+  }
+
+  @Test
+  public void testPassthroughMarshallerDisabled() {
+    Serve serve = new Serve();
+    new CommandLine(serve)
+        .parseArgs(
+            "--listen-port=1234",
+            "--metrics-project-id=fake-project",
+            "--no-passthrough-marshaller");
+    assertThat(serve.passthroughMarshaller).isFalse();
+  }
+
+  @Test
+  public void testLoadBalancingStrategyOverride() {
+    Serve serve = new Serve();
+    new CommandLine(serve)
+        .parseArgs(
+            "--listen-port=1234",
+            "--metrics-project-id=fake-project",
+            "--channel-pool-lb-strategy=POWER_OF_TWO_LEAST_IN_FLIGHT");
+    assertThat(serve.loadBalancingStrategy)
+        .isEqualTo(LoadBalancingStrategy.POWER_OF_TWO_LEAST_IN_FLIGHT);
   }
 
   @Test
@@ -83,6 +83,7 @@ import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import org.junit.After;
 import org.junit.Before;
@@ -158,6 +159,57 @@ public class ServeTest {
 
   @Test
   public void testDataRpcOk() throws InterruptedException, ExecutionException, TimeoutException {
+    verifyDataRpcOk(proxyChannel);
+  }
+
+  @Test
+  public void testDataRpcOkWithCopyingMarshaller()
+      throws InterruptedException, ExecutionException, TimeoutException, IOException {
+    ManagedChannel copyingTargetChannel =
+        grpcCleanup.register(
+            InProcessChannelBuilder.forName(targetServerName).usePlaintext().build());
+    Serve copyingServe = createAndStartCommand(copyingTargetChannel, fakeCredentials, false);
+    try {
+      ManagedChannel copyingProxyChannel =
+          grpcCleanup.register(
+              ManagedChannelBuilder.forAddress("localhost", copyingServe.listenPort)
+                  .usePlaintext()
+                  .build());
+      verifyDataRpcOk(copyingProxyChannel);
+    } finally {
+      copyingServe.cleanup();
+    }
+  }
+
+  @Test
+  public void testDataRpcOkWithDedicatedThreads()
+      throws InterruptedException, ExecutionException, TimeoutException, IOException {
+    ManagedChannel targetChannel =
+        grpcCleanup.register(
+            InProcessChannelBuilder.forName(targetServerName).usePlaintext().build());
+    Serve dedicatedServe =
+        createAndStartCommand(
+            targetChannel,
+            fakeCredentials,
+            s -> {
+              s.serverExecutorMode = ExecutorMode.BOUNDED;
+              s.serverExecutorThreads = 2;
+              s.serverEventLoopThreads = 1;
+            });
+    try {
+      ManagedChannel dedicatedProxyChannel =
+          grpcCleanup.register(
+              ManagedChannelBuilder.forAddress("localhost", dedicatedServe.listenPort)
+                  .usePlaintext()
+                  .build());
+      verifyDataRpcOk(dedicatedProxyChannel);
+    } finally {
+      dedicatedServe.cleanup();
+    }
+  }
+
+  private void verifyDataRpcOk(ManagedChannel proxyChannel)
+      throws InterruptedException, ExecutionException, TimeoutException {
     BigtableFutureStub proxyStub = BigtableGrpc.newFutureStub(proxyChannel);
 
     CheckAndMutateRowRequest request =
@@ -449,8 +501,22 @@ public class ServeTest {
 
   private static Serve createAndStartCommand(
       ManagedChannel targetChannel, FakeCredentials targetCredentials) throws IOException {
+    return createAndStartCommand(targetChannel, targetCredentials, true);
+  }
+
+  private static Serve createAndStartCommand(
+      ManagedChannel targetChannel, FakeCredentials targetCredentials, boolean passthrough)
+      throws IOException {
+    return createAndStartCommand(
+        targetChannel, targetCredentials, s -> s.passthroughMarshaller = passthrough);
+  }
+
+  private static Serve createAndStartCommand(
+      ManagedChannel targetChannel, FakeCredentials targetCredentials, Consumer<Serve> configurer)
+      throws IOException {
     for (int i = 10; i >= 0; i--) {
       Serve s = new Serve();
+      configurer.accept(s);
       s.dataChannel = targetChannel;
       s.adminChannel = targetChannel;
       s.credentials = targetCredentials;
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels.ParsedRequestParams;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels.ParsingException;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels.PrimingKey;
+import io.grpc.Metadata;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the per call cost of extracting {@link CallLabels} from request headers.
+ *
+ * <p>{@code extractLabels} is what every proxied call does: build the labels from the incoming
+ * headers and extract the resource and app profile. {@code parseUncached} is the same extraction
+ * without the interning cache, as a baseline. {@code primingKey} measures {@link PrimingKey#from}.
+ * Run with the GC profiler to compare the {@code gc.alloc.rate.norm} columns.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.bigtable.examples.proxy.core.CallLabelsBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CallLabelsBenchmark {
+  private static final String REQUEST_PARAMS =
+      "table_name=projects%2Fmy-project%2Finstances%2Fmy-instance%2Ftables%2Fmy-table"
+          + "&app_profile_id=my-app-profile";
+
+  private Metadata headers;
+  private CallLabels callLabels;
+
+  @Setup
+  public void setup() {
+    headers = new Metadata();
+    headers.put(CallLabels.REQUEST_PARAMS, REQUEST_PARAMS);
+    headers.put(CallLabels.API_CLIENT, "gl-java/11 gapic/2.50.0 gax/2.58.0 grpc/1.68.1");
+    headers.put(CallLabels.FEATURE_FLAGS, "CAQ=");
+
+    callLabels = CallLabels.create(BigtableGrpc.getReadRowsMethod(), headers);
+  }
+
+  @Benchmark
+  public void extractLabels(Blackhole bh) throws ParsingException {
+    CallLabels labels = CallLabels.create(BigtableGrpc.getReadRowsMethod(), headers);
+    bh.consume(labels.extractResourceName());
+    bh.consume(labels.extractAppProfileId());
+  }
+
+  @Benchmark
+  public void parseUncached(Blackhole bh) throws ParsingException {
+    CallLabels labels = CallLabels.create(BigtableGrpc.getReadRowsMethod(), headers);
+    ParsedRequestParams parsed =
+        ParsedRequestParams.parse(labels.getRequestParams().orElse(""));
+    bh.consume(parsed.getResourceName());
+    bh.consume(parsed.getAppProfileId());
+  }
+
+  @Benchmark
+  public Optional<PrimingKey> primingKey() throws ParsingException {
+    return PrimingKey.from(callLabels);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(CallLabelsBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+        .run();
+  }
+}
@@ -125,6 +125,53 @@ public class CallLabelsTest {
     assertThrows(ParsingException.class, callLabels::extractResourceName);
   }
 
+  @Test
+  public void testMalformedIsReportedForEveryCall() {
+    Metadata md = new Metadata();
+    md.put(CallLabels.REQUEST_PARAMS, "table_name=%s&app_profile_id=%s");
+
+    for (int i = 0; i < 2; i++) {
+      CallLabels callLabels = CallLabels.create(BigtableGrpc.getMutateRowMethod(), md);
+      assertThrows(ParsingException.class, callLabels::extractResourceName);
+      assertThrows(ParsingException.class, callLabels::extractAppProfileId);
+    }
+  }
+
+  @Test
+  public void testLabels() {
+    Metadata md = new Metadata();
+    md.put(CallLabels.REQUEST_PARAMS, "table_name=projects%2Fp%2Finstances%2Fi%2Ftables%2Ft");
+    CallLabels callLabels = CallLabels.create(BigtableGrpc.getMutateRowMethod(), md);
+
+    assertThat(callLabels.getResourceNameLabel()).isEqualTo("projects/p/instances/i/tables/t");
+    assertThat(callLabels.getAppProfileIdLabel()).isEqualTo("<missing>");
+
+    Metadata malformed = new Metadata();
+    malformed.put(CallLabels.REQUEST_PARAMS, "table_name=%s&app_profile_id=%s");
+    CallLabels malformedLabels = CallLabels.create(BigtableGrpc.getMutateRowMethod(), malformed);
+
+    assertThat(malformedLabels.getResourceNameLabel()).isEqualTo("<error>");
+    assertThat(malformedLabels.getAppProfileIdLabel()).isEqualTo("<error>");
+  }
+
+  @Test
+  public void testParsedRequestParamsAreInterned() throws ParsingException {
+    String requestParams = "table_name=projects%2Fp%2Finstances%2Fi%2Ftables%2Ft&app_profile_id=a";
+    Metadata md1 = new Metadata();
+    md1.put(CallLabels.REQUEST_PARAMS, requestParams);
+    Metadata md2 = new Metadata();
+    md2.put(CallLabels.REQUEST_PARAMS, new String(requestParams));
+
+    CallLabels callLabels1 = CallLabels.create(BigtableGrpc.getMutateRowMethod(), md1);
+    CallLabels callLabels2 = CallLabels.create(BigtableGrpc.getReadRowsMethod(), md2);
+
+    assertThat(callLabels2.getParsedRequestParams())
+        .isSameInstanceAs(callLabels1.getParsedRequestParams());
+    assertThat(callLabels2.extractResourceName())
+        .isEqualTo(Optional.of("projects/p/instances/i/tables/t"));
+    assertThat(callLabels2.extractAppProfileId()).isEqualTo(Optional.of("a"));
+  }
+
   @Test
   public void testPrimingKey() throws ParsingException {
     final String tableName = "projects/myp/instances/myi/tables/myt";
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.bigtable.examples.proxy.metrics.Tracer;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CallProxyTest {
+  private ServerCall<InputStream, InputStream> serverCall;
+  private ClientCall<InputStream, InputStream> clientCall;
+  private CallProxy<InputStream, InputStream> proxy;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    serverCall = mock(ServerCall.class);
+    clientCall = mock(ClientCall.class);
+    proxy = new CallProxy<>(mock(Tracer.class), serverCall, clientCall);
+  }
+
+  @Test
+  public void testDeliveredMessageIsLeftToTheTransport() {
+    when(clientCall.isReady()).thenReturn(true);
+    TrackingMessage request = new TrackingMessage();
+
+    proxy.serverCallListener.onMessage(request);
+
+    verify(clientCall).sendMessage(request);
+    assertThat(request.closed).isFalse();
+  }
+
+  @Test
+  public void testRejectedMessageIsReleased() {
+    TrackingMessage request = new TrackingMessage();
+    doThrow(new IllegalStateException("call is closed")).when(clientCall).sendMessage(any());
+
+    try {
+      proxy.serverCallListener.onMessage(request);
+    } catch (IllegalStateException expected) {
+      // Expected
+    }
+
+    assertThat(request.closed).isTrue();
+  }
+
+  @Test
+  public void testRequestAfterUpstreamClosedIsReleased() {
+    proxy.clientCallListener.onClose(Status.UNAVAILABLE, new Metadata());
+    TrackingMessage request = new TrackingMessage();
+
+    proxy.serverCallListener.onMessage(request);
+
+    verify(clientCall, never()).sendMessage(any());
+    assertThat(request.closed).isTrue();
+  }
+
+  @Test
+  public void testResponseAfterDownstreamCancelledIsReleased() {
+    proxy.serverCallListener.onCancel();
+    TrackingMessage response = new TrackingMessage();
+
+    proxy.clientCallListener.onMessage(response);
+
+    verify(serverCall, never()).sendMessage(any());
+    assertThat(response.closed).isTrue();
+  }
+
+  @Test
+  public void testMessageDroppedByCallCancelledDuringSendIsReleased() {
+    TrackingMessage response = new TrackingMessage();
+    // The call is cancelled while the message is sent, and drops it without closing it.
+    doAnswer(
+            invocation -> {
+              proxy.serverCallListener.onCancel();
+              return null;
+            })
+        .when(serverCall)
+        .sendMessage(response);
+
+    proxy.clientCallListener.onMessage(response);
+
+    assertThat(response.closed).isTrue();
+  }
+
+  /** Stands in for a detached transport stream, which must be closed whenever it is not sent. */
+  private static class TrackingMessage extends ByteArrayInputStream {
+    boolean closed;
+
+    TrackingMessage() {
+      super(new byte[] {1, 2, 3});
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
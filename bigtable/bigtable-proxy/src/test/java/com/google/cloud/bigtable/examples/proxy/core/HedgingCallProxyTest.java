@@ -0,0 +1,209 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.bigtable.v2.BigtableGrpc.BigtableImplBase;
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.ReadRowsResponse;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgingController;
+import com.google.cloud.bigtable.examples.proxy.hedging.HedgingSettings;
+import com.google.cloud.bigtable.examples.proxy.metrics.NoopMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.auth.MoreCallCredentials;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HedgingCallProxyTest {
+  private static final ReadRowsRequest REQUEST =
+      ReadRowsRequest.newBuilder().setTableName("projects/p/instances/i/tables/t").build();
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule().setTimeout(1, TimeUnit.MINUTES);
+
+  private ScheduledExecutorService executor;
+  private StallingService stallingService;
+  private RespondingService respondingService;
+  private ManagedChannel stallingChannel;
+  private ManagedChannel respondingChannel;
+
+  @Before
+  public void setUp() throws IOException {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    stallingService = new StallingService();
+    respondingService = new RespondingService();
+    stallingChannel = startTarget(stallingService);
+    respondingChannel = startTarget(respondingService);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testSlowCallIsHedged() throws Exception {
+    ManagedChannel proxyChannel =
+        startProxy(
+            new AlternatingChannel(ImmutableList.of(stallingChannel, respondingChannel)),
+            Duration.ofMillis(20));
+
+    List<ReadRowsResponse> responses =
+        ImmutableList.copyOf(BigtableGrpc.newBlockingStub(proxyChannel).readRows(REQUEST));
+
+    assertThat(responses).containsExactly(RespondingService.RESPONSE);
+    assertThat(stallingService.requests.get()).isEqualTo(1);
+    assertThat(respondingService.requests.get()).isEqualTo(1);
+    // The losing attempt is cancelled
+    assertThat(stallingService.cancelled.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testFastCallIsNotHedged() throws Exception {
+    ManagedChannel proxyChannel =
+        startProxy(
+            new AlternatingChannel(ImmutableList.of(respondingChannel, stallingChannel)),
+            Duration.ofMillis(50));
+
+    List<ReadRowsResponse> responses =
+        ImmutableList.copyOf(BigtableGrpc.newBlockingStub(proxyChannel).readRows(REQUEST));
+
+    assertThat(responses).containsExactly(RespondingService.RESPONSE);
+    // Wait past the hedge delay, in case the timer wasn't cancelled
+    Thread.sleep(100);
+    assertThat(respondingService.requests.get()).isEqualTo(1);
+    assertThat(stallingService.requests.get()).isEqualTo(0);
+  }
+
+  private ManagedChannel startTarget(BigtableImplBase service) throws IOException {
+    String name = UUID.randomUUID().toString();
+    grpcCleanup.register(
+        InProcessServerBuilder.forName(name).addService(service).build().start());
+    return grpcCleanup.register(InProcessChannelBuilder.forName(name).usePlaintext().build());
+  }
+
+  private ManagedChannel startProxy(Channel channel, Duration hedgeDelay) throws IOException {
+    HedgingController hedgingController =
+        new HedgingController(
+            HedgingSettings.builder()
+                .setMinDelay(Duration.ofMillis(1))
+                .setMaxDelay(hedgeDelay)
+                .build(),
+            executor);
+    ProxyHandler<InputStream, InputStream> handler =
+        new ProxyHandler<>(
+            new NoopMetrics(),
+            channel,
+            MoreCallCredentials.from(GoogleCredentials.create(new AccessToken("fake", null))),
+            null,
+            hedgingController);
+
+    String name = UUID.randomUUID().toString();
+    Server server =
+        InProcessServerBuilder.forName(name)
+            .fallbackHandlerRegistry(
+                Registry.passthrough(ImmutableMap.of(BigtableGrpc.SERVICE_NAME, handler)))
+            .build()
+            .start();
+    grpcCleanup.register(server);
+    return grpcCleanup.register(InProcessChannelBuilder.forName(name).usePlaintext().build());
+  }
+
+  /** Sends each new call to the next channel, like a round robin channel pool. */
+  private static class AlternatingChannel extends Channel {
+    private final List<? extends Channel> channels;
+    private final AtomicInteger next = new AtomicInteger();
+
+    AlternatingChannel(List<? extends Channel> channels) {
+      this.channels = channels;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+        MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+      return channels
+          .get(next.getAndIncrement() % channels.size())
+          .newCall(methodDescriptor, callOptions);
+    }
+
+    @Override
+    public String authority() {
+      return channels.get(0).authority();
+    }
+  }
+
+  /** Never responds, until the call is cancelled. */
+  private static class StallingService extends BigtableImplBase {
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+
+    @Override
+    public void readRows(ReadRowsRequest request, StreamObserver<ReadRowsResponse> observer) {
+      requests.incrementAndGet();
+      ((ServerCallStreamObserver<ReadRowsResponse>) observer)
+          .setOnCancelHandler(cancelled::countDown);
+    }
+  }
+
+  private static class RespondingService extends BigtableImplBase {
+    private static final ReadRowsResponse RESPONSE =
+        ReadRowsResponse.newBuilder().setLastScannedRowKey(ByteString.copyFromUtf8("key")).build();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Override
+    public void readRows(ReadRowsRequest request, StreamObserver<ReadRowsResponse> observer) {
+      assertThat(request).isEqualTo(REQUEST);
+      requests.incrementAndGet();
+      observer.onNext(RESPONSE);
+      observer.onCompleted();
+    }
+  }
+}
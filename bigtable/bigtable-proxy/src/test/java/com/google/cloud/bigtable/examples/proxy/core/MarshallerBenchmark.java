@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.internal.ReadableBuffers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the heap allocated while relaying a single 1 MiB message through the proxy's marshallers.
+ *
+ * <p>Each operation mimics what the transports do: the inbound transport exposes the message as a
+ * detachable stream over an off heap buffer, the marshaller parses it, the marshaller streams it to
+ * the outbound call and the outbound transport drains it into its own buffer. Since an operation is
+ * exactly one proxied MiB, the {@code gc.alloc.rate.norm} column of the GC profiler reports bytes
+ * allocated per proxied MiB for each marshaller.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.cloud.bigtable.examples.proxy.core.MarshallerBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MarshallerBenchmark {
+  private static final int MESSAGE_SIZE = 1024 * 1024;
+
+  @Param({"copying", "passthrough"})
+  public String marshallerType;
+
+  private Marshaller<Object> marshaller;
+  private ByteBuffer inboundBuffer;
+  private final byte[] outboundBuffer = new byte[64 * 1024];
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    switch (marshallerType) {
+      case "copying":
+        marshaller = (Marshaller<Object>) (Marshaller<?>) new ByteMarshaller();
+        break;
+      case "passthrough":
+        marshaller = (Marshaller<Object>) (Marshaller<?>) new PassthroughMarshaller();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown marshaller type: " + marshallerType);
+    }
+
+    inboundBuffer = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+    for (int i = 0; i < MESSAGE_SIZE; i++) {
+      inboundBuffer.put(i, (byte) i);
+    }
+  }
+
+  @Benchmark
+  public long relayMessage() throws IOException {
+    InputStream inbound =
+        ReadableBuffers.openStream(ReadableBuffers.wrap(inboundBuffer.duplicate()), true);
+
+    Object message = marshaller.parse(inbound);
+    inbound.close();
+
+    long total = 0;
+    try (InputStream outbound = marshaller.stream(message)) {
+      int n;
+      while ((n = outbound.read(outboundBuffer)) > 0) {
+        total += n;
+      }
+    }
+    return total;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(MarshallerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+        .run();
+  }
+}
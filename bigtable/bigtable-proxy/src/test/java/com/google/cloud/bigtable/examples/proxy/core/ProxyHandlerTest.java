@@ -0,0 +1,226 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.bigtable.v2.BigtableGrpc.BigtableImplBase;
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.ReadRowsResponse;
+import com.google.cloud.bigtable.examples.proxy.admission.AdmissionController;
+import com.google.cloud.bigtable.examples.proxy.admission.AdmissionSettings;
+import com.google.cloud.bigtable.examples.proxy.metrics.NoopMetrics;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.auth.MoreCallCredentials;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProxyHandlerTest {
+  private static final ReadRowsRequest REQUEST =
+      ReadRowsRequest.newBuilder().setTableName("projects/p/instances/i/tables/t").build();
+  private static final ReadRowsResponse RESPONSE =
+      ReadRowsResponse.newBuilder().setLastScannedRowKey(ByteString.copyFromUtf8("key")).build();
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule().setTimeout(1, TimeUnit.MINUTES);
+
+  private ScheduledExecutorService executor;
+  private HoldingService service;
+  private ManagedChannel proxyChannel;
+
+  @Before
+  public void setUp() throws IOException {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    service = new HoldingService();
+
+    String targetName = UUID.randomUUID().toString();
+    grpcCleanup.register(
+        InProcessServerBuilder.forName(targetName).addService(service).build().start());
+    ManagedChannel targetChannel =
+        grpcCleanup.register(InProcessChannelBuilder.forName(targetName).usePlaintext().build());
+
+    // Only one call is admitted at a time, the next one waits in the queue
+    AdmissionController admissionController =
+        new AdmissionController(
+            AdmissionSettings.builder()
+                .setInitialLimit(1)
+                .setMinLimit(1)
+                .setMaxLimit(1)
+                .setMaxQueueWait(Duration.ofSeconds(30))
+                .build(),
+            executor);
+    ProxyHandler<InputStream, InputStream> handler =
+        new ProxyHandler<>(
+            new NoopMetrics(),
+            targetChannel,
+            MoreCallCredentials.from(GoogleCredentials.create(new AccessToken("fake", null))),
+            admissionController);
+
+    String proxyName = UUID.randomUUID().toString();
+    Server server =
+        InProcessServerBuilder.forName(proxyName)
+            .fallbackHandlerRegistry(
+                Registry.passthrough(ImmutableMap.of(BigtableGrpc.SERVICE_NAME, handler)))
+            .build()
+            .start();
+    grpcCleanup.register(server);
+    proxyChannel =
+        grpcCleanup.register(InProcessChannelBuilder.forName(proxyName).usePlaintext().build());
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testQueuedCallCompletesAfterFirstCall() throws Exception {
+    ResponseCollector first = new ResponseCollector();
+    BigtableGrpc.newStub(proxyChannel).readRows(REQUEST, first);
+    assertThat(service.firstCallStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+    ResponseCollector second = new ResponseCollector();
+    BigtableGrpc.newStub(proxyChannel).readRows(REQUEST, second);
+    // The second call waits for the first one's permit
+    Thread.sleep(100);
+    assertThat(service.requests.get()).isEqualTo(1);
+
+    // The second call is admitted while the first one closes, it must not inherit the first
+    // call's context, which is cancelled once the first call completes
+    service.finishFirstCall();
+
+    assertThat(first.awaitStatus().getCode()).isEqualTo(Status.Code.OK);
+    assertThat(second.awaitStatus().getCode()).isEqualTo(Status.Code.OK);
+    assertThat(second.responses).containsExactly(RESPONSE);
+    assertThat(service.requests.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testHalfCloseWhileQueuedIsForwarded() throws Exception {
+    ResponseCollector first = new ResponseCollector();
+    BigtableGrpc.newStub(proxyChannel).readRows(REQUEST, first);
+    assertThat(service.firstCallStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+    // Half-close without sending a request, while the call is waiting to be admitted
+    CountDownLatch closed = new CountDownLatch(1);
+    Status[] status = new Status[1];
+    ClientCall<ReadRowsRequest, ReadRowsResponse> call =
+        proxyChannel.newCall(BigtableGrpc.getReadRowsMethod(), CallOptions.DEFAULT);
+    call.start(
+        new ClientCall.Listener<ReadRowsResponse>() {
+          @Override
+          public void onClose(Status s, Metadata trailers) {
+            status[0] = s;
+            closed.countDown();
+          }
+        },
+        new Metadata());
+    call.request(1);
+    call.halfClose();
+    Thread.sleep(100);
+
+    service.finishFirstCall();
+
+    // The half-close reaches the target once the call is admitted, which rejects the empty call
+    assertThat(closed.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(status[0].getCode()).isEqualTo(Status.Code.INTERNAL);
+    assertThat(status[0].getDescription()).isEqualTo("Half-closed without a request");
+    assertThat(first.awaitStatus().getCode()).isEqualTo(Status.Code.OK);
+  }
+
+  /** Holds the first call open until the test finishes it, and answers the others right away. */
+  private static class HoldingService extends BigtableImplBase {
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch firstCallStarted = new CountDownLatch(1);
+    private volatile StreamObserver<ReadRowsResponse> firstObserver;
+
+    @Override
+    public void readRows(ReadRowsRequest request, StreamObserver<ReadRowsResponse> observer) {
+      if (requests.incrementAndGet() == 1) {
+        firstObserver = observer;
+        firstCallStarted.countDown();
+        return;
+      }
+      observer.onNext(RESPONSE);
+      observer.onCompleted();
+    }
+
+    void finishFirstCall() {
+      firstObserver.onNext(RESPONSE);
+      firstObserver.onCompleted();
+    }
+  }
+
+  private static class ResponseCollector implements StreamObserver<ReadRowsResponse> {
+    private final List<ReadRowsResponse> responses = new ArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Status status;
+
+    @Override
+    public void onNext(ReadRowsResponse response) {
+      responses.add(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      status = Status.fromThrowable(t);
+      done.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+      status = Status.OK;
+      done.countDown();
+    }
+
+    Status awaitStatus() throws InterruptedException {
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      return status;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.hedging;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.bigtable.v2.BigtableGrpc;
+import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
+import io.grpc.MethodDescriptor;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HedgingControllerTest {
+  private ScheduledExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testOnlyConfiguredMethodsAreHedged() {
+    HedgingController controller = new HedgingController(settings().build(), executor);
+
+    assertThat(controller.getPolicy(createLabels(BigtableGrpc.getMutateRowsMethod()))).isNull();
+
+    HedgePolicy policy = controller.getPolicy(createLabels(BigtableGrpc.getReadRowsMethod()));
+    assertThat(policy).isNotNull();
+    assertThat(controller.getPolicy(createLabels(BigtableGrpc.getReadRowsMethod())))
+        .isSameInstanceAs(policy);
+  }
+
+  @Test
+  public void testBudget() {
+    HedgingController controller =
+        new HedgingController(settings().setBudgetRatio(0.5).build(), executor);
+    HedgePolicy policy = controller.getPolicy(createLabels(BigtableGrpc.getReadRowsMethod()));
+
+    // The bucket starts full to allow a burst of hedges
+    for (int i = 0; i < HedgingController.MAX_TOKENS / 1000; i++) {
+      assertThat(policy.tryAcquireHedge()).isTrue();
+    }
+    assertThat(policy.tryAcquireHedge()).isFalse();
+
+    // Then every call funds half a hedge
+    policy.onCallStarted();
+    assertThat(policy.tryAcquireHedge()).isFalse();
+    policy.onCallStarted();
+    assertThat(policy.tryAcquireHedge()).isTrue();
+    assertThat(policy.tryAcquireHedge()).isFalse();
+  }
+
+  @Test
+  public void testDelayTracksPercentile() {
+    HedgingController controller = new HedgingController(settings().build(), executor);
+    HedgePolicy policy = controller.getPolicy(createLabels(BigtableGrpc.getReadRowsMethod()));
+
+    // Until a window completes, calls are hedged after the max delay
+    assertThat(policy.getHedgeDelayNanos()).isEqualTo(Duration.ofSeconds(1).toNanos());
+
+    long now = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      policy.recordFirstResponseLatency(Duration.ofMillis(20).toNanos(), now);
+    }
+    now += HedgePolicy.WINDOW.toNanos();
+    policy.recordFirstResponseLatency(Duration.ofMillis(20).toNanos(), now);
+    assertThat((double) policy.getHedgeDelayNanos())
+        .isWithin(Duration.ofMillis(1).toNanos())
+        .of(Duration.ofMillis(20).toNanos());
+
+    // Windows without enough samples don't change the delay
+    now += HedgePolicy.WINDOW.toNanos();
+    policy.recordFirstResponseLatency(Duration.ofMillis(500).toNanos(), now);
+    assertThat((double) policy.getHedgeDelayNanos())
+        .isWithin(Duration.ofMillis(1).toNanos())
+        .of(Duration.ofMillis(20).toNanos());
+  }
+
+  @Test
+  public void testDelayIsClamped() {
+    HedgingController controller = new HedgingController(settings().build(), executor);
+    HedgePolicy policy = controller.getPolicy(createLabels(BigtableGrpc.getReadRowsMethod()));
+
+    long now = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      policy.recordFirstResponseLatency(Duration.ofMillis(1).toNanos(), now);
+    }
+    now += HedgePolicy.WINDOW.toNanos();
+    policy.recordFirstResponseLatency(Duration.ofMillis(1).toNanos(), now);
+    assertThat(policy.getHedgeDelayNanos()).isEqualTo(Duration.ofMillis(5).toNanos());
+  }
+
+  private static HedgingSettings.Builder settings() {
+    return HedgingSettings.builder()
+        .setMinDelay(Duration.ofMillis(5))
+        .setMaxDelay(Duration.ofSeconds(1));
+  }
+
+  private static CallLabels createLabels(MethodDescriptor<?, ?> method) {
+    return CallLabels.create(
+        method,
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty());
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CardinalityLimiterTest {
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+
+  @Test
+  public void testOverflow() {
+    CardinalityLimiter limiter = new CardinalityLimiter("resource", 2, ticker);
+
+    assertThat(limiter.limit("a")).isEqualTo("a");
+    assertThat(limiter.limit("b")).isEqualTo("b");
+    assertThat(limiter.limit("c")).isEqualTo(CardinalityLimiter.OVERFLOW_VALUE);
+    assertThat(limiter.limit("a")).isEqualTo("a");
+  }
+
+  @Test
+  public void testExpiredValuesFreeTheirSlot() {
+    CardinalityLimiter limiter = new CardinalityLimiter("resource", 2, ticker);
+    limiter.limit("a");
+    limiter.limit("b");
+
+    nanos.addAndGet(CardinalityLimiter.VALUE_EXPIRY.toNanos() / 2);
+    // Keeps a alive
+    assertThat(limiter.limit("a")).isEqualTo("a");
+    nanos.addAndGet(CardinalityLimiter.VALUE_EXPIRY.toNanos() / 2 + TimeUnit.SECONDS.toNanos(1));
+
+    assertThat(limiter.limit("c")).isEqualTo("c");
+    assertThat(limiter.limit("d")).isEqualTo(CardinalityLimiter.OVERFLOW_VALUE);
+    assertThat(limiter.limit("a")).isEqualTo("a");
+  }
+}
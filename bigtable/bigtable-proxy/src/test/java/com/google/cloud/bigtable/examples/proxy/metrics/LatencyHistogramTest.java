@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.bigtable.examples.proxy.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.getCount()).isEqualTo(0);
+    assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+    assertThat(histogram.getCount()).isEqualTo(10);
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(5);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(10);
+    assertThat(histogram.getMax()).isEqualTo(10);
+  }
+
+  @Test
+  public void testPercentilesAreWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 100_000; i++) {
+      histogram.record(i * 1_000);
+    }
+
+    assertThat((double) histogram.getValueAtPercentile(50))
+        .isWithin(50_000_000 * 0.04)
+        .of(50_000_000);
+    assertThat((double) histogram.getValueAtPercentile(99))
+        .isWithin(99_000_000 * 0.04)
+        .of(99_000_000);
+    assertThat((double) histogram.getValueAtPercentile(99.9))
+        .isWithin(99_900_000 * 0.04)
+        .of(99_900_000);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100_000_000);
+  }
+
+  @Test
+  public void testAdd() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(10);
+    b.record(20);
+    b.record(30);
+
+    a.add(b);
+
+    assertThat(a.getCount()).isEqualTo(3);
+    assertThat(a.getMax()).isEqualTo(30);
+    assertThat(a.getValueAtPercentile(50)).isEqualTo(20);
+  }
+
+  @Test
+  public void testInvalidPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(101));
+  }
+}
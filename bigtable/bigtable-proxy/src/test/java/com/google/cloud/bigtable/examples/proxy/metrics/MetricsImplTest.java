@@ -20,9 +20,13 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.bigtable.v2.BigtableGrpc;
 import com.google.cloud.bigtable.examples.proxy.core.CallLabels;
+import com.google.cloud.bigtable.examples.proxy.metrics.MetricsSettings.Exporter;
+import io.grpc.Status;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.MeterProvider;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import org.junit.Before;
 import org.junit.Rule;
@@ -88,4 +92,68 @@ public class MetricsImplTest {
             AttributeKey.stringKey("app_profile"), "<missing>",
             AttributeKey.stringKey("method"), "google.bigtable.v2.Bigtable/MutateRow");
   }
+
+  @Test
+  public void testAttributesAreInterned() {
+    String requestParams = "table_name=projects%2Fp%2Finstances%2Fi%2Ftables%2Ft";
+    CallLabels callLabels1 =
+        CallLabels.create(
+            BigtableGrpc.getMutateRowMethod(),
+            Optional.of(requestParams),
+            Optional.empty(),
+            Optional.of("cookie1"),
+            Optional.empty(),
+            Optional.of("some-client"));
+    // Routing cookies are not part of the attributes, so they shouldn't affect interning
+    CallLabels callLabels2 =
+        CallLabels.create(
+            BigtableGrpc.getMutateRowMethod(),
+            Optional.of(new String(requestParams)),
+            Optional.empty(),
+            Optional.of("cookie2"),
+            Optional.empty(),
+            Optional.of("some-client"));
+
+    Attributes attrs1 = metrics.createAttributes(callLabels1).getAttributes();
+    Attributes attrs2 = metrics.createAttributes(callLabels2).getAttributes();
+    assertThat(attrs2).isSameInstanceAs(attrs1);
+
+    Attributes okAttrs = metrics.createAttributes(callLabels1).getAttributesWithStatus(Status.OK);
+    assertThat(okAttrs.get(AttributeKey.stringKey("status"))).isEqualTo("OK");
+    assertThat(metrics.createAttributes(callLabels2).getAttributesWithStatus(Status.OK))
+        .isSameInstanceAs(okAttrs);
+  }
+
+  @Test
+  public void testAttributeCardinalityIsBounded() {
+    MetricsImpl boundedMetrics = new MetricsImpl(mockMeterProvider, 2);
+
+    List<String> apiClients = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      CallLabels callLabels =
+          CallLabels.create(
+              BigtableGrpc.getMutateRowMethod(),
+              Optional.empty(),
+              Optional.empty(),
+              Optional.empty(),
+              Optional.empty(),
+              Optional.of("client-" + i));
+      apiClients.add(
+          boundedMetrics
+              .createAttributes(callLabels)
+              .getAttributes()
+              .get(AttributeKey.stringKey("api_client")));
+    }
+
+    assertThat(apiClients).containsExactly("client-0", "client-1", "<overflow>").inOrder();
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    Metrics disabled =
+        MetricsImpl.create(MetricsSettings.builder().setExporter(Exporter.NONE).build(), null);
+
+    assertThat(disabled.isEnabled()).isFalse();
+    assertThat(metrics.isEnabled()).isTrue();
+  }
 }
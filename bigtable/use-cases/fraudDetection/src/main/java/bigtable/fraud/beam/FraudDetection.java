@@ -17,35 +17,47 @@ package bigtable.fraud.beam;
 
 import bigtable.fraud.beam.utils.AggregatedData;
 import bigtable.fraud.beam.utils.CustomerProfile;
-import bigtable.fraud.beam.utils.RowDetails;
+import bigtable.fraud.beam.utils.FeatureSummary;
 import bigtable.fraud.beam.utils.TransactionDetails;
 import bigtable.fraud.beam.utils.WriteCBTHelper;
-import com.google.cloud.aiplatform.v1.EndpointName;
-import com.google.cloud.aiplatform.v1.PredictRequest;
-import com.google.cloud.aiplatform.v1.PredictResponse;
-import com.google.cloud.aiplatform.v1.PredictionServiceClient;
-import com.google.cloud.aiplatform.v1.PredictionServiceSettings;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.bigtable.beam.AbstractCloudBigtableTableDoFn;
 import com.google.cloud.bigtable.beam.CloudBigtableConfiguration;
 import com.google.cloud.bigtable.beam.CloudBigtableIO;
 import com.google.cloud.bigtable.beam.CloudBigtableScanConfiguration;
 import com.google.common.base.Preconditions;
-import com.google.protobuf.ListValue;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.Value;
-import com.google.protobuf.util.JsonFormat;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubIO;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,12 +96,51 @@ public final class FraudDetection {
         }
       };
 
-  // Reads the transaction history for that customer, and outputs an
-  // AggregatedData object.
+  // Reads the transaction history for the customers, and outputs an
+  // AggregatedData object per transaction. The reads of a bundle are
+  // grouped into multi-gets, and several multi-gets can be in flight at the
+  // same time, so throughput is not bound by one round trip per transaction.
   public static class ReadFromTableFn
       extends
       AbstractCloudBigtableTableDoFn<TransactionDetails, AggregatedData> {
 
+    /**
+     * The table that holds the customer profiles and transaction history.
+     * Tables are not thread-safe, so each multi-get opens its own.
+     */
+    private transient TableName tableName;
+
+    /**
+     * Runs the multi-gets, created on the first bundle.
+     */
+    private transient ExecutorService executor;
+
+    /**
+     * The maximum number of transactions read by a single multi-get.
+     */
+    private transient int batchSize;
+
+    /**
+     * The maximum number of multi-gets in flight.
+     */
+    private transient int maxInFlight;
+
+    /**
+     * The transactions that are waiting to be read.
+     */
+    private transient List<PendingRead> batch;
+
+    /**
+     * The multi-gets that were sent, in the order they were sent.
+     */
+    private transient Deque<Future<?>> inFlight;
+
+    /**
+     * The transactions whose multi-get was sent, output once the bundle
+     * finishes.
+     */
+    private transient List<PendingRead> sent;
+
     /**
      * @param config the CloudBigtableConfiguration used in reading from Cloud
      * Bigtable.
@@ -99,55 +150,255 @@ public final class FraudDetection {
     }
 
     /**
-     * @param c the process context that converts a TransactionDetails into an
-     * AggregatedData object.
+     * @param c the context of the bundle, used to read the pipeline options.
+     */
+    @StartBundle
+    public void startBundle(final StartBundleContext c) throws IOException {
+      FraudDetectionOptions options = c.getPipelineOptions()
+          .as(FraudDetectionOptions.class);
+      Preconditions.checkArgument(options.getCBTReadBatchSize() > 0,
+          "CBTReadBatchSize must be positive");
+      Preconditions.checkArgument(options.getCBTMaxInFlightReads() > 0,
+          "CBTMaxInFlightReads must be positive");
+      batchSize = options.getCBTReadBatchSize();
+      maxInFlight = options.getCBTMaxInFlightReads();
+      if (executor == null) {
+        // Idle threads exit, so that the workers don't need to be shut down.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxInFlight,
+            maxInFlight, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("cbt-reader-%d").build());
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+      }
+      tableName = TableName.valueOf(options.getCBTTableId());
+      batch = new ArrayList<>(batchSize);
+      inFlight = new ArrayDeque<>(maxInFlight);
+      sent = new ArrayList<>();
+    }
+
+    /**
+     * @param transactionDetails the transaction to read the history for.
+     * @param timestamp the timestamp of the transaction.
+     * @param window the window of the transaction.
      */
     @ProcessElement
     public void processElement(
-        final DoFn<TransactionDetails, AggregatedData>.ProcessContext c)
-        throws IOException {
+        @Element final TransactionDetails transactionDetails,
+        @Timestamp final Instant timestamp,
+        final BoundedWindow window) throws Exception {
+      batch.add(new PendingRead(transactionDetails, timestamp, window));
+      if (batch.size() >= batchSize) {
+        sendBatch();
+      }
+    }
+
+    /**
+     * Waits for all the reads of the bundle and outputs their results.
+     *
+     * @param c the context used to output the results.
+     */
+    @FinishBundle
+    public void finishBundle(final FinishBundleContext c) throws Exception {
       try {
-        FraudDetectionOptions options = c.getPipelineOptions()
-            .as(FraudDetectionOptions.class);
-        TransactionDetails transactionDetails = c.element();
-        LOGGER.info("Reading CBT for customerID = "
-            + transactionDetails.getCustomerID());
+        if (!batch.isEmpty()) {
+          sendBatch();
+        }
+        while (!inFlight.isEmpty()) {
+          awaitOldest();
+        }
+        for (PendingRead read : sent) {
+          c.output(read.result, read.timestamp, read.window);
+        }
+      } finally {
+        // Cancel whatever is left if a read failed, the bundle is retried.
+        for (Future<?> future : inFlight) {
+          future.cancel(true);
+        }
+        inFlight.clear();
+        sent.clear();
+        batch.clear();
+      }
+    }
+
+    /**
+     * Sends the buffered transactions as a single multi-get. Blocks while the
+     * maximum number of multi-gets is in flight.
+     */
+    private void sendBatch() throws Exception {
+      while (inFlight.size() >= maxInFlight) {
+        awaitOldest();
+      }
+      List<PendingRead> reads = batch;
+      batch = new ArrayList<>(batchSize);
+      Connection connection = getConnection();
+      sent.addAll(reads);
+      inFlight.add(executor.submit(() -> {
+        try (Table batchTable = connection.getTable(tableName)) {
+          readBatch(batchTable, reads);
+        }
+        return null;
+      }));
+    }
+
+    private void awaitOldest() throws Exception {
+      try {
+        inFlight.peek().get();
+        inFlight.remove();
+      } catch (ExecutionException e) {
+        LOGGER.error("Failed to read from Cloud Bigtable", e.getCause());
+        Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      }
+    }
+
+    private static void readBatch(final Table batchTable,
+        final List<PendingRead> reads) throws IOException {
+      LOGGER.debug("Reading CBT for {} customers", reads.size());
+      List<Get> gets = new ArrayList<>(reads.size());
+      for (PendingRead read : reads) {
+        gets.add(FeatureSummary.recentGet(read.transaction.getCustomerID()));
+      }
+
+      // Read the profile and feature summary of all the customers at once.
+      Result[] rows = batchTable.get(gets);
+      FeatureSummary[] summaries = new FeatureSummary[rows.length];
+      List<Get> fullGets = new ArrayList<>();
+      List<Integer> fullIndexes = new ArrayList<>();
+      for (int i = 0; i < rows.length; i++) {
+        summaries[i] = FeatureSummary.fromRow(rows[i], false);
+        if (summaries[i] == null) {
+          fullGets.add(
+              FeatureSummary.fullGet(reads.get(i).transaction.getCustomerID()));
+          fullIndexes.add(i);
+        }
+      }
 
-        // Read the cells for that customer ID.
-        Table table = getConnection().getTable(
-            TableName.valueOf(options.getCBTTableId()));
-        Result row = table.get(
-            new Get(Bytes.toBytes(transactionDetails.getCustomerID())));
+      // Backfill the customers that don't have a summary yet, or that have
+      // more recent transactions than the summary can catch up with, from
+      // their whole history.
+      if (!fullGets.isEmpty()) {
+        LOGGER.debug("Backfilling the feature summary of {} customers",
+            fullGets.size());
+        Result[] fullRows = batchTable.get(fullGets);
+        for (int j = 0; j < fullRows.length; j++) {
+          int i = fullIndexes.get(j);
+          rows[i] = fullRows[j];
+          summaries[i] = FeatureSummary.fromRow(fullRows[j], true);
+        }
+      }
 
-        Preconditions.checkArgument(new String(row.getRow()).equals(
-            transactionDetails.getCustomerID()));
+      for (int i = 0; i < rows.length; i++) {
+        PendingRead read = reads.get(i);
+        Result row = rows[i];
+        String customerID = read.transaction.getCustomerID();
+        Preconditions.checkArgument(!row.isEmpty()
+                && Bytes.toString(row.getRow()).equals(customerID),
+            "No row for customerID %s", customerID);
 
         CustomerProfile customerProfile = new CustomerProfile(row);
 
         // Generate an AggregatedData object.
-        AggregatedData aggregatedData =
-            new AggregatedData(customerProfile, transactionDetails, row);
+        read.result = new AggregatedData(
+            customerProfile, read.transaction, summaries[i]);
+      }
+    }
 
-        c.output(aggregatedData);
-      } catch (Exception e) {
-        LOGGER.error("Failed to read from Cloud Bigtable {}", c.element(), e);
-        throw e;
+    /**
+     * A transaction waiting for its history, and where to output it.
+     */
+    private static final class PendingRead {
+      /**
+       * The transaction to read the history for.
+       */
+      private final TransactionDetails transaction;
+      /**
+       * The timestamp of the transaction.
+       */
+      private final Instant timestamp;
+      /**
+       * The window of the transaction.
+       */
+      private final BoundedWindow window;
+      /**
+       * The result, set by the multi-get before its future completes.
+       */
+      private AggregatedData result;
+
+      private PendingRead(final TransactionDetails transactionDetails,
+          final Instant elementTimestamp, final BoundedWindow elementWindow) {
+        this.transaction = transactionDetails;
+        this.timestamp = elementTimestamp;
+        this.window = elementWindow;
       }
     }
   }
 
+  // Queries the ML model for the fraud probability of each transaction. The
+  // transactions are sent in batches of up to MLBatchSize instances, and
+  // several batches can be in flight at the same time.
   public static final class QueryMlModelFn
-      extends DoFn<AggregatedData, RowDetails> {
+      extends DoFn<AggregatedData, AggregatedData> {
+
+    /**
+     * The time between sending a batch and receiving its predictions.
+     */
+    private static final Distribution INFERENCE_LATENCY_MILLIS =
+        Metrics.distribution(QueryMlModelFn.class, "inferenceLatencyMillis");
+
+    /**
+     * The percentage of MLBatchSize used by each batch.
+     */
+    private static final Distribution BATCH_FILL_PERCENT =
+        Metrics.distribution(QueryMlModelFn.class, "batchFillPercent");
 
     /**
      * The region of the ML model.
      */
-    private String mlRegion;
+    private final String mlRegion;
 
     /**
      * The client that sends requests to the ML model, and receive responses.
      */
-    private PredictionServiceClient predictionServiceClient;
+    private transient MlModelClient mlModelClient;
+
+    /**
+     * The maximum number of instances in a request.
+     */
+    private transient int batchSize;
+
+    /**
+     * How long the first transaction of a batch can wait for the batch to
+     * fill up, in nanoseconds.
+     */
+    private transient long maxBatchDelayNanos;
+
+    /**
+     * The maximum number of requests in flight.
+     */
+    private transient int maxInFlight;
+
+    /**
+     * The transactions that are waiting to be sent.
+     */
+    private transient List<PendingPrediction> batch;
+
+    /**
+     * When the first transaction of the batch arrived.
+     */
+    private transient long batchStartNanos;
+
+    /**
+     * The requests that were sent, in the order they were sent.
+     */
+    private transient Deque<SentBatch> inFlight;
+
+    /**
+     * The transactions that have a prediction, output once the bundle
+     * finishes.
+     */
+    private transient List<PendingPrediction> predicted;
 
     /**
      * @param region the MLRegion that will be used.
@@ -158,70 +409,198 @@ public final class FraudDetection {
 
     /**
      * Sets up the ML model client.
+     *
+     * @param c the context of the bundle, used to read the pipeline options.
      */
-    @DoFn.Setup
-    public void setup() throws IOException {
-      PredictionServiceSettings predictionServiceSettings =
-          PredictionServiceSettings.newBuilder()
-              .setEndpoint(mlRegion + "-aiplatform.googleapis.com:443")
-              .build();
-      predictionServiceClient =
-          PredictionServiceClient.create(predictionServiceSettings);
+    @StartBundle
+    public void startBundle(final StartBundleContext c) throws IOException {
+      FraudDetectionOptions options = c.getPipelineOptions()
+          .as(FraudDetectionOptions.class);
+      Preconditions.checkArgument(options.getMLBatchSize() > 0,
+          "MLBatchSize must be positive");
+      Preconditions.checkArgument(options.getMLMaxInFlightRequests() > 0,
+          "MLMaxInFlightRequests must be positive");
+      batchSize = options.getMLBatchSize();
+      maxBatchDelayNanos =
+          TimeUnit.MILLISECONDS.toNanos(options.getMLMaxBatchDelayMillis());
+      maxInFlight = options.getMLMaxInFlightRequests();
+      if (mlModelClient == null) {
+        mlModelClient = MlModelClient.create(options, mlRegion);
+      }
+      batch = new ArrayList<>(batchSize);
+      inFlight = new ArrayDeque<>(maxInFlight);
+      predicted = new ArrayList<>();
     }
 
     /**
-     * @param c the process context that converts queries the ML Model.
+     * @param aggregatedData the features of the transaction.
+     * @param timestamp the timestamp of the transaction.
+     * @param window the window of the transaction.
      */
     @ProcessElement
     public void processElement(
-        final DoFn<AggregatedData, RowDetails>.ProcessContext c) {
+        @Element final AggregatedData aggregatedData,
+        @Timestamp final Instant timestamp,
+        final BoundedWindow window) throws InterruptedException {
+      long now = System.nanoTime();
+      if (batch.isEmpty()) {
+        batchStartNanos = now;
+      }
+      batch.add(new PendingPrediction(aggregatedData, timestamp, window));
+      if (batch.size() >= batchSize
+          || now - batchStartNanos >= maxBatchDelayNanos) {
+        sendBatch();
+      }
+      // Collect the batches that are already done, without waiting.
+      while (!inFlight.isEmpty() && inFlight.peek().future.isDone()) {
+        awaitOldest();
+      }
+    }
+
+    /**
+     * Waits for all the requests of the bundle and outputs the transactions
+     * with their prediction.
+     *
+     * @param c the context used to output the transactions.
+     */
+    @FinishBundle
+    public void finishBundle(final FinishBundleContext c)
+        throws InterruptedException {
       try {
-        // Get pipeline options.
-        FraudDetectionOptions options = c.getPipelineOptions()
-            .as(FraudDetectionOptions.class);
-        String payload = c.element().getMLFeatures();
-        String endpointID = options.getMLEndpoint();
-        String projectID = options.getProjectID();
-
-        LOGGER.info(
-            "Querying the ML model for these features: " + c.element()
-                .getMLFeatures());
-
-        EndpointName endpointName =
-            EndpointName.of(projectID, options.getMLRegion(), endpointID);
-
-        ListValue.Builder listValue = ListValue.newBuilder();
-        JsonFormat.parser().merge(payload, listValue);
-        List<Value> instanceList = listValue.getValuesList();
-
-        // Send a prediction request and receive a response.
-        PredictRequest predictRequest =
-            PredictRequest.newBuilder()
-                .setEndpoint(endpointName.toString())
-                .addAllInstances(instanceList)
-                .build();
-
-        PredictResponse predictResponse = predictionServiceClient.predict(
-            predictRequest);
-        double fraudProbability =
-            predictResponse
-                .getPredictionsList()
-                .get(0)
-                .getListValue()
-                .getValues(0)
-                .getNumberValue();
-
-        LOGGER.info("fraudProbability = " + fraudProbability);
-
-        if (fraudProbability >= FRAUD_PROBABILITY_THRESHOLD) {
-          c.element().getTransactionDetails().setIsFraud("1");
+        if (!batch.isEmpty()) {
+          sendBatch();
+        }
+        while (!inFlight.isEmpty()) {
+          awaitOldest();
+        }
+        for (PendingPrediction prediction : predicted) {
+          c.output(prediction.aggregatedData, prediction.timestamp,
+              prediction.window);
+        }
+      } finally {
+        for (SentBatch sent : inFlight) {
+          sent.future.cancel(true);
+        }
+        inFlight.clear();
+        predicted.clear();
+        batch.clear();
+      }
+    }
+
+    /**
+     * Closes the ML model client.
+     */
+    @Teardown
+    public void teardown() {
+      if (mlModelClient != null) {
+        mlModelClient.close();
+        mlModelClient = null;
+      }
+    }
+
+    /**
+     * Sends the buffered transactions as a single request. Blocks while the
+     * maximum number of requests is in flight.
+     */
+    private void sendBatch() throws InterruptedException {
+      while (inFlight.size() >= maxInFlight) {
+        awaitOldest();
+      }
+      List<PendingPrediction> predictions = batch;
+      batch = new ArrayList<>(batchSize);
+
+      List<Value> instances = new ArrayList<>(predictions.size());
+      for (PendingPrediction prediction : predictions) {
+        instances.add(prediction.aggregatedData.getMLInstance());
+      }
+      LOGGER.debug("Querying the ML model for {} transactions",
+          instances.size());
+      BATCH_FILL_PERCENT.update(100L * predictions.size() / batchSize);
+      inFlight.add(
+          new SentBatch(predictions, mlModelClient.predict(instances)));
+    }
+
+    private void awaitOldest() throws InterruptedException {
+      SentBatch sent = inFlight.remove();
+      double[] fraudProbabilities;
+      try {
+        fraudProbabilities = sent.future.get();
+      } catch (ExecutionException e) {
+        // Like a failed single request, the transactions are dropped.
+        LOGGER.error("Failed to query the ML model for {} transactions",
+            sent.predictions.size(), e.getCause());
+        return;
+      }
+      INFERENCE_LATENCY_MILLIS.update(TimeUnit.NANOSECONDS.toMillis(
+          sent.doneNanos - sent.sentNanos));
+
+      for (int i = 0; i < fraudProbabilities.length; i++) {
+        TransactionDetails transactionDetails =
+            sent.predictions.get(i).aggregatedData.getTransactionDetails();
+        LOGGER.debug("fraudProbability = {} for transaction {}",
+            fraudProbabilities[i], transactionDetails.getTransactionID());
+        if (fraudProbabilities[i] >= FRAUD_PROBABILITY_THRESHOLD) {
+          transactionDetails.setIsFraud("1");
         } else {
-          c.element().getTransactionDetails().setIsFraud("0");
+          transactionDetails.setIsFraud("0");
         }
+      }
+      predicted.addAll(sent.predictions);
+    }
 
-        c.output(c.element().getTransactionDetails());
-      } catch (Exception e) {
-        LOGGER.error("Failed to query the ML model {}", c.element(), e);
+    /**
+     * A transaction waiting for its prediction, and where to output it.
+     */
+    private static final class PendingPrediction {
+      /**
+       * The features of the transaction.
+       */
+      private final AggregatedData aggregatedData;
+      /**
+       * The timestamp of the transaction.
+       */
+      private final Instant timestamp;
+      /**
+       * The window of the transaction.
+       */
+      private final BoundedWindow window;
+
+      private PendingPrediction(final AggregatedData data,
+          final Instant elementTimestamp, final BoundedWindow elementWindow) {
+        this.aggregatedData = data;
+        this.timestamp = elementTimestamp;
+        this.window = elementWindow;
+      }
+    }
+
+    /**
+     * A request that was sent to the ML model.
+     */
+    private static final class SentBatch {
+      /**
+       * The transactions in the request, in the order of the instances.
+       */
+      private final List<PendingPrediction> predictions;
+      /**
+       * The fraud probabilities of the transactions.
+       */
+      private final ApiFuture<double[]> future;
+      /**
+       * When the request was sent.
+       */
+      private final long sentNanos = System.nanoTime();
+      /**
+       * When the response arrived, set before the future completes.
+       */
+      private volatile long doneNanos;
+
+      private SentBatch(final List<PendingPrediction> batchPredictions,
+          final ApiFuture<double[]> response) {
+        this.predictions = batchPredictions;
+        this.future = ApiFutures.transform(response, probabilities -> {
+          doneNanos = System.nanoTime();
+          return probabilities;
+        }, MoreExecutors.directExecutor());
       }
     }
   }
@@ -246,7 +625,7 @@ public final class FraudDetection {
     // Create a fraud-detection Dataflow pipeline.
     Pipeline pipeline = Pipeline.create(options);
 
-    PCollection<RowDetails> modelOutput =
+    PCollection<AggregatedData> modelOutput =
         pipeline
             .apply(
                 "Read PubSub Messages",
@@ -260,7 +639,7 @@ public final class FraudDetection {
     modelOutput
         .apply(
             "TransformParsingsToBigtable",
-            ParDo.of(WriteCBTHelper.MUTATION_TRANSFORM))
+            ParDo.of(WriteCBTHelper.FEATURE_SUMMARY_MUTATION_TRANSFORM))
         .apply(
             "WriteToBigtable",
             CloudBigtableIO.writeToTable(config));
@@ -269,13 +648,13 @@ public final class FraudDetection {
         .apply(
             "Preprocess Pub/Sub Output",
             ParDo.of(
-                new DoFn<RowDetails, String>() {
+                new DoFn<AggregatedData, String>() {
                   @ProcessElement
                   public void processElement(
-                      @Element final RowDetails modelOutput,
-                      final OutputReceiver<String> out)
-                      throws IllegalAccessException {
-                    out.output(modelOutput.toCommaSeparatedString());
+                      @Element final AggregatedData modelOutput,
+                      final OutputReceiver<String> out) {
+                    out.output(modelOutput.getTransactionDetails()
+                        .toCommaSeparatedString());
                   }
                 }))
         .apply("Write to PubSub",
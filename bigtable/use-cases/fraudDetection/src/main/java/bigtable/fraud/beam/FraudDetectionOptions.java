@@ -16,6 +16,7 @@
 package bigtable.fraud.beam;
 
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.Validation.Required;
 
@@ -58,6 +59,32 @@ public interface FraudDetectionOptions extends DataflowPipelineOptions {
    */
   void setCBTTableId(String tableId);
 
+  /**
+   * @return the maximum number of customers read by a single multi-get.
+   */
+  @Description("The maximum number of customers read from CBT by a single "
+      + "multi-get.")
+  @Default.Integer(100)
+  int getCBTReadBatchSize();
+
+  /**
+   * @param batchSize the maximum number of customers in a multi-get.
+   */
+  void setCBTReadBatchSize(int batchSize);
+
+  /**
+   * @return the maximum number of multi-gets in flight per DoFn instance.
+   */
+  @Description("The maximum number of CBT multi-gets in flight per worker "
+      + "thread.")
+  @Default.Integer(4)
+  int getCBTMaxInFlightReads();
+
+  /**
+   * @param maxInFlight the maximum number of multi-gets in flight.
+   */
+  void setCBTMaxInFlightReads(int maxInFlight);
+
   /**
    * @return Cloud Pubsub input topic.
    */
@@ -104,6 +131,57 @@ public interface FraudDetectionOptions extends DataflowPipelineOptions {
    */
   void setMLRegion(String region);
 
+  /**
+   * @return the maximum number of transactions in a prediction request.
+   */
+  @Description("The maximum number of transactions sent to the ML model in a "
+      + "single prediction request.")
+  @Default.Integer(32)
+  int getMLBatchSize();
+
+  /**
+   * @param batchSize the maximum number of transactions in a request.
+   */
+  void setMLBatchSize(int batchSize);
+
+  /**
+   * @return how long a transaction can wait for its batch to fill up.
+   */
+  @Description("How long a transaction can wait for its prediction request "
+      + "to fill up, in milliseconds.")
+  @Default.Long(100)
+  long getMLMaxBatchDelayMillis();
+
+  /**
+   * @param delayMillis how long a transaction can wait for its batch.
+   */
+  void setMLMaxBatchDelayMillis(long delayMillis);
+
+  /**
+   * @return the maximum number of prediction requests in flight.
+   */
+  @Description("The maximum number of prediction requests in flight per "
+      + "worker thread.")
+  @Default.Integer(4)
+  int getMLMaxInFlightRequests();
+
+  /**
+   * @param maxInFlight the maximum number of requests in flight.
+   */
+  void setMLMaxInFlightRequests(int maxInFlight);
+
+  /**
+   * @return the host:port of a plaintext prediction service, if any.
+   */
+  @Description("Overrides the ML prediction service with a plaintext "
+      + "host:port, e.g. a local stub. Uses Vertex AI when unset.")
+  String getMLServiceEndpoint();
+
+  /**
+   * @param serviceEndpoint the host:port of the prediction service.
+   */
+  void setMLServiceEndpoint(String serviceEndpoint);
+
   /**
    * @return Random UUID.
    */
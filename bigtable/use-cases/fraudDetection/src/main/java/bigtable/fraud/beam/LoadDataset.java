@@ -16,13 +16,16 @@
 package bigtable.fraud.beam;
 
 import bigtable.fraud.beam.utils.CustomerProfile;
+import bigtable.fraud.beam.utils.FeatureSummary;
 import bigtable.fraud.beam.utils.TransactionDetails;
 import bigtable.fraud.beam.utils.RowDetails;
 import bigtable.fraud.beam.utils.WriteCBTHelper;
 import com.google.cloud.bigtable.beam.CloudBigtableIO;
+import com.google.cloud.bigtable.beam.CloudBigtableScanConfiguration;
 import com.google.cloud.bigtable.beam.CloudBigtableTableConfiguration;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.io.Read;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.MapElements;
@@ -91,5 +94,39 @@ public final class LoadDataset {
 
     pProfilesRun.waitUntilFinish();
     pHistoryRun.waitUntilFinish();
+
+    if (options.getBackfillFeatureSummaries()) {
+      backfillFeatureSummaries(options);
+    }
+  }
+
+  /**
+   * Seeds the feature summary of every customer from its whole transaction
+   * history. The streaming pipeline seeds missing summaries on its own, this
+   * avoids doing it on the first transaction of each customer.
+   *
+   * @param options the input arguments.
+   */
+  private static void backfillFeatureSummaries(
+      final LoadDatasetOptions options) {
+    CloudBigtableScanConfiguration config =
+        new CloudBigtableScanConfiguration.Builder()
+            .withProjectId(options.getProjectID())
+            .withInstanceId(options.getCBTInstanceId())
+            .withTableId(options.getCBTTableId())
+            .withScan(FeatureSummary.fullScan())
+            .build();
+
+    options.setJobName("backfill-feature-summaries-"
+        + options.getRandomUUID());
+    Pipeline pBackfill = Pipeline.create(options);
+    pBackfill
+        .apply("ReadHistory", Read.from(CloudBigtableIO.read(config)))
+        .apply("TransformSummariesToBigtable",
+            ParDo.of(WriteCBTHelper.FEATURE_SUMMARY_BACKFILL_TRANSFORM))
+        .apply(
+            "WriteToBigtable",
+            CloudBigtableIO.writeToTable(config));
+    pBackfill.run().waitUntilFinish();
   }
 }
@@ -16,6 +16,7 @@
 package bigtable.fraud.beam;
 
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 
 /*
@@ -79,6 +80,19 @@ public interface LoadDatasetOptions extends DataflowPipelineOptions {
    */
   void setHistoryInputFile(String location);
 
+  /**
+   * @return true if the feature summaries are seeded after loading.
+   */
+  @Description("Seed the feature summary of every customer from its history "
+      + "once the datasets are loaded.")
+  @Default.Boolean(false)
+  boolean getBackfillFeatureSummaries();
+
+  /**
+   * @param backfill whether to seed the feature summaries.
+   */
+  void setBackfillFeatureSummaries(boolean backfill);
+
   /**
    * @return Random UUID.
    */
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.aiplatform.v1.EndpointName;
+import com.google.cloud.aiplatform.v1.PredictRequest;
+import com.google.cloud.aiplatform.v1.PredictResponse;
+import com.google.cloud.aiplatform.v1.PredictionServiceClient;
+import com.google.cloud.aiplatform.v1.PredictionServiceSettings;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Value;
+import io.grpc.ManagedChannelBuilder;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Sends batches of feature vectors to the ML model, and returns the fraud
+ * probability of each one. Requests are sent asynchronously, so that several
+ * batches can be in flight at the same time.
+ */
+public final class MlModelClient implements AutoCloseable {
+
+  /**
+   * The client that sends requests to the ML model, and receive responses.
+   */
+  private final PredictionServiceClient predictionServiceClient;
+
+  /**
+   * The full name of the ML model endpoint.
+   */
+  private final String endpoint;
+
+  private MlModelClient(final PredictionServiceClient client,
+      final EndpointName endpointName) {
+    this.predictionServiceClient = client;
+    this.endpoint = endpointName.toString();
+  }
+
+  /**
+   * @param options the pipeline options that point to the ML model.
+   * @param region the region of the ML model.
+   * @return a client for the ML model.
+   */
+  public static MlModelClient create(final FraudDetectionOptions options,
+      final String region) throws IOException {
+    PredictionServiceSettings.Builder settings =
+        PredictionServiceSettings.newBuilder();
+    String serviceEndpoint = options.getMLServiceEndpoint();
+    if (serviceEndpoint == null) {
+      settings.setEndpoint(region + "-aiplatform.googleapis.com:443");
+    } else {
+      // A local prediction server, used in tests.
+      settings
+          .setEndpoint(serviceEndpoint)
+          .setCredentialsProvider(NoCredentialsProvider.create())
+          .setTransportChannelProvider(
+              InstantiatingGrpcChannelProvider.newBuilder()
+                  .setEndpoint(serviceEndpoint)
+                  .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                  .build());
+    }
+    return new MlModelClient(
+        PredictionServiceClient.create(settings.build()),
+        EndpointName.of(options.getProjectID(), region,
+            options.getMLEndpoint()));
+  }
+
+  /**
+   * @param instances the feature vectors, see AggregatedData.getMLInstance.
+   * @return the fraud probability of each instance, in the same order.
+   */
+  public ApiFuture<double[]> predict(final List<Value> instances) {
+    PredictRequest predictRequest =
+        PredictRequest.newBuilder()
+            .setEndpoint(endpoint)
+            .addAllInstances(instances)
+            .build();
+    return ApiFutures.transform(
+        predictionServiceClient.predictCallable().futureCall(predictRequest),
+        response -> toProbabilities(response, instances.size()),
+        MoreExecutors.directExecutor());
+  }
+
+  private static double[] toProbabilities(final PredictResponse response,
+      final int expected) {
+    Preconditions.checkState(response.getPredictionsCount() == expected,
+        "Expected %s predictions, got %s", expected,
+        response.getPredictionsCount());
+    double[] probabilities = new double[expected];
+    for (int i = 0; i < expected; i++) {
+      probabilities[i] = response.getPredictions(i)
+          .getListValue()
+          .getValues(0)
+          .getNumberValue();
+    }
+    return probabilities;
+  }
+
+  /**
+   * Closes the underlying prediction client.
+   */
+  @Override
+  public void close() {
+    predictionServiceClient.close();
+  }
+}
@@ -15,6 +15,9 @@
  */
 package bigtable.fraud.beam.utils;
 
+import com.google.common.base.Preconditions;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Value;
 import java.util.ArrayList;
 import org.apache.beam.sdk.coders.DefaultCoder;
 import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
@@ -55,6 +58,12 @@ public final class AggregatedData {
    */
   private double numOfTransactionLastDay;
 
+  /**
+   * Stores the encoded feature summary of the customer, before this
+   * transaction.
+   */
+  private byte[] featureSummary;
+
   /**
    * Construct an AggregatedData object.
    *
@@ -65,80 +74,69 @@ public final class AggregatedData {
   public AggregatedData(
       final CustomerProfile iCustomerProfile,
       final TransactionDetails iTransactionDetails, final Result row) {
+    // Get all transactions made by this customer in the last month, the
+    // first one is the last transaction.
+    this(iCustomerProfile, iTransactionDetails,
+        FeatureSummary.fromHistory(TransactionHistory.fromRow(
+            row, UtilFunctions.MONTH_IN_MILLISECONDS)));
+  }
+
+  /**
+   * Construct an AggregatedData object.
+   *
+   * @param iCustomerProfile the incoming customer profile object.
+   * @param iTransactionDetails the incoming transaction details object.
+   * @param summary the feature summary of the customer.
+   */
+  public AggregatedData(
+      final CustomerProfile iCustomerProfile,
+      final TransactionDetails iTransactionDetails,
+      final FeatureSummary summary) {
+    Preconditions.checkArgument(!summary.isEmpty(),
+        "No transaction history for customer %s",
+        iTransactionDetails.getCustomerID());
     this.customerProfile = iCustomerProfile;
     this.transactionDetails = iTransactionDetails;
-
-    // Get last transaction.
-    TransactionDetails lastTransaction = new TransactionDetails(row);
-    String lastTransactionLat = lastTransaction.getMerchantLat();
-    String lastTransactionLong = lastTransaction.getMerchantLong();
-    long lastTransactionTime = lastTransaction.getTimestampMillisecond();
-
-    // Get all transactions made by this customer in the last month.
-    ArrayList<TransactionDetails> lastMonthTransactions =
-        iTransactionDetails.getLastTransactions(
-            row, lastTransactionTime
-                - UtilFunctions.MONTH_IN_MILLISECONDS);
-
-    // Generate the required aggregated data.
-    long lastDayTransactionsCount = 0;
-    long lastWeekTransactionsCount = 0;
-    long lastMonthTransactionsCount = 0;
-    long lastWeekTransactionsAmount = 0;
-    long lastMonthTransactionsAmount = 0;
-
-    for (TransactionDetails transaction : lastMonthTransactions) {
-      if (lastTransaction.getTimestampMillisecond()
-          - transaction.getTimestampMillisecond()
-          <= UtilFunctions.DAY_IN_MILLISECONDS) {
-        lastDayTransactionsCount++;
-      }
-      if (lastTransaction.getTimestampMillisecond()
-          - transaction.getTimestampMillisecond()
-          <= UtilFunctions.WEEK_IN_MILLISECONDS) {
-        lastWeekTransactionsCount++;
-        lastWeekTransactionsAmount += Double.parseDouble(
-            transaction.getTransactionAmount());
-      }
-      if (lastTransaction.getTimestampMillisecond()
-          - transaction.getTimestampMillisecond()
-          <= UtilFunctions.MONTH_IN_MILLISECONDS) {
-        lastMonthTransactionsCount++;
-        lastMonthTransactionsAmount += Double.parseDouble(
-            transaction.getTransactionAmount());
-      }
-    }
+    this.featureSummary = summary.encode();
 
     // Calculate the time between this transaction and the last transaction
     // made by the customer.
     this.lastTransactionMinutesDiff =
-        (iTransactionDetails.getTimestampMillisecond() - lastTransactionTime)
+        (iTransactionDetails.getTimestampMillisecond()
+            - summary.getLastTimestampMillisecond())
             / UtilFunctions.MINUTE_IN_MILLISECONDS;
 
     // Calculate the distance between this transaction and the last transaction
     // made by the customer.
     this.lastTransactionKMsDiff =
         UtilFunctions.distanceKM(
-            Double.parseDouble(iTransactionDetails.getMerchantLat()),
-            Double.parseDouble(lastTransactionLat),
-            Double.parseDouble(iTransactionDetails.getMerchantLong()),
-            Double.parseDouble(lastTransactionLong));
+            iTransactionDetails.getMerchantLat(),
+            summary.getLastMerchantLat(),
+            iTransactionDetails.getMerchantLong(),
+            summary.getLastMerchantLong());
 
     // Populate the number of transactions made by the same customer in the
     // last day.
-    this.numOfTransactionLastDay = lastDayTransactionsCount;
+    this.numOfTransactionLastDay = summary.getDayCount();
 
     // Calculate the average transaction amounts.
-    if (lastWeekTransactionsCount != 0) {
+    if (summary.getWeekCount() != 0) {
       this.avgAmountSpentLastWeek =
-          lastWeekTransactionsAmount / lastWeekTransactionsCount;
+          summary.getWeekAmount() / summary.getWeekCount();
     }
-    if (lastMonthTransactionsCount != 0) {
+    if (summary.getMonthCount() != 0) {
       this.avgAmountSpentLastMonth =
-          lastMonthTransactionsAmount / lastMonthTransactionsCount;
+          summary.getMonthAmount() / summary.getMonthCount();
     }
   }
 
+  /**
+   * @return the feature summary of the customer, before this transaction.
+   */
+  public FeatureSummary getFeatureSummary() {
+    return FeatureSummary.decode(featureSummary);
+  }
+
   /**
    * Return the incoming transaction details object.
    *
@@ -170,4 +168,33 @@ public final class AggregatedData {
     // Convert it to the format that the ML model accepts.
     return "[[" + UtilFunctions.arrayListToCommasString(mlFeatures) + "]]";
   }
+
+  /**
+   * Generates the same feature vector as getMLFeatures, as a prediction
+   * instance, without going through JSON.
+   *
+   * @return a feature vector.
+   */
+  public Value getMLInstance() {
+    ListValue.Builder mlFeatures = ListValue.newBuilder();
+
+    addNumber(mlFeatures, lastTransactionMinutesDiff);
+    addNumber(mlFeatures, lastTransactionKMsDiff);
+    addNumber(mlFeatures, avgAmountSpentLastWeek);
+    addNumber(mlFeatures, avgAmountSpentLastMonth);
+    addNumber(mlFeatures, numOfTransactionLastDay);
+    // The model reads the ids as numbers, like the JSON parser did.
+    addNumber(mlFeatures, Double.parseDouble(customerProfile.getId()));
+    addNumber(mlFeatures, Double.parseDouble(customerProfile.getCcNumber()));
+    addNumber(mlFeatures, transactionDetails.getTransactionAmount());
+    addNumber(mlFeatures,
+        Double.parseDouble(transactionDetails.getMerchantID()));
+
+    return Value.newBuilder().setListValue(mlFeatures).build();
+  }
+
+  private static void addNumber(final ListValue.Builder list,
+      final double number) {
+    list.addValues(Value.newBuilder().setNumberValue(number));
+  }
 }
@@ -22,6 +22,26 @@ import org.apache.hadoop.hbase.client.Result;
 @DefaultCoder(AvroCoder.class)
 public final class CustomerProfile extends RowDetails {
 
+  /**
+   * The column family that holds the customer profile.
+   */
+  static final String COLUMN_FAMILY = "customer_profile";
+
+  /**
+   * The columns of a customer profile, in the order they are read from the
+   * dataset.
+   */
+  private static final RowSchema<CustomerProfile> SCHEMA =
+      RowSchema.<CustomerProfile>builder(COLUMN_FAMILY)
+          .add("id", p -> p.id, (p, v) -> p.id = v)
+          .add("ccNumber", p -> p.ccNumber, (p, v) -> p.ccNumber = v)
+          .add("firstName", p -> p.firstName, (p, v) -> p.firstName = v)
+          .add("lastName", p -> p.lastName, (p, v) -> p.lastName = v)
+          .add("dob", p -> p.dob, (p, v) -> p.dob = v)
+          .add("accountNumber",
+              p -> p.accountNumber, (p, v) -> p.accountNumber = v)
+          .build();
+
   /**
    * The incoming request's customer id.
    */
@@ -79,8 +99,13 @@ public final class CustomerProfile extends RowDetails {
     return ccNumber;
   }
 
+  @Override
+  public RowSchema<CustomerProfile> getSchema() {
+    return SCHEMA;
+  }
+
   @Override
   public String getColFamily() {
-    return "customer_profile";
+    return COLUMN_FAMILY;
   }
 }
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/*
+ * A pre-aggregated summary of the recent transactions of a customer, stored
+ * in a single cell next to the transaction history. The day, week and month
+ * aggregates are kept up to date as transactions are added, so that reading
+ * the features of a customer doesn't require walking its history.
+ * The windows are relative to the most recent transaction, like they are
+ * when the features are computed from the history.
+ */
+public final class FeatureSummary {
+
+  /**
+   * The column that holds the summary, in the history column family.
+   */
+  public static final String COLUMN = "featureSummary";
+
+  /**
+   * The number of versions of the history columns read next to the summary,
+   * used to catch up with transactions that the summary missed.
+   */
+  public static final int CATCH_UP_VERSIONS = 8;
+
+  /**
+   * The summary is always written with the same timestamp, so that a single
+   * version of it exists.
+   */
+  private static final long CELL_TIMESTAMP = 0L;
+
+  /**
+   * The version of the encoding.
+   */
+  private static final byte ENCODING_VERSION = 1;
+
+  /**
+   * The size of the encoded header.
+   */
+  private static final int HEADER_BYTES = 1 + 3 * Long.BYTES
+      + 5 * Long.BYTES + Integer.BYTES;
+
+  /**
+   * The size of an encoded transaction.
+   */
+  private static final int ENTRY_BYTES = Long.BYTES + Double.BYTES + 1;
+
+  /**
+   * The encoded column family.
+   */
+  private static final byte[] FAMILY =
+      Bytes.toBytes(TransactionDetails.COLUMN_FAMILY);
+
+  /**
+   * The encoded column qualifier.
+   */
+  private static final byte[] QUALIFIER = Bytes.toBytes(COLUMN);
+
+  /**
+   * The encoded customer profile column family.
+   */
+  private static final byte[] PROFILE_FAMILY =
+      Bytes.toBytes(CustomerProfile.COLUMN_FAMILY);
+
+  /**
+   * The timestamp of the most recent transaction.
+   */
+  private long lastTimestamp = Long.MIN_VALUE;
+  /**
+   * The merchant longitude of the most recent transaction.
+   */
+  private double lastMerchantLong;
+  /**
+   * The merchant latitude of the most recent transaction.
+   */
+  private double lastMerchantLat;
+
+  /**
+   * The timestamps of the transactions made in the month before the most
+   * recent one, oldest first.
+   */
+  private long[] timestamps = new long[0];
+  /**
+   * The amount of each transaction.
+   */
+  private double[] amounts = new double[0];
+  /**
+   * Whether each transaction was declared as fraudulent.
+   */
+  private boolean[] frauds = new boolean[0];
+  /**
+   * The number of transactions.
+   */
+  private int size;
+
+  /**
+   * The index of the oldest transaction in the last week.
+   */
+  private int weekStart;
+  /**
+   * The index of the oldest transaction in the last day.
+   */
+  private int dayStart;
+
+  /**
+   * The number of legit transactions in the last day.
+   */
+  private long dayCount;
+  /**
+   * The number of legit transactions in the last week.
+   */
+  private long weekCount;
+  /**
+   * The whole amount spent in legit transactions in the last week.
+   */
+  private long weekAmount;
+  /**
+   * The number of legit transactions in the last month.
+   */
+  private long monthCount;
+  /**
+   * The whole amount spent in legit transactions in the last month.
+   */
+  private long monthAmount;
+
+  /**
+   * Constructs an empty summary.
+   */
+  public FeatureSummary() {
+  }
+
+  /**
+   * @param history the recent transactions of a customer.
+   * @return a summary of the transactions.
+   */
+  public static FeatureSummary fromHistory(final TransactionHistory history) {
+    FeatureSummary summary = new FeatureSummary();
+    for (int i = history.size() - 1; i >= 0; i--) {
+      summary.add(history.getTimestampMillisecond(i),
+          history.getTransactionAmount(i), history.getMerchantLong(i),
+          history.getMerchantLat(i), history.isFraud(i));
+    }
+    return summary;
+  }
+
+  /**
+   * Reads the summary of a customer and catches it up with the history
+   * cells of the row.
+   *
+   * @param row a row read with recentGet or fullGet.
+   * @param complete true if the row holds all the versions of the history.
+   * @return the summary, or null if the row doesn't hold enough history to
+   * build it and it must be read again with fullGet.
+   */
+  public static FeatureSummary fromRow(final Result row,
+      final boolean complete) {
+    TransactionHistory history =
+        TransactionHistory.fromRow(row, UtilFunctions.MONTH_IN_MILLISECONDS);
+    Cell cell = row.getColumnLatestCell(FAMILY, QUALIFIER);
+    boolean partial = !complete && history.size() >= CATCH_UP_VERSIONS;
+
+    if (cell == null) {
+      // Seed the summary from the history, if all of it was read.
+      return partial ? null : fromHistory(history);
+    }
+
+    FeatureSummary summary = decode(ByteBuffer.wrap(cell.getValueArray(),
+        cell.getValueOffset(), cell.getValueLength()));
+    if (partial && !summary.contains(
+        history.getTimestampMillisecond(history.size() - 1))) {
+      // Older transactions might be missing too.
+      return null;
+    }
+    for (int i = history.size() - 1; i >= 0; i--) {
+      summary.add(history.getTimestampMillisecond(i),
+          history.getTransactionAmount(i), history.getMerchantLong(i),
+          history.getMerchantLat(i), history.isFraud(i));
+    }
+    return summary;
+  }
+
+  /**
+   * @param customerID the customer to read.
+   * @return a get that reads the customer profile, the summary and the most
+   * recent history cells of a customer.
+   */
+  public static Get recentGet(final String customerID) {
+    try {
+      return new Get(Bytes.toBytes(customerID))
+          .addFamily(PROFILE_FAMILY)
+          .addFamily(FAMILY)
+          .setMaxVersions(CATCH_UP_VERSIONS);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * @param customerID the customer to read.
+   * @return a get that reads the customer profile, the summary and all the
+   * history cells of a customer.
+   */
+  public static Get fullGet(final String customerID) {
+    return new Get(Bytes.toBytes(customerID))
+        .addFamily(PROFILE_FAMILY)
+        .addFamily(FAMILY)
+        .setMaxVersions();
+  }
+
+  /**
+   * @return a scan that reads the summary and all the history cells of every
+   * customer.
+   */
+  public static Scan fullScan() {
+    return new Scan().addFamily(FAMILY).setMaxVersions();
+  }
+
+  /**
+   * Adds a transaction. Transactions that were already added are ignored,
+   * and so are transactions older than a month before the most recent one.
+   *
+   * @param timestamp the transaction timestamp in milliseconds.
+   * @param amount the transaction amount.
+   * @param merchantLong the merchant longitude.
+   * @param merchantLat the merchant latitude.
+   * @param fraud true if the transaction was declared as fraudulent.
+   */
+  public void add(final long timestamp, final double amount,
+      final double merchantLong, final double merchantLat,
+      final boolean fraud) {
+    if (isEmpty() || timestamp > lastTimestamp) {
+      append(timestamp, amount, fraud);
+      lastTimestamp = timestamp;
+      lastMerchantLong = merchantLong;
+      lastMerchantLat = merchantLat;
+      slideWindows();
+      return;
+    }
+    if (lastTimestamp - timestamp > UtilFunctions.MONTH_IN_MILLISECONDS
+        || contains(timestamp)) {
+      return;
+    }
+    // An out of order transaction, rebuild the aggregates.
+    int index = -Arrays.binarySearch(timestamps, 0, size, timestamp) - 1;
+    append(0, 0, false);
+    System.arraycopy(timestamps, index, timestamps, index + 1,
+        size - index - 1);
+    System.arraycopy(amounts, index, amounts, index + 1, size - index - 1);
+    System.arraycopy(frauds, index, frauds, index + 1, size - index - 1);
+    timestamps[index] = timestamp;
+    amounts[index] = amount;
+    frauds[index] = fraud;
+    recompute();
+  }
+
+  private void append(final long timestamp, final double amount,
+      final boolean fraud) {
+    if (size == timestamps.length) {
+      int capacity = Math.max(8, size * 2);
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      amounts = Arrays.copyOf(amounts, capacity);
+      frauds = Arrays.copyOf(frauds, capacity);
+    }
+    timestamps[size] = timestamp;
+    amounts[size] = amount;
+    frauds[size] = fraud;
+    size++;
+    if (!fraud) {
+      dayCount++;
+      weekCount++;
+      weekAmount += (long) amount;
+      monthCount++;
+      monthAmount += (long) amount;
+    }
+  }
+
+  /**
+   * Removes the transactions that left the windows after the most recent
+   * transaction changed.
+   */
+  private void slideWindows() {
+    while (lastTimestamp - timestamps[dayStart]
+        > UtilFunctions.DAY_IN_MILLISECONDS) {
+      if (!frauds[dayStart]) {
+        dayCount--;
+      }
+      dayStart++;
+    }
+    while (lastTimestamp - timestamps[weekStart]
+        > UtilFunctions.WEEK_IN_MILLISECONDS) {
+      if (!frauds[weekStart]) {
+        weekCount--;
+        weekAmount -= (long) amounts[weekStart];
+      }
+      weekStart++;
+    }
+    int monthStart = 0;
+    while (lastTimestamp - timestamps[monthStart]
+        > UtilFunctions.MONTH_IN_MILLISECONDS) {
+      if (!frauds[monthStart]) {
+        monthCount--;
+        monthAmount -= (long) amounts[monthStart];
+      }
+      monthStart++;
+    }
+    if (monthStart > 0) {
+      removeOldest(monthStart);
+    }
+  }
+
+  /**
+   * Rebuilds the windows and the aggregates from the transactions.
+   */
+  private void recompute() {
+    int count = size;
+    long[] allTimestamps = timestamps;
+    double[] allAmounts = amounts;
+    boolean[] allFrauds = frauds;
+    timestamps = new long[allTimestamps.length];
+    amounts = new double[allTimestamps.length];
+    frauds = new boolean[allTimestamps.length];
+    size = 0;
+    weekStart = 0;
+    dayStart = 0;
+    dayCount = 0;
+    weekCount = 0;
+    weekAmount = 0;
+    monthCount = 0;
+    monthAmount = 0;
+    for (int i = 0; i < count; i++) {
+      append(allTimestamps[i], allAmounts[i], allFrauds[i]);
+    }
+    slideWindows();
+  }
+
+  private void removeOldest(final int count) {
+    size -= count;
+    System.arraycopy(timestamps, count, timestamps, 0, size);
+    System.arraycopy(amounts, count, amounts, 0, size);
+    System.arraycopy(frauds, count, frauds, 0, size);
+    weekStart -= count;
+    dayStart -= count;
+  }
+
+  /**
+   * @param timestamp a transaction timestamp in milliseconds.
+   * @return true if a transaction with this timestamp was added.
+   */
+  public boolean contains(final long timestamp) {
+    return Arrays.binarySearch(timestamps, 0, size, timestamp) >= 0;
+  }
+
+  /**
+   * @return true if no transaction was added.
+   */
+  public boolean isEmpty() {
+    return lastTimestamp == Long.MIN_VALUE;
+  }
+
+  /**
+   * @return the timestamp of the most recent transaction.
+   */
+  public long getLastTimestampMillisecond() {
+    return lastTimestamp;
+  }
+
+  /**
+   * @return the merchant longitude of the most recent transaction.
+   */
+  public double getLastMerchantLong() {
+    return lastMerchantLong;
+  }
+
+  /**
+   * @return the merchant latitude of the most recent transaction.
+   */
+  public double getLastMerchantLat() {
+    return lastMerchantLat;
+  }
+
+  /**
+   * @return the number of legit transactions in the last day.
+   */
+  public long getDayCount() {
+    return dayCount;
+  }
+
+  /**
+   * @return the number of legit transactions in the last week.
+   */
+  public long getWeekCount() {
+    return weekCount;
+  }
+
+  /**
+   * @return the sum of the whole amounts of the legit transactions in the
+   * last week.
+   */
+  public long getWeekAmount() {
+    return weekAmount;
+  }
+
+  /**
+   * @return the number of legit transactions in the last month.
+   */
+  public long getMonthCount() {
+    return monthCount;
+  }
+
+  /**
+   * @return the sum of the whole amounts of the legit transactions in the
+   * last month.
+   */
+  public long getMonthAmount() {
+    return monthAmount;
+  }
+
+  /**
+   * @param put the mutation of the customer's row.
+   * @return the same mutation, which also writes this summary.
+   */
+  public Put addTo(final Put put) {
+    return put.addColumn(FAMILY, QUALIFIER, CELL_TIMESTAMP, encode());
+  }
+
+  /**
+   * @return the summary encoded as bytes.
+   */
+  public byte[] encode() {
+    ByteBuffer buffer =
+        ByteBuffer.allocate(HEADER_BYTES + size * ENTRY_BYTES);
+    buffer.put(ENCODING_VERSION)
+        .putLong(lastTimestamp)
+        .putDouble(lastMerchantLong)
+        .putDouble(lastMerchantLat)
+        .putLong(dayCount)
+        .putLong(weekCount)
+        .putLong(weekAmount)
+        .putLong(monthCount)
+        .putLong(monthAmount)
+        .putInt(size);
+    for (int i = 0; i < size; i++) {
+      buffer.putLong(timestamps[i])
+          .putDouble(amounts[i])
+          .put(frauds[i] ? (byte) 1 : (byte) 0);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * @param bytes a summary encoded with encode.
+   * @return the decoded summary.
+   */
+  public static FeatureSummary decode(final byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  private static FeatureSummary decode(final ByteBuffer buffer) {
+    byte version = buffer.get();
+    if (version != ENCODING_VERSION) {
+      throw new IllegalArgumentException(
+          "Unsupported feature summary version " + version);
+    }
+    FeatureSummary summary = new FeatureSummary();
+    summary.lastTimestamp = buffer.getLong();
+    summary.lastMerchantLong = buffer.getDouble();
+    summary.lastMerchantLat = buffer.getDouble();
+    summary.dayCount = buffer.getLong();
+    summary.weekCount = buffer.getLong();
+    summary.weekAmount = buffer.getLong();
+    summary.monthCount = buffer.getLong();
+    summary.monthAmount = buffer.getLong();
+    summary.size = buffer.getInt();
+    summary.timestamps = new long[summary.size];
+    summary.amounts = new double[summary.size];
+    summary.frauds = new boolean[summary.size];
+    for (int i = 0; i < summary.size; i++) {
+      summary.timestamps[i] = buffer.getLong();
+      summary.amounts[i] = buffer.getDouble();
+      summary.frauds[i] = buffer.get() != 0;
+    }
+    // The window starts are derived from the timestamps.
+    while (summary.weekStart < summary.size
+        && summary.lastTimestamp - summary.timestamps[summary.weekStart]
+        > UtilFunctions.WEEK_IN_MILLISECONDS) {
+      summary.weekStart++;
+    }
+    summary.dayStart = summary.weekStart;
+    while (summary.dayStart < summary.size
+        && summary.lastTimestamp - summary.timestamps[summary.dayStart]
+        > UtilFunctions.DAY_IN_MILLISECONDS) {
+      summary.dayStart++;
+    }
+    return summary;
+  }
+}
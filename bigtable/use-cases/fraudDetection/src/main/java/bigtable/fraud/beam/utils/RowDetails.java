@@ -15,10 +15,8 @@
  */
 package bigtable.fraud.beam.utils;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import org.apache.beam.sdk.coders.DefaultCoder;
 import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
@@ -35,12 +33,20 @@ import org.apache.hadoop.hbase.util.Bytes;
  * Used to create an object with the following format:
  * rowKey, [TimestampMilliseconds=VALUE], column1, column2, ... etc
  * The TimestampMilliseconds field is optional.
- * In order to use this class, member variables needs to be the same name as
- * the columns read from Cloud Bigtable, and they should be in the same
- * sequence when read from Cloud Pubsub.
+ * In order to use this class, the columns need to be registered in a
+ * RowSchema, in the same sequence as they are read from Cloud Pubsub.
  */
 public abstract class RowDetails {
 
+  /**
+   * Separates the values of a comma-separated line.
+   */
+  private static final String SEPARATOR = ", ";
+  /**
+   * Prefix of the optional custom timestamp field.
+   */
+  private static final String TIMESTAMP_PREFIX = "TimestampMilliseconds=";
+
   /**
    * The timestamp (millisecond) to use when writing to Cloud Bigtable.
    */
@@ -61,22 +67,42 @@ public abstract class RowDetails {
    */
   public RowDetails(final String line) {
     timestampMillisecond = Long.MAX_VALUE;
-    List<String> values = new LinkedList<>(Arrays.asList(line.split(", ")));
-
-    // If a custom timestamp is to be used, it should be the second field
-    // and in this format: TimestampMilliseconds=TIME
-    if (values.size() >= 2 && values.get(1)
-        .startsWith("TimestampMilliseconds=")) {
-      long timestampMilliseconds = Long.parseLong(
-          values.get(1).split("TimestampMilliseconds=")[1]);
-      values.remove(1);
-      setTimestampMillisecond(timestampMilliseconds);
+    String[] values = new String[schema().size()];
+    int count = 0;
+    int field = 0;
+    int start = 0;
+    while (true) {
+      int end = line.indexOf(SEPARATOR, start);
+      String value =
+          end < 0 ? line.substring(start) : line.substring(start, end);
+
+      // If a custom timestamp is to be used, it should be the second field
+      // and in this format: TimestampMilliseconds=TIME
+      if (field == 1 && value.startsWith(TIMESTAMP_PREFIX)) {
+        setTimestampMillisecond(
+            Long.parseLong(value.substring(TIMESTAMP_PREFIX.length())));
+      } else {
+        if (count == values.length) {
+          throw new RuntimeException(
+              "Trying to set values that doesn't equal to the number of "
+                  + "fields");
+        }
+        values[count++] = value;
+      }
+
+      if (end < 0) {
+        break;
+      }
+      field++;
+      start = end + SEPARATOR.length();
+    }
+    if (count != values.length) {
+      throw new RuntimeException(
+          "Trying to set values that doesn't equal to the number of fields");
     }
 
-    // Convert the values to a string array and populate all the class fields.
-    String[] processedValues = new String[values.size()];
-    processedValues = values.toArray(processedValues);
-    setValues(processedValues);
+    // Populate all the class fields.
+    setValues(values);
   }
 
   /**
@@ -87,53 +113,60 @@ public abstract class RowDetails {
    */
   public RowDetails(final Result row) {
     // All the columns in this object need to belong to the same column family.
-    byte[] columnFamilyBytes = getColFamily().getBytes();
-
-    byte[] headerBytes;
-    // Get all the headers so that we can read them from CBT.
-    String[] headers = getHeaders();
-    String[] values = new String[headers.length];
-    for (int i = 0; i < headers.length; i++) {
-      // Adding the row key.
-      if (i == 0) {
-        values[i] = new String(row.getRow());
-      } else {
-        headerBytes = Bytes.toBytes(headers[i]);
-        Cell latestCell = row.getColumnLatestCell(columnFamilyBytes,
-            headerBytes);
-        if (latestCell == null) {
-          return;
-        }
-        values[i] = new String(latestCell.getValueArray());
-        setTimestampMillisecond(latestCell.getTimestamp());
+    RowSchema<RowDetails> schema = schema();
+    byte[] columnFamilyBytes = schema.getFamily();
+    List<RowSchema.Column<RowDetails>> columns = schema.getColumns();
+
+    String[] values = new String[columns.size()];
+    // Adding the row key.
+    values[0] = Bytes.toString(row.getRow());
+    long latestTimestamp = 0;
+    for (int i = 1; i < values.length; i++) {
+      Cell latestCell = row.getColumnLatestCell(columnFamilyBytes,
+          columns.get(i).getQualifier());
+      if (latestCell == null) {
+        return;
       }
+      values[i] = Bytes.toString(latestCell.getValueArray(),
+          latestCell.getValueOffset(), latestCell.getValueLength());
+      latestTimestamp = latestCell.getTimestamp();
     }
     // Populate all the class fields with the values we read.
+    setTimestampMillisecond(latestTimestamp);
     setValues(values);
   }
 
+  /**
+   * @return the columns of the class that extends RowDetails.
+   */
+  public abstract RowSchema<? extends RowDetails> getSchema();
+
+  /**
+   * The schema is always registered for the class that returns it, so it can
+   * be used with this object.
+   *
+   * @return the schema of this object.
+   */
+  @SuppressWarnings("unchecked")
+  private RowSchema<RowDetails> schema() {
+    return (RowSchema<RowDetails>) getSchema();
+  }
+
   /**
    * @return the headers used in this class.
    */
   public String[] getHeaders() {
-    Field[] fields = getClass().getDeclaredFields();
-    String[] headers = new String[fields.length];
-    for (int i = 0; i < fields.length; i++) {
-      fields[i].setAccessible(true);
-      headers[i] = fields[i].getName();
-    }
-    return headers;
+    return schema().getHeaders();
   }
 
   /**
    * @return the values used in this class.
    */
-  public String[] getValues() throws IllegalAccessException {
-    Field[] fields = getClass().getDeclaredFields();
-    String[] values = new String[fields.length];
-    for (int i = 0; i < fields.length; i++) {
-      fields[i].setAccessible(true);
-      values[i] = String.valueOf(fields[i].get(this));
+  public String[] getValues() {
+    List<RowSchema.Column<RowDetails>> columns = schema().getColumns();
+    String[] values = new String[columns.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = columns.get(i).get(this);
     }
     return values;
   }
@@ -143,18 +176,13 @@ public abstract class RowDetails {
    * @param values the values to use when initializing the member variables.
    */
   public void setValues(final String[] values) {
-    Field[] fields = getClass().getDeclaredFields();
-    if (fields.length != values.length) {
+    List<RowSchema.Column<RowDetails>> columns = schema().getColumns();
+    if (columns.size() != values.length) {
       throw new RuntimeException(
           "Trying to set values that doesn't equal to the number of fields");
     }
-    for (int i = 0; i < fields.length; i++) {
-      fields[i].setAccessible(true);
-      try {
-        fields[i].set(this, values[i]);
-      } catch (IllegalAccessException e) {
-        e.printStackTrace();
-      }
+    for (int i = 0; i < values.length; i++) {
+      columns.get(i).set(this, values[i]);
     }
   }
 
@@ -175,7 +203,7 @@ public abstract class RowDetails {
   /**
    * @return a comma separated string.
    */
-  public String toCommaSeparatedString() throws IllegalAccessException {
+  public String toCommaSeparatedString() {
     ArrayList<String> values =
         new ArrayList<>(Arrays.asList(getValues()));
     return UtilFunctions.arrayListToCommasString(values);
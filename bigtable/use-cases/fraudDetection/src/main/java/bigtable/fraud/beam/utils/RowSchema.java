@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/*
+ * The columns of a RowDetails class, registered by hand so that objects can
+ * be read and written without reflection.
+ * The first column is the row key, the others are stored in the column
+ * family, in the same sequence as they are read from Cloud Pubsub.
+ */
+public final class RowSchema<T extends RowDetails> {
+
+  /**
+   * A single column and the accessors of its member variable.
+   *
+   * @param <T> the class that holds the member variable.
+   */
+  public static final class Column<T> {
+    /**
+     * The column qualifier, also used as the header.
+     */
+    private final String name;
+    /**
+     * The encoded column qualifier.
+     */
+    private final byte[] qualifier;
+    /**
+     * Reads the member variable as a string.
+     */
+    private final Function<T, String> getter;
+    /**
+     * Parses a string into the member variable.
+     */
+    private final BiConsumer<T, String> setter;
+
+    private Column(final String columnName,
+        final Function<T, String> columnGetter,
+        final BiConsumer<T, String> columnSetter) {
+      this.name = columnName;
+      this.qualifier = Bytes.toBytes(columnName);
+      this.getter = columnGetter;
+      this.setter = columnSetter;
+    }
+
+    /**
+     * @return the column qualifier.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the encoded column qualifier. Must not be modified.
+     */
+    public byte[] getQualifier() {
+      return qualifier;
+    }
+
+    /**
+     * @param row the object to read from.
+     * @return the value of the member variable as a string.
+     */
+    public String get(final T row) {
+      return getter.apply(row);
+    }
+
+    /**
+     * @param row the object to update.
+     * @param value the string to parse into the member variable.
+     */
+    public void set(final T row, final String value) {
+      setter.accept(row, value);
+    }
+  }
+
+  /**
+   * The encoded column family.
+   */
+  private final byte[] family;
+  /**
+   * The columns, starting with the row key.
+   */
+  private final List<Column<T>> columns;
+  /**
+   * The column names, in the same order as the columns.
+   */
+  private final String[] headers;
+
+  private RowSchema(final String columnFamily,
+      final List<Column<T>> schemaColumns) {
+    this.family = Bytes.toBytes(columnFamily);
+    this.columns = Collections.unmodifiableList(schemaColumns);
+    this.headers = new String[schemaColumns.size()];
+    for (int i = 0; i < headers.length; i++) {
+      headers[i] = schemaColumns.get(i).getName();
+    }
+  }
+
+  /**
+   * @param columnFamily the column family that holds all the columns.
+   * @param <T> the class described by the schema.
+   * @return a builder for a schema.
+   */
+  public static <T extends RowDetails> Builder<T> builder(
+      final String columnFamily) {
+    return new Builder<>(columnFamily);
+  }
+
+  /**
+   * @return the encoded column family. Must not be modified.
+   */
+  public byte[] getFamily() {
+    return family;
+  }
+
+  /**
+   * @return the columns, starting with the row key.
+   */
+  public List<Column<T>> getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return the number of columns, including the row key.
+   */
+  public int size() {
+    return columns.size();
+  }
+
+  /**
+   * @return a copy of the column names, starting with the row key.
+   */
+  public String[] getHeaders() {
+    return headers.clone();
+  }
+
+  /**
+   * Collects the columns of a schema.
+   *
+   * @param <T> the class described by the schema.
+   */
+  public static final class Builder<T extends RowDetails> {
+    /**
+     * The column family that holds all the columns.
+     */
+    private final String columnFamily;
+    /**
+     * The columns added so far.
+     */
+    private final List<Column<T>> columns = new ArrayList<>();
+
+    private Builder(final String family) {
+      this.columnFamily = family;
+    }
+
+    /**
+     * Adds the next column. The first column is the row key.
+     *
+     * @param name the column qualifier.
+     * @param getter reads the member variable as a string.
+     * @param setter parses a string into the member variable.
+     * @return this builder.
+     */
+    public Builder<T> add(final String name,
+        final Function<T, String> getter,
+        final BiConsumer<T, String> setter) {
+      columns.add(new Column<>(name, getter, setter));
+      return this;
+    }
+
+    /**
+     * @return the schema.
+     */
+    public RowSchema<T> build() {
+      return new RowSchema<>(columnFamily, new ArrayList<>(columns));
+    }
+  }
+}
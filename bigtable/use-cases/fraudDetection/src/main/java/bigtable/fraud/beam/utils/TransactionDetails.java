@@ -15,17 +15,59 @@
  */
 package bigtable.fraud.beam.utils;
 
-import java.util.ArrayList;
-import java.util.List;
 import org.apache.beam.sdk.coders.DefaultCoder;
 import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
-import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.util.Bytes;
 
 @DefaultCoder(AvroCoder.class)
 public final class TransactionDetails extends RowDetails {
 
+  /**
+   * The column family that holds the transaction history.
+   */
+  static final String COLUMN_FAMILY = "history";
+  /**
+   * The column that holds the transaction amount.
+   */
+  static final String TRANSACTION_AMOUNT = "transactionAmount";
+  /**
+   * The column that holds the merchant longitude.
+   */
+  static final String MERCHANT_LONG = "merchantLong";
+  /**
+   * The column that holds the merchant latitude.
+   */
+  static final String MERCHANT_LAT = "merchantLat";
+  /**
+   * The column that holds whether the transaction is fraudulent.
+   */
+  static final String IS_FRAUD = "isFraud";
+
+  /**
+   * The columns of a transaction, in the order they are read from Cloud
+   * Pubsub.
+   */
+  static final RowSchema<TransactionDetails> SCHEMA =
+      RowSchema.<TransactionDetails>builder(COLUMN_FAMILY)
+          .add("customerID",
+              t -> t.customerID, (t, v) -> t.customerID = v)
+          .add("transactionID",
+              t -> t.transactionID, (t, v) -> t.transactionID = v)
+          .add(TRANSACTION_AMOUNT,
+              t -> String.valueOf(t.transactionAmount),
+              (t, v) -> t.transactionAmount = Double.parseDouble(v))
+          .add("merchantID",
+              t -> t.merchantID, (t, v) -> t.merchantID = v)
+          .add(MERCHANT_LONG,
+              t -> String.valueOf(t.merchantLong),
+              (t, v) -> t.merchantLong = Double.parseDouble(v))
+          .add(MERCHANT_LAT,
+              t -> String.valueOf(t.merchantLat),
+              (t, v) -> t.merchantLat = Double.parseDouble(v))
+          .add(IS_FRAUD,
+              t -> t.isFraud, (t, v) -> t.isFraud = v)
+          .build();
+
   /**
    * The incoming transaction customer id.
    */
@@ -37,7 +79,7 @@ public final class TransactionDetails extends RowDetails {
   /**
    * The incoming transaction id.
    */
-  private String transactionAmount;
+  private double transactionAmount;
   /**
    * The incoming transaction merchant id.
    */
@@ -45,11 +87,11 @@ public final class TransactionDetails extends RowDetails {
   /**
    * The incoming transaction merchant longitude.
    */
-  private String merchantLong;
+  private double merchantLong;
   /**
    * The incoming transaction merchant latitude.
    */
-  private String merchantLat;
+  private double merchantLat;
   /**
    * Is this transaction fraudulent?.
    */
@@ -80,10 +122,17 @@ public final class TransactionDetails extends RowDetails {
     return customerID;
   }
 
+  /**
+   * @return the transaction id.
+   */
+  public String getTransactionID() {
+    return transactionID;
+  }
+
   /**
    * @return the transaction amount.
    */
-  public String getTransactionAmount() {
+  public double getTransactionAmount() {
     return transactionAmount;
   }
 
@@ -97,14 +146,14 @@ public final class TransactionDetails extends RowDetails {
   /**
    * @return the merchant longitude.
    */
-  public String getMerchantLong() {
+  public double getMerchantLong() {
     return merchantLong;
   }
 
   /**
    * @return the merchant latitude.
    */
-  public String getMerchantLat() {
+  public double getMerchantLat() {
     return merchantLat;
   }
 
@@ -120,87 +169,14 @@ public final class TransactionDetails extends RowDetails {
     return "Transaction id: " + transactionID + ", isFraud: " + isFraud;
   }
 
-  /**
-   * @param row the row result read from Cloud Bigtable.
-   * @param duration the duration in milliseconds to go back in time for.
-   * @return the last transaction details in the last "duration" for this
-   * customer.
-   */
-  public ArrayList<TransactionDetails> getLastTransactions(
-      final Result row, final long duration) {
-    ArrayList<TransactionDetails> lastTransactions = new ArrayList<>();
-    String[] headers = getHeaders();
-
-    // Create ArrayList that will hold the cells when we read from CBT and
-    // ignore the first element because it will hold the row key, and we
-    // already know the row key (userID).
-    ArrayList<List<Cell>> cells = new ArrayList<>();
-    cells.add(null);
-    for (int i = 1; i < headers.length; i++) {
-        cells.add(row.getColumnCells(Bytes.toBytes(getColFamily()),
-            Bytes.toBytes(headers[i])));
-        if (cells.get(i).size() == 0) {
-          return lastTransactions;
-        }
-    }
-
-    // Iterate over all the transactions of that user that fit in the
-    // timeMilliseconds range.
-    // If we find a transaction that was declared as fraudulent,
-    // we should ignore it.
-    int transactionIteration = 0;
-    boolean hasCells = true;
-    while (hasCells) {
-      // Build a historical transaction.
-      ArrayList<String> historicalTransactionBuilder = new ArrayList<>();
-      historicalTransactionBuilder.add(customerID);
-      long transactionTimeMillisecond = -1;
-      for (int header = 1; header < headers.length; header++) {
-        // Populate the historical transaction.
-        List<Cell> currentCells = cells.get(header);
-        // Stop if we iterated over all transactions for that customer.
-        if (currentCells.size() == transactionIteration + 1) {
-          hasCells = false;
-        }
-        historicalTransactionBuilder.add(
-            new String(currentCells.get(transactionIteration).getValueArray()));
-        transactionTimeMillisecond = currentCells.get(transactionIteration)
-            .getTimestamp();
-      }
-
-      // Create the historical transaction.
-      TransactionDetails historicalTransaction =
-          new TransactionDetails(
-              UtilFunctions.arrayListToCommasString(
-                  historicalTransactionBuilder));
-
-      // Populate the historical transaction timestamp.
-      if (transactionTimeMillisecond != -1) {
-        historicalTransaction.setTimestampMillisecond(
-            transactionTimeMillisecond);
-      }
-
-      // If we reach transactions from an older timestamp than what we want,
-      // stop.
-      if (historicalTransaction.getTimestampMillisecond() < duration) {
-        break;
-      }
-
-      // If the transaction was legit, add it to the list of historical
-      // transactions.
-      if (!historicalTransaction.isFraud()) {
-        lastTransactions.add(historicalTransaction);
-      }
-
-      // Go to the next historical transaction.
-      transactionIteration++;
-    }
-    return lastTransactions;
+  @Override
+  public RowSchema<TransactionDetails> getSchema() {
+    return SCHEMA;
   }
 
   @Override
   public String getColFamily() {
-    return "history";
+    return COLUMN_FAMILY;
   }
 
   /**
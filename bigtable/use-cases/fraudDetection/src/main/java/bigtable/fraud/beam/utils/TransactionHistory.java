@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.util.List;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/*
+ * The recent transactions of a customer, decoded directly from the cells of
+ * the history column family into one array per column.
+ * Every transaction writes all of its columns with the same timestamp, so the
+ * i-th cell of each column belongs to the i-th most recent transaction.
+ */
+public final class TransactionHistory {
+
+  /**
+   * The number of decoded transactions.
+   */
+  private final int size;
+  /**
+   * The timestamp of each transaction, most recent first.
+   */
+  private final long[] timestamps;
+  /**
+   * The amount of each transaction.
+   */
+  private final double[] amounts;
+  /**
+   * The merchant longitude of each transaction.
+   */
+  private final double[] merchantLongs;
+  /**
+   * The merchant latitude of each transaction.
+   */
+  private final double[] merchantLats;
+  /**
+   * Whether each transaction was declared as fraudulent.
+   */
+  private final boolean[] frauds;
+
+  private TransactionHistory(final int length) {
+    this.size = length;
+    this.timestamps = new long[length];
+    this.amounts = new double[length];
+    this.merchantLongs = new double[length];
+    this.merchantLats = new double[length];
+    this.frauds = new boolean[length];
+  }
+
+  /**
+   * @param row the row result read from Cloud Bigtable.
+   * @param maxAgeMillis how far back in time to go from the most recent
+   * transaction, in milliseconds.
+   * @return the transactions made in the last "maxAgeMillis" before the most
+   * recent transaction of this customer, including it.
+   */
+  public static TransactionHistory fromRow(
+      final Result row, final long maxAgeMillis) {
+    RowSchema<TransactionDetails> schema = TransactionDetails.SCHEMA;
+    byte[] family = schema.getFamily();
+
+    List<Cell> amountCells = null;
+    List<Cell> longCells = null;
+    List<Cell> latCells = null;
+    List<Cell> fraudCells = null;
+
+    // Only transactions that have all of their columns can be decoded. The
+    // row key column is skipped, since it holds the customer id.
+    int length = Integer.MAX_VALUE;
+    List<RowSchema.Column<TransactionDetails>> columns = schema.getColumns();
+    for (int i = 1; i < columns.size(); i++) {
+      RowSchema.Column<TransactionDetails> column = columns.get(i);
+      List<Cell> cells = row.getColumnCells(family, column.getQualifier());
+      length = Math.min(length, cells.size());
+      switch (column.getName()) {
+        case TransactionDetails.TRANSACTION_AMOUNT:
+          amountCells = cells;
+          break;
+        case TransactionDetails.MERCHANT_LONG:
+          longCells = cells;
+          break;
+        case TransactionDetails.MERCHANT_LAT:
+          latCells = cells;
+          break;
+        case TransactionDetails.IS_FRAUD:
+          fraudCells = cells;
+          break;
+        default:
+          break;
+      }
+    }
+    if (length == 0 || length == Integer.MAX_VALUE) {
+      return new TransactionHistory(0);
+    }
+
+    // The isFraud column is the last one written, use its timestamps.
+    long minTimestamp = fraudCells.get(0).getTimestamp() - maxAgeMillis;
+    int count = 0;
+    while (count < length
+        && fraudCells.get(count).getTimestamp() >= minTimestamp) {
+      count++;
+    }
+
+    TransactionHistory history = new TransactionHistory(count);
+    for (int i = 0; i < count; i++) {
+      Cell fraudCell = fraudCells.get(i);
+      history.timestamps[i] = fraudCell.getTimestamp();
+      history.amounts[i] = parseDouble(amountCells.get(i));
+      history.merchantLongs[i] = parseDouble(longCells.get(i));
+      history.merchantLats[i] = parseDouble(latCells.get(i));
+      history.frauds[i] = fraudCell.getValueLength() == 1
+          && fraudCell.getValueArray()[fraudCell.getValueOffset()] == '1';
+    }
+    return history;
+  }
+
+  private static double parseDouble(final Cell cell) {
+    return Double.parseDouble(Bytes.toString(cell.getValueArray(),
+        cell.getValueOffset(), cell.getValueLength()));
+  }
+
+  /**
+   * @return the number of transactions.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return true if the customer has no transactions.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param i the index of the transaction, 0 is the most recent.
+   * @return the transaction timestamp in milliseconds.
+   */
+  public long getTimestampMillisecond(final int i) {
+    return timestamps[i];
+  }
+
+  /**
+   * @param i the index of the transaction, 0 is the most recent.
+   * @return the transaction amount.
+   */
+  public double getTransactionAmount(final int i) {
+    return amounts[i];
+  }
+
+  /**
+   * @param i the index of the transaction, 0 is the most recent.
+   * @return the merchant longitude.
+   */
+  public double getMerchantLong(final int i) {
+    return merchantLongs[i];
+  }
+
+  /**
+   * @param i the index of the transaction, 0 is the most recent.
+   * @return the merchant latitude.
+   */
+  public double getMerchantLat(final int i) {
+    return merchantLats[i];
+  }
+
+  /**
+   * @param i the index of the transaction, 0 is the most recent.
+   * @return true if the transaction was declared as fraudulent.
+   */
+  public boolean isFraud(final int i) {
+    return frauds[i];
+  }
+}
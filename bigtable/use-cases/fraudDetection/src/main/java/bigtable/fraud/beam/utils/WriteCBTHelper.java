@@ -19,6 +19,7 @@ import com.google.common.base.Preconditions;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,36 +46,120 @@ public final class WriteCBTHelper {
             final DoFn<RowDetails, Mutation>.ProcessContext c)
             throws Exception {
           try {
-            // Get the necessary data for writing to CBT.
-            byte[] family = Bytes.toBytes(c.element().getColFamily());
-            String[] writeHeaders = c.element().getHeaders();
-            String[] values = c.element().getValues();
-            byte[] rowkey = Bytes.toBytes(values[0]);
+            Put row = toPut(c.element());
 
-            Preconditions.checkArgument(writeHeaders.length
-                == values.length);
+            // Output the mutation
+            c.output(row);
+          } catch (Exception e) {
+            LOGGER.error("Failed to process input {}", c.element(), e);
+            throw e;
+          }
+        }
+      };
 
-            // Support custom timestamp if 'timestampMillisecond' is set in
-            // RowDetails.
-            long writeTimestamp = System.currentTimeMillis();
-            if (c.element().getTimestampMillisecond() != Long.MAX_VALUE) {
-              writeTimestamp = c.element().getTimestampMillisecond();
-            }
+  /**
+   * Convert a scored transaction into a Mutation that writes the transaction
+   * and the feature summary of the customer, updated with the transaction.
+   * Both are written by the same mutation, so that they stay consistent.
+   */
+  public static final DoFn<AggregatedData, Mutation>
+      FEATURE_SUMMARY_MUTATION_TRANSFORM =
+      new DoFn<AggregatedData, Mutation>() {
+        @ProcessElement
+        public void processElement(
+            final DoFn<AggregatedData, Mutation>.ProcessContext c)
+            throws Exception {
+          try {
+            TransactionDetails transaction =
+                c.element().getTransactionDetails();
+            long writeTimestamp = getWriteTimestamp(transaction);
+            Put row = toPut(transaction, writeTimestamp);
 
-            // Create a mutation.
-            Put row = new Put(rowkey);
-            for (int i = 1; i < values.length; i++) {
-              row.addColumn(
-                  family, Bytes.toBytes(writeHeaders[i]), writeTimestamp,
-                  Bytes.toBytes(values[i]));
-            }
+            FeatureSummary summary = c.element().getFeatureSummary();
+            summary.add(writeTimestamp, transaction.getTransactionAmount(),
+                transaction.getMerchantLong(), transaction.getMerchantLat(),
+                transaction.isFraud());
 
             // Output the mutation
-            c.output(row);
+            c.output(summary.addTo(row));
+          } catch (Exception e) {
+            LOGGER.error("Failed to process input {}", c.element(), e);
+            throw e;
+          }
+        }
+      };
+
+  /**
+   * Convert the whole history of a customer into a Mutation that writes its
+   * feature summary.
+   */
+  public static final DoFn<Result, Mutation>
+      FEATURE_SUMMARY_BACKFILL_TRANSFORM =
+      new DoFn<Result, Mutation>() {
+        @ProcessElement
+        public void processElement(
+            final DoFn<Result, Mutation>.ProcessContext c) throws Exception {
+          try {
+            FeatureSummary summary =
+                FeatureSummary.fromRow(c.element(), true);
+            if (!summary.isEmpty()) {
+              c.output(summary.addTo(new Put(c.element().getRow())));
+            }
           } catch (Exception e) {
             LOGGER.error("Failed to process input {}", c.element(), e);
             throw e;
           }
         }
       };
+
+  /**
+   * Converts a RowDetails into a Put.
+   * The row key is the first member variable in the class that
+   * inherits RowDetails.
+   *
+   * @param rowDetails the object to write.
+   * @return a mutation that writes all the columns of the object.
+   */
+  public static Put toPut(final RowDetails rowDetails) {
+    return toPut(rowDetails, getWriteTimestamp(rowDetails));
+  }
+
+  /**
+   * @param rowDetails the object to write.
+   * @param writeTimestamp the timestamp of the cells.
+   * @return a mutation that writes all the columns of the object.
+   */
+  public static Put toPut(final RowDetails rowDetails,
+      final long writeTimestamp) {
+    // Get the necessary data for writing to CBT.
+    RowSchema<? extends RowDetails> schema = rowDetails.getSchema();
+    byte[] family = schema.getFamily();
+    String[] values = rowDetails.getValues();
+    byte[] rowkey = Bytes.toBytes(values[0]);
+
+    Preconditions.checkArgument(schema.size() == values.length);
+
+    // Create a mutation.
+    Put row = new Put(rowkey);
+    for (int i = 1; i < values.length; i++) {
+      row.addColumn(
+          family, schema.getColumns().get(i).getQualifier(),
+          writeTimestamp, Bytes.toBytes(values[i]));
+    }
+    return row;
+  }
+
+  /**
+   * Supports custom timestamp if 'timestampMillisecond' is set in
+   * RowDetails.
+   *
+   * @param rowDetails the object to write.
+   * @return the timestamp to write the object with.
+   */
+  public static long getWriteTimestamp(final RowDetails rowDetails) {
+    if (rowDetails.getTimestampMillisecond() != Long.MAX_VALUE) {
+      return rowDetails.getTimestampMillisecond();
+    }
+    return System.currentTimeMillis();
+  }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.core.ApiFuture;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Value;
+import java.util.Arrays;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MlModelClientTest {
+
+  private StubPredictionServer server;
+  private MlModelClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = StubPredictionServer.start();
+    FraudDetectionOptions options =
+        PipelineOptionsFactory.as(FraudDetectionOptions.class);
+    options.setProjectID("my-project");
+    options.setMLEndpoint("my-endpoint");
+    options.setMLServiceEndpoint(server.getEndpoint());
+    client = MlModelClient.create(options, "us-central1");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+  }
+
+  private static Value instance(final double firstFeature) {
+    return Value.newBuilder().setListValue(ListValue.newBuilder()
+        .addValues(Value.newBuilder().setNumberValue(firstFeature))
+        .addValues(Value.newBuilder().setNumberValue(42))).build();
+  }
+
+  @Test
+  public void testBatchInOneRequest() throws Exception {
+    double[] probabilities = client.predict(
+        Arrays.asList(instance(0.05), instance(0.5), instance(0.9))).get();
+
+    assertThat(probabilities).usingExactEquality()
+        .containsExactly(0.05, 0.5, 0.9).inOrder();
+    assertThat(server.getRequests()).hasSize(1);
+    assertThat(server.getRequests().get(0).getEndpoint()).isEqualTo(
+        "projects/my-project/locations/us-central1/endpoints/my-endpoint");
+    assertThat(server.getRequests().get(0).getInstancesCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testPipelinedRequests() throws Exception {
+    ApiFuture<double[]> first = client.predict(Arrays.asList(instance(0.1)));
+    ApiFuture<double[]> second =
+        client.predict(Arrays.asList(instance(0.2), instance(0.3)));
+
+    assertThat(second.get()).usingExactEquality()
+        .containsExactly(0.2, 0.3).inOrder();
+    assertThat(first.get()).usingExactEquality().containsExactly(0.1);
+    assertThat(server.getRequests()).hasSize(2);
+  }
+}
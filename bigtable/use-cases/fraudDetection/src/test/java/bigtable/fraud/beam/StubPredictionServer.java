@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam;
+
+import com.google.cloud.aiplatform.v1.PredictRequest;
+import com.google.cloud.aiplatform.v1.PredictResponse;
+import com.google.cloud.aiplatform.v1.PredictionServiceGrpc;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Value;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local plaintext prediction server. The fraud probability of each
+ * instance is its first feature, so tests can choose the predictions.
+ * Point the pipeline at it with --MLServiceEndpoint=localhost:PORT.
+ */
+final class StubPredictionServer implements AutoCloseable {
+
+  private final List<PredictRequest> requests = new CopyOnWriteArrayList<>();
+  private final Server server;
+
+  private StubPredictionServer() throws IOException {
+    server = ServerBuilder.forPort(0)
+        .addService(new PredictionServiceGrpc.PredictionServiceImplBase() {
+          @Override
+          public void predict(final PredictRequest request,
+              final StreamObserver<PredictResponse> responseObserver) {
+            requests.add(request);
+            PredictResponse.Builder response = PredictResponse.newBuilder();
+            for (Value instance : request.getInstancesList()) {
+              response.addPredictions(Value.newBuilder().setListValue(
+                  ListValue.newBuilder().addValues(
+                      instance.getListValue().getValues(0))));
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          }
+        })
+        .build()
+        .start();
+  }
+
+  static StubPredictionServer start() throws IOException {
+    return new StubPredictionServer();
+  }
+
+  String getEndpoint() {
+    return "localhost:" + server.getPort();
+  }
+
+  List<PredictRequest> getRequests() {
+    return requests;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.protobuf.ListValue;
+import com.google.protobuf.util.JsonFormat;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class AggregatedDataTest {
+
+  private static final long NOW = 1647487125000L;
+
+  @Test
+  public void testMLInstanceMatchesJsonFeatures() throws Exception {
+    CustomerProfile profile = new CustomerProfile(
+        "7, 4000123412341234, Jane, Doe, 1980-01-01, 42");
+    TransactionDetails transaction = new TransactionDetails(
+        "7, TimestampMilliseconds=" + (NOW + UtilFunctions.DAY_IN_MILLISECONDS)
+            + ", t4, 12.5, 188548615082, 38.806136, -90.321706, ?");
+    AggregatedData data = new AggregatedData(profile, transaction,
+        HistoryRows.create(
+            Arrays.asList(
+                "7, t3, 10.5, 188548615082, 38.5, -90.5, 0",
+                "7, t2, 20.0, 188548615082, 38.6, -90.6, 1"),
+            Arrays.asList(NOW, NOW - UtilFunctions.MINUTE_IN_MILLISECONDS)));
+
+    ListValue.Builder expected = ListValue.newBuilder();
+    JsonFormat.parser().merge(data.getMLFeatures(), expected);
+
+    assertThat(data.getMLInstance()).isEqualTo(expected.getValues(0));
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Test;
+
+public class FeatureSummaryTest {
+
+  private static final long NOW = 1647487125000L;
+  private static final long HOUR = UtilFunctions.MINUTE_IN_MILLISECONDS * 60;
+
+  private static void assertSameFeatures(final FeatureSummary actual,
+      final FeatureSummary expected) {
+    assertThat(actual.getLastTimestampMillisecond())
+        .isEqualTo(expected.getLastTimestampMillisecond());
+    assertThat(actual.getLastMerchantLong())
+        .isEqualTo(expected.getLastMerchantLong());
+    assertThat(actual.getLastMerchantLat())
+        .isEqualTo(expected.getLastMerchantLat());
+    assertThat(actual.getDayCount()).isEqualTo(expected.getDayCount());
+    assertThat(actual.getWeekCount()).isEqualTo(expected.getWeekCount());
+    assertThat(actual.getWeekAmount()).isEqualTo(expected.getWeekAmount());
+    assertThat(actual.getMonthCount()).isEqualTo(expected.getMonthCount());
+    assertThat(actual.getMonthAmount()).isEqualTo(expected.getMonthAmount());
+  }
+
+  @Test
+  public void testWindows() {
+    FeatureSummary summary = new FeatureSummary();
+    summary.add(NOW - 40 * UtilFunctions.DAY_IN_MILLISECONDS, 1000, 1, 1,
+        false);
+    summary.add(NOW - 10 * UtilFunctions.DAY_IN_MILLISECONDS, 30.9, 2, 2,
+        false);
+    summary.add(NOW - 3 * UtilFunctions.DAY_IN_MILLISECONDS, 20.5, 3, 3,
+        false);
+    summary.add(NOW - 2 * HOUR, 500, 4, 4, true);
+    summary.add(NOW - HOUR, 10.2, 5, 5, false);
+    summary.add(NOW, 5.7, 6, 7, false);
+
+    assertThat(summary.getLastTimestampMillisecond()).isEqualTo(NOW);
+    assertThat(summary.getLastMerchantLong()).isEqualTo(6);
+    assertThat(summary.getLastMerchantLat()).isEqualTo(7);
+    // The fraudulent transaction and the one older than a month are ignored,
+    // and only the whole part of the amounts is summed.
+    assertThat(summary.getDayCount()).isEqualTo(2);
+    assertThat(summary.getWeekCount()).isEqualTo(3);
+    assertThat(summary.getWeekAmount()).isEqualTo(20 + 10 + 5);
+    assertThat(summary.getMonthCount()).isEqualTo(4);
+    assertThat(summary.getMonthAmount()).isEqualTo(30 + 20 + 10 + 5);
+    assertThat(summary.contains(NOW - 2 * HOUR)).isTrue();
+    assertThat(summary.contains(NOW - 40 * UtilFunctions.DAY_IN_MILLISECONDS))
+        .isFalse();
+
+    // Adding the same transaction again changes nothing.
+    summary.add(NOW - HOUR, 10.2, 5, 5, false);
+    assertThat(summary.getDayCount()).isEqualTo(2);
+
+    // Ten days later, only the most recent transaction is in the week.
+    summary.add(NOW + 10 * UtilFunctions.DAY_IN_MILLISECONDS, 1, 8, 9, false);
+    assertThat(summary.getDayCount()).isEqualTo(1);
+    assertThat(summary.getWeekCount()).isEqualTo(1);
+    assertThat(summary.getWeekAmount()).isEqualTo(1);
+    assertThat(summary.getMonthCount()).isEqualTo(5);
+    assertThat(summary.getMonthAmount()).isEqualTo(30 + 20 + 10 + 5 + 1);
+  }
+
+  @Test
+  public void testOrderDoesNotMatter() {
+    Random random = new Random(42);
+    List<long[]> transactions = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      // Unique timestamps, spread over two months.
+      transactions.add(new long[] {
+          NOW - random.nextInt(60 * 24) * HOUR - i, random.nextInt(5000),
+          random.nextInt(10)});
+    }
+
+    FeatureSummary inOrder = new FeatureSummary();
+    transactions.sort((a, b) -> Long.compare(a[0], b[0]));
+    for (long[] t : transactions) {
+      inOrder.add(t[0], t[1] / 100.0, t[1], t[2], t[2] == 0);
+    }
+
+    FeatureSummary shuffled = new FeatureSummary();
+    Collections.shuffle(transactions, random);
+    for (long[] t : transactions) {
+      shuffled.add(t[0], t[1] / 100.0, t[1], t[2], t[2] == 0);
+    }
+
+    assertSameFeatures(shuffled, inOrder);
+    assertSameFeatures(FeatureSummary.decode(inOrder.encode()), inOrder);
+  }
+
+  @Test
+  public void testFromHistory() {
+    List<String> transactions = Arrays.asList(
+        "7, t3, 10.5, m3, 1.5, 2.5, 0",
+        "7, t2, 20.0, m2, 3.5, 4.5, 1",
+        "7, t1, 30.0, m1, 5.5, 6.5, 0");
+    List<Long> timestamps = Arrays.asList(NOW, NOW - HOUR, NOW - 2 * HOUR);
+
+    FeatureSummary summary =
+        FeatureSummary.fromRow(HistoryRows.create(transactions, timestamps),
+            false);
+
+    assertThat(summary.getLastTimestampMillisecond()).isEqualTo(NOW);
+    assertThat(summary.getLastMerchantLong()).isEqualTo(1.5);
+    assertThat(summary.getDayCount()).isEqualTo(2);
+    assertThat(summary.getMonthAmount()).isEqualTo(10 + 30);
+  }
+
+  @Test
+  public void testCatchUp() {
+    FeatureSummary stored = new FeatureSummary();
+    stored.add(NOW - 3 * HOUR, 40, 0, 0, false);
+
+    // The summary missed the two most recent transactions.
+    Result row = HistoryRows.create(
+        Arrays.asList(
+            "7, t3, 10.5, m3, 1.5, 2.5, 0",
+            "7, t2, 20.0, m2, 3.5, 4.5, 0",
+            "7, t1, 40.0, m1, 5.5, 6.5, 0"),
+        Arrays.asList(NOW, NOW - HOUR, NOW - 3 * HOUR),
+        stored);
+
+    FeatureSummary summary = FeatureSummary.fromRow(row, false);
+    assertThat(summary.getLastTimestampMillisecond()).isEqualTo(NOW);
+    assertThat(summary.getDayCount()).isEqualTo(3);
+    assertThat(summary.getMonthAmount()).isEqualTo(10 + 20 + 40);
+  }
+
+  @Test
+  public void testTooFarBehind() {
+    FeatureSummary stored = new FeatureSummary();
+    stored.add(NOW - 100 * HOUR, 40, 0, 0, false);
+
+    List<String> transactions = new ArrayList<>();
+    List<Long> timestamps = new ArrayList<>();
+    for (int i = 0; i < FeatureSummary.CATCH_UP_VERSIONS; i++) {
+      transactions.add("7, t" + i + ", 1.0, m, 1.5, 2.5, 0");
+      timestamps.add(NOW - i * HOUR);
+    }
+
+    // The row might not hold all the transactions the summary missed.
+    assertThat(FeatureSummary.fromRow(
+        HistoryRows.create(transactions, timestamps, stored), false))
+        .isNull();
+    assertThat(FeatureSummary.fromRow(
+        HistoryRows.create(transactions, timestamps), false))
+        .isNull();
+
+    FeatureSummary summary = FeatureSummary.fromRow(
+        HistoryRows.create(transactions, timestamps, stored), true);
+    assertThat(summary.getMonthCount())
+        .isEqualTo(FeatureSummary.CATCH_UP_VERSIONS + 1);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/** Builds rows in the same layout as the pipeline writes them. */
+final class HistoryRows {
+
+  private HistoryRows() {
+  }
+
+  /**
+   * @param transactions comma-separated transactions without a timestamp,
+   * all for the same customer.
+   * @param timestamps the timestamp of each transaction.
+   * @return a row holding the history of the customer.
+   */
+  static Result create(final List<String> transactions,
+      final List<Long> timestamps) {
+    return create(transactions, timestamps, null);
+  }
+
+  /**
+   * @param transactions comma-separated transactions without a timestamp,
+   * all for the same customer.
+   * @param timestamps the timestamp of each transaction.
+   * @param summary the feature summary stored in the row, or null.
+   * @return a row holding the history of the customer.
+   */
+  static Result create(final List<String> transactions,
+      final List<Long> timestamps, final FeatureSummary summary) {
+    List<Cell> cells = new ArrayList<>();
+    byte[] family = TransactionDetails.SCHEMA.getFamily();
+    String[] headers = TransactionDetails.SCHEMA.getHeaders();
+    byte[] rowKey = null;
+
+    // Result expects the cells sorted by qualifier, then newest first.
+    for (int column = 1; column < headers.length; column++) {
+      List<Cell> columnCells = new ArrayList<>();
+      for (int i = 0; i < transactions.size(); i++) {
+        String[] values = transactions.get(i).split(", ");
+        rowKey = Bytes.toBytes(values[0]);
+        columnCells.add(new KeyValue(rowKey, family,
+            Bytes.toBytes(headers[column]), timestamps.get(i),
+            Bytes.toBytes(values[column])));
+      }
+      columnCells.sort((a, b) -> Long.compare(
+          b.getTimestamp(), a.getTimestamp()));
+      cells.addAll(columnCells);
+    }
+    if (summary != null) {
+      cells.add(new KeyValue(rowKey, family,
+          Bytes.toBytes(FeatureSummary.COLUMN), 0L, summary.encode()));
+    }
+    cells.sort((a, b) -> Bytes.compareTo(
+        a.getQualifierArray(), a.getQualifierOffset(), a.getQualifierLength(),
+        b.getQualifierArray(), b.getQualifierOffset(),
+        b.getQualifierLength()));
+    return Result.create(cells);
+  }
+}
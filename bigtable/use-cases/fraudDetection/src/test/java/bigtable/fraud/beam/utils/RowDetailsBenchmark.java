@@ -0,0 +1,256 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of decoding transactions.
+ *
+ * <p>{@code parseLine} and {@code decodeHistory} are what the pipeline does
+ * for every incoming transaction. The {@code legacy} benchmarks run the
+ * reflective codec that RowDetails used before, as a baseline. Run with the
+ * GC profiler to compare the {@code gc.alloc.rate.norm} columns.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java
+ * -Dexec.classpathScope=test
+ * -Dexec.mainClass=bigtable.fraud.beam.utils.RowDetailsBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class RowDetailsBenchmark {
+
+  private static final String LINE = "3563761482, "
+      + "TimestampMilliseconds=1647487125000, eb0e996a, 937.02, "
+      + "188548615082, 38.806136, -90.321706, ?";
+
+  /**
+   * The number of transactions in the customer's history.
+   */
+  @Param({"10", "100"})
+  private int historySize;
+
+  private Result row;
+
+  @Setup
+  public void setup() {
+    List<String> transactions = new ArrayList<>();
+    List<Long> timestamps = new ArrayList<>();
+    long now = 1647487125000L;
+    for (int i = 0; i < historySize; i++) {
+      transactions.add("3563761482, t" + i + ", " + (i * 10.25)
+          + ", 188548615082, 38.806136, -90.321706, " + (i % 10 == 0 ? 1 : 0));
+      // Spread the history over two months, half of it is too old.
+      timestamps.add(now
+          - i * 2 * UtilFunctions.MONTH_IN_MILLISECONDS / historySize);
+    }
+    row = HistoryRows.create(transactions, timestamps);
+  }
+
+  @Benchmark
+  public TransactionDetails parseLine() {
+    return new TransactionDetails(LINE);
+  }
+
+  @Benchmark
+  public LegacyTransaction legacyParseLine() {
+    return new LegacyTransaction(LINE);
+  }
+
+  @Benchmark
+  public void decodeHistory(final Blackhole bh) {
+    TransactionHistory history =
+        TransactionHistory.fromRow(row, UtilFunctions.MONTH_IN_MILLISECONDS);
+    for (int i = 0; i < history.size(); i++) {
+      if (!history.isFraud(i)) {
+        bh.consume(history.getTransactionAmount(i));
+        bh.consume(history.getMerchantLat(i));
+        bh.consume(history.getMerchantLong(i));
+      }
+    }
+  }
+
+  @Benchmark
+  public void legacyDecodeHistory(final Blackhole bh) {
+    LegacyTransaction last = new LegacyTransaction(row);
+    List<LegacyTransaction> history = last.getLastTransactions(row,
+        last.timestamp - UtilFunctions.MONTH_IN_MILLISECONDS);
+    for (LegacyTransaction transaction : history) {
+      bh.consume(Double.parseDouble(transaction.transactionAmount));
+      bh.consume(Double.parseDouble(transaction.merchantLat));
+      bh.consume(Double.parseDouble(transaction.merchantLong));
+    }
+  }
+
+  /**
+   * A copy of the reflective codec that TransactionDetails used to rely on.
+   */
+  static final class LegacyTransaction {
+    private static final String FAMILY = "history";
+
+    private String customerID;
+    private String transactionID;
+    private String transactionAmount;
+    private String merchantID;
+    private String merchantLong;
+    private String merchantLat;
+    private String isFraud;
+    private transient long timestamp = Long.MAX_VALUE;
+
+    LegacyTransaction(final String line) {
+      List<String> values = new ArrayList<>();
+      for (String value : line.split(", ")) {
+        values.add(value);
+      }
+      if (values.size() >= 2
+          && values.get(1).startsWith("TimestampMilliseconds=")) {
+        timestamp = Long.parseLong(
+            values.get(1).split("TimestampMilliseconds=")[1]);
+        values.remove(1);
+      }
+      setValues(values.toArray(new String[0]));
+    }
+
+    LegacyTransaction(final Result row) {
+      String[] headers = getHeaders();
+      String[] values = new String[headers.length];
+      values[0] = new String(row.getRow());
+      for (int i = 1; i < headers.length; i++) {
+        Cell cell = row.getColumnLatestCell(Bytes.toBytes(FAMILY),
+            Bytes.toBytes(headers[i]));
+        values[i] = Bytes.toString(cell.getValueArray(),
+            cell.getValueOffset(), cell.getValueLength());
+        timestamp = cell.getTimestamp();
+      }
+      setValues(values);
+    }
+
+    private static Field[] fields() {
+      List<Field> fields = new ArrayList<>();
+      for (Field field : LegacyTransaction.class.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers)
+            && !Modifier.isTransient(modifiers)) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+      return fields.toArray(new Field[0]);
+    }
+
+    String[] getHeaders() {
+      Field[] fields = fields();
+      String[] headers = new String[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        headers[i] = fields[i].getName();
+      }
+      return headers;
+    }
+
+    void setValues(final String[] values) {
+      Field[] fields = fields();
+      if (fields.length != values.length) {
+        throw new RuntimeException(
+            "Trying to set values that doesn't equal to the number of fields");
+      }
+      try {
+        for (int i = 0; i < fields.length; i++) {
+          fields[i].set(this, values[i]);
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    List<LegacyTransaction> getLastTransactions(final Result row,
+        final long minTimestamp) {
+      List<LegacyTransaction> lastTransactions = new ArrayList<>();
+      String[] headers = getHeaders();
+      List<List<Cell>> cells = new ArrayList<>();
+      cells.add(null);
+      for (int i = 1; i < headers.length; i++) {
+        cells.add(row.getColumnCells(Bytes.toBytes(FAMILY),
+            Bytes.toBytes(headers[i])));
+        if (cells.get(i).isEmpty()) {
+          return lastTransactions;
+        }
+      }
+
+      int iteration = 0;
+      boolean hasCells = true;
+      while (hasCells) {
+        // Rebuild the comma-separated line, then parse it again.
+        List<String> builder = new ArrayList<>();
+        builder.add(customerID);
+        long transactionTimestamp = -1;
+        for (int header = 1; header < headers.length; header++) {
+          List<Cell> currentCells = cells.get(header);
+          if (currentCells.size() == iteration + 1) {
+            hasCells = false;
+          }
+          Cell cell = currentCells.get(iteration);
+          builder.add(Bytes.toString(cell.getValueArray(),
+              cell.getValueOffset(), cell.getValueLength()));
+          transactionTimestamp = cell.getTimestamp();
+        }
+        LegacyTransaction transaction = new LegacyTransaction(
+            UtilFunctions.arrayListToCommasString(
+                new ArrayList<>(builder)));
+        transaction.timestamp = transactionTimestamp;
+        if (transaction.timestamp < minTimestamp) {
+          break;
+        }
+        if (!"1".equals(transaction.isFraud)) {
+          lastTransactions.add(transaction);
+        }
+        iteration++;
+      }
+      return lastTransactions;
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(RowDetailsBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Arrays;
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Test;
+
+public class RowDetailsTest {
+
+  private static final long NOW = 1647487125000L;
+
+  @Test
+  public void testParseLine() {
+    TransactionDetails transaction = new TransactionDetails(
+        "3563761482, TimestampMilliseconds=" + NOW
+            + ", eb0e996a, 937.02, 188548615082, 38.806136, -90.321706, ?");
+
+    assertThat(transaction.getTimestampMillisecond()).isEqualTo(NOW);
+    assertThat(transaction.getCustomerID()).isEqualTo("3563761482");
+    assertThat(transaction.getTransactionAmount()).isEqualTo(937.02);
+    assertThat(transaction.getMerchantID()).isEqualTo("188548615082");
+    assertThat(transaction.getMerchantLong()).isEqualTo(38.806136);
+    assertThat(transaction.getMerchantLat()).isEqualTo(-90.321706);
+    assertThat(transaction.getHeaders()).asList().containsExactly(
+        "customerID", "transactionID", "transactionAmount", "merchantID",
+        "merchantLong", "merchantLat", "isFraud").inOrder();
+    assertThat(transaction.getValues()).asList().containsExactly(
+        "3563761482", "eb0e996a", "937.02", "188548615082", "38.806136",
+        "-90.321706", "?").inOrder();
+  }
+
+  @Test
+  public void testParseLineWithoutTimestamp() {
+    CustomerProfile profile = new CustomerProfile(
+        "1, 4000123412341234, Jane, Doe, 1980-01-01, 42");
+
+    assertThat(profile.getTimestampMillisecond()).isEqualTo(Long.MAX_VALUE);
+    assertThat(profile.getId()).isEqualTo("1");
+    assertThat(profile.toCommaSeparatedString())
+        .isEqualTo("1, 4000123412341234, Jane, Doe, 1980-01-01, 42");
+  }
+
+  @Test
+  public void testWrongNumberOfValues() {
+    assertThrows(RuntimeException.class,
+        () -> new CustomerProfile("1, 4000123412341234, Jane"));
+    assertThrows(RuntimeException.class,
+        () -> new CustomerProfile("1, 2, 3, 4, 5, 6, 7"));
+  }
+
+  @Test
+  public void testHistory() {
+    Result row = HistoryRows.create(
+        Arrays.asList(
+            "7, t3, 10.5, m3, 1.5, 2.5, 0",
+            "7, t2, 20.0, m2, 3.5, 4.5, 1",
+            "7, t1, 30.0, m1, 5.5, 6.5, 0"),
+        Arrays.asList(
+            NOW,
+            NOW - UtilFunctions.DAY_IN_MILLISECONDS,
+            NOW - 2 * UtilFunctions.MONTH_IN_MILLISECONDS));
+
+    TransactionHistory history =
+        TransactionHistory.fromRow(row, UtilFunctions.MONTH_IN_MILLISECONDS);
+
+    // The transaction older than a month is not decoded.
+    assertThat(history.size()).isEqualTo(2);
+    assertThat(history.getTimestampMillisecond(0)).isEqualTo(NOW);
+    assertThat(history.getTransactionAmount(0)).isEqualTo(10.5);
+    assertThat(history.getMerchantLong(0)).isEqualTo(1.5);
+    assertThat(history.getMerchantLat(0)).isEqualTo(2.5);
+    assertThat(history.isFraud(0)).isFalse();
+    assertThat(history.getTransactionAmount(1)).isEqualTo(20.0);
+    assertThat(history.isFraud(1)).isTrue();
+
+    // The latest cells make up the last transaction.
+    TransactionDetails last = new TransactionDetails(row);
+    assertThat(last.getTimestampMillisecond()).isEqualTo(NOW);
+    assertThat(last.getValues()).asList().containsExactly(
+        "7", "t3", "10.5", "m3", "1.5", "2.5", "0").inOrder();
+  }
+
+  @Test
+  public void testEmptyHistory() {
+    TransactionHistory history = TransactionHistory.fromRow(
+        Result.EMPTY_RESULT, UtilFunctions.MONTH_IN_MILLISECONDS);
+    assertThat(history.isEmpty()).isTrue();
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dataflow;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import com.google.common.base.Utf8;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.beam.sdk.io.gcp.spanner.MutationGroup;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * Combines consecutive {@code MutationGroup}s that share a key prefix into larger groups of at
+ * most a number of bytes and mutations, to write with {@code SpannerIO.write().grouped()}.
+ *
+ * <p>SpannerIO encodes, sorts and batches every group it receives on its own. When a parent row
+ * has many small groups of wide child rows, combining them first into groups about the size of a
+ * commit leaves SpannerIO far fewer elements to handle, and fills each commit by bytes rather than
+ * by row count. The sizes are estimated with {@link StructSizeEstimator}.
+ *
+ * <p>A combined group is committed in one transaction, which also serializes it with every other
+ * write to its rows. Groups are therefore only combined with groups that have the same key
+ * prefix, such as the key of the parent row they are interleaved in, and never across unrelated
+ * keys. To batch unrelated groups, tune SpannerIO with {@code withBatchSizeBytes}, {@code
+ * withMaxNumMutations} and {@code withGroupingFactor} instead. A group that is larger than the
+ * limits is passed on alone.
+ *
+ * <pre>{@code
+ * mutationGroups
+ *     .apply(BatchMutationGroups.create(1024 * 1024, 5000,
+ *         group -> group.primary().asMap().get("SingerId").toString()))
+ *     .apply(SpannerIO.write()
+ *         .withInstanceId(instanceId)
+ *         .withDatabaseId(databaseId)
+ *         .withBatchSizeBytes(1024 * 1024)
+ *         .withMaxNumMutations(5000)
+ *         .grouped());
+ * }</pre>
+ */
+public class BatchMutationGroups
+    extends PTransform<PCollection<MutationGroup>, PCollection<MutationGroup>> {
+
+  private final long maxBytes;
+  private final long maxMutations;
+  private final SerializableFunction<MutationGroup, String> keyPrefix;
+
+  /**
+   * Returns a transform that combines consecutive groups with the same {@code keyPrefix} into
+   * groups of at most {@code maxBytes} bytes and {@code maxMutations} mutations, counted as Spanner
+   * counts them toward its commit limit.
+   */
+  public static BatchMutationGroups create(long maxBytes, long maxMutations,
+      SerializableFunction<MutationGroup, String> keyPrefix) {
+    return new BatchMutationGroups(maxBytes, maxMutations, keyPrefix);
+  }
+
+  private BatchMutationGroups(long maxBytes, long maxMutations,
+      SerializableFunction<MutationGroup, String> keyPrefix) {
+    this.maxBytes = maxBytes;
+    this.maxMutations = maxMutations;
+    this.keyPrefix = keyPrefix;
+  }
+
+  @Override
+  public PCollection<MutationGroup> expand(PCollection<MutationGroup> input) {
+    return input
+        .apply(ParDo.of(new BatchFn(maxBytes, maxMutations, keyPrefix)))
+        .setCoder(input.getCoder());
+  }
+
+  /** Estimates the size of a mutation: its values, or the keys that it deletes. */
+  public static long sizeOf(Mutation mutation) {
+    if (mutation.getOperation() == Mutation.Op.DELETE) {
+      KeySet keySet = mutation.getKeySet();
+      long sum = 0;
+      for (Key key : keySet.getKeys()) {
+        sum += sizeOf(key);
+      }
+      for (KeyRange range : keySet.getRanges()) {
+        sum += sizeOf(range.getStart()) + sizeOf(range.getEnd());
+      }
+      return sum;
+    }
+    long sum = 0;
+    for (Value value : mutation.getValues()) {
+      sum += StructSizeEstimator.sizeOf(value);
+    }
+    return sum;
+  }
+
+  /**
+   * Counts a mutation as Spanner does toward its limit of mutations per commit: one for each
+   * column value it writes, or for each key and range it deletes. Secondary indexes add more.
+   */
+  public static long countOf(Mutation mutation) {
+    if (mutation.getOperation() == Mutation.Op.DELETE) {
+      KeySet keySet = mutation.getKeySet();
+      return Math.max(Iterables.size(keySet.getKeys()) + Iterables.size(keySet.getRanges()), 1);
+    }
+    return Iterables.size(mutation.getValues());
+  }
+
+  private static long sizeOf(Key key) {
+    long sum = 0;
+    for (Object part : key.getParts()) {
+      if (part == null) {
+        continue;
+      } else if (part instanceof Boolean) {
+        sum += 1;
+      } else if (part instanceof Long || part instanceof Double) {
+        sum += 8;
+      } else if (part instanceof String) {
+        sum += Utf8.encodedLength((String) part);
+      } else if (part instanceof ByteArray) {
+        sum += ((ByteArray) part).length();
+      } else if (part instanceof Timestamp || part instanceof Date) {
+        sum += 12;
+      } else {
+        sum += Utf8.encodedLength(part.toString());
+      }
+    }
+    return sum;
+  }
+
+  /** The groups with one key prefix combined so far in one window of a bundle. */
+  static final class Batch {
+    private final long maxBytes;
+    private final long maxMutations;
+    private final List<Mutation> mutations = new ArrayList<>();
+    private String keyPrefix;
+    private long bytes;
+    private long count;
+
+    Batch(long maxBytes, long maxMutations) {
+      this.maxBytes = maxBytes;
+      this.maxMutations = maxMutations;
+    }
+
+    /**
+     * Adds a group, and returns the groups combined before it if it does not fit with them or has
+     * another key prefix.
+     */
+    MutationGroup add(String groupKeyPrefix, MutationGroup group) {
+      long groupBytes = 0;
+      long groupCount = 0;
+      for (Mutation mutation : group) {
+        groupBytes += sizeOf(mutation);
+        groupCount += countOf(mutation);
+      }
+      MutationGroup full = null;
+      if (!Objects.equals(keyPrefix, groupKeyPrefix)
+          || bytes + groupBytes > maxBytes || count + groupCount > maxMutations) {
+        full = flush();
+      }
+      keyPrefix = groupKeyPrefix;
+      for (Mutation mutation : group) {
+        mutations.add(mutation);
+      }
+      bytes += groupBytes;
+      count += groupCount;
+      return full;
+    }
+
+    /** Returns the groups combined so far, or null if there are none, and starts over. */
+    MutationGroup flush() {
+      if (mutations.isEmpty()) {
+        return null;
+      }
+      MutationGroup combined = MutationGroup.create(
+          mutations.get(0), new ArrayList<>(mutations.subList(1, mutations.size())));
+      mutations.clear();
+      bytes = 0;
+      count = 0;
+      return combined;
+    }
+  }
+
+  private static class BatchFn extends DoFn<MutationGroup, MutationGroup> {
+    private final long maxBytes;
+    private final long maxMutations;
+    private final SerializableFunction<MutationGroup, String> keyPrefix;
+    private transient Map<BoundedWindow, Batch> batches;
+
+    BatchFn(long maxBytes, long maxMutations,
+        SerializableFunction<MutationGroup, String> keyPrefix) {
+      this.maxBytes = maxBytes;
+      this.maxMutations = maxMutations;
+      this.keyPrefix = keyPrefix;
+    }
+
+    @StartBundle
+    public void startBundle() {
+      batches = new HashMap<>();
+    }
+
+    @ProcessElement
+    public void processElement(@Element MutationGroup group, BoundedWindow window,
+        OutputReceiver<MutationGroup> out) {
+      Batch batch = batches.computeIfAbsent(window, w -> new Batch(maxBytes, maxMutations));
+      MutationGroup full = batch.add(keyPrefix.apply(group), group);
+      if (full != null) {
+        out.output(full);
+      }
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext c) {
+      for (Map.Entry<BoundedWindow, Batch> entry : batches.entrySet()) {
+        MutationGroup rest = entry.getValue().flush();
+        if (rest != null) {
+          c.output(rest, entry.getKey().maxTimestamp(), entry.getKey());
+        }
+      }
+      batches = null;
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.example.dataflow;
 
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -40,46 +41,23 @@ public class EstimateSize extends PTransform<PCollection<Struct>, PCollection<Lo
   }
 
   /**
-   * Estimates the size of a Spanner row. For simplicity, arrays and structs aren't supported.
+   * Estimates the size of a Spanner row with a {@link StructSizeEstimator}, which is compiled for
+   * the first row and again only when the row type changes.
    */
   public static class EstimateStructSizeFn extends DoFn<Struct, Long> {
 
+    private transient StructSizeEstimator estimator;
+
     @ProcessElement
     public void processElement(ProcessContext c) throws Exception {
       Struct row = c.element();
-      long sum = 0;
-      for (int i = 0; i < row.getColumnCount(); i++) {
-        if (row.isNull(i)) {
-          continue;
-        }
-
-        switch (row.getColumnType(i).getCode()) {
-          case BOOL:
-            sum += 1;
-            break;
-          case INT64:
-          case FLOAT64:
-            sum += 8;
-            break;
-          case TIMESTAMP:
-          case DATE:
-            sum += 12;
-            break;
-          case BYTES:
-            sum += row.getBytes(i).length();
-            break;
-          case STRING:
-            sum += row.getString(i).length();
-            break;
-          case ARRAY:
-            throw new IllegalArgumentException("Arrays are not supported :(");
-          case STRUCT:
-            throw new IllegalArgumentException("Structs are not supported :(");
-          default:
-            throw new IllegalArgumentException("Unsupported type :(");
-        }
+      Type type = row.getType();
+      // The rows of a query usually share one type instance.
+      if (estimator == null
+          || (estimator.getType() != type && !estimator.getType().equals(type))) {
+        estimator = StructSizeEstimator.of(type);
       }
-      c.output(sum);
+      c.output(estimator.estimate(row));
     }
   }
 
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dataflow;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Value;
+import com.google.common.base.Utf8;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Estimates the size of Spanner rows and values.
+ *
+ * <p>{@link #of(Type)} compiles an estimator for one row type, with an accessor for the type of
+ * each column, so that estimating a row does not look at the column types again. Compile it once
+ * per schema and reuse it for every row. STRING, JSON and PG_JSONB values count their UTF-8 bytes,
+ * NUMERIC and PG_NUMERIC values their digits, arrays and structs the sum of their elements, and
+ * nulls nothing.
+ */
+public final class StructSizeEstimator {
+
+  private static final int BOOL_SIZE = 1;
+  private static final int NUMBER_SIZE = 8;
+  private static final int TIMESTAMP_SIZE = 12;
+
+  /** Estimates the size of one column of a struct that is not null. */
+  private interface ColumnEstimator {
+    long estimate(Struct struct, int column);
+  }
+
+  private final Type type;
+  private final ColumnEstimator[] columns;
+
+  private StructSizeEstimator(Type type, ColumnEstimator[] columns) {
+    this.type = type;
+    this.columns = columns;
+  }
+
+  /** Compiles an estimator for structs of the given type. */
+  public static StructSizeEstimator of(Type structType) {
+    List<Type.StructField> fields = structType.getStructFields();
+    ColumnEstimator[] columns = new ColumnEstimator[fields.size()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = forType(fields.get(i).getType());
+    }
+    return new StructSizeEstimator(structType, columns);
+  }
+
+  /** The type of the structs this estimator was compiled for. */
+  public Type getType() {
+    return type;
+  }
+
+  /** Estimates the size of a struct of this estimator's type. */
+  public long estimate(Struct row) {
+    long sum = 0;
+    for (int i = 0; i < columns.length; i++) {
+      if (!row.isNull(i)) {
+        sum += columns[i].estimate(row, i);
+      }
+    }
+    return sum;
+  }
+
+  private static ColumnEstimator forType(Type type) {
+    switch (type.getCode()) {
+      case BOOL:
+        return (struct, column) -> BOOL_SIZE;
+      case INT64:
+      case FLOAT64:
+        return (struct, column) -> NUMBER_SIZE;
+      case TIMESTAMP:
+      case DATE:
+        return (struct, column) -> TIMESTAMP_SIZE;
+      case STRING:
+        return (struct, column) -> Utf8.encodedLength(struct.getString(column));
+      case JSON:
+        return (struct, column) -> Utf8.encodedLength(struct.getJson(column));
+      case PG_JSONB:
+        return (struct, column) -> Utf8.encodedLength(struct.getPgJsonb(column));
+      case BYTES:
+        return (struct, column) -> struct.getBytes(column).length();
+      case NUMERIC:
+        return (struct, column) -> sizeOf(struct.getBigDecimal(column));
+      case PG_NUMERIC:
+        return (struct, column) -> struct.getValue(column).getString().length();
+      case STRUCT:
+        StructSizeEstimator nested = of(type);
+        return (struct, column) -> nested.estimate(struct.getStruct(column));
+      case ARRAY:
+        return forArray(type.getArrayElementType());
+      default:
+        return (struct, column) -> sizeOf(struct.getValue(column));
+    }
+  }
+
+  private static ColumnEstimator forArray(Type elementType) {
+    switch (elementType.getCode()) {
+      case BOOL:
+        return (struct, column) -> BOOL_SIZE * countNonNull(struct.getBooleanList(column));
+      case INT64:
+        return (struct, column) -> NUMBER_SIZE * countNonNull(struct.getLongList(column));
+      case FLOAT64:
+        return (struct, column) -> NUMBER_SIZE * countNonNull(struct.getDoubleList(column));
+      case TIMESTAMP:
+        return (struct, column) -> TIMESTAMP_SIZE * countNonNull(struct.getTimestampList(column));
+      case DATE:
+        return (struct, column) -> TIMESTAMP_SIZE * countNonNull(struct.getDateList(column));
+      case STRING:
+        return (struct, column) -> sumOfStrings(struct.getStringList(column));
+      case JSON:
+        return (struct, column) -> sumOfStrings(struct.getJsonList(column));
+      case PG_JSONB:
+        return (struct, column) -> sumOfStrings(struct.getPgJsonbList(column));
+      case BYTES:
+        return (struct, column) -> sumOfBytes(struct.getBytesList(column));
+      case NUMERIC:
+        return (struct, column) -> sumOfNumerics(struct.getBigDecimalList(column));
+      case STRUCT:
+        StructSizeEstimator nested = of(elementType);
+        return (struct, column) -> {
+          long sum = 0;
+          for (Struct element : struct.getStructList(column)) {
+            sum += element == null ? 0 : nested.estimate(element);
+          }
+          return sum;
+        };
+      default:
+        return (struct, column) -> sizeOf(struct.getValue(column));
+    }
+  }
+
+  /** Estimates the size of a value, such as one of the values of a mutation. */
+  public static long sizeOf(Value value) {
+    if (value.isNull()) {
+      return 0;
+    }
+    Type type = value.getType();
+    switch (type.getCode()) {
+      case BOOL:
+        return BOOL_SIZE;
+      case INT64:
+      case FLOAT64:
+        return NUMBER_SIZE;
+      case TIMESTAMP:
+      case DATE:
+        return TIMESTAMP_SIZE;
+      case STRING:
+        return Utf8.encodedLength(value.getString());
+      case JSON:
+        return Utf8.encodedLength(value.getJson());
+      case PG_JSONB:
+        return Utf8.encodedLength(value.getPgJsonb());
+      case BYTES:
+        return value.getBytes().length();
+      case NUMERIC:
+        return sizeOf(value.getNumeric());
+      case PG_NUMERIC:
+        return value.getString().length();
+      case STRUCT:
+        return of(type).estimate(value.getStruct());
+      case ARRAY:
+        return sizeOfArray(value, type.getArrayElementType());
+      default:
+        // Types added after this estimator, such as PROTO and ENUM, by their text form.
+        return Utf8.encodedLength(value.toString());
+    }
+  }
+
+  private static long sizeOfArray(Value value, Type elementType) {
+    switch (elementType.getCode()) {
+      case BOOL:
+        return BOOL_SIZE * countNonNull(value.getBoolArray());
+      case INT64:
+        return NUMBER_SIZE * countNonNull(value.getInt64Array());
+      case FLOAT64:
+        return NUMBER_SIZE * countNonNull(value.getFloat64Array());
+      case TIMESTAMP:
+        return TIMESTAMP_SIZE * countNonNull(value.getTimestampArray());
+      case DATE:
+        return TIMESTAMP_SIZE * countNonNull(value.getDateArray());
+      case STRING:
+        return sumOfStrings(value.getStringArray());
+      case JSON:
+        return sumOfStrings(value.getJsonArray());
+      case PG_JSONB:
+        return sumOfStrings(value.getPgJsonbArray());
+      case BYTES:
+        return sumOfBytes(value.getBytesArray());
+      case NUMERIC:
+        return sumOfNumerics(value.getNumericArray());
+      case STRUCT:
+        StructSizeEstimator nested = of(elementType);
+        long sum = 0;
+        for (Struct element : value.getStructArray()) {
+          sum += element == null ? 0 : nested.estimate(element);
+        }
+        return sum;
+      default:
+        return Utf8.encodedLength(value.toString());
+    }
+  }
+
+  // NUMERIC values are sent as decimal strings: the digits, and a sign and a point at most.
+  private static long sizeOf(BigDecimal numeric) {
+    return numeric.precision() + 2;
+  }
+
+  private static long countNonNull(List<?> elements) {
+    long count = 0;
+    for (Object element : elements) {
+      if (element != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static long sumOfStrings(List<String> elements) {
+    long sum = 0;
+    for (String element : elements) {
+      sum += element == null ? 0 : Utf8.encodedLength(element);
+    }
+    return sum;
+  }
+
+  private static long sumOfBytes(List<ByteArray> elements) {
+    long sum = 0;
+    for (ByteArray element : elements) {
+      sum += element == null ? 0 : element.length();
+    }
+    return sum;
+  }
+
+  private static long sumOfNumerics(List<BigDecimal> elements) {
+    long sum = 0;
+    for (BigDecimal element : elements) {
+      sum += element == null ? 0 : sizeOf(element);
+    }
+    return sum;
+  }
+}
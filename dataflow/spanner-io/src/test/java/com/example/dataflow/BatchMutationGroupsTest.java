@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dataflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+import com.google.common.collect.ImmutableList;
+import org.apache.beam.sdk.io.gcp.spanner.MutationGroup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BatchMutationGroups}. */
+@RunWith(JUnit4.class)
+public class BatchMutationGroupsTest {
+
+  // 12 bytes and 2 mutations.
+  private static Mutation singer(long id) {
+    return Mutation.newInsertOrUpdateBuilder("Singers")
+        .set("id").to(id)
+        .set("name").to("abcd")
+        .build();
+  }
+
+  // 24 bytes and 4 mutations.
+  private static MutationGroup group(long id) {
+    return MutationGroup.create(singer(id), singer(id + 1000));
+  }
+
+  @Test
+  public void testSizesMutations() {
+    assertEquals(12, BatchMutationGroups.sizeOf(singer(1)));
+    assertEquals(2, BatchMutationGroups.countOf(singer(1)));
+
+    Mutation delete = Mutation.delete("Singers", KeySet.newBuilder()
+        .addKey(Key.of(1L, "ab"))
+        .addRange(KeyRange.closedOpen(Key.of(1L), Key.of(5L)))
+        .build());
+    assertEquals(26, BatchMutationGroups.sizeOf(delete));
+    assertEquals(2, BatchMutationGroups.countOf(delete));
+  }
+
+  @Test
+  public void testBoundsBatchesByBytes() {
+    BatchMutationGroups.Batch batch = new BatchMutationGroups.Batch(50, 100);
+
+    assertNull(batch.add("1", group(1)));
+    assertNull(batch.add("1", group(2)));
+    MutationGroup full = batch.add("1", group(3));
+    assertEquals(ImmutableList.of(singer(1), singer(1001), singer(2), singer(1002)),
+        ImmutableList.copyOf(full));
+    assertEquals(ImmutableList.of(singer(3), singer(1003)), ImmutableList.copyOf(batch.flush()));
+    assertNull(batch.flush());
+  }
+
+  @Test
+  public void testBoundsBatchesByMutations() {
+    BatchMutationGroups.Batch batch = new BatchMutationGroups.Batch(1000, 6);
+
+    assertNull(batch.add("1", group(1)));
+    assertEquals(4, batch.add("1", group(2)).size());
+    assertEquals(4, batch.flush().size());
+  }
+
+  @Test
+  public void testOnlyCombinesGroupsWithSameKeyPrefix() {
+    BatchMutationGroups.Batch batch = new BatchMutationGroups.Batch(1000, 100);
+
+    assertNull(batch.add("1", group(1)));
+    assertNull(batch.add("1", group(2)));
+    assertEquals(8, batch.add("2", group(3)).size());
+    assertEquals(ImmutableList.copyOf(group(3)), ImmutableList.copyOf(batch.add("1", group(4))));
+    assertEquals(ImmutableList.copyOf(group(4)), ImmutableList.copyOf(batch.flush()));
+  }
+
+  @Test
+  public void testPassesLargeGroupsOnAlone() {
+    BatchMutationGroups.Batch batch = new BatchMutationGroups.Batch(10, 100);
+
+    assertNull(batch.add("1", group(1)));
+    assertEquals(ImmutableList.copyOf(group(1)), ImmutableList.copyOf(batch.add("1", group(2))));
+    assertEquals(ImmutableList.copyOf(group(2)), ImmutableList.copyOf(batch.flush()));
+  }
+}
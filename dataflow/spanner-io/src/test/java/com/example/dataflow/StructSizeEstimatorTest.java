@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dataflow;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.cloud.spanner.Value;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StructSizeEstimator}. */
+@RunWith(JUnit4.class)
+public class StructSizeEstimatorTest {
+
+  private static final Type POINT =
+      Type.struct(StructField.of("x", Type.int64()), StructField.of("label", Type.string()));
+
+  private static Struct point(long x, String label) {
+    return Struct.newBuilder().set("x").to(x).set("label").to(label).build();
+  }
+
+  @Test
+  public void testEstimatesEveryType() {
+    Struct row = Struct.newBuilder()
+        .set("bool").to(true)
+        .set("int64").to(1L)
+        .set("float64").to(1.5)
+        // Two bytes for the é.
+        .set("string").to("héllo")
+        .set("bytes").to(ByteArray.copyFrom(new byte[] {1, 2, 3}))
+        .set("timestamp").to(Timestamp.ofTimeSecondsAndNanos(1_700_000_000L, 0))
+        .set("date").to(Date.fromYearMonthDay(2024, 1, 1))
+        // Five digits, and a sign and a point at most.
+        .set("numeric").to(new BigDecimal("123.45"))
+        .set("json").to(Value.json("{\"a\":\"é\"}"))
+        .set("pgNumeric").to(Value.pgNumeric("1.5"))
+        .set("pgJsonb").to(Value.pgJsonb("{}"))
+        .set("strings").toStringArray(Arrays.asList("ab", null, "ü"))
+        .set("longs").toInt64Array(new long[] {1, 2})
+        .set("points").toStructArray(POINT, Arrays.asList(point(1, "abc"), point(2, "def")))
+        .set("point").to(point(3, "ghi"))
+        .set("missing").to((String) null)
+        .build();
+
+    StructSizeEstimator estimator = StructSizeEstimator.of(row.getType());
+
+    assertEquals(125, estimator.estimate(row));
+    long sumOfValues = 0;
+    for (int i = 0; i < row.getColumnCount(); i++) {
+      sumOfValues += StructSizeEstimator.sizeOf(row.getValue(i));
+    }
+    assertEquals(125, sumOfValues);
+  }
+
+  @Test
+  public void testReusesEstimatorForRowsOfSameType() {
+    StructSizeEstimator estimator = StructSizeEstimator.of(POINT);
+
+    assertEquals(11, estimator.estimate(point(1, "abc")));
+    assertEquals(8, estimator.estimate(point(2, "")));
+    assertEquals(11, estimator.estimate(point(3, "日")));
+  }
+}
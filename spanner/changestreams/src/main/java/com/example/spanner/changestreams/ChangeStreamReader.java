@@ -0,0 +1,410 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.example.spanner.changestreams.PartitionCheckpoint.State;
+import com.example.spanner.changestreams.model.ChangeStreamRecord;
+import com.example.spanner.changestreams.model.ChildPartition;
+import com.example.spanner.changestreams.model.ChildPartitionsRecord;
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import com.example.spanner.changestreams.model.HeartbeatRecord;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a change stream by querying its partitions concurrently on a bounded pool. It follows
+ * partition splits and merges, and checkpoints the progress of every partition, so that a
+ * restarted reader resumes where the previous one stopped.
+ *
+ * <p>The records of a partition are passed to the sink in the order the partition returns them,
+ * from one thread. A child partition is only queried once all of its parents have finished and
+ * the sink has acknowledged all of their records. A key belongs to one partition at a time, so the
+ * sink sees the changes to each key in commit timestamp order. Changes to keys in different
+ * partitions are delivered concurrently.
+ *
+ * <p>A run without an end timestamp reads each partition in slices of {@code sliceMillis}, and
+ * queues the partition again behind the others after each slice. Otherwise a partition's query
+ * would hold its thread until the partition ends, and partitions beyond the pool size would never
+ * be read.
+ *
+ * <p>Delivery is at least once. A partition resumes from its watermark, the commit timestamp of
+ * its oldest unacknowledged record, so records committed at that timestamp may be delivered again
+ * after a restart.
+ */
+public class ChangeStreamReader implements AutoCloseable {
+
+  /** Runs one change stream query. */
+  public interface PartitionQuery {
+
+    /**
+     * Queries a partition and passes the records of each result row to the handler.
+     *
+     * @param partitionToken the partition to read, or null for the initial query
+     * @param start the timestamp to read from, inclusive
+     * @param end the timestamp to read to, or null to read until the partition ends
+     * @param handler receives the records
+     */
+    void run(String partitionToken, Timestamp start, Timestamp end, RecordHandler handler)
+        throws Exception;
+  }
+
+  /** Receives the records of one result row of a change stream query. */
+  public interface RecordHandler {
+    void handle(List<ChangeStreamRecord> records) throws Exception;
+  }
+
+  /** The default length of the slices that partitions of an unbounded run are read in. */
+  public static final long DEFAULT_SLICE_MILLIS = 60_000;
+
+  private final PartitionQuery query;
+  private final PartitionCheckpointStore store;
+  private final ChangeStreamSink sink;
+  private final ExecutorService readers;
+  private final Semaphore unacknowledged;
+  private final long checkpointIntervalMillis;
+  private final long sliceMillis;
+
+  // Guarded by this.
+  private final Map<String, PartitionCheckpoint> partitions = new LinkedHashMap<>();
+  private final Set<String> scheduled = new HashSet<>();
+  private int running;
+  private Exception failure;
+  private volatile boolean closed;
+  private volatile Timestamp end;
+
+  /**
+   * Constructs a reader.
+   *
+   * @param query runs the change stream queries, see {@link #spannerQuery}
+   * @param store keeps the partition checkpoints
+   * @param sink receives the data change records
+   * @param maxConcurrentPartitions the number of partitions to query at the same time
+   * @param maxUnacknowledgedRecords the number of records the sink may have unacknowledged before
+   *     the reader waits for it
+   * @param checkpointIntervalMillis how often to checkpoint the watermark of a partition
+   */
+  public ChangeStreamReader(PartitionQuery query, PartitionCheckpointStore store,
+      ChangeStreamSink sink, int maxConcurrentPartitions, int maxUnacknowledgedRecords,
+      long checkpointIntervalMillis) {
+    this(query, store, sink, maxConcurrentPartitions, maxUnacknowledgedRecords,
+        checkpointIntervalMillis, DEFAULT_SLICE_MILLIS);
+  }
+
+  /**
+   * Constructs a reader.
+   *
+   * @param query runs the change stream queries, see {@link #spannerQuery}
+   * @param store keeps the partition checkpoints
+   * @param sink receives the data change records
+   * @param maxConcurrentPartitions the number of partitions to query at the same time
+   * @param maxUnacknowledgedRecords the number of records the sink may have unacknowledged before
+   *     the reader waits for it
+   * @param checkpointIntervalMillis how often to checkpoint the watermark of a partition
+   * @param sliceMillis how much of a partition's commit timestamps one query of an unbounded run
+   *     reads before the partition yields its thread
+   */
+  public ChangeStreamReader(PartitionQuery query, PartitionCheckpointStore store,
+      ChangeStreamSink sink, int maxConcurrentPartitions, int maxUnacknowledgedRecords,
+      long checkpointIntervalMillis, long sliceMillis) {
+    if (sliceMillis <= 0) {
+      throw new IllegalArgumentException("sliceMillis must be positive: " + sliceMillis);
+    }
+    this.query = query;
+    this.store = store;
+    this.sink = sink;
+    this.readers = Executors.newFixedThreadPool(maxConcurrentPartitions);
+    this.unacknowledged = new Semaphore(maxUnacknowledgedRecords);
+    this.checkpointIntervalMillis = checkpointIntervalMillis;
+    this.sliceMillis = sliceMillis;
+  }
+
+  /** Returns a query that reads the given change stream with the {@code READ_} function. */
+  public static PartitionQuery spannerQuery(DatabaseClient dbClient, String changeStreamName,
+      long heartbeatMillis) {
+    final String sql =
+        String.format("SELECT * FROM READ_%s ("
+          + "start_timestamp => @startTimestamp,"
+          + "end_timestamp => @endTimestamp,"
+          + "partition_token => @partitionToken,"
+          + "heartbeat_milliseconds => @heartbeatMillis"
+          + ")", changeStreamName);
+    return (partitionToken, start, end, handler) -> {
+      // Partitions are queried concurrently, so each query resolves its columns in its own mapper.
+      final ChangeStreamRecordMapper changeStreamRecordMapper = new ChangeStreamRecordMapper();
+      try (ResultSet resultSet = dbClient.singleUse().executeQuery(
+          Statement.newBuilder(sql)
+              .bind("startTimestamp").to(start)
+              .bind("endTimestamp").to(end)
+              .bind("partitionToken").to(partitionToken)
+              .bind("heartbeatMillis").to(heartbeatMillis)
+              .build())) {
+        while (resultSet.next()) {
+          handler.handle(
+              changeStreamRecordMapper.toChangeStreamRecords(resultSet.getCurrentRowAsStruct()));
+        }
+      }
+    };
+  }
+
+  /**
+   * Reads the change stream from {@code start}, or from the checkpoints of a previous run, until
+   * every partition has reached {@code end}. With a null {@code end} the reader runs until it is
+   * closed.
+   */
+  public void run(Timestamp start, Timestamp end) throws Exception {
+    this.end = end;
+    List<PartitionCheckpoint> saved = store.load();
+    if (saved.isEmpty()) {
+      // The initial query only returns the partitions that the stream starts with.
+      query.run(null, start, end, records -> {
+        for (ChangeStreamRecord record : records) {
+          if (record instanceof ChildPartitionsRecord) {
+            addChildren((ChildPartitionsRecord) record);
+          } else if (record instanceof DataChangeRecord) {
+            throw new IllegalStateException(
+                "Got unexpected DataChangeRecord from Change Streams initial query");
+          }
+        }
+      });
+    }
+    try {
+      synchronized (this) {
+        for (PartitionCheckpoint partition : saved) {
+          partitions.put(partition.getToken(), partition);
+        }
+        scheduleReadyPartitions();
+        while (running > 0 && failure == null && !closed) {
+          wait();
+        }
+        if (failure != null) {
+          throw failure;
+        }
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /** Stops querying partitions. The checkpoints stay as they are for the next run. */
+  @Override
+  public void close() throws InterruptedException {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    readers.shutdownNow();
+    readers.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+  /** Record the children of a partition. Both parents of a merged partition report it. */
+  private synchronized void addChildren(ChildPartitionsRecord record) throws Exception {
+    for (ChildPartition child : record.getChildPartitions()) {
+      if (!partitions.containsKey(child.getToken())) {
+        PartitionCheckpoint partition = new PartitionCheckpoint(child.getToken(),
+            child.getParentTokens(), record.getStartTimestamp(), record.getStartTimestamp(),
+            State.CREATED);
+        store.create(partition);
+        partitions.put(child.getToken(), partition);
+      }
+    }
+  }
+
+  /** Start reading the partitions whose parents have all finished. */
+  private void scheduleReadyPartitions() {
+    if (closed) {
+      return;
+    }
+    for (PartitionCheckpoint partition : partitions.values()) {
+      if (partition.getState() != State.FINISHED && !scheduled.contains(partition.getToken())
+          && parentsFinished(partition)) {
+        scheduled.add(partition.getToken());
+        running++;
+        readers.execute(() -> read(partition));
+      }
+    }
+  }
+
+  private boolean parentsFinished(PartitionCheckpoint partition) {
+    for (String parentToken : partition.getParentTokens()) {
+      PartitionCheckpoint parent = partitions.get(parentToken);
+      // The partitions of the initial query have no recorded parents.
+      if (parent != null && parent.getState() != State.FINISHED) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void read(PartitionCheckpoint partition) {
+    try {
+      PartitionReader reader = new PartitionReader(partition);
+      reader.checkpoint(State.RUNNING);
+      readSlice(reader);
+    } catch (CancellationException | InterruptedException e) {
+      // The reader was closed.
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  /** Query a partition up to the end, or for one slice and then queue it again. */
+  private void readSlice(PartitionReader reader) {
+    try {
+      Timestamp sliceEnd = end != null ? end : plusMillis(reader.position, sliceMillis);
+      query.run(reader.partition.getToken(), reader.position, sliceEnd, reader::handle);
+      if (end != null || reader.ended) {
+        reader.finish();
+        return;
+      }
+      // Every record up to the end of the slice has been passed to the sink.
+      reader.position = sliceEnd;
+      reader.checkpoint(State.RUNNING);
+      readers.execute(() -> readSlice(reader));
+    } catch (CancellationException | InterruptedException | RejectedExecutionException e) {
+      // The reader was closed.
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  private static Timestamp plusMillis(Timestamp timestamp, long millis) {
+    long nanos = timestamp.getNanos() + TimeUnit.MILLISECONDS.toNanos(millis);
+    return Timestamp.ofTimeSecondsAndNanos(
+        timestamp.getSeconds() + nanos / 1_000_000_000L, (int) (nanos % 1_000_000_000L));
+  }
+
+  private void checkpointed(PartitionCheckpoint partition) throws Exception {
+    store.update(partition);
+    synchronized (this) {
+      partitions.put(partition.getToken(), partition);
+      if (partition.getState() == State.FINISHED) {
+        running--;
+        scheduleReadyPartitions();
+        notifyAll();
+      }
+    }
+  }
+
+  private synchronized void fail(Throwable t) {
+    if (t instanceof CompletionException && t.getCause() != null) {
+      t = t.getCause();
+    }
+    if (failure == null && !closed) {
+      failure = t instanceof Exception ? (Exception) t : new ExecutionException(t);
+    }
+    notifyAll();
+  }
+
+  /** A record passed to the sink and not acknowledged yet. */
+  private static class PendingRecord {
+    final Timestamp commitTimestamp;
+    final CompletableFuture<Void> acknowledged;
+
+    PendingRecord(Timestamp commitTimestamp, CompletableFuture<Void> acknowledged) {
+      this.commitTimestamp = commitTimestamp;
+      this.acknowledged = acknowledged;
+    }
+  }
+
+  /** Tracks the read position of one partition and the records the sink still has. */
+  private class PartitionReader {
+    private final PartitionCheckpoint partition;
+    private final Deque<PendingRecord> pending = new ArrayDeque<>();
+    private Timestamp position;
+    // Whether the partition has returned its children, after which it has no more records.
+    private boolean ended;
+    private long lastCheckpointMillis;
+
+    PartitionReader(PartitionCheckpoint partition) {
+      this.partition = partition;
+      this.position = partition.getWatermark();
+    }
+
+    void handle(List<ChangeStreamRecord> records) throws Exception {
+      for (ChangeStreamRecord record : records) {
+        if (closed) {
+          throw new CancellationException();
+        }
+        if (record instanceof DataChangeRecord) {
+          DataChangeRecord dataChangeRecord = (DataChangeRecord) record;
+          // Blocks while the sink is behind, which stops reading the query results.
+          unacknowledged.acquire();
+          CompletableFuture<Void> acknowledged;
+          try {
+            acknowledged = sink.accept(partition.getToken(), dataChangeRecord);
+          } catch (Exception e) {
+            unacknowledged.release();
+            throw e;
+          }
+          acknowledged.whenComplete((ignored, t) -> {
+            unacknowledged.release();
+            if (t != null) {
+              fail(t);
+            }
+          });
+          pending.add(new PendingRecord(dataChangeRecord.getCommitTimestamp(), acknowledged));
+          position = dataChangeRecord.getCommitTimestamp();
+        } else if (record instanceof HeartbeatRecord) {
+          position = ((HeartbeatRecord) record).getTimestamp();
+        } else if (record instanceof ChildPartitionsRecord) {
+          ChildPartitionsRecord childPartitionsRecord = (ChildPartitionsRecord) record;
+          addChildren(childPartitionsRecord);
+          position = childPartitionsRecord.getStartTimestamp();
+          ended = true;
+        }
+      }
+      if (System.currentTimeMillis() - lastCheckpointMillis >= checkpointIntervalMillis) {
+        checkpoint(State.RUNNING);
+      }
+    }
+
+    /** Wait for the sink to acknowledge every record, then mark the partition finished. */
+    void finish() throws Exception {
+      for (PendingRecord record : pending) {
+        record.acknowledged.get();
+      }
+      checkpoint(State.FINISHED);
+    }
+
+    void checkpoint(State state) throws Exception {
+      while (!pending.isEmpty() && pending.peek().acknowledged.isDone()) {
+        pending.remove().acknowledged.get();
+      }
+      Timestamp watermark = pending.isEmpty() ? position : pending.peek().commitTimestamp;
+      lastCheckpointMillis = System.currentTimeMillis();
+      checkpointed(partition.withProgress(watermark, state));
+    }
+  }
+}
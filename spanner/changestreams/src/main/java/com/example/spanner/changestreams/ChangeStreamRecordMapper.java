@@ -26,128 +26,224 @@ import com.example.spanner.changestreams.model.Mod;
 import com.example.spanner.changestreams.model.ModType;
 import com.example.spanner.changestreams.model.TypeCode;
 import com.example.spanner.changestreams.model.ValueCaptureType;
-import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.Struct;
 import com.google.cloud.spanner.Type;
-import com.google.common.collect.Sets;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ChangeStreamRecordMapper converts a Struct returned from Change Streams API into a well-defined
  * model, which could be one of DataChangeRecord, ChildPartitionsRecord or HeartbeatRecord.
+ *
+ * <p>Every row of a change stream query has the same shape, so the mapper looks the columns up by
+ * name once per struct type and reads them by index after that. A mapper can be shared between
+ * threads, but each thread reading its own result set does best with its own mapper.
  */
 public class ChangeStreamRecordMapper {
 
-  public List<ChangeStreamRecord> toChangeStreamRecords(Struct row) {
-    return row.getStructList(0).stream()
-      .flatMap(struct -> toChangeStreamRecord(struct))
-      .collect(Collectors.toList());
-  }
-
-  private Stream<ChangeStreamRecord> toChangeStreamRecord(Struct row) {
-    final Stream<DataChangeRecord> dataChangeRecords =
-        row.getStructList("data_change_record").stream()
-        .filter(this::isNonNullDataChangeRecord)
-        .map(struct -> toDataChangeRecord(struct));
+  private final LongAdder columnLookups = new LongAdder();
+
+  // The columns of each struct, in the order of the index constants below.
+  private final Columns changeRecordColumns = new Columns(columnLookups,
+      "data_change_record", "heartbeat_record", "child_partitions_record");
+  private static final int DATA_CHANGE_RECORD = 0;
+  private static final int HEARTBEAT_RECORD = 1;
+  private static final int CHILD_PARTITIONS_RECORD = 2;
+
+  private final Columns dataChangeRecordColumns = new Columns(columnLookups,
+      "commit_timestamp", "server_transaction_id", "is_last_record_in_transaction_in_partition",
+      "record_sequence", "table_name", "column_types", "mods", "mod_type", "value_capture_type",
+      "number_of_records_in_transaction", "number_of_partitions_in_transaction");
+  private static final int COMMIT_TIMESTAMP = 0;
+  private static final int SERVER_TRANSACTION_ID = 1;
+  private static final int IS_LAST_RECORD = 2;
+  private static final int DATA_RECORD_SEQUENCE = 3;
+  private static final int TABLE_NAME = 4;
+  private static final int COLUMN_TYPES = 5;
+  private static final int MODS = 6;
+  private static final int MOD_TYPE = 7;
+  private static final int VALUE_CAPTURE_TYPE = 8;
+  private static final int NUMBER_OF_RECORDS = 9;
+  private static final int NUMBER_OF_PARTITIONS = 10;
+
+  private final Columns heartbeatRecordColumns = new Columns(columnLookups, "timestamp");
+  private static final int TIMESTAMP = 0;
+
+  private final Columns childPartitionsRecordColumns = new Columns(columnLookups,
+      "start_timestamp", "record_sequence", "child_partitions");
+  private static final int START_TIMESTAMP = 0;
+  private static final int CHILD_RECORD_SEQUENCE = 1;
+  private static final int CHILD_PARTITIONS = 2;
+
+  private final Columns columnTypeColumns = new Columns(columnLookups,
+      "name", "type", "is_primary_key", "ordinal_position");
+  private static final int NAME = 0;
+  private static final int TYPE = 1;
+  private static final int IS_PRIMARY_KEY = 2;
+  private static final int ORDINAL_POSITION = 3;
+
+  private final Columns modColumns = new Columns(columnLookups, "keys", "old_values", "new_values");
+  private static final int KEYS = 0;
+  private static final int OLD_VALUES = 1;
+  private static final int NEW_VALUES = 2;
+
+  private final Columns childPartitionColumns =
+      new Columns(columnLookups, "token", "parent_partition_tokens");
+  private static final int TOKEN = 0;
+  private static final int PARENT_PARTITION_TOKENS = 1;
 
-    final Stream<HeartbeatRecord> heartbeatRecords =
-        row.getStructList("heartbeat_record").stream()
-        .filter(this::isNonNullHeartbeatRecord)
-        .map(struct -> toHeartbeatRecord(struct));
-
-    final Stream<ChildPartitionsRecord> childPartitionsRecords =
-        row.getStructList("child_partitions_record").stream()
-          .filter(this::isNonNullChildPartitionsRecord)
-          .map(struct -> toChildPartitionsRecord(struct));
-
-    return Stream.concat(
-      Stream.concat(dataChangeRecords, heartbeatRecords), childPartitionsRecords);
-  }
-
-  private boolean isNonNullDataChangeRecord(Struct row) {
-    return !row.isNull("commit_timestamp");
-  }
-
-  private boolean isNonNullHeartbeatRecord(Struct row) {
-    return !row.isNull("timestamp");
-  }
-
-  private boolean isNonNullChildPartitionsRecord(Struct row) {
-    return !row.isNull("start_timestamp");
+  public List<ChangeStreamRecord> toChangeStreamRecords(Struct row) {
+    final List<ChangeStreamRecord> records = new ArrayList<>();
+    for (Struct changeRecord : row.getStructList(0)) {
+      final Columns.Indexes columns = changeRecordColumns.of(changeRecord);
+      for (Struct struct : changeRecord.getStructList(columns.get(DATA_CHANGE_RECORD))) {
+        final Columns.Indexes dataColumns = dataChangeRecordColumns.of(struct);
+        if (!struct.isNull(dataColumns.get(COMMIT_TIMESTAMP))) {
+          records.add(toDataChangeRecord(struct, dataColumns));
+        }
+      }
+      for (Struct struct : changeRecord.getStructList(columns.get(HEARTBEAT_RECORD))) {
+        final Columns.Indexes heartbeatColumns = heartbeatRecordColumns.of(struct);
+        if (!struct.isNull(heartbeatColumns.get(TIMESTAMP))) {
+          records.add(new HeartbeatRecord(struct.getTimestamp(heartbeatColumns.get(TIMESTAMP))));
+        }
+      }
+      for (Struct struct : changeRecord.getStructList(columns.get(CHILD_PARTITIONS_RECORD))) {
+        final Columns.Indexes childColumns = childPartitionsRecordColumns.of(struct);
+        if (!struct.isNull(childColumns.get(START_TIMESTAMP))) {
+          records.add(toChildPartitionsRecord(struct, childColumns));
+        }
+      }
+    }
+    return records;
   }
 
-  private DataChangeRecord toDataChangeRecord(Struct row) {
-    final Timestamp commitTimestamp = row.getTimestamp("commit_timestamp");
+  private DataChangeRecord toDataChangeRecord(Struct row, Columns.Indexes columns) {
+    final List<Struct> columnTypeStructs = row.getStructList(columns.get(COLUMN_TYPES));
+    final List<ColumnType> columnTypes = new ArrayList<>(columnTypeStructs.size());
+    for (Struct struct : columnTypeStructs) {
+      columnTypes.add(columnTypeFrom(struct));
+    }
+    final List<Struct> modStructs = row.getStructList(columns.get(MODS));
+    final List<Mod> mods = new ArrayList<>(modStructs.size());
+    for (Struct struct : modStructs) {
+      mods.add(modFrom(struct));
+    }
     return new DataChangeRecord(
-      commitTimestamp,
-      row.getString("server_transaction_id"),
-      row.getBoolean("is_last_record_in_transaction_in_partition"),
-      row.getString("record_sequence"),
-      row.getString("table_name"),
-      row.getStructList("column_types").stream()
-        .map(this::columnTypeFrom)
-        .collect(Collectors.toList()),
-      row.getStructList("mods").stream().map(this::modFrom).collect(Collectors.toList()),
-      ModType.valueOf(row.getString("mod_type")),
-      ValueCaptureType.valueOf(row.getString("value_capture_type")),
-      row.getLong("number_of_records_in_transaction"),
-      row.getLong("number_of_partitions_in_transaction"));
+      row.getTimestamp(columns.get(COMMIT_TIMESTAMP)),
+      row.getString(columns.get(SERVER_TRANSACTION_ID)),
+      row.getBoolean(columns.get(IS_LAST_RECORD)),
+      row.getString(columns.get(DATA_RECORD_SEQUENCE)),
+      row.getString(columns.get(TABLE_NAME)),
+      columnTypes,
+      mods,
+      ModType.valueOf(row.getString(columns.get(MOD_TYPE))),
+      ValueCaptureType.valueOf(row.getString(columns.get(VALUE_CAPTURE_TYPE))),
+      row.getLong(columns.get(NUMBER_OF_RECORDS)),
+      row.getLong(columns.get(NUMBER_OF_PARTITIONS)));
   }
 
-  private HeartbeatRecord toHeartbeatRecord(Struct row) {
-    final Timestamp timestamp = row.getTimestamp("timestamp");
-    return new HeartbeatRecord(timestamp);
-  }
-
-  private ChildPartitionsRecord toChildPartitionsRecord(Struct row) {
-    final Timestamp startTimestamp = row.getTimestamp("start_timestamp");
+  private ChildPartitionsRecord toChildPartitionsRecord(Struct row, Columns.Indexes columns) {
+    final List<Struct> childStructs = row.getStructList(columns.get(CHILD_PARTITIONS));
+    final List<ChildPartition> childPartitions = new ArrayList<>(childStructs.size());
+    for (Struct struct : childStructs) {
+      final Columns.Indexes childColumns = childPartitionColumns.of(struct);
+      childPartitions.add(new ChildPartition(struct.getString(childColumns.get(TOKEN)),
+          new HashSet<>(struct.getStringList(childColumns.get(PARENT_PARTITION_TOKENS)))));
+    }
     return new ChildPartitionsRecord(
-      startTimestamp,
-      row.getString("record_sequence"),
-      row.getStructList("child_partitions").stream()
-        .map(struct -> childPartitionFrom(struct))
-        .collect(Collectors.toList()));
+      row.getTimestamp(columns.get(START_TIMESTAMP)),
+      row.getString(columns.get(CHILD_RECORD_SEQUENCE)),
+      childPartitions);
   }
 
   private ColumnType columnTypeFrom(Struct struct) {
-    // TODO: Move to type struct.getJson when backend is fully migrated
-    final String type = getJsonString(struct, "type");
+    final Columns.Indexes columns = columnTypeColumns.of(struct);
     return new ColumnType(
-      struct.getString("name"),
-        new TypeCode(type),
-      struct.getBoolean("is_primary_key"),
-      struct.getLong("ordinal_position"));
+      struct.getString(columns.get(NAME)),
+      new TypeCode(columns.getJsonString(struct, TYPE)),
+      struct.getBoolean(columns.get(IS_PRIMARY_KEY)),
+      struct.getLong(columns.get(ORDINAL_POSITION)));
   }
 
   private Mod modFrom(Struct struct) {
-    // TODO: Move to keys struct.getJson when backend is fully migrated
-    final String keys = getJsonString(struct, "keys");
-    // TODO: Move to oldValues struct.getJson when backend is fully migrated
-    final String oldValues =
-        struct.isNull("old_values") ? null : getJsonString(struct, "old_values");
-    // TODO: Move to newValues struct.getJson when backend is fully migrated
-    final String newValues =
-        struct.isNull("new_values") ? null : getJsonString(struct, "new_values");
+    final Columns.Indexes columns = modColumns.of(struct);
+    final String keys = columns.getJsonString(struct, KEYS);
+    final String oldValues = struct.isNull(columns.get(OLD_VALUES))
+        ? null : columns.getJsonString(struct, OLD_VALUES);
+    final String newValues = struct.isNull(columns.get(NEW_VALUES))
+        ? null : columns.getJsonString(struct, NEW_VALUES);
     return new Mod(keys, oldValues, newValues);
   }
 
-  private ChildPartition childPartitionFrom(Struct struct) {
-    final HashSet<String> parentTokens =
-        Sets.newHashSet(struct.getStringList("parent_partition_tokens"));
-    return new ChildPartition(struct.getString("token"), parentTokens);
+  /** Returns how many times column indexes were looked up by name, for tests. */
+  long getColumnLookups() {
+    return columnLookups.sum();
   }
 
-  // TODO: Remove when backend is fully migrated to JSON.
-  private String getJsonString(Struct struct, String columnName) {
-    if (struct.getColumnType(columnName).equals(Type.json())) {
-      return struct.getJson(columnName);
-    } else if (struct.getColumnType(columnName).equals(Type.string())) {
-      return struct.getString(columnName);
-    } else {
-      throw new IllegalArgumentException("Can not extract string from value " + columnName);
+  /** The columns read from one kind of struct, and their indexes in each type seen. */
+  private static final class Columns {
+    // Struct types differ only when the backend or the query changes, so there are few of them.
+    private static final int MAX_TYPES = 16;
+
+    private final LongAdder lookups;
+    private final String[] names;
+    private final Map<Type, Indexes> byType = new ConcurrentHashMap<>();
+    private volatile Indexes last;
+
+    Columns(LongAdder lookups, String... names) {
+      this.lookups = lookups;
+      this.names = names;
+    }
+
+    /** Returns the column indexes in the struct's type, looking them up if the type is new. */
+    Indexes of(Struct struct) {
+      final Type type = struct.getType();
+      Indexes indexes = last;
+      // The rows of a result set share their type, so an identity check is usually enough. Each
+      // result set has its own instances though, so equal types share their indexes as well.
+      if (indexes == null || indexes.type != type) {
+        indexes = byType.get(type);
+        if (indexes == null) {
+          if (byType.size() >= MAX_TYPES) {
+            byType.clear();
+          }
+          lookups.increment();
+          indexes = new Indexes(type, names);
+          byType.put(type, indexes);
+        }
+        last = indexes;
+      }
+      return indexes;
+    }
+
+    private static final class Indexes {
+      private final Type type;
+      private final int[] indexes;
+      private final boolean[] json;
+
+      Indexes(Type type, String[] names) {
+        this.type = type;
+        this.indexes = new int[names.length];
+        this.json = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+          indexes[i] = type.getFieldIndex(names[i]);
+          json[i] = type.getStructFields().get(indexes[i]).getType().equals(Type.json());
+        }
+      }
+
+      int get(int column) {
+        return indexes[column];
+      }
+
+      // TODO: Remove when backend is fully migrated to JSON.
+      String getJsonString(Struct struct, int column) {
+        return json[column] ? struct.getJson(indexes[column]) : struct.getString(indexes[column]);
+      }
     }
   }
 }
@@ -19,7 +19,6 @@ package com.example.spanner.changestreams;
 // TODO(haikuo@google.com): we should remove the models and the mapper once the change stream
 //  connector code that includes these models are released into Beam repo.
 import com.example.spanner.changestreams.model.ChangeStreamRecord;
-import com.example.spanner.changestreams.model.ChildPartition;
 import com.example.spanner.changestreams.model.ChildPartitionsRecord;
 import com.example.spanner.changestreams.model.DataChangeRecord;
 import com.example.spanner.changestreams.model.HeartbeatRecord;
@@ -29,15 +28,15 @@ import com.google.cloud.spanner.DatabaseAdminClient;
 import com.google.cloud.spanner.DatabaseClient;
 import com.google.cloud.spanner.DatabaseId;
 import com.google.cloud.spanner.Mutation;
-import com.google.cloud.spanner.ResultSet;
 import com.google.cloud.spanner.Spanner;
 import com.google.cloud.spanner.SpannerOptions;
-import com.google.cloud.spanner.Statement;
 import com.google.common.collect.ImmutableList;
 import com.google.spanner.admin.database.v1.UpdateDatabaseDdlMetadata;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -45,11 +44,16 @@ import java.util.concurrent.TimeUnit;
  * 1. Creates a table with simple schema and a change stream that watches the table.
  * 2. Inserts test data into the table.
  * 3. Executes a change stream initial query to get change stream partition tokens.
- * 4. Executes a change stream partition query to get data change records of the inserted rows.
+ * 4. Executes the change stream partition queries concurrently, following partition splits and
+ *    merges, to get data change records of the inserted rows.
  * 5. Drops the created table and change stream.
  */
 public class ChangeStreamSample {
   private static final long TIMEOUT_MINUTES = 10;
+  private static final long HEARTBEAT_MILLIS = 5000;
+  private static final int MAX_CONCURRENT_PARTITIONS = 8;
+  private static final int MAX_UNACKNOWLEDGED_RECORDS = 1000;
+  private static final long CHECKPOINT_INTERVAL_MILLIS = 10_000;
 
   public static void run(String instanceId, String databaseId, String prefix) {
     final String tableName = prefix + "_Singers";
@@ -99,7 +103,7 @@ public class ChangeStreamSample {
 
   // [START spanner_change_streams_sample_query_change_streams]
   public static void queryChangeStream(DatabaseClient dbClient, String tableName,
-                                       String changeStreamName) {
+                                       String changeStreamName) throws Exception {
     // Insert test data into the table.
     System.out.println(
         String.format("Inserting rows "
@@ -114,30 +118,29 @@ public class ChangeStreamSample {
     final Timestamp endTimestamp = Timestamp.ofTimeSecondsAndNanos(
         startTimestamp.getSeconds() + 30, startTimestamp.getNanos());
 
-    final ChangeStreamRecordMapper changeStreamRecordMapper =
-        new ChangeStreamRecordMapper();
-
-    // Execute an initial query to get partition tokens.
-    System.out.println("Executing change stream initial query.");
-    // For initial query the partition token is null.
-    List<ChangeStreamRecord> initialQueryRecords = executeChangeStreamQueryAndPrint(
-        dbClient, changeStreamName, startTimestamp, endTimestamp, null,
-        changeStreamRecordMapper);
-
-    System.out.println("Executing change stream partition queries.");
-    for (ChangeStreamRecord record : initialQueryRecords) {
-      // Executes a partition query to print data records that we just inserted.
-      if (record instanceof ChildPartitionsRecord) {
-        ChildPartitionsRecord childPartitionsRecord = (ChildPartitionsRecord) record;
-        for (ChildPartition childPartition : childPartitionsRecord.getChildPartitions()) {
-          executeChangeStreamQueryAndPrint(
-              dbClient, changeStreamName, childPartitionsRecord.getStartTimestamp(), endTimestamp,
-              childPartition.getToken(), changeStreamRecordMapper);
-        }
-      } else if (record instanceof DataChangeRecord) {
-        throw new IllegalArgumentException("Got unexpected DataChangeRecord from Change Streams "
-          + "initial query");
-      }
+    // Query the partitions concurrently, and print the records of each query as they arrive.
+    final ChangeStreamReader.PartitionQuery spannerQuery =
+        ChangeStreamReader.spannerQuery(dbClient, changeStreamName, HEARTBEAT_MILLIS);
+    final ChangeStreamReader.PartitionQuery printingQuery =
+        (partitionToken, start, end, handler) -> {
+          printQuery(start, end, partitionToken);
+          spannerQuery.run(partitionToken, start, end, records -> {
+            printRecords(records);
+            handler.handle(records);
+          });
+        };
+
+    // The reader checkpoints the progress of every partition. A reader started with the same
+    // checkpoint file continues where this one stopped.
+    final Path checkpointFile = Files.createTempFile(changeStreamName, ".checkpoint");
+    System.out.println("Executing change stream queries.");
+    try (ChangeStreamReader reader = new ChangeStreamReader(printingQuery,
+        new FileCheckpointStore(checkpointFile),
+        (partitionToken, record) -> CompletableFuture.completedFuture(null),
+        MAX_CONCURRENT_PARTITIONS, MAX_UNACKNOWLEDGED_RECORDS, CHECKPOINT_INTERVAL_MILLIS)) {
+      reader.run(startTimestamp, endTimestamp);
+    } finally {
+      Files.deleteIfExists(checkpointFile);
     }
   }
 
@@ -159,60 +162,29 @@ public class ChangeStreamSample {
     );
   }
 
-  // Execute a change stream query, return and print out the result records.
-  // For initial query, partitionToken is expected to be null.
-  public static List<ChangeStreamRecord> executeChangeStreamQueryAndPrint(
-      DatabaseClient dbClient, String changeStreamName, Timestamp startTimestamp,
-      Timestamp endTimestamp, String partitionToken,
-      ChangeStreamRecordMapper changeStreamRecordMapper) {
+  static void printQuery(Timestamp startTimestamp, Timestamp endTimestamp,
+      String partitionToken) {
     System.out.println("Executing a change stream query with: "
         + "start_timestamp => " + startTimestamp
         + ", end_timestamp => " + endTimestamp
         + ", partition_token => " + partitionToken
-        + ", heartbeat_milliseconds => 5000");
-
-    final String query =
-        String.format("SELECT * FROM READ_%s ("
-          + "start_timestamp => @startTimestamp,"
-          + "end_timestamp => @endTimestamp,"
-          + "partition_token => @partitionToken,"
-          + "heartbeat_milliseconds => @heartbeatMillis"
-          + ")", changeStreamName);
-
-    final ResultSet resultSet =
-        dbClient
-          .singleUse()
-          .executeQuery(
-            Statement.newBuilder(query)
-              .bind("startTimestamp").to(startTimestamp)
-              .bind("endTimestamp").to(endTimestamp)
-              .bind("partitionToken").to(partitionToken)
-              .bind("heartbeatMillis").to(5000)
-              .build());
-
-    List<ChangeStreamRecord> result = new ArrayList<>();
-    while (resultSet.next()) {
-      // Parses result set into change stream result format.
-      final List<ChangeStreamRecord> records =
-          changeStreamRecordMapper.toChangeStreamRecords(resultSet.getCurrentRowAsStruct());
-
-      // Prints out all the query results.
-      for (final ChangeStreamRecord record : records) {
-        if (record instanceof DataChangeRecord) {
-          System.out.println("Received a DataChangeRecord: " + record);
-        } else if (record instanceof HeartbeatRecord) {
-          System.out.println("Received a HeartbeatRecord: " + record);
-        } else if (record instanceof ChildPartitionsRecord) {
-          System.out.println("Received a ChildPartitionsRecord: " + record);
-        } else {
-          // We should never reach here.
-          throw new IllegalArgumentException("Unknown record type " + record.getClass());
-        }
+        + ", heartbeat_milliseconds => " + HEARTBEAT_MILLIS);
+  }
+
+  // Prints out all the query results.
+  static void printRecords(List<ChangeStreamRecord> records) {
+    for (final ChangeStreamRecord record : records) {
+      if (record instanceof DataChangeRecord) {
+        System.out.println("Received a DataChangeRecord: " + record);
+      } else if (record instanceof HeartbeatRecord) {
+        System.out.println("Received a HeartbeatRecord: " + record);
+      } else if (record instanceof ChildPartitionsRecord) {
+        System.out.println("Received a ChildPartitionsRecord: " + record);
+      } else {
+        // We should never reach here.
+        throw new IllegalArgumentException("Unknown record type " + record.getClass());
       }
-      result.addAll(records);
     }
-
-    return result;
   }
   // [END spanner_change_streams_sample_query_change_streams]
 
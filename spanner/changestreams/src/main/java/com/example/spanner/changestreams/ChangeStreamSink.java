@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Receives the data change records read by a {@link ChangeStreamReader}.
+ *
+ * <p>The reader calls {@link #accept} from one thread per partition, in the order the partition
+ * returns its records. Partitions are read concurrently, so a sink must be thread-safe.
+ *
+ * <p>The reader stops reading when too many records are unacknowledged. A sink that completes the
+ * returned futures only as it catches up therefore slows the reader down to its own pace.
+ */
+public interface ChangeStreamSink {
+
+  /**
+   * Accepts a record.
+   *
+   * @param partitionToken the partition the record was read from
+   * @param record the record
+   * @return a future that completes once the record has been handled, and that no longer needs to
+   *     be delivered after a restart
+   */
+  CompletableFuture<Void> accept(String partitionToken, DataChangeRecord record) throws Exception;
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.example.spanner.changestreams.PartitionCheckpoint.State;
+import com.google.cloud.Timestamp;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps partition checkpoints in a local file, one tab-separated line per partition. The whole
+ * file is rewritten on every change, which suits tests and small streams; use
+ * {@link SpannerCheckpointStore} to share checkpoints between machines.
+ */
+public class FileCheckpointStore implements PartitionCheckpointStore {
+
+  private static final Splitter FIELDS = Splitter.on('\t');
+  private static final Splitter TOKENS = Splitter.on(',').omitEmptyStrings();
+
+  private final Path file;
+  private Map<String, PartitionCheckpoint> partitions;
+
+  public FileCheckpointStore(Path file) {
+    this.file = file;
+  }
+
+  @Override
+  public synchronized List<PartitionCheckpoint> load() throws IOException {
+    return new ArrayList<>(partitions().values());
+  }
+
+  @Override
+  public synchronized void create(PartitionCheckpoint partition) throws IOException {
+    if (partitions().putIfAbsent(partition.getToken(), partition) == null) {
+      save();
+    }
+  }
+
+  @Override
+  public synchronized void update(PartitionCheckpoint partition) throws IOException {
+    partitions().put(partition.getToken(), partition);
+    save();
+  }
+
+  private Map<String, PartitionCheckpoint> partitions() throws IOException {
+    if (partitions == null) {
+      partitions = new LinkedHashMap<>();
+      if (Files.exists(file)) {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+          if (!line.isEmpty()) {
+            PartitionCheckpoint partition = parse(line);
+            partitions.put(partition.getToken(), partition);
+          }
+        }
+      }
+    }
+    return partitions;
+  }
+
+  private static PartitionCheckpoint parse(String line) {
+    List<String> fields = FIELDS.splitToList(line);
+    return new PartitionCheckpoint(
+        fields.get(0),
+        ImmutableSet.copyOf(TOKENS.split(fields.get(4))),
+        Timestamp.parseTimestamp(fields.get(2)),
+        Timestamp.parseTimestamp(fields.get(3)),
+        State.valueOf(fields.get(1)));
+  }
+
+  /** Write the checkpoints to a temporary file, then move it over the previous one. */
+  private void save() throws IOException {
+    List<String> lines = new ArrayList<>(partitions.size());
+    for (PartitionCheckpoint partition : partitions.values()) {
+      lines.add(Joiner.on('\t').join(
+          partition.getToken(),
+          partition.getState(),
+          partition.getStartTimestamp(),
+          partition.getWatermark(),
+          Joiner.on(',').join(partition.getParentTokens())));
+    }
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(temp, lines, StandardCharsets.UTF_8);
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.google.cloud.Timestamp;
+import com.google.common.collect.ImmutableSet;
+import java.util.Objects;
+import java.util.Set;
+
+/** How far a {@link ChangeStreamReader} has read one change stream partition. */
+public class PartitionCheckpoint {
+
+  /** The lifecycle of a partition. */
+  public enum State {
+    /** Reported by a parent partition, but not queried yet. */
+    CREATED,
+    /** Being queried. */
+    RUNNING,
+    /** Read to its end, with every record acknowledged by the sink. */
+    FINISHED
+  }
+
+  private final String token;
+  private final Set<String> parentTokens;
+  private final Timestamp startTimestamp;
+  private final Timestamp watermark;
+  private final State state;
+
+  /**
+   * Constructs the checkpoint of a partition.
+   *
+   * @param token the partition token
+   * @param parentTokens the tokens of the partitions this partition was split or merged from
+   * @param startTimestamp the timestamp the partition starts at
+   * @param watermark the timestamp to resume reading the partition from
+   * @param state the state of the partition
+   */
+  public PartitionCheckpoint(String token, Set<String> parentTokens, Timestamp startTimestamp,
+      Timestamp watermark, State state) {
+    this.token = token;
+    this.parentTokens = ImmutableSet.copyOf(parentTokens);
+    this.startTimestamp = startTimestamp;
+    this.watermark = watermark;
+    this.state = state;
+  }
+
+  /** The partition token. */
+  public String getToken() {
+    return token;
+  }
+
+  /** The tokens of the partitions this partition was split or merged from. */
+  public Set<String> getParentTokens() {
+    return parentTokens;
+  }
+
+  /** The timestamp the partition starts at. */
+  public Timestamp getStartTimestamp() {
+    return startTimestamp;
+  }
+
+  /**
+   * The timestamp to resume reading the partition from. Every record committed before it has
+   * been acknowledged by the sink.
+   */
+  public Timestamp getWatermark() {
+    return watermark;
+  }
+
+  /** The state of the partition. */
+  public State getState() {
+    return state;
+  }
+
+  /** Returns a copy of this checkpoint with the given watermark and state. */
+  public PartitionCheckpoint withProgress(Timestamp watermark, State state) {
+    return new PartitionCheckpoint(token, parentTokens, startTimestamp, watermark, state);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PartitionCheckpoint)) {
+      return false;
+    }
+    PartitionCheckpoint that = (PartitionCheckpoint) o;
+    return Objects.equals(token, that.token)
+        && Objects.equals(parentTokens, that.parentTokens)
+        && Objects.equals(startTimestamp, that.startTimestamp)
+        && Objects.equals(watermark, that.watermark)
+        && state == that.state;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(token, parentTokens, startTimestamp, watermark, state);
+  }
+
+  @Override
+  public String toString() {
+    return "PartitionCheckpoint{"
+        + "token='"
+        + token
+        + '\''
+        + ", parentTokens="
+        + parentTokens
+        + ", startTimestamp="
+        + startTimestamp
+        + ", watermark="
+        + watermark
+        + ", state="
+        + state
+        + '}';
+  }
+}
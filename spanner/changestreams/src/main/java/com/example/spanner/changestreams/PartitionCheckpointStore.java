@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import java.util.List;
+
+/**
+ * Persists the partition checkpoints of a {@link ChangeStreamReader}. Implementations must be
+ * safe to call from several threads.
+ */
+public interface PartitionCheckpointStore {
+
+  /** Returns the checkpoints of every partition recorded so far, or none for a new reader. */
+  List<PartitionCheckpoint> load() throws Exception;
+
+  /** Records a new partition, unless a partition with the same token is already recorded. */
+  void create(PartitionCheckpoint partition) throws Exception;
+
+  /** Records the watermark and state of a partition. */
+  void update(PartitionCheckpoint partition) throws Exception;
+}
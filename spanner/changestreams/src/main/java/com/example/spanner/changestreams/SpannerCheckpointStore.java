@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.example.spanner.changestreams.PartitionCheckpoint.State;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ErrorCode;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Keeps partition checkpoints in a Spanner metadata table, created with
+ * {@link #createTableStatement}.
+ */
+public class SpannerCheckpointStore implements PartitionCheckpointStore {
+
+  private final DatabaseClient dbClient;
+  private final String tableName;
+
+  public SpannerCheckpointStore(DatabaseClient dbClient, String tableName) {
+    this.dbClient = dbClient;
+    this.tableName = tableName;
+  }
+
+  /** Returns the DDL statement that creates the metadata table. */
+  public static String createTableStatement(String tableName) {
+    return String.format("CREATE TABLE %s ("
+        + "  PartitionToken STRING(MAX) NOT NULL,"
+        + "  ParentTokens   ARRAY<STRING(MAX)> NOT NULL,"
+        + "  StartTimestamp TIMESTAMP NOT NULL,"
+        + "  Watermark      TIMESTAMP NOT NULL,"
+        + "  State          STRING(MAX) NOT NULL,"
+        + "  UpdatedAt      TIMESTAMP NOT NULL OPTIONS (allow_commit_timestamp=true)"
+        + ") PRIMARY KEY (PartitionToken)", tableName);
+  }
+
+  @Override
+  public List<PartitionCheckpoint> load() {
+    List<PartitionCheckpoint> partitions = new ArrayList<>();
+    try (ResultSet resultSet = dbClient.singleUse().executeQuery(Statement.of(
+        "SELECT PartitionToken, ParentTokens, StartTimestamp, Watermark, State FROM "
+            + tableName))) {
+      while (resultSet.next()) {
+        partitions.add(new PartitionCheckpoint(
+            resultSet.getString("PartitionToken"),
+            new HashSet<>(resultSet.getStringList("ParentTokens")),
+            resultSet.getTimestamp("StartTimestamp"),
+            resultSet.getTimestamp("Watermark"),
+            State.valueOf(resultSet.getString("State"))));
+      }
+    }
+    return partitions;
+  }
+
+  @Override
+  public void create(PartitionCheckpoint partition) {
+    try {
+      dbClient.write(Collections.singletonList(
+          Mutation.newInsertBuilder(tableName)
+              .set("PartitionToken").to(partition.getToken())
+              .set("ParentTokens").toStringArray(partition.getParentTokens())
+              .set("StartTimestamp").to(partition.getStartTimestamp())
+              .set("Watermark").to(partition.getWatermark())
+              .set("State").to(partition.getState().name())
+              .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+              .build()));
+    } catch (SpannerException e) {
+      // Both parents of a merged partition report it.
+      if (e.getErrorCode() != ErrorCode.ALREADY_EXISTS) {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void update(PartitionCheckpoint partition) {
+    // A checkpoint is a blind write of one row, so it does not need a read-write transaction.
+    dbClient.writeAtLeastOnce(Collections.singletonList(
+        Mutation.newUpdateBuilder(tableName)
+            .set("PartitionToken").to(partition.getToken())
+            .set("Watermark").to(partition.getWatermark())
+            .set("State").to(partition.getState().name())
+            .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+            .build()));
+  }
+}
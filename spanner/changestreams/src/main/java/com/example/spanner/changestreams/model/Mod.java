@@ -22,7 +22,8 @@ import org.apache.avro.reflect.Nullable;
 
 /**
  * Represents a modification in a table emitted within a {@link DataChangeRecord}. Each mod contains
- * keys, new values and old values returned as JSON strings.
+ * keys, new values and old values returned as JSON strings, which {@link #getKeys()},
+ * {@link #getOldValues()} and {@link #getNewValues()} read as typed values.
  */
 public class Mod implements Serializable {
 
@@ -34,6 +35,11 @@ public class Mod implements Serializable {
 
   @Nullable private String newValuesJson;
 
+  // Typed views of the JSON objects, created on first use.
+  private transient ModValues keys;
+  private transient ModValues oldValues;
+  private transient ModValues newValues;
+
   /** Default constructor for serialization only. */
   private Mod() {}
 
@@ -87,6 +93,49 @@ public class Mod implements Serializable {
     return keysJson;
   }
 
+  /**
+   * The primary key values of the modified row, parsed from {@link #getKeysJson()} when they are
+   * first read.
+   *
+   * @return the primary key values
+   */
+  public ModValues getKeys() {
+    if (keys == null) {
+      keys = new ModValues(keysJson);
+    }
+    return keys;
+  }
+
+  /**
+   * The old column values, parsed from {@link #getOldValuesJson()} when they are first read.
+   *
+   * @return the old column values, or null if there are none, as for an INSERT, whose old values
+   *     are returned as an empty string
+   */
+  public ModValues getOldValues() {
+    if (oldValues == null && hasValues(oldValuesJson)) {
+      oldValues = new ModValues(oldValuesJson);
+    }
+    return oldValues;
+  }
+
+  /**
+   * The new column values, parsed from {@link #getNewValuesJson()} when they are first read.
+   *
+   * @return the new column values, or null if there are none
+   */
+  public ModValues getNewValues() {
+    if (newValues == null && hasValues(newValuesJson)) {
+      newValues = new ModValues(newValuesJson);
+    }
+    return newValues;
+  }
+
+  // The values of an INSERT or a DELETE may be null or an empty string.
+  private static boolean hasValues(String json) {
+    return json != null && !json.trim().isEmpty();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams.model;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A typed view of the column values of a {@link Mod}, read from its JSON object.
+ *
+ * <p>The JSON is not parsed until a value is first asked for. It is then scanned once to find where
+ * each column's name and value are; values are only decoded when they are read. Change streams
+ * encode INT64 and NUMERIC values as JSON strings, so {@link #getLong}, {@link #getBigDecimal} and
+ * {@link #getDouble} accept both strings and numbers.
+ *
+ * <p>A view can be shared between threads.
+ */
+public final class ModValues {
+
+  private final String json;
+  private volatile Index index;
+
+  public ModValues(String json) {
+    this.json = json;
+  }
+
+  /** The JSON object the values are read from. */
+  public String getJson() {
+    return json;
+  }
+
+  /** The number of columns. */
+  public int size() {
+    return index().size;
+  }
+
+  /** The names of the columns, in the order they appear in the JSON object. */
+  public List<String> getColumnNames() {
+    Index index = index();
+    return new AbstractList<String>() {
+      @Override
+      public String get(int column) {
+        if (column < 0 || column >= index.size) {
+          throw new IndexOutOfBoundsException("Column " + column);
+        }
+        return index.name(column);
+      }
+
+      @Override
+      public int size() {
+        return index.size;
+      }
+    };
+  }
+
+  /** True if the object has the column, whether or not its value is null. */
+  public boolean contains(String column) {
+    return index().find(column) >= 0;
+  }
+
+  /** True if the column's value is null. */
+  public boolean isNull(String column) {
+    Index index = index();
+    int value = index.valueStart(index.require(column));
+    return json.startsWith("null", value);
+  }
+
+  /** Returns the column's value as a string, or null if the value is null. */
+  public String getString(String column) {
+    Index index = index();
+    int found = index.require(column);
+    int start = index.valueStart(found);
+    int end = index.valueEnd(found);
+    if (json.charAt(start) == '"') {
+      return Scanner.decodeString(json, start, end);
+    }
+    return json.startsWith("null", start) ? null : json.substring(start, end);
+  }
+
+  /** Returns the column's value, an INT64 as a string or a number. */
+  public long getLong(String column) {
+    return Long.parseLong(nonNull(column));
+  }
+
+  /**
+   * Returns the column's value, a NUMERIC as a string or a number. NUMERIC values have up to 38
+   * digits, more than a double can hold without rounding.
+   */
+  public BigDecimal getBigDecimal(String column) {
+    return new BigDecimal(nonNull(column));
+  }
+
+  /** Returns the column's value, a FLOAT64 as a string or a number. */
+  public double getDouble(String column) {
+    return Double.parseDouble(nonNull(column));
+  }
+
+  /** Returns the column's value, a BOOL. */
+  public boolean getBoolean(String column) {
+    String value = nonNull(column);
+    if (!value.equals("true") && !value.equals("false")) {
+      throw new IllegalArgumentException("Column " + column + " is not a boolean: " + value);
+    }
+    return value.equals("true");
+  }
+
+  /** Returns the JSON text of the column's value, such as an array for ARRAY columns. */
+  public String getJson(String column) {
+    Index index = index();
+    int found = index.require(column);
+    return json.substring(index.valueStart(found), index.valueEnd(found));
+  }
+
+  private String nonNull(String column) {
+    String value = getString(column);
+    if (value == null) {
+      throw new IllegalStateException("Column " + column + " is null");
+    }
+    return value;
+  }
+
+  private Index index() {
+    Index current = index;
+    if (current == null) {
+      current = new Scanner(json).scanObject();
+      index = current;
+    }
+    return current;
+  }
+
+  @Override
+  public String toString() {
+    return json;
+  }
+
+  /** Where the names and values of the columns are in the JSON text. */
+  private static final class Index {
+    private final String json;
+    // For each column: name start and end without the quotes, value start and end.
+    private final int[] offsets;
+    private final boolean[] escapedNames;
+    private final int size;
+
+    Index(String json, int[] offsets, boolean[] escapedNames, int size) {
+      this.json = json;
+      this.offsets = offsets;
+      this.escapedNames = escapedNames;
+      this.size = size;
+    }
+
+    String name(int column) {
+      return Scanner.decodeString(json, offsets[4 * column] - 1, offsets[4 * column + 1] + 1);
+    }
+
+    int valueStart(int column) {
+      return offsets[4 * column + 2];
+    }
+
+    int valueEnd(int column) {
+      return offsets[4 * column + 3];
+    }
+
+    int find(String column) {
+      for (int i = 0; i < size; i++) {
+        int start = offsets[4 * i];
+        int length = offsets[4 * i + 1] - start;
+        boolean matches = escapedNames[i]
+            ? name(i).equals(column)
+            : length == column.length() && json.regionMatches(start, column, 0, length);
+        if (matches) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    int require(String column) {
+      int found = find(column);
+      if (found < 0) {
+        throw new IllegalArgumentException("No column " + column + " in " + json);
+      }
+      return found;
+    }
+  }
+
+  /** A minimal JSON scanner that finds the members of one object without building a tree. */
+  private static final class Scanner {
+    private final String text;
+    private int position;
+
+    Scanner(String text) {
+      this.text = text;
+    }
+
+    Index scanObject() {
+      int[] offsets = new int[32];
+      boolean[] escapedNames = new boolean[8];
+      int size = 0;
+      skipWhitespace();
+      expect('{');
+      skipWhitespace();
+      if (peek() == '}') {
+        position++;
+        return new Index(text, offsets, escapedNames, 0);
+      }
+      while (true) {
+        if (4 * size == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+          escapedNames = Arrays.copyOf(escapedNames, escapedNames.length * 2);
+        }
+        skipWhitespace();
+        int nameStart = position + 1;
+        escapedNames[size] = skipString();
+        offsets[4 * size] = nameStart;
+        offsets[4 * size + 1] = position - 1;
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        offsets[4 * size + 2] = position;
+        skipValue();
+        offsets[4 * size + 3] = position;
+        size++;
+        skipWhitespace();
+        char next = next();
+        if (next == '}') {
+          return new Index(text, offsets, escapedNames, size);
+        } else if (next != ',') {
+          throw error("Expected ',' or '}'");
+        }
+      }
+    }
+
+    private void skipValue() {
+      char c = peek();
+      if (c == '"') {
+        skipString();
+      } else if (c == '{' || c == '[') {
+        skipContainer();
+      } else {
+        // A number, true, false or null.
+        int start = position;
+        while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+          position++;
+        }
+        if (position == start) {
+          throw error("Expected a value");
+        }
+      }
+    }
+
+    /** Skip a string, and return whether it has escape sequences. */
+    private boolean skipString() {
+      expect('"');
+      boolean escaped = false;
+      while (true) {
+        char c = next();
+        if (c == '"') {
+          return escaped;
+        } else if (c == '\\') {
+          escaped = true;
+          next();
+        }
+      }
+    }
+
+    private void skipContainer() {
+      int depth = 0;
+      do {
+        char c = peek();
+        if (c == '"') {
+          skipString();
+          continue;
+        }
+        position++;
+        if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+      } while (depth > 0);
+    }
+
+    private void skipWhitespace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private void expect(char expected) {
+      if (next() != expected) {
+        position--;
+        throw error("Expected '" + expected + "'");
+      }
+    }
+
+    private char peek() {
+      if (position >= text.length()) {
+        throw error("Unexpected end of JSON");
+      }
+      return text.charAt(position);
+    }
+
+    private char next() {
+      char c = peek();
+      position++;
+      return c;
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at " + position + " in " + text);
+    }
+
+    /** Decode the JSON string between the quotes at {@code start} and {@code end - 1}. */
+    static String decodeString(String text, int start, int end) {
+      int from = start + 1;
+      int to = end - 1;
+      int escape = text.indexOf('\\', from);
+      if (escape < 0 || escape >= to) {
+        return text.substring(from, to);
+      }
+      StringBuilder decoded = new StringBuilder(to - from);
+      for (int i = from; i < to; i++) {
+        char c = text.charAt(i);
+        if (c != '\\') {
+          decoded.append(c);
+          continue;
+        }
+        c = text.charAt(++i);
+        switch (c) {
+          case 'b':
+            decoded.append('\b');
+            break;
+          case 'f':
+            decoded.append('\f');
+            break;
+          case 'n':
+            decoded.append('\n');
+            break;
+          case 'r':
+            decoded.append('\r');
+            break;
+          case 't':
+            decoded.append('\t');
+            break;
+          case 'u':
+            decoded.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+            i += 4;
+            break;
+          default:
+            // \" \\ and \/
+            decoded.append(c);
+        }
+      }
+      return decoded.toString();
+    }
+  }
+}
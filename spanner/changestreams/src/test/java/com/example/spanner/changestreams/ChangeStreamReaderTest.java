@@ -0,0 +1,321 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.spanner.changestreams.PartitionCheckpoint.State;
+import com.example.spanner.changestreams.model.ChangeStreamRecord;
+import com.example.spanner.changestreams.model.ChildPartition;
+import com.example.spanner.changestreams.model.ChildPartitionsRecord;
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import com.example.spanner.changestreams.model.HeartbeatRecord;
+import com.example.spanner.changestreams.model.Mod;
+import com.example.spanner.changestreams.model.ModType;
+import com.example.spanner.changestreams.model.ValueCaptureType;
+import com.google.cloud.Timestamp;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for ChangeStreamReader, against a scripted change stream.
+ *
+ * <p>The stream starts with partitions A and B. A splits into A1 and A2, and A2 merges with B
+ * into C. Key 1 moves from A to A1, and key 2 from B to C.
+ */
+@RunWith(JUnit4.class)
+public class ChangeStreamReaderTest {
+
+  private Path checkpointFile;
+  private FakeQuery query;
+
+  private static Timestamp ts(int seconds) {
+    return Timestamp.ofTimeSecondsAndNanos(1_700_000_000L + seconds, 0);
+  }
+
+  private static DataChangeRecord change(int key, int seconds) {
+    return new DataChangeRecord(ts(seconds), "transaction" + seconds, true, "00000000", "Singers",
+        Collections.emptyList(),
+        Collections.singletonList(new Mod("{\"SingerId\":\"" + key + "\"}", null, "{}")),
+        ModType.UPDATE, ValueCaptureType.OLD_AND_NEW_VALUES, 1, 1);
+  }
+
+  private static ChildPartitionsRecord children(int seconds, ChildPartition... children) {
+    return new ChildPartitionsRecord(ts(seconds), "00000001", ImmutableList.copyOf(children));
+  }
+
+  private static ChildPartition child(String token, String... parents) {
+    return new ChildPartition(token, Sets.newHashSet(parents));
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    checkpointFile = Files.createTempFile("change-stream-reader-test", ".checkpoint");
+    query = new FakeQuery();
+    query.partition(null, children(0, child("A"), child("B")));
+    query.partition("A", change(1, 1), change(1, 2),
+        children(3, child("A1", "A"), child("A2", "A")));
+    query.partition("B", change(2, 1), new HeartbeatRecord(ts(2)),
+        children(6, child("C", "A2", "B")));
+    query.partition("A1", change(1, 5));
+    query.partition("A2", children(6, child("C", "A2", "B")));
+    query.partition("C", change(2, 7), change(2, 8));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(checkpointFile);
+  }
+
+  @Test
+  public void testFollowsSplitsAndMerges() throws Exception {
+    Map<String, List<Timestamp>> changesByKey = new HashMap<>();
+    ChangeStreamSink sink = (partitionToken, record) -> {
+      synchronized (changesByKey) {
+        changesByKey.computeIfAbsent(record.getMods().get(0).getKeysJson(),
+            key -> new ArrayList<>()).add(record.getCommitTimestamp());
+      }
+      return CompletableFuture.completedFuture(null);
+    };
+
+    FileCheckpointStore store = new FileCheckpointStore(checkpointFile);
+    try (ChangeStreamReader reader = new ChangeStreamReader(query, store, sink, 2, 10, 0)) {
+      reader.run(ts(0), ts(10));
+    }
+
+    assertEquals(ImmutableSet.of("null", "A", "B", "A1", "A2", "C"), query.tokensQueried());
+    assertTrue(query.indexOf("start C") > query.indexOf("end A2"));
+    assertTrue(query.indexOf("start C") > query.indexOf("end B"));
+    assertTrue(query.maxConcurrent.get() <= 2);
+    assertEquals(ImmutableList.of(ts(1), ts(2), ts(5)), changesByKey.get("{\"SingerId\":\"1\"}"));
+    assertEquals(ImmutableList.of(ts(1), ts(7), ts(8)), changesByKey.get("{\"SingerId\":\"2\"}"));
+
+    List<PartitionCheckpoint> checkpoints = new FileCheckpointStore(checkpointFile).load();
+    assertEquals(5, checkpoints.size());
+    for (PartitionCheckpoint checkpoint : checkpoints) {
+      assertEquals(State.FINISHED, checkpoint.getState());
+    }
+
+    // A finished stream is not read again.
+    FakeQuery rerun = new FakeQuery();
+    try (ChangeStreamReader reader = new ChangeStreamReader(
+        rerun, new FileCheckpointStore(checkpointFile), sink, 2, 10, 0)) {
+      reader.run(ts(0), ts(10));
+    }
+    assertEquals(ImmutableSet.of(), rerun.tokensQueried());
+  }
+
+  @Test
+  public void testResumesFromCheckpoint() throws Exception {
+    FileCheckpointStore store = new FileCheckpointStore(checkpointFile);
+    store.create(new PartitionCheckpoint("A", ImmutableSet.of(), ts(0), ts(2), State.RUNNING));
+    store.create(new PartitionCheckpoint("B", ImmutableSet.of(), ts(0), ts(6), State.FINISHED));
+    store.create(new PartitionCheckpoint("C", ImmutableSet.of("A2", "B"), ts(6), ts(6),
+        State.CREATED));
+
+    try (ChangeStreamReader reader = new ChangeStreamReader(query,
+        new FileCheckpointStore(checkpointFile),
+        (partitionToken, record) -> CompletableFuture.completedFuture(null), 4, 10, 0)) {
+      reader.run(ts(0), ts(10));
+    }
+
+    assertEquals(ImmutableSet.of("A", "A1", "A2", "C"), query.tokensQueried());
+    assertTrue(query.events.contains("start A at " + ts(2)));
+  }
+
+  @Test
+  public void testWaitsForSlowSink() throws Exception {
+    ScheduledExecutorService sinkExecutor = Executors.newSingleThreadScheduledExecutor();
+    AtomicInteger unacknowledged = new AtomicInteger();
+    AtomicInteger maxUnacknowledged = new AtomicInteger();
+    AtomicInteger acknowledged = new AtomicInteger();
+    ChangeStreamSink sink = (partitionToken, record) -> {
+      maxUnacknowledged.accumulateAndGet(unacknowledged.incrementAndGet(), Math::max);
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      sinkExecutor.schedule(() -> {
+        unacknowledged.decrementAndGet();
+        acknowledged.incrementAndGet();
+        future.complete(null);
+      }, 5, TimeUnit.MILLISECONDS);
+      return future;
+    };
+
+    try (ChangeStreamReader reader = new ChangeStreamReader(
+        query, new FileCheckpointStore(checkpointFile), sink, 4, 1, 0)) {
+      reader.run(ts(0), ts(10));
+    } finally {
+      sinkExecutor.shutdown();
+    }
+
+    assertEquals(1, maxUnacknowledged.get());
+    assertEquals(6, acknowledged.get());
+  }
+
+  @Test
+  public void testSinkFailureStopsReader() throws Exception {
+    CompletableFuture<Void> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("sink failed"));
+
+    try (ChangeStreamReader reader = new ChangeStreamReader(query,
+        new FileCheckpointStore(checkpointFile), (partitionToken, record) -> failed, 4, 10, 0)) {
+      reader.run(ts(0), ts(10));
+      fail("Expected the sink failure to stop the reader");
+    } catch (IllegalStateException e) {
+      assertEquals("sink failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testUnboundedRunSharesThreadsBetweenPartitions() throws Exception {
+    // A and B never return when queried without an end, so with one thread B is only read if A
+    // yields between slices.
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    Map<String, List<ChangeStreamRecord>> script = new HashMap<>();
+    script.put("A", ImmutableList.of(new HeartbeatRecord(ts(1)), new HeartbeatRecord(ts(3)),
+        children(5, child("C", "A", "B"))));
+    script.put("B", ImmutableList.of(new HeartbeatRecord(ts(2)), new HeartbeatRecord(ts(4)),
+        children(5, child("C", "A", "B"))));
+    script.put("C", ImmutableList.of(change(2, 6)));
+    ChangeStreamReader.PartitionQuery slicedQuery = (partitionToken, start, end, handler) -> {
+      events.add("start " + partitionToken + " at " + start);
+      if (partitionToken == null) {
+        handler.handle(Collections.singletonList(children(0, child("A"), child("B"))));
+        return;
+      }
+      assertTrue("Unbounded query of " + partitionToken, end != null);
+      for (ChangeStreamRecord record : script.get(partitionToken)) {
+        Timestamp timestamp = record instanceof HeartbeatRecord
+            ? ((HeartbeatRecord) record).getTimestamp()
+            : record instanceof ChildPartitionsRecord
+                ? ((ChildPartitionsRecord) record).getStartTimestamp()
+                : ((DataChangeRecord) record).getCommitTimestamp();
+        if (timestamp.compareTo(start) >= 0 && timestamp.compareTo(end) <= 0) {
+          handler.handle(Collections.singletonList(record));
+        }
+      }
+      events.add("end " + partitionToken);
+    };
+
+    CountDownLatch changed = new CountDownLatch(1);
+    List<Timestamp> changes = Collections.synchronizedList(new ArrayList<>());
+    ChangeStreamSink sink = (partitionToken, record) -> {
+      changes.add(record.getCommitTimestamp());
+      changed.countDown();
+      return CompletableFuture.completedFuture(null);
+    };
+
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    try (ChangeStreamReader reader = new ChangeStreamReader(slicedQuery,
+        new FileCheckpointStore(checkpointFile), sink, 1, 10, 0, 2000)) {
+      Thread runner = new Thread(() -> {
+        try {
+          reader.run(ts(0), null);
+        } catch (Exception e) {
+          failure.set(e);
+        }
+      });
+      runner.start();
+      assertTrue(changed.await(10, TimeUnit.SECONDS));
+      reader.close();
+      runner.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    assertEquals(null, failure.get());
+    assertEquals(ImmutableList.of(ts(6)), changes);
+    assertTrue(events.indexOf("start B at " + ts(0)) < events.indexOf("start A at " + ts(2)));
+    assertTrue(events.contains("start A at " + ts(4)));
+    assertTrue(events.contains("start C at " + ts(5)));
+  }
+
+  /** Replays scripted records, and records the queries it runs. */
+  private static class FakeQuery implements ChangeStreamReader.PartitionQuery {
+    private final Map<String, List<ChangeStreamRecord>> records = new HashMap<>();
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    void partition(String token, ChangeStreamRecord... partitionRecords) {
+      records.put(String.valueOf(token), ImmutableList.copyOf(partitionRecords));
+    }
+
+    /** Returns the position of the first event that starts with the prefix. */
+    int indexOf(String prefix) {
+      synchronized (events) {
+        for (int i = 0; i < events.size(); i++) {
+          if (events.get(i).startsWith(prefix)) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    /** Returns the partitions queried, checking that none was queried twice. */
+    Set<String> tokensQueried() {
+      List<String> tokens = new ArrayList<>();
+      synchronized (events) {
+        for (String event : events) {
+          if (event.startsWith("start ")) {
+            tokens.add(event.substring("start ".length(), event.indexOf(" at ")));
+          }
+        }
+      }
+      Set<String> distinct = ImmutableSet.copyOf(tokens);
+      assertEquals("Partitions queried more than once: " + tokens, distinct.size(), tokens.size());
+      return distinct;
+    }
+
+    @Override
+    public void run(String partitionToken, Timestamp start, Timestamp end,
+        ChangeStreamReader.RecordHandler handler) throws Exception {
+      events.add("start " + partitionToken + " at " + start);
+      maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+      try {
+        for (ChangeStreamRecord record : records.get(String.valueOf(partitionToken))) {
+          Thread.sleep(10);
+          handler.handle(Collections.singletonList(record));
+        }
+      } finally {
+        concurrent.decrementAndGet();
+        events.add("end " + partitionToken);
+      }
+    }
+  }
+}
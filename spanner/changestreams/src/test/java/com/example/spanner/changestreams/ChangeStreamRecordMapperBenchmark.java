@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.example.spanner.changestreams.model.ChangeStreamRecord;
+import com.example.spanner.changestreams.model.ColumnType;
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import com.example.spanner.changestreams.model.Mod;
+import com.example.spanner.changestreams.model.ModType;
+import com.example.spanner.changestreams.model.ModValues;
+import com.example.spanner.changestreams.model.TypeCode;
+import com.example.spanner.changestreams.model.ValueCaptureType;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how fast ChangeStreamRecordMapper maps a row with one data change record.
+ *
+ * <p>The record updates {@code mods} rows of a table with an INT64 key and eight other columns.
+ * {@code map} only maps the row, {@code mapAndReadKeys} also reads each key as a long, and {@code
+ * mapAndReadValues} reads every new value too. {@code mapByName} looks each column up by name
+ * and collects the lists with streams, as the mapper did before, as a baseline. Scores are per
+ * row; run with {@code -prof gc} to see the allocation rate.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.spanner.changestreams.ChangeStreamRecordMapperBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ChangeStreamRecordMapperBenchmark {
+
+  private static final int COLUMNS = 8;
+
+  @Param({"1", "10"})
+  private int mods;
+
+  private final ChangeStreamRecordMapper mapper = new ChangeStreamRecordMapper();
+  private Struct row;
+
+  @Setup
+  public void setUp() {
+    row = ChangeStreamRows.dataChangeRow(Timestamp.now(), mods, COLUMNS);
+  }
+
+  @Benchmark
+  public List<ChangeStreamRecord> map() {
+    return mapper.toChangeStreamRecords(row);
+  }
+
+  @Benchmark
+  public void mapAndReadKeys(Blackhole blackhole) {
+    for (ChangeStreamRecord record : mapper.toChangeStreamRecords(row)) {
+      for (Mod mod : ((DataChangeRecord) record).getMods()) {
+        blackhole.consume(mod.getKeys().getLong("SingerId"));
+      }
+    }
+  }
+
+  @Benchmark
+  public void mapAndReadValues(Blackhole blackhole) {
+    for (ChangeStreamRecord record : mapper.toChangeStreamRecords(row)) {
+      for (Mod mod : ((DataChangeRecord) record).getMods()) {
+        blackhole.consume(mod.getKeys().getLong("SingerId"));
+        ModValues values = mod.getNewValues();
+        for (int column = 0; column < COLUMNS; column++) {
+          blackhole.consume(values.getString("Column" + column));
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public List<DataChangeRecord> mapByName() {
+    return row.getStructList(0).stream()
+        .flatMap(changeRecord -> changeRecord.getStructList("data_change_record").stream())
+        .filter(struct -> !struct.isNull("commit_timestamp"))
+        .map(ChangeStreamRecordMapperBenchmark::dataChangeRecordByName)
+        .collect(Collectors.toList());
+  }
+
+  private static DataChangeRecord dataChangeRecordByName(Struct row) {
+    return new DataChangeRecord(
+        row.getTimestamp("commit_timestamp"),
+        row.getString("server_transaction_id"),
+        row.getBoolean("is_last_record_in_transaction_in_partition"),
+        row.getString("record_sequence"),
+        row.getString("table_name"),
+        row.getStructList("column_types").stream()
+            .map(struct -> new ColumnType(struct.getString("name"),
+                new TypeCode(jsonByName(struct, "type")), struct.getBoolean("is_primary_key"),
+                struct.getLong("ordinal_position")))
+            .collect(Collectors.toList()),
+        row.getStructList("mods").stream()
+            .map(struct -> new Mod(jsonByName(struct, "keys"),
+                struct.isNull("old_values") ? null : jsonByName(struct, "old_values"),
+                struct.isNull("new_values") ? null : jsonByName(struct, "new_values")))
+            .collect(Collectors.toList()),
+        ModType.valueOf(row.getString("mod_type")),
+        ValueCaptureType.valueOf(row.getString("value_capture_type")),
+        row.getLong("number_of_records_in_transaction"),
+        row.getLong("number_of_partitions_in_transaction"));
+  }
+
+  private static String jsonByName(Struct struct, String columnName) {
+    return struct.getColumnType(columnName).equals(Type.json())
+        ? struct.getJson(columnName) : struct.getString(columnName);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ChangeStreamRecordMapperBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.spanner.changestreams.model.ChangeStreamRecord;
+import com.example.spanner.changestreams.model.ChildPartition;
+import com.example.spanner.changestreams.model.ChildPartitionsRecord;
+import com.example.spanner.changestreams.model.ColumnType;
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import com.example.spanner.changestreams.model.HeartbeatRecord;
+import com.example.spanner.changestreams.model.Mod;
+import com.example.spanner.changestreams.model.ModType;
+import com.example.spanner.changestreams.model.ModValues;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for ChangeStreamRecordMapper. */
+@RunWith(JUnit4.class)
+public class ChangeStreamRecordMapperTest {
+
+  private static final Timestamp TIMESTAMP = Timestamp.ofTimeSecondsAndNanos(1_700_000_000L, 0);
+
+  private final ChangeStreamRecordMapper mapper = new ChangeStreamRecordMapper();
+
+  @Test
+  public void testDataChangeRecord() {
+    List<ChangeStreamRecord> records =
+        mapper.toChangeStreamRecords(ChangeStreamRows.dataChangeRow(TIMESTAMP, 2, 4));
+
+    assertEquals(1, records.size());
+    DataChangeRecord record = (DataChangeRecord) records.get(0);
+    assertEquals(TIMESTAMP, record.getCommitTimestamp());
+    assertEquals("Singers", record.getTableName());
+    assertEquals(ModType.UPDATE, record.getModType());
+    assertEquals(5, record.getRowType().size());
+    ColumnType key = record.getRowType().get(0);
+    assertEquals("SingerId", key.getName());
+    assertEquals("{\"code\":\"INT64\"}", key.getType().getCode());
+    assertTrue(key.isPrimaryKey());
+
+    assertEquals(2, record.getMods().size());
+    Mod mod = record.getMods().get(1);
+    assertEquals(1001L, mod.getKeys().getLong("SingerId"));
+    ModValues newValues = mod.getNewValues();
+    assertEquals("value 2 of \"column\" 0", newValues.getString("Column0"));
+    assertEquals(2001L, newValues.getLong("Column1"));
+    assertEquals(2.5, newValues.getDouble("Column2"), 0);
+    assertTrue(newValues.getBoolean("Column3"));
+    assertFalse(mod.getOldValues().getBoolean("Column3"));
+  }
+
+  @Test
+  public void testHeartbeatAndChildPartitionsRecords() {
+    List<ChangeStreamRecord> heartbeats =
+        mapper.toChangeStreamRecords(ChangeStreamRows.heartbeatRow(TIMESTAMP));
+    assertEquals(Collections.singletonList(new HeartbeatRecord(TIMESTAMP)), heartbeats);
+
+    List<ChangeStreamRecord> children = mapper.toChangeStreamRecords(
+        ChangeStreamRows.childPartitionsRow(TIMESTAMP, "parent", "child1", "child2"));
+    assertEquals(1, children.size());
+    ChildPartitionsRecord record = (ChildPartitionsRecord) children.get(0);
+    assertEquals(TIMESTAMP, record.getStartTimestamp());
+    assertEquals(2, record.getChildPartitions().size());
+    ChildPartition child = record.getChildPartitions().get(1);
+    assertEquals("child2", child.getToken());
+    assertEquals(ImmutableSet.of("parent"), child.getParentTokens());
+  }
+
+  @Test
+  public void testInterleavedResultSetsShareColumnIndexes() {
+    // Each result set has its own instances of the row types, and the partitions that share a
+    // mapper read their rows in turn.
+    Timestamp later = Timestamp.ofTimeSecondsAndNanos(TIMESTAMP.getSeconds() + 1, 0);
+    mapper.toChangeStreamRecords(ChangeStreamRows.dataChangeRow(TIMESTAMP, 1, 2));
+    mapper.toChangeStreamRecords(ChangeStreamRows.heartbeatRow(TIMESTAMP));
+    long lookups = mapper.getColumnLookups();
+
+    for (int i = 0; i < 10; i++) {
+      List<ChangeStreamRecord> first =
+          mapper.toChangeStreamRecords(ChangeStreamRows.dataChangeRow(TIMESTAMP, 1, 2));
+      List<ChangeStreamRecord> second =
+          mapper.toChangeStreamRecords(ChangeStreamRows.dataChangeRow(later, 2, 2));
+      List<ChangeStreamRecord> heartbeat =
+          mapper.toChangeStreamRecords(ChangeStreamRows.heartbeatRow(later));
+      assertEquals(TIMESTAMP, ((DataChangeRecord) first.get(0)).getCommitTimestamp());
+      assertEquals(2, ((DataChangeRecord) second.get(0)).getMods().size());
+      assertEquals(Collections.singletonList(new HeartbeatRecord(later)), heartbeat);
+    }
+    assertEquals(lookups, mapper.getColumnLookups());
+  }
+
+  @Test
+  public void testColumnsInAnotherOrderOrAsStrings() {
+    // Older backends return the JSON columns as strings, and the columns need not be in the
+    // order of an earlier result.
+    Type modType = Type.struct(
+        StructField.of("old_values", Type.string()),
+        StructField.of("new_values", Type.string()),
+        StructField.of("keys", Type.string()));
+    Struct mod = Struct.newBuilder()
+        .set("old_values").to((String) null)
+        .set("new_values").to("{\"FirstName\":\"Marc\"}")
+        .set("keys").to("{\"SingerId\":\"1\"}")
+        .build();
+    Struct dataChangeRecord = Struct.newBuilder()
+        .set("number_of_partitions_in_transaction").to(1L)
+        .set("number_of_records_in_transaction").to(1L)
+        .set("value_capture_type").to("OLD_AND_NEW_VALUES")
+        .set("mod_type").to("INSERT")
+        .set("mods").toStructArray(modType, Collections.singletonList(mod))
+        .set("column_types").toStructArray(ChangeStreamRows.COLUMN_TYPE, Collections.emptyList())
+        .set("table_name").to("Singers")
+        .set("is_last_record_in_transaction_in_partition").to(true)
+        .set("server_transaction_id").to("transaction")
+        .set("record_sequence").to("00000000")
+        .set("commit_timestamp").to(TIMESTAMP)
+        .build();
+    Type changeRecordType = Type.struct(
+        StructField.of("child_partitions_record",
+            Type.array(ChangeStreamRows.CHILD_PARTITIONS_RECORD)),
+        StructField.of("heartbeat_record", Type.array(ChangeStreamRows.HEARTBEAT_RECORD)),
+        StructField.of("data_change_record", Type.array(dataChangeRecord.getType())));
+    Struct changeRecord = Struct.newBuilder()
+        .set("child_partitions_record")
+        .toStructArray(ChangeStreamRows.CHILD_PARTITIONS_RECORD, Collections.emptyList())
+        .set("heartbeat_record")
+        .toStructArray(ChangeStreamRows.HEARTBEAT_RECORD, Collections.emptyList())
+        .set("data_change_record")
+        .toStructArray(dataChangeRecord.getType(), Collections.singletonList(dataChangeRecord))
+        .build();
+    Struct row = Struct.newBuilder()
+        .set("ChangeRecord")
+        .toStructArray(changeRecordType, Collections.singletonList(changeRecord))
+        .build();
+
+    // Map a row in the usual shape first, so that the mapper has to notice the new one.
+    mapper.toChangeStreamRecords(ChangeStreamRows.dataChangeRow(TIMESTAMP, 1, 1));
+    List<ChangeStreamRecord> records = mapper.toChangeStreamRecords(row);
+
+    assertEquals(1, records.size());
+    DataChangeRecord record = (DataChangeRecord) records.get(0);
+    assertEquals(ModType.INSERT, record.getModType());
+    Mod mapped = record.getMods().get(0);
+    assertEquals("{\"SingerId\":\"1\"}", mapped.getKeysJson());
+    assertNull(mapped.getOldValuesJson());
+    assertNull(mapped.getOldValues());
+    assertEquals("Marc", mapped.getNewValues().getString("FirstName"));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.cloud.spanner.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Builds rows shaped like the results of a change stream query. */
+final class ChangeStreamRows {
+
+  static final Type COLUMN_TYPE = Type.struct(
+      StructField.of("name", Type.string()),
+      StructField.of("type", Type.json()),
+      StructField.of("is_primary_key", Type.bool()),
+      StructField.of("ordinal_position", Type.int64()));
+
+  static final Type MOD = Type.struct(
+      StructField.of("keys", Type.json()),
+      StructField.of("new_values", Type.json()),
+      StructField.of("old_values", Type.json()));
+
+  static final Type DATA_CHANGE_RECORD = Type.struct(
+      StructField.of("commit_timestamp", Type.timestamp()),
+      StructField.of("record_sequence", Type.string()),
+      StructField.of("server_transaction_id", Type.string()),
+      StructField.of("is_last_record_in_transaction_in_partition", Type.bool()),
+      StructField.of("table_name", Type.string()),
+      StructField.of("column_types", Type.array(COLUMN_TYPE)),
+      StructField.of("mods", Type.array(MOD)),
+      StructField.of("mod_type", Type.string()),
+      StructField.of("value_capture_type", Type.string()),
+      StructField.of("number_of_records_in_transaction", Type.int64()),
+      StructField.of("number_of_partitions_in_transaction", Type.int64()));
+
+  static final Type HEARTBEAT_RECORD = Type.struct(
+      StructField.of("timestamp", Type.timestamp()));
+
+  static final Type CHILD_PARTITION = Type.struct(
+      StructField.of("token", Type.string()),
+      StructField.of("parent_partition_tokens", Type.array(Type.string())));
+
+  static final Type CHILD_PARTITIONS_RECORD = Type.struct(
+      StructField.of("start_timestamp", Type.timestamp()),
+      StructField.of("record_sequence", Type.string()),
+      StructField.of("child_partitions", Type.array(CHILD_PARTITION)));
+
+  static final Type CHANGE_RECORD = Type.struct(
+      StructField.of("data_change_record", Type.array(DATA_CHANGE_RECORD)),
+      StructField.of("heartbeat_record", Type.array(HEARTBEAT_RECORD)),
+      StructField.of("child_partitions_record", Type.array(CHILD_PARTITIONS_RECORD)));
+
+  // The types of the non-key columns, in turn.
+  private static final String[] COLUMN_TYPES = {"STRING", "INT64", "FLOAT64", "BOOL"};
+
+  private ChangeStreamRows() {}
+
+  /**
+   * Returns a row with one data change record that updates {@code mods} rows of a Singers table.
+   * The table has an INT64 key and {@code columns} other columns of mixed types.
+   */
+  static Struct dataChangeRow(Timestamp commitTimestamp, int mods, int columns) {
+    List<Struct> columnTypes = new ArrayList<>();
+    columnTypes.add(columnType("SingerId", "INT64", true, 1));
+    for (int column = 0; column < columns; column++) {
+      columnTypes.add(columnType("Column" + column, COLUMN_TYPES[column % COLUMN_TYPES.length],
+          false, column + 2));
+    }
+    List<Struct> modStructs = new ArrayList<>();
+    for (int mod = 0; mod < mods; mod++) {
+      modStructs.add(Struct.newBuilder()
+          .set("keys").to(Value.json("{\"SingerId\":\"" + (1000 + mod) + "\"}"))
+          .set("new_values").to(Value.json(values(columns, mod + 1)))
+          .set("old_values").to(Value.json(values(columns, mod)))
+          .build());
+    }
+    Struct dataChangeRecord = Struct.newBuilder()
+        .set("commit_timestamp").to(commitTimestamp)
+        .set("record_sequence").to("00000000")
+        .set("server_transaction_id").to("MTA4NjQ4NzA0ODM3NTQ5OTkxNQ==")
+        .set("is_last_record_in_transaction_in_partition").to(true)
+        .set("table_name").to("Singers")
+        .set("column_types").toStructArray(COLUMN_TYPE, columnTypes)
+        .set("mods").toStructArray(MOD, modStructs)
+        .set("mod_type").to("UPDATE")
+        .set("value_capture_type").to("OLD_AND_NEW_VALUES")
+        .set("number_of_records_in_transaction").to(1L)
+        .set("number_of_partitions_in_transaction").to(1L)
+        .build();
+    return row(Collections.singletonList(dataChangeRecord), Collections.emptyList(),
+        Collections.emptyList());
+  }
+
+  /** Returns a row with one heartbeat record. */
+  static Struct heartbeatRow(Timestamp timestamp) {
+    return row(Collections.emptyList(),
+        Collections.singletonList(Struct.newBuilder().set("timestamp").to(timestamp).build()),
+        Collections.emptyList());
+  }
+
+  /** Returns a row with one child partitions record, with a child for each token. */
+  static Struct childPartitionsRow(Timestamp startTimestamp, String parentToken,
+      String... tokens) {
+    List<Struct> children = new ArrayList<>();
+    for (String token : tokens) {
+      children.add(Struct.newBuilder()
+          .set("token").to(token)
+          .set("parent_partition_tokens").toStringArray(Collections.singletonList(parentToken))
+          .build());
+    }
+    Struct childPartitionsRecord = Struct.newBuilder()
+        .set("start_timestamp").to(startTimestamp)
+        .set("record_sequence").to("00000001")
+        .set("child_partitions").toStructArray(CHILD_PARTITION, children)
+        .build();
+    return row(Collections.emptyList(), Collections.emptyList(),
+        Collections.singletonList(childPartitionsRecord));
+  }
+
+  private static Struct columnType(String name, String code, boolean isPrimaryKey,
+      long position) {
+    return Struct.newBuilder()
+        .set("name").to(name)
+        .set("type").to(Value.json("{\"code\":\"" + code + "\"}"))
+        .set("is_primary_key").to(isPrimaryKey)
+        .set("ordinal_position").to(position)
+        .build();
+  }
+
+  private static String values(int columns, int version) {
+    StringBuilder json = new StringBuilder("{");
+    for (int column = 0; column < columns; column++) {
+      if (column > 0) {
+        json.append(',');
+      }
+      json.append("\"Column").append(column).append("\":");
+      switch (COLUMN_TYPES[column % COLUMN_TYPES.length]) {
+        case "STRING":
+          json.append("\"value ").append(version).append(" of \\\"column\\\" ").append(column)
+              .append('"');
+          break;
+        case "INT64":
+          json.append('"').append(version * 1000L + column).append('"');
+          break;
+        case "FLOAT64":
+          json.append(version + 0.5);
+          break;
+        default:
+          json.append(version % 2 == 0);
+      }
+    }
+    return json.append('}').toString();
+  }
+
+  private static Struct row(List<Struct> dataChangeRecords, List<Struct> heartbeatRecords,
+      List<Struct> childPartitionsRecords) {
+    Struct changeRecord = Struct.newBuilder()
+        .set("data_change_record").toStructArray(DATA_CHANGE_RECORD, dataChangeRecords)
+        .set("heartbeat_record").toStructArray(HEARTBEAT_RECORD, heartbeatRecords)
+        .set("child_partitions_record")
+        .toStructArray(CHILD_PARTITIONS_RECORD, childPartitionsRecords)
+        .build();
+    return Struct.newBuilder()
+        .set("ChangeRecord").toStructArray(CHANGE_RECORD, Collections.singletonList(changeRecord))
+        .build();
+  }
+}
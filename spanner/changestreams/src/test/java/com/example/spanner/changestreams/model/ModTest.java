@@ -0,0 +1,47 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for Mod. */
+@RunWith(JUnit4.class)
+public class ModTest {
+
+  @Test
+  public void testInsertHasNoOldValues() {
+    // Inserts return their old values as an empty string.
+    Mod mod = new Mod("{\"SingerId\":\"1\"}", "", "{\"FirstName\":\"Marc\"}");
+
+    assertEquals(1L, mod.getKeys().getLong("SingerId"));
+    assertNull(mod.getOldValues());
+    assertEquals("Marc", mod.getNewValues().getString("FirstName"));
+  }
+
+  @Test
+  public void testNullOrBlankValues() {
+    Mod mod = new Mod("{\"SingerId\":\"1\"}", null, " ");
+
+    assertNull(mod.getOldValues());
+    assertNull(mod.getNewValues());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for ModValues. */
+@RunWith(JUnit4.class)
+public class ModValuesTest {
+
+  @Test
+  public void testTypedValues() {
+    ModValues values = new ModValues("{\"SingerId\":\"42\",\"Rating\":4.5,\"Revenue\":\"1.25\","
+        + "\"Active\":true,\"Albums\":3,\"Nickname\":null}");
+
+    assertEquals(6, values.size());
+    assertEquals(42L, values.getLong("SingerId"));
+    assertEquals(3L, values.getLong("Albums"));
+    assertEquals(4.5, values.getDouble("Rating"), 0);
+    assertEquals(new BigDecimal("1.25"), values.getBigDecimal("Revenue"));
+    assertTrue(values.getBoolean("Active"));
+    assertTrue(values.isNull("Nickname"));
+    assertFalse(values.isNull("SingerId"));
+    assertNull(values.getString("Nickname"));
+    assertEquals("4.5", values.getString("Rating"));
+  }
+
+  @Test
+  public void testNumericKeepsPrecision() {
+    ModValues values = new ModValues(
+        "{\"Revenue\":\"12345678901234567890.123456789\",\"Budget\":99999999999999999999}");
+
+    assertEquals(new BigDecimal("12345678901234567890.123456789"),
+        values.getBigDecimal("Revenue"));
+    assertEquals(new BigDecimal("99999999999999999999"), values.getBigDecimal("Budget"));
+  }
+
+  @Test
+  public void testStringsAndNames() {
+    ModValues values = new ModValues(
+        " { \"First\\\"Name\" : \"Marc \\\"\\u00e9\\\\\\n\" , \"LastName\" : \"Richards\" } ");
+
+    assertEquals(Arrays.asList("First\"Name", "LastName"), values.getColumnNames());
+    assertEquals("Marc \"é\\\n", values.getString("First\"Name"));
+    assertEquals("Richards", values.getString("LastName"));
+    assertTrue(values.contains("LastName"));
+    assertFalse(values.contains("Last"));
+    assertFalse(values.contains("FirstName"));
+  }
+
+  @Test
+  public void testNestedValues() {
+    ModValues values = new ModValues("{\"Tags\":[\"a]\",\"b\\\"\"],\"Info\":{\"x\":[1,{\"y\":2}]},"
+        + "\"Empty\":{},\"Id\":\"7\"}");
+
+    assertEquals("[\"a]\",\"b\\\"\"]", values.getJson("Tags"));
+    assertEquals("{\"x\":[1,{\"y\":2}]}", values.getJson("Info"));
+    assertEquals("{}", values.getJson("Empty"));
+    assertEquals(7L, values.getLong("Id"));
+    assertEquals(0, new ModValues("{}").size());
+  }
+
+  @Test
+  public void testErrors() {
+    ModValues values = new ModValues("{\"Nickname\":null}");
+    try {
+      values.getLong("Nickname");
+      fail("Expected a null value to fail");
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    try {
+      values.getString("Missing");
+      fail("Expected a missing column to fail");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      new ModValues("{\"Id\":\"7\"").size();
+      fail("Expected truncated JSON to fail");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
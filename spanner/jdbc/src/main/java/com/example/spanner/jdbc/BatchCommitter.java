@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import com.example.spanner.jdbc.CsvLoadPlan.Row;
+import com.example.spanner.jdbc.CsvLoadPlan.RowSink;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.MutationGroup;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Commits batches on a fixed pool of workers. {@link #submit} blocks while too many batches
+ * are in flight, which keeps the reader from running ahead of Spanner. **/
+class BatchCommitter implements AutoCloseable {
+  static final int PROGRESS_INTERVAL_SECONDS = 10;
+
+  private final Writer writer;
+  private final ExecutorService workers;
+  private final Semaphore inFlight;
+  private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+  private final Path checkpointFile;
+  // Batches can finish out of order, so only the end of the longest run of committed batches
+  // is checkpointed.
+  private final TreeMap<Long, Long> committedBatches = new TreeMap<>();
+  private long nextSequence;
+  private long nextToCheckpoint;
+
+  private final AtomicLong rowsWritten = new AtomicLong();
+  private final long startNanos = System.nanoTime();
+  private long lastReportNanos = startNanos;
+
+  /** Writes one batch to the database. Called concurrently from the workers. **/
+  interface Writer {
+    void write(Batch batch) throws Exception;
+  }
+
+  BatchCommitter(Writer writer, int workerCount, Path checkpointFile) {
+    this.writer = writer;
+    this.workers = Executors.newFixedThreadPool(workerCount);
+    this.inFlight = new Semaphore(2 * workerCount);
+    this.checkpointFile = checkpointFile;
+  }
+
+  /** Return the number of the last record committed by a previous run, or 0 **/
+  static long readCheckpoint(Path checkpointFile) throws IOException {
+    if (checkpointFile == null || !Files.exists(checkpointFile)) {
+      return 0;
+    }
+    return Long.parseLong(new String(Files.readAllBytes(checkpointFile),
+        StandardCharsets.UTF_8).trim());
+  }
+
+  void submit(Batch batch) throws Exception {
+    inFlight.acquire();
+    throwIfFailed();
+    batch.sequence = nextSequence++;
+    workers.execute(() -> {
+      try {
+        writer.write(batch);
+        rowsWritten.addAndGet(batch.rows);
+        batchCommitted(batch);
+      } catch (Exception e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        inFlight.release();
+      }
+    });
+    reportProgress();
+  }
+
+  synchronized void batchCommitted(Batch batch) throws IOException {
+    committedBatches.put(batch.sequence, batch.lastRecordNumber);
+    Long lastRecordNumber = null;
+    while (committedBatches.containsKey(nextToCheckpoint)) {
+      lastRecordNumber = committedBatches.remove(nextToCheckpoint++);
+    }
+    if (checkpointFile != null && lastRecordNumber != null) {
+      Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+      Files.write(temp, Long.toString(lastRecordNumber).getBytes(StandardCharsets.UTF_8));
+      Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  private void reportProgress() {
+    long now = System.nanoTime();
+    if (now - lastReportNanos >= TimeUnit.SECONDS.toNanos(PROGRESS_INTERVAL_SECONDS)) {
+      lastReportNanos = now;
+      System.out.printf("%d rows written (%.0f rows/s)%n", rowsWritten.get(),
+          rowsWritten.get() / ((now - startNanos) / 1e9));
+    }
+  }
+
+  private void throwIfFailed() throws Exception {
+    // Thrown once, as try-with-resources can't suppress the exception that submit threw in the
+    // one that close would throw again.
+    Exception e = failure.getAndSet(null);
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  /** Wait for the batches in flight, then report the load rate **/
+  @Override
+  public void close() throws Exception {
+    workers.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    throwIfFailed();
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    System.out.printf("Wrote %d rows in %.1f seconds (%.0f rows/s)%n", rowsWritten.get(),
+        seconds, rowsWritten.get() / seconds);
+  }
+
+  /** Mutations, or mutation groups, to commit together **/
+  static class Batch {
+    final List<Mutation> mutations = new ArrayList<>();
+    final List<MutationGroup> groups = new ArrayList<>();
+    int cells;
+    int bytes;
+    int rows;
+    long lastRecordNumber;
+    long sequence;
+
+    boolean isEmpty() {
+      return rows == 0;
+    }
+
+    /** An empty batch takes anything, so that a row larger than the limits is still written **/
+    boolean fits(int moreCells, int moreBytes, int maxMutations, int maxBytes) {
+      return isEmpty() || (cells + moreCells <= maxMutations && bytes + moreBytes <= maxBytes);
+    }
+
+    void add(Mutation mutation, int cells, int bytes, int rows, long recordNumber) {
+      mutations.add(mutation);
+      this.cells += cells;
+      this.bytes += bytes;
+      this.rows += rows;
+      this.lastRecordNumber = recordNumber;
+    }
+
+    void addGroup(MutationGroup group, Batch rows) {
+      groups.add(group);
+      this.cells += rows.cells;
+      this.bytes += rows.bytes;
+      this.rows += rows.rows;
+      this.lastRecordNumber = rows.lastRecordNumber;
+    }
+  }
+
+  /** Cuts rows into size-bounded batches and submits them to the committer **/
+  static class Batcher implements RowSink {
+    private final BatchCommitter committer;
+    private final int maxMutations;
+    private final int maxBytes;
+    private final boolean groupMode;
+    private Batch batch = new Batch();
+    // In group mode, consecutive rows with the same leading key columns, such as a parent row and
+    // its interleaved children, are written together as one MutationGroup.
+    private Batch group = new Batch();
+    private List<String> groupKey;
+
+    Batcher(BatchCommitter committer, int maxMutations, int maxBytes, boolean groupMode) {
+      this.committer = committer;
+      this.maxMutations = maxMutations;
+      this.maxBytes = maxBytes;
+      this.groupMode = groupMode;
+    }
+
+    @Override
+    public void add(Row row) throws Exception {
+      if (!groupMode) {
+        if (!batch.fits(row.cells, row.bytes, maxMutations, maxBytes)) {
+          committer.submit(batch);
+          batch = new Batch();
+        }
+        batch.add(row.mutation, row.cells, row.bytes, 1, row.recordNumber);
+        return;
+      }
+      if (groupKey != null && !groupKey.equals(row.groupKey)) {
+        addGroup();
+      }
+      // A group is committed atomically, so it can't be split to stay under the limits.
+      if (!group.fits(row.cells, row.bytes, maxMutations, maxBytes)) {
+        throw new IllegalStateException("The rows with group key " + row.groupKey
+            + " exceed " + maxMutations + " mutations or " + maxBytes + " bytes at record "
+            + row.recordNumber + ". Group by fewer key columns or raise the commit limits.");
+      }
+      groupKey = row.groupKey;
+      group.add(row.mutation, row.cells, row.bytes, 1, row.recordNumber);
+    }
+
+    /** Submit the rows that are still buffered **/
+    void finish() throws Exception {
+      if (!group.isEmpty()) {
+        addGroup();
+      }
+      if (!batch.isEmpty()) {
+        committer.submit(batch);
+      }
+    }
+
+    /** Add the complete mutation group to the batch **/
+    private void addGroup() throws Exception {
+      if (!batch.fits(group.cells, group.bytes, maxMutations, maxBytes)) {
+        committer.submit(batch);
+        batch = new Batch();
+      }
+      batch.addGroup(MutationGroup.of(group.mutations), group);
+      group = new Batch();
+    }
+  }
+}
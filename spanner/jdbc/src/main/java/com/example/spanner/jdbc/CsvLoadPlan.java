@@ -0,0 +1,223 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Mutation.WriteBuilder;
+import com.google.cloud.spanner.Value;
+import com.google.cloud.spanner.ValueBinder;
+import com.google.spanner.v1.TypeCode;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.csv.CSVRecord;
+
+/** How to turn the records of one file into mutations, worked out once before loading.
+ * Columns are indexed by CSV position, so a record is converted without name lookups. **/
+class CsvLoadPlan {
+  static final int MUTATION_VALUE_OVERHEAD_BYTES = 16;
+  static final int PARSE_CHUNK_RECORDS = 1000;
+
+  final String tableName;
+  // Indexed by CSV position. A null name means the CSV column is not loaded.
+  private final String[] columnNames;
+  private final ColumnDecoder[] decoders;
+  private final int[] columnBytes;
+  // The CSV positions of the columns that make up the group key.
+  private final int[] groupKeyPositions;
+
+  /** Plan a load of {@code headers}, or of the table columns in order if there is no header.
+   * Rows are grouped by the values of {@code groupKeyColumns}, which must all be in the file. **/
+  CsvLoadPlan(String tableName, Map<String, TypeCode> tableColumns, List<String> headers,
+      List<String> groupKeyColumns) {
+    this.tableName = tableName;
+    List<String> csvColumns = headers != null ? headers : new ArrayList<>(tableColumns.keySet());
+    columnNames = new String[csvColumns.size()];
+    decoders = new ColumnDecoder[csvColumns.size()];
+    columnBytes = new int[csvColumns.size()];
+    for (int i = 0; i < csvColumns.size(); i++) {
+      String columnName = csvColumns.get(i);
+      TypeCode columnType = tableColumns.get(columnName);
+      if (columnType != null) {
+        columnNames[i] = columnName;
+        decoders[i] = decoderFor(columnType);
+        columnBytes[i] = columnName.length() + MUTATION_VALUE_OVERHEAD_BYTES;
+      }
+    }
+    groupKeyPositions = new int[groupKeyColumns.size()];
+    for (int i = 0; i < groupKeyPositions.length; i++) {
+      groupKeyPositions[i] = csvColumns.indexOf(groupKeyColumns.get(i));
+      // Without it every row would have the same key, and the whole file would be one group.
+      if (groupKeyPositions[i] < 0) {
+        throw new IllegalArgumentException(
+            "Group key column " + groupKeyColumns.get(i) + " is not in the file.");
+      }
+    }
+  }
+
+  /** Binds one CSV value to a column of the mutation being built **/
+  interface ColumnDecoder {
+    void decode(ValueBinder<WriteBuilder> column, String value);
+  }
+
+  /** Return the decoder for values of the given column type **/
+  static ColumnDecoder decoderFor(TypeCode columnType) {
+    switch (columnType) {
+      case STRING:
+        return (column, value) -> column.to(value);
+      case BYTES:
+        // BYTES values are base64-encoded, as in Spanner's own CSV exports.
+        return (column, value) -> column.to(ByteArray.fromBase64(value));
+      case INT64:
+        return (column, value) -> column.to(Long.parseLong(value));
+      case FLOAT64:
+        return (column, value) -> column.to(Double.parseDouble(value));
+      case BOOL:
+        return (column, value) -> column.to(Boolean.parseBoolean(value));
+      case NUMERIC:
+        return (column, value) -> column.to(Value.numeric(new BigDecimal(value)));
+      case DATE:
+        return (column, value) -> column.to(com.google.cloud.Date.parseDate(value));
+      case TIMESTAMP:
+        return (column, value) -> column.to(com.google.cloud.Timestamp.parseTimestamp(value));
+      default:
+        throw new IllegalArgumentException("Unsupported column data type: " + columnType);
+    }
+  }
+
+  /** Convert a CSV record to an insert-or-update mutation. Null values are left out, so that
+   * they do not overwrite the column. **/
+  Row toRow(CSVRecord record) {
+    int cells = 0;
+    int bytes = 0;
+    WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
+    int columns = Math.min(record.size(), columnNames.length);
+    for (int i = 0; i < columns; i++) {
+      String value = record.get(i);
+      if (value == null || columnNames[i] == null) {
+        continue;
+      }
+      value = value.trim();
+      decoders[i].decode(builder.set(columnNames[i]), value);
+      // A rough size of the value on the wire, used to keep commits under the size limit.
+      cells++;
+      bytes += columnBytes[i] + value.length();
+    }
+    List<String> groupKey = null;
+    if (groupKeyPositions.length > 0) {
+      groupKey = new ArrayList<>(groupKeyPositions.length);
+      for (int position : groupKeyPositions) {
+        groupKey.add(position < record.size() ? record.get(position) : null);
+      }
+    }
+    return new Row(builder.build(), cells, bytes, groupKey, record.getRecordNumber());
+  }
+
+  List<Row> toRows(List<CSVRecord> records) {
+    List<Row> rows = new ArrayList<>(records.size());
+    for (CSVRecord record : records) {
+      rows.add(toRow(record));
+    }
+    return rows;
+  }
+
+  /** Convert the records after {@code resumeAfter} to rows, and pass them to the sink in order.
+   * With more than one thread, chunks of records are converted in parallel while the CSV parser
+   * keeps reading the file on the calling thread. **/
+  void convert(Iterable<CSVRecord> records, long resumeAfter, int threads, RowSink sink)
+      throws Exception {
+    if (threads <= 1) {
+      for (CSVRecord record : records) {
+        if (record.getRecordNumber() > resumeAfter) {
+          sink.add(toRow(record));
+        }
+      }
+      return;
+    }
+    ExecutorService converters = Executors.newFixedThreadPool(threads);
+    Deque<Future<List<Row>>> pending = new ArrayDeque<>();
+    try {
+      List<CSVRecord> chunk = new ArrayList<>(PARSE_CHUNK_RECORDS);
+      for (CSVRecord record : records) {
+        if (record.getRecordNumber() <= resumeAfter) {
+          continue;
+        }
+        chunk.add(record);
+        if (chunk.size() == PARSE_CHUNK_RECORDS) {
+          List<CSVRecord> toConvert = chunk;
+          pending.add(converters.submit(() -> toRows(toConvert)));
+          chunk = new ArrayList<>(PARSE_CHUNK_RECORDS);
+          // Keep two chunks per thread in flight, and wait for the oldest beyond that.
+          if (pending.size() >= 2 * threads) {
+            addAll(pending.remove(), sink);
+          }
+        }
+      }
+      if (!chunk.isEmpty()) {
+        List<CSVRecord> toConvert = chunk;
+        pending.add(converters.submit(() -> toRows(toConvert)));
+      }
+      while (!pending.isEmpty()) {
+        addAll(pending.remove(), sink);
+      }
+    } finally {
+      converters.shutdownNow();
+    }
+  }
+
+  private static void addAll(Future<List<Row>> rows, RowSink sink) throws Exception {
+    List<Row> converted;
+    try {
+      converted = rows.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+    for (Row row : converted) {
+      sink.add(row);
+    }
+  }
+
+  /** A CSV record converted to a mutation, with what it adds to a commit **/
+  static class Row {
+    final Mutation mutation;
+    final int cells;
+    final int bytes;
+    final List<String> groupKey;
+    final long recordNumber;
+
+    Row(Mutation mutation, int cells, int bytes, List<String> groupKey, long recordNumber) {
+      this.mutation = mutation;
+      this.cells = cells;
+      this.bytes = bytes;
+      this.groupKey = groupKey;
+      this.recordNumber = recordNumber;
+    }
+  }
+
+  /** Receives converted rows in record order **/
+  interface RowSink {
+    void add(Row row) throws Exception;
+  }
+}
@@ -17,16 +17,20 @@
 package com.example.spanner.jdbc;
 
 //[START spanner_jdbc_load_csv]
-import com.google.cloud.spanner.Mutation;
-import com.google.cloud.spanner.Mutation.WriteBuilder;
+import com.example.spanner.jdbc.BatchCommitter.Batch;
+import com.example.spanner.jdbc.BatchCommitter.Batcher;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.DatabaseId;
 import com.google.cloud.spanner.Spanner;
 import com.google.cloud.spanner.SpannerOptions;
-import com.google.cloud.spanner.Value;
 import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import com.google.rpc.Code;
+import com.google.spanner.v1.BatchWriteResponse;
 import com.google.spanner.v1.TypeCode;
 import java.io.FileReader;
 import java.io.Reader;
-import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
@@ -35,6 +39,7 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -49,9 +54,17 @@ class LoadCsvExample {
   static final String POSTGRESQL_CSV = "POSTGRESQL_CSV";
   static final String POSTGRESQL_TEXT = "POSTGRESQL_TEXT";
 
+  static final int DEFAULT_MAX_MUTATIONS = 10000;
+  static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+  static final int DEFAULT_WORKERS = 4;
+
+  static final Pattern STRING_TYPE = Pattern.compile("(?i)STRING(?:\\((?:MAX|[0-9]+)\\))?");
+  static final Pattern BYTES_TYPE = Pattern.compile("(?i)BYTES(?:\\((?:MAX|[0-9]+)\\))?");
+
   static Boolean hasHeader = false;
   static Connection connection;
   static Map<String, TypeCode> tableColumns = new LinkedHashMap<>();
+  static List<String> primaryKeyColumns = new ArrayList<>();
 
   static void loadCsv() throws Exception {
     // TODO(developer): Replace these variables before running the sample.
@@ -78,18 +91,28 @@ class LoadCsvExample {
     opt.addOption("n", true, "String Representing Null Value");
     opt.addOption("d", true, "Character Separating Columns");
     opt.addOption("e", true, "Character To Escape");
+    opt.addOption("b", true, "Maximum Mutations Per Commit");
+    opt.addOption("s", true, "Maximum Bytes Per Commit");
+    opt.addOption("w", true, "Number Of Parallel Commit Workers");
+    opt.addOption("c", true, "Checkpoint File To Resume From And Record Progress In");
+    opt.addOption("g", true, "Number Of Leading Key Columns Whose Rows Are Written As One Group");
+    opt.addOption("p", true, "Number Of Threads Converting Records To Mutations");
+    opt.addOption("m", true, "Read The File Through A Memory Map");
     CommandLineParser clParser = new DefaultParser();
     CommandLine cmd = clParser.parse(opt, optFlags);
 
     try {
       // Initialize connection to Cloud Spanner
-      connection = DriverManager.getConnection(
-          String.format("jdbc:cloudspanner:/projects/%s/instances/%s/databases/%s",
-              projectId, instanceId, databaseId));
+      String connectionUrl = String.format(
+          "jdbc:cloudspanner:/projects/%s/instances/%s/databases/%s",
+          projectId, instanceId, databaseId);
+      connection = DriverManager.getConnection(connectionUrl);
       parseTableColumns(tableName);
 
+      boolean memoryMapped = cmd.hasOption("m") && cmd.getOptionValue("m").equalsIgnoreCase("True");
       try (
-          Reader in = new FileReader(filePath);
+          Reader in = memoryMapped
+              ? new MappedFileReader(Paths.get(filePath)) : new FileReader(filePath);
           CSVParser parser = CSVParser.parse(in, setFormat(cmd));
       ) {
         // If file has header, verify that header fields are valid
@@ -98,7 +121,11 @@ class LoadCsvExample {
         }
 
         // Write CSV record data to Cloud Spanner
-        writeToSpanner(parser, tableName);
+        DatabaseClient dbClient =
+            spanner.getDatabaseClient(DatabaseId.of(projectId, instanceId, databaseId));
+        CsvLoadPlan plan = new CsvLoadPlan(tableName, tableColumns,
+            hasHeader ? parser.getHeaderNames() : null, groupKeyColumns(intOption(cmd, "g", 0)));
+        writeToSpanner(parser, plan, cmd, connectionUrl, dbClient);
 
       } catch (SQLException e) {
         /* SQLExceptions are thrown when the table name cannot be queried for in the database
@@ -114,9 +141,9 @@ class LoadCsvExample {
 
   /** Return the data type of the column type **/
   static TypeCode parseSpannerDataType(String columnType) {
-    if (columnType.matches("(?i)STRING(?:\\((?:MAX|[0-9]+)\\))?")) {
+    if (STRING_TYPE.matcher(columnType).matches()) {
       return TypeCode.STRING;
-    } else if (columnType.matches("(?i)BYTES(?:\\((?:MAX|[0-9]+)\\))?")) {
+    } else if (BYTES_TYPE.matcher(columnType).matches()) {
       return TypeCode.BYTES;
     } else if (columnType.equalsIgnoreCase("INT64")) {
       return TypeCode.INT64;
@@ -136,7 +163,7 @@ class LoadCsvExample {
     }
   }
 
-  /** Query database for column names and types in the table **/
+  /** Query database for column names and types, and the primary key columns, of the table **/
   static void parseTableColumns(String tableName) throws SQLException {
     ResultSet spannerType = connection.createStatement()
         .executeQuery("SELECT column_name, spanner_type FROM information_schema.columns "
@@ -146,6 +173,22 @@ class LoadCsvExample {
       TypeCode type = parseSpannerDataType(spannerType.getString("spanner_type"));
       tableColumns.put(columnName, type);
     }
+    ResultSet keyColumns = connection.createStatement()
+        .executeQuery("SELECT column_name FROM information_schema.index_columns "
+            + "WHERE table_name = \"" + tableName + "\" AND index_type = \"PRIMARY_KEY\" "
+            + "ORDER BY ordinal_position");
+    while (keyColumns.next()) {
+      primaryKeyColumns.add(keyColumns.getString("column_name"));
+    }
+  }
+
+  /** Return the leading primary key columns that rows are grouped by **/
+  static List<String> groupKeyColumns(int count) {
+    if (count > primaryKeyColumns.size()) {
+      throw new IllegalArgumentException("Cannot group by " + count + " key columns, the table"
+          + " has " + primaryKeyColumns.size() + " primary key columns.");
+    }
+    return primaryKeyColumns.subList(0, Math.max(count, 0));
   }
 
   /** Check that CSV file headers exist as a table column name **/
@@ -208,74 +251,84 @@ class LoadCsvExample {
     return parseFormat;
   }
 
-  /** Verifies that if file has a header, that the record is mapped to a column header name
-   * and that the record itself is not null **/
-  static boolean validHeaderField(CSVRecord record, String columnName) {
-    return hasHeader && record.isMapped(columnName) && record.get(columnName) != null;
+  /** Write CSV file data to Spanner in size-bounded batches committed by parallel workers.
+   * Records are read as they are committed, so memory use does not depend on the file size. **/
+  static void writeToSpanner(Iterable<CSVRecord> records, CsvLoadPlan plan, CommandLine cmd,
+      String connectionUrl, DatabaseClient dbClient) throws Exception {
+    Path checkpointFile = cmd.hasOption("c") ? Paths.get(cmd.getOptionValue("c")) : null;
+    long resumeAfter = BatchCommitter.readCheckpoint(checkpointFile);
+    if (resumeAfter > 0) {
+      System.out.println("Resuming after record " + resumeAfter + "...");
+    }
+
+    System.out.println("Writing data into table...");
+    try (
+        SpannerBatchWriter writer = new SpannerBatchWriter(connectionUrl, dbClient);
+        BatchCommitter committer = new BatchCommitter(writer,
+            intOption(cmd, "w", DEFAULT_WORKERS), checkpointFile);
+    ) {
+      Batcher batcher = new Batcher(committer, intOption(cmd, "b", DEFAULT_MAX_MUTATIONS),
+          intOption(cmd, "s", DEFAULT_MAX_BYTES), intOption(cmd, "g", 0) > 0);
+      plan.convert(records, resumeAfter, intOption(cmd, "p", 1), batcher);
+      batcher.finish();
+    }
+    System.out.println("Data successfully written into table.");
   }
 
-  /** Verifies that if the file has no header, that the record at the given index is not null **/
-  static boolean validNonHeaderField(CSVRecord record, int index) {
-    return !hasHeader && record.get(index) != null;
+  private static int intOption(CommandLine cmd, String option, int defaultValue) {
+    return cmd.hasOption(option) ? Integer.parseInt(cmd.getOptionValue(option)) : defaultValue;
   }
 
-  /** Write CSV file data to Spanner using JDBC Mutation API **/
-  static void writeToSpanner(Iterable<CSVRecord> records, String tableName)
-      throws SQLException {
-    System.out.println("Writing data into table...");
-    List<Mutation> mutations = new ArrayList<>();
-    for (CSVRecord record : records) {
-      int index = 0;
-      WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
-      for (String columnName : tableColumns.keySet()) {
-        // Iterates through columns in order. Assumes in order columns when no headers provided.
-        TypeCode columnType = tableColumns.get(columnName);
-        String recordValue = null;
-        if (validHeaderField(record, columnName)) {
-          recordValue = record.get(columnName).trim();
-        } else if (validNonHeaderField(record, index)) {
-          recordValue = record.get(index).trim();
-          index++;
+  /** Commits batches of mutations over JDBC, and mutation groups with a batch write **/
+  static class SpannerBatchWriter implements BatchCommitter.Writer, AutoCloseable {
+    private final String connectionUrl;
+    private final DatabaseClient dbClient;
+    private final List<Connection> connections = new ArrayList<>();
+    private final ThreadLocal<CloudSpannerJdbcConnection> workerConnection = new ThreadLocal<>();
+
+    SpannerBatchWriter(String connectionUrl, DatabaseClient dbClient) {
+      this.connectionUrl = connectionUrl;
+      this.dbClient = dbClient;
+    }
+
+    @Override
+    public void write(Batch batch) throws SQLException {
+      if (batch.groups.isEmpty()) {
+        connection().write(batch.mutations);
+        return;
+      }
+      // Batch write applies each group atomically, and the groups independently of each other.
+      for (BatchWriteResponse response : dbClient.batchWriteAtLeastOnce(batch.groups)) {
+        if (response.getStatus().getCode() != Code.OK_VALUE) {
+          throw new IllegalStateException(
+              "Failed to write mutation groups " + response.getIndexesList() + ": "
+                  + response.getStatus().getMessage());
+        }
+      }
+    }
+
+    /** Each worker commits on its own connection, as JDBC connections are not thread-safe **/
+    private CloudSpannerJdbcConnection connection() throws SQLException {
+      CloudSpannerJdbcConnection spannerConnection = workerConnection.get();
+      if (spannerConnection == null) {
+        Connection workerJdbcConnection = DriverManager.getConnection(connectionUrl);
+        synchronized (connections) {
+          connections.add(workerJdbcConnection);
         }
-        if (recordValue != null) {
-          switch (columnType) {
-            case STRING:
-              builder.set(columnName).to(recordValue);
-              break;
-            case BYTES:
-              builder.set(columnName).to(Byte.parseByte(recordValue));
-              break;
-            case INT64:
-              builder.set(columnName).to(Integer.parseInt(recordValue));
-              break;
-            case FLOAT64:
-              builder.set(columnName).to(Float.parseFloat(recordValue));
-              break;
-            case BOOL:
-              builder.set(columnName).to(Boolean.parseBoolean(recordValue));
-              break;
-            case NUMERIC:
-              builder.set(columnName).to(Value.numeric(BigDecimal.valueOf(
-                  Double.parseDouble(recordValue))));
-              break;
-            case DATE:
-              builder.set(columnName).to(com.google.cloud.Date.parseDate(recordValue));
-              break;
-            case TIMESTAMP:
-              builder.set(columnName).to(com.google.cloud.Timestamp.parseTimestamp(recordValue));
-              break;
-            default:
-              System.out.print("Invalid Type. This type is not supported.");
-          }
+        spannerConnection = workerJdbcConnection.unwrap(CloudSpannerJdbcConnection.class);
+        workerConnection.set(spannerConnection);
+      }
+      return spannerConnection;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      synchronized (connections) {
+        for (Connection workerJdbcConnection : connections) {
+          workerJdbcConnection.close();
         }
       }
-      mutations.add(builder.build());
     }
-    CloudSpannerJdbcConnection spannerConnection = connection
-        .unwrap(CloudSpannerJdbcConnection.class);
-    spannerConnection.write(mutations);
-    spannerConnection.close();
-    System.out.println("Data successfully written into table.");
   }
 }
 //[END spanner_jdbc_load_csv]
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Reads a UTF-8 file through memory-mapped windows rather than buffered read() calls **/
+class MappedFileReader extends Reader {
+  static final int DEFAULT_WINDOW_BYTES = 64 * 1024 * 1024;
+  // The longest UTF-8 sequence, so that every window holds at least one whole character.
+  static final int MIN_WINDOW_BYTES = 4;
+
+  private final FileChannel channel;
+  private final long size;
+  private final int windowBytes;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  // The second half of a surrogate pair that did not fit in the caller's buffer.
+  private final CharBuffer pending = CharBuffer.allocate(2);
+  private long position;
+  private MappedByteBuffer window;
+
+  MappedFileReader(Path path) throws IOException {
+    this(path, DEFAULT_WINDOW_BYTES);
+  }
+
+  MappedFileReader(Path path, int windowBytes) throws IOException {
+    if (windowBytes < MIN_WINDOW_BYTES) {
+      throw new IllegalArgumentException(
+          "The window must be at least " + MIN_WINDOW_BYTES + " bytes: " + windowBytes);
+    }
+    this.windowBytes = windowBytes;
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    size = channel.size();
+    pending.flip();
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    CharBuffer out = CharBuffer.wrap(chars, offset, length);
+    while (out.position() == offset) {
+      if (pending.hasRemaining()) {
+        out.put(pending.get());
+        break;
+      }
+      if (window == null || !window.hasRemaining()) {
+        if (position >= size) {
+          return -1;
+        }
+        window = nextWindow();
+      }
+      // The last window is decoded as the end of input, so that a sequence cut off by the end
+      // of the file is replaced rather than left in the window forever.
+      boolean endOfInput = position >= size;
+      if (decoder.decode(window, out, endOfInput).isOverflow() && out.position() == offset) {
+        pending.clear();
+        decoder.decode(window, pending, endOfInput);
+        pending.flip();
+      }
+    }
+    return out.position() - offset;
+  }
+
+  /** Map the next window of the file, ending it on a character boundary **/
+  private MappedByteBuffer nextWindow() throws IOException {
+    long length = Math.min(windowBytes, size - position);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    int end = (int) length;
+    if (position + length < size) {
+      // Find the lead byte of the last character, and leave that character for the next window
+      // if it is cut off.
+      int lead = end - 1;
+      while (lead > 0 && end - lead < MIN_WINDOW_BYTES && (buffer.get(lead) & 0xC0) == 0x80) {
+        lead--;
+      }
+      int leadByte = buffer.get(lead) & 0xFF;
+      int sequenceBytes = leadByte >= 0xF0 ? 4 : leadByte >= 0xE0 ? 3 : leadByte >= 0xC0 ? 2 : 1;
+      if (end - lead < sequenceBytes) {
+        end = lead;
+      }
+    }
+    buffer.limit(end);
+    position += end;
+    return buffer;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.example.spanner.jdbc.BatchCommitter.Batch;
+import com.example.spanner.jdbc.BatchCommitter.Batcher;
+import com.example.spanner.jdbc.CsvLoadPlan.Row;
+import com.google.cloud.spanner.Mutation;
+import com.google.spanner.v1.TypeCode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BatchCommitter}, with a writer that doesn't need a database. */
+@RunWith(JUnit4.class)
+public class BatchCommitterTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<Batch> written = Collections.synchronizedList(new ArrayList<>());
+
+  private static Row row(long recordNumber, int cells, int bytes, String groupKey) {
+    Mutation mutation = Mutation.newInsertOrUpdateBuilder("Singers")
+        .set("SingerId").to(recordNumber)
+        .build();
+    return new Row(mutation, cells, bytes,
+        groupKey == null ? null : Collections.singletonList(groupKey), recordNumber);
+  }
+
+  private static Batch committed(long sequence, long lastRecordNumber) {
+    Batch batch = new Batch();
+    batch.sequence = sequence;
+    batch.lastRecordNumber = lastRecordNumber;
+    return batch;
+  }
+
+  private List<Integer> writtenRows() {
+    List<Integer> rows = new ArrayList<>();
+    for (Batch batch : written) {
+      rows.add(batch.rows);
+    }
+    return rows;
+  }
+
+  @Test
+  public void batcher_shouldSplitAtMutationLimit() throws Exception {
+    try (BatchCommitter committer = new BatchCommitter(written::add, 1, null)) {
+      Batcher batcher = new Batcher(committer, 10, 1000, false);
+      for (int i = 1; i <= 7; i++) {
+        batcher.add(row(i, 3, 10, null));
+      }
+      batcher.finish();
+    }
+
+    assertThat(writtenRows()).containsExactly(3, 3, 1).inOrder();
+    for (Batch batch : written) {
+      assertThat(batch.cells).isAtMost(10);
+    }
+  }
+
+  @Test
+  public void batcher_shouldSplitAtByteLimit() throws Exception {
+    try (BatchCommitter committer = new BatchCommitter(written::add, 1, null)) {
+      Batcher batcher = new Batcher(committer, 1000, 100, false);
+      for (int i = 1; i <= 7; i++) {
+        batcher.add(row(i, 1, 30, null));
+      }
+      batcher.finish();
+    }
+
+    assertThat(writtenRows()).containsExactly(3, 3, 1).inOrder();
+    for (Batch batch : written) {
+      assertThat(batch.bytes).isAtMost(100);
+    }
+  }
+
+  @Test
+  public void batcher_shouldWriteOversizedRowAlone() throws Exception {
+    try (BatchCommitter committer = new BatchCommitter(written::add, 1, null)) {
+      Batcher batcher = new Batcher(committer, 1000, 100, false);
+      batcher.add(row(1, 1, 30, null));
+      batcher.add(row(2, 1, 500, null));
+      batcher.add(row(3, 1, 30, null));
+      batcher.finish();
+    }
+
+    assertThat(writtenRows()).containsExactly(1, 1, 1).inOrder();
+  }
+
+  @Test
+  public void batcher_shouldNotSplitMutationGroups() throws Exception {
+    try (BatchCommitter committer = new BatchCommitter(written::add, 1, null)) {
+      Batcher batcher = new Batcher(committer, 4, 1000, true);
+      List<String> groupKeys = Arrays.asList("1", "1", "2", "2", "2");
+      for (int i = 0; i < groupKeys.size(); i++) {
+        batcher.add(row(i + 1, 1, 10, groupKeys.get(i)));
+      }
+      batcher.finish();
+    }
+
+    assertThat(written).hasSize(2);
+    assertThat(written.get(0).groups).hasSize(1);
+    assertThat(written.get(0).rows).isEqualTo(2);
+    assertThat(written.get(1).groups).hasSize(1);
+    assertThat(written.get(1).rows).isEqualTo(3);
+  }
+
+  @Test
+  public void batcher_shouldRejectGroupOverLimits() throws Exception {
+    try (BatchCommitter committer = new BatchCommitter(written::add, 1, null)) {
+      Batcher batcher = new Batcher(committer, 4, 1000, true);
+      for (int i = 1; i <= 4; i++) {
+        batcher.add(row(i, 1, 10, "1"));
+      }
+
+      assertThrows(IllegalStateException.class, () -> batcher.add(row(5, 1, 10, "1")));
+    }
+  }
+
+  @Test
+  public void batchCommitted_shouldCheckpointContiguousBatchesOnly() throws Exception {
+    Path checkpointFile = temporaryFolder.getRoot().toPath().resolve("checkpoint");
+    try (BatchCommitter committer = new BatchCommitter(written::add, 1, checkpointFile)) {
+      committer.batchCommitted(committed(1, 20));
+      committer.batchCommitted(committed(2, 30));
+      assertThat(BatchCommitter.readCheckpoint(checkpointFile)).isEqualTo(0L);
+
+      committer.batchCommitted(committed(0, 10));
+      assertThat(BatchCommitter.readCheckpoint(checkpointFile)).isEqualTo(30L);
+
+      committer.batchCommitted(committed(4, 50));
+      assertThat(BatchCommitter.readCheckpoint(checkpointFile)).isEqualTo(30L);
+
+      committer.batchCommitted(committed(3, 40));
+      assertThat(BatchCommitter.readCheckpoint(checkpointFile)).isEqualTo(50L);
+    }
+  }
+
+  @Test
+  public void submit_shouldCheckpointLastRecordWhenBatchesFinishOutOfOrder() throws Exception {
+    Path checkpointFile = temporaryFolder.getRoot().toPath().resolve("checkpoint");
+    CountDownLatch secondWritten = new CountDownLatch(1);
+    BatchCommitter.Writer writer = batch -> {
+      if (batch.sequence == 0) {
+        secondWritten.await();
+      }
+      written.add(batch);
+      if (batch.sequence == 1) {
+        secondWritten.countDown();
+      }
+    };
+    try (BatchCommitter committer = new BatchCommitter(writer, 2, checkpointFile)) {
+      Batcher batcher = new Batcher(committer, 2, 1000, false);
+      for (int i = 1; i <= 4; i++) {
+        batcher.add(row(i, 1, 10, null));
+      }
+      batcher.finish();
+    }
+
+    assertThat(written.get(0).sequence).isEqualTo(1L);
+    assertThat(written.get(1).sequence).isEqualTo(0L);
+    assertThat(BatchCommitter.readCheckpoint(checkpointFile)).isEqualTo(4L);
+  }
+
+  @Test
+  public void readCheckpoint_shouldResumeAfterLastContiguousBatch() throws Exception {
+    Path checkpointFile = temporaryFolder.getRoot().toPath().resolve("checkpoint");
+    Map<String, TypeCode> tableColumns = new LinkedHashMap<>();
+    tableColumns.put("SingerId", TypeCode.INT64);
+    CsvLoadPlan plan = new CsvLoadPlan("Singers", tableColumns, null, Collections.emptyList());
+    String csv = "1\n2\n3\n4\n5\n6\n7\n8\n";
+
+    // The third batch fails, so the first run can only checkpoint the first two.
+    BatchCommitter.Writer failThirdBatch = batch -> {
+      if (batch.sequence == 2) {
+        throw new IOException("Commit failed");
+      }
+      written.add(batch);
+    };
+    assertThrows(IOException.class, () -> {
+      try (
+          CSVParser parser = CSVParser.parse(csv, CSVFormat.DEFAULT);
+          BatchCommitter committer = new BatchCommitter(failThirdBatch, 1, checkpointFile);
+      ) {
+        Batcher batcher = new Batcher(committer, 2, 1000, false);
+        plan.convert(parser, 0, 1, batcher);
+        batcher.finish();
+      }
+    });
+    long resumeAfter = BatchCommitter.readCheckpoint(checkpointFile);
+    assertThat(resumeAfter).isEqualTo(4L);
+
+    written.clear();
+    try (
+        CSVParser parser = CSVParser.parse(csv, CSVFormat.DEFAULT);
+        BatchCommitter committer = new BatchCommitter(written::add, 1, checkpointFile);
+    ) {
+      Batcher batcher = new Batcher(committer, 2, 1000, false);
+      plan.convert(parser, resumeAfter, 1, batcher);
+      batcher.finish();
+    }
+
+    List<Long> resumedRecords = new ArrayList<>();
+    for (Batch batch : written) {
+      for (Mutation mutation : batch.mutations) {
+        resumedRecords.add(mutation.asMap().get("SingerId").getInt64());
+      }
+    }
+    assertThat(resumedRecords).containsExactly(5L, 6L, 7L, 8L).inOrder();
+    assertThat(BatchCommitter.readCheckpoint(checkpointFile)).isEqualTo(8L);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.example.spanner.jdbc.CsvLoadPlan.Row;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Value;
+import com.google.spanner.v1.TypeCode;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CsvLoadPlan}, which don't need a database. */
+@RunWith(JUnit4.class)
+public class CsvLoadPlanTest {
+
+  private static Map<String, TypeCode> singersColumns() {
+    Map<String, TypeCode> tableColumns = new LinkedHashMap<>();
+    tableColumns.put("SingerId", TypeCode.INT64);
+    tableColumns.put("Photo", TypeCode.BYTES);
+    tableColumns.put("Rating", TypeCode.FLOAT64);
+    tableColumns.put("Revenue", TypeCode.NUMERIC);
+    return tableColumns;
+  }
+
+  private static CSVRecord parse(String line) throws IOException {
+    try (CSVParser parser = CSVParser.parse(line, CSVFormat.DEFAULT.withNullString("nil"))) {
+      return parser.getRecords().get(0);
+    }
+  }
+
+  @Test
+  public void toRow_shouldDecodeTypedValues() throws IOException {
+    CsvLoadPlan plan = new CsvLoadPlan("Singers", singersColumns(), null, Collections.emptyList());
+
+    Row row = plan.toRow(parse("7, aGVsbG8= ,4.5,123456789012345678.123456789"));
+
+    Map<String, Value> values = row.mutation.asMap();
+    assertThat(values.get("SingerId")).isEqualTo(Value.int64(7L));
+    assertThat(values.get("Photo")).isEqualTo(Value.bytes(ByteArray.copyFrom("hello")));
+    assertThat(values.get("Rating")).isEqualTo(Value.float64(4.5));
+    assertThat(values.get("Revenue"))
+        .isEqualTo(Value.numeric(new BigDecimal("123456789012345678.123456789")));
+    assertThat(row.cells).isEqualTo(4);
+    assertThat(row.recordNumber).isEqualTo(1L);
+  }
+
+  @Test
+  public void toRow_shouldLeaveNullValuesOut() throws IOException {
+    CsvLoadPlan plan = new CsvLoadPlan("Singers", singersColumns(), null, Collections.emptyList());
+
+    Row row = plan.toRow(parse("7,nil,nil,1.5"));
+
+    assertThat(row.mutation.asMap().keySet()).containsExactly("SingerId", "Revenue");
+    assertThat(row.cells).isEqualTo(2);
+    assertThat(row.bytes).isEqualTo(
+        "SingerId".length() + CsvLoadPlan.MUTATION_VALUE_OVERHEAD_BYTES + "7".length()
+            + "Revenue".length() + CsvLoadPlan.MUTATION_VALUE_OVERHEAD_BYTES + "1.5".length());
+  }
+
+  @Test
+  public void toRow_shouldMapColumnsByHeader() throws IOException {
+    CsvLoadPlan plan = new CsvLoadPlan("Singers", singersColumns(),
+        Arrays.asList("Rating", "Unknown", "SingerId"), Collections.singletonList("SingerId"));
+
+    Row row = plan.toRow(parse("2.5,ignored,9"));
+
+    Map<String, Value> values = row.mutation.asMap();
+    assertThat(values.keySet()).containsExactly("Rating", "SingerId");
+    assertThat(values.get("SingerId")).isEqualTo(Value.int64(9L));
+    assertThat(row.groupKey).containsExactly("9");
+  }
+
+  @Test
+  public void constructor_shouldRejectGroupKeyColumnMissingFromFile() {
+    List<String> headers = Arrays.asList("Rating", "Revenue");
+
+    assertThrows(IllegalArgumentException.class, () -> new CsvLoadPlan("Singers",
+        singersColumns(), headers, Collections.singletonList("SingerId")));
+  }
+
+  @Test
+  public void convert_shouldKeepRecordOrderOnParallelThreads() throws Exception {
+    CsvLoadPlan plan = new CsvLoadPlan("Singers", singersColumns(), null, Collections.emptyList());
+    // Enough chunks to keep every thread busy, and a partial chunk at the end.
+    int records = 8 * CsvLoadPlan.PARSE_CHUNK_RECORDS + 17;
+    StringBuilder csv = new StringBuilder();
+    for (int i = 1; i <= records; i++) {
+      csv.append(i).append(",,").append(i).append(".5,").append(i).append('\n');
+    }
+
+    List<Long> sequential = new ArrayList<>();
+    try (CSVParser parser = CSVParser.parse(csv.toString(), CSVFormat.DEFAULT)) {
+      plan.convert(parser, 5, 1, row -> sequential.add(row.recordNumber));
+    }
+    List<Long> parallel = new ArrayList<>();
+    List<Long> singerIds = new ArrayList<>();
+    try (CSVParser parser = CSVParser.parse(csv.toString(), CSVFormat.DEFAULT)) {
+      plan.convert(parser, 5, 4, row -> {
+        parallel.add(row.recordNumber);
+        singerIds.add(row.mutation.asMap().get("SingerId").getInt64());
+      });
+    }
+
+    assertThat(parallel).isEqualTo(sequential);
+    assertThat(singerIds).isEqualTo(sequential);
+    assertThat(parallel).hasSize(records - 5);
+    assertThat(parallel.get(0)).isEqualTo(6L);
+  }
+}
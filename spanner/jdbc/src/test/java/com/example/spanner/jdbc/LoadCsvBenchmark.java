@@ -0,0 +1,180 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Mutation.WriteBuilder;
+import com.google.spanner.v1.TypeCode;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how fast LoadCsvExample turns CSV records into mutations, without writing them.
+ *
+ * <p>{@code convert} runs the compiled load plan on {@code threads} threads. {@code
+ * convertLegacy} looks columns up by name and switches on their type for every cell, as the
+ * sample did before, as a baseline. {@code readMapped} and {@code readBuffered} only tokenize
+ * a file, through a memory map and through a FileReader. Scores are per record.
+ *
+ * <p>Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.spanner.jdbc.LoadCsvBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LoadCsvBenchmark {
+
+  private static final int RECORDS = 100_000;
+
+  @Param({"1", "4"})
+  private int threads;
+
+  private final Map<String, TypeCode> tableColumns = new LinkedHashMap<>();
+  private String csv;
+  private Path file;
+  private CsvLoadPlan plan;
+
+  @Setup
+  public void setup() throws IOException {
+    tableColumns.put("SingerId", TypeCode.INT64);
+    tableColumns.put("FirstName", TypeCode.STRING);
+    tableColumns.put("LastName", TypeCode.STRING);
+    tableColumns.put("Rating", TypeCode.FLOAT64);
+    tableColumns.put("Revenue", TypeCode.NUMERIC);
+    tableColumns.put("Active", TypeCode.BOOL);
+    tableColumns.put("BirthDate", TypeCode.DATE);
+    tableColumns.put("LastUpdated", TypeCode.TIMESTAMP);
+    tableColumns.put("Photo", TypeCode.BYTES);
+
+    StringBuilder builder = new StringBuilder(String.join(",", tableColumns.keySet()));
+    builder.append('\n');
+    for (int i = 0; i < RECORDS; i++) {
+      builder.append(i).append(",Marc").append(i % 100).append(",\"Richards, Jr.\",")
+          .append(i % 50 / 10.0).append(',').append(i).append(".25,")
+          .append(i % 2 == 0).append(",1970-01-").append(10 + i % 20)
+          .append(",2024-03-01T12:00:00.").append(100 + i % 900).append("Z,")
+          .append(Base64.getEncoder().encodeToString(Integer.toString(i).getBytes(
+              StandardCharsets.UTF_8)))
+          .append('\n');
+    }
+    csv = builder.toString();
+    file = Files.createTempFile("load-csv-benchmark", ".csv");
+    Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+
+    plan = new CsvLoadPlan("Singers", tableColumns, null, Collections.emptyList());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private CSVParser parse(Reader in) throws IOException {
+    return CSVParser.parse(in, CSVFormat.DEFAULT.withFirstRecordAsHeader());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void convert(Blackhole blackhole) throws Exception {
+    try (CSVParser parser = parse(new StringReader(csv))) {
+      plan.convert(parser, 0, threads, row -> blackhole.consume(row.mutation));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void convertLegacy(Blackhole blackhole) throws Exception {
+    try (CSVParser parser = parse(new StringReader(csv))) {
+      for (CSVRecord record : parser) {
+        blackhole.consume(legacyMutation(record));
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void readMapped(Blackhole blackhole) throws IOException {
+    try (CSVParser parser = parse(new MappedFileReader(file))) {
+      for (CSVRecord record : parser) {
+        blackhole.consume(record);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void readBuffered(Blackhole blackhole) throws IOException {
+    try (CSVParser parser = parse(new FileReader(file.toFile()))) {
+      for (CSVRecord record : parser) {
+        blackhole.consume(record);
+      }
+    }
+  }
+
+  /** The per-cell name lookup and type switch that the load plan replaced. */
+  private Mutation legacyMutation(CSVRecord record) {
+    WriteBuilder builder = Mutation.newInsertOrUpdateBuilder("Singers");
+    for (String columnName : tableColumns.keySet()) {
+      if (!record.isMapped(columnName) || record.get(columnName) == null) {
+        continue;
+      }
+      String value = record.get(columnName).trim();
+      CsvLoadPlan.decoderFor(tableColumns.get(columnName)).decode(
+          builder.set(columnName), value);
+    }
+    return builder.build();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(LoadCsvBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link MappedFileReader}, with windows a few bytes long. */
+@RunWith(JUnit4.class)
+public class MappedFileReaderTest {
+
+  // A four byte character, which Java holds as a surrogate pair.
+  private static final String EMOJI = "\ud83d\ude00";
+  // One, two, three and four byte characters, in records longer than the windows.
+  private static final String CSV = "1,Marc,Richards\n"
+      + "2,Catalina,Smith\n"
+      + "3,Zo\u00eb,M\u00fcller\n"
+      + "4,\u20acuro,\u013f\n"
+      + "5," + EMOJI + "," + EMOJI + EMOJI + "x" + EMOJI + "\n"
+      + "6,Lea,Martin\n";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path write(byte[] bytes) throws IOException {
+    Path file = temporaryFolder.getRoot().toPath().resolve("singers.csv");
+    Files.write(file, bytes);
+    return file;
+  }
+
+  private static String readAll(Reader in, int bufferChars) throws IOException {
+    StringBuilder text = new StringBuilder();
+    char[] buffer = new char[bufferChars];
+    for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+      text.append(buffer, 0, read);
+    }
+    return text.toString();
+  }
+
+  private static List<List<String>> records(Reader in) throws IOException {
+    List<List<String>> records = new ArrayList<>();
+    try (CSVParser parser = CSVParser.parse(in, CSVFormat.DEFAULT)) {
+      for (CSVRecord record : parser) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < record.size(); i++) {
+          values.add(record.get(i));
+        }
+        records.add(values);
+      }
+    }
+    return records;
+  }
+
+  @Test
+  public void read_shouldMatchSequentialReadForSmallWindows() throws IOException {
+    Path file = write(CSV.getBytes(StandardCharsets.UTF_8));
+    String expected;
+    try (Reader in = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+      expected = readAll(in, 8192);
+    }
+
+    // A one char buffer also splits the surrogate pairs of the four byte characters.
+    for (int windowBytes = MappedFileReader.MIN_WINDOW_BYTES; windowBytes <= 12; windowBytes++) {
+      for (int bufferChars : new int[] {1, 3, 8192}) {
+        try (Reader in = new MappedFileReader(file, windowBytes)) {
+          assertThat(readAll(in, bufferChars)).isEqualTo(expected);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void read_shouldParseRecordsSpanningWindows() throws IOException {
+    Path file = write(CSV.getBytes(StandardCharsets.UTF_8));
+    List<List<String>> expected;
+    try (Reader in = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+      expected = records(in);
+    }
+
+    for (int windowBytes = MappedFileReader.MIN_WINDOW_BYTES; windowBytes <= 12; windowBytes++) {
+      assertThat(records(new MappedFileReader(file, windowBytes))).isEqualTo(expected);
+    }
+    assertThat(expected.get(4)).containsExactly("5", EMOJI, EMOJI + EMOJI + "x" + EMOJI).inOrder();
+  }
+
+  @Test
+  public void read_shouldReplaceCharacterCutOffByEndOfFile() throws IOException {
+    byte[] emoji = EMOJI.getBytes(StandardCharsets.UTF_8);
+    byte[] bytes = {'a', 'b', 'c', 'd', 'e', emoji[0], emoji[1]};
+    Path file = write(bytes);
+
+    try (Reader in = new MappedFileReader(file, MappedFileReader.MIN_WINDOW_BYTES)) {
+      assertThat(readAll(in, 8192)).isEqualTo("abcde\ufffd");
+    }
+  }
+
+  @Test
+  public void constructor_shouldRejectWindowShorterThanCharacter() throws IOException {
+    Path file = write(CSV.getBytes(StandardCharsets.UTF_8));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> new MappedFileReader(file, MappedFileReader.MIN_WINDOW_BYTES - 1));
+  }
+}
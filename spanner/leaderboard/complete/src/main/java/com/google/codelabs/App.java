@@ -32,6 +32,7 @@ import com.google.cloud.spanner.SpannerOptions;
 import com.google.cloud.spanner.Statement;
 import com.google.cloud.spanner.TransactionContext;
 import com.google.spanner.admin.database.v1.CreateDatabaseMetadata;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -39,10 +40,13 @@ import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Example code for using the Cloud Spanner API with the Google Cloud Java client library
@@ -55,12 +59,18 @@ import java.util.concurrent.ThreadLocalRandom;
  * <ul>
  *   <li>Creating a Cloud Spanner database.
  *   <li>Inserting data using a read-write transaction.
+ *   <li>Bulk loading data with parallel readers and batched mutations.
  *   <li>Execute SQL queries over data, filtering and ordering by timestamp.
+ *   <li>Serving leaderboards from memory, refreshed with stale reads.
  *   <li>Deleting a Cloud Spanner database.
  * </ul>
  */
 public class App {
 
+  static final int DEFAULT_BULK_WORKERS = 8;
+  static final int DEFAULT_MAX_STALENESS_SECONDS = 15;
+  static final int DEFAULT_WATCH_SECONDS = 60;
+
   static void create(DatabaseAdminClient dbAdminClient, DatabaseId db) {
     OperationFuture<Database, CreateDatabaseMetadata> op =
         dbAdminClient.createDatabase(
@@ -92,7 +102,7 @@ public class App {
     }
   }
 
-  static void insert(DatabaseClient dbClient, String insertType) {
+  static void insert(DatabaseClient dbClient, String insertType, int workers) {
     try {
       insertType = insertType.toLowerCase();
     } catch (Exception e) {
@@ -105,10 +115,13 @@ public class App {
     } else if (insertType.equals("scores")) {
       // Insert scores.
       insertScores(dbClient);
+    } else if (insertType.equals("bulk-scores")) {
+      // Insert scores for every player in parallel.
+      insertScoresInBulk(dbClient, workers);
     } else {
       // Invalid input.
       System.out.println("Invalid value for 'type of insert'. "
-          + "Specify a valid value: 'players' or 'scores'.");
+          + "Specify a valid value: 'players', 'scores' or 'bulk-scores'.");
       System.exit(1);
     }
   }
@@ -218,6 +231,26 @@ public class App {
     }
   }
 
+  static void insertScoresInBulk(DatabaseClient dbClient, int workers) {
+    BulkScoreLoader.Result result;
+    try {
+      result = BulkScoreLoader.forDatabase(dbClient, workers).run();
+    } catch (ExecutionException e) {
+      // If a partition failed to load, expose the cause.
+      throw SpannerExceptionFactory.asSpannerException(e.getCause());
+    } catch (InterruptedException e) {
+      throw SpannerExceptionFactory.propagateInterrupt(e);
+    }
+    if (result.getPlayers() == 0) {
+      System.out.println("Parameter 'bulk-scores' is invalid since "
+          + "no player records currently exist. First insert players "
+          + "then insert scores.");
+      System.exit(1);
+    }
+    System.out.println(result);
+    System.out.println("Done inserting score records...");
+  }
+
   static void query(DatabaseClient dbClient) {
     Statement statement = Statement.of(
         "SELECT p.PlayerId, p.PlayerName, s.Score, s.Timestamp "
@@ -260,6 +293,34 @@ public class App {
     }
   }
 
+  static void watch(DatabaseClient dbClient, int maxStalenessSeconds, int watchSeconds)
+      throws InterruptedException {
+    LeaderboardCache cache =
+        LeaderboardCache.forDatabase(dbClient, 10, Duration.ofSeconds(maxStalenessSeconds));
+    Map<Integer, List<LeaderboardCache.Entry>> shown = new HashMap<>();
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(watchSeconds);
+    while (System.nanoTime() < end) {
+      // Read every leaderboard ten times a second, and print those that changed.
+      for (int timespan : LeaderboardCache.TIMESPANS) {
+        List<LeaderboardCache.Entry> top = cache.top(timespan);
+        if (!top.equals(shown.put(timespan, top))) {
+          System.out.println(timespan == LeaderboardCache.ALL_TIME
+              ? "Top ten players of all time:"
+              : "Top ten players within the past " + timespan + " hours:");
+          for (LeaderboardCache.Entry entry : top) {
+            String scoreDate = String.valueOf(entry.getTimestamp());
+            System.out.printf(
+                "PlayerId: %d  PlayerName: %s  Score: %s  Timestamp: %s\n",
+                entry.getPlayerId(), entry.getPlayerName(),
+                String.format("%,d", entry.getScore()), scoreDate.substring(0, 10));
+          }
+        }
+      }
+      Thread.sleep(100);
+    }
+    System.out.println(cache.getStats());
+  }
+
   static void delete(DatabaseAdminClient dbAdminClient, DatabaseId db) {
     try  {
       dbAdminClient.dropDatabase(db.getInstanceId().getInstance(), db.getDatabase());
@@ -284,18 +345,25 @@ public class App {
     System.out.println("  java -jar leaderboard.jar insert my-instance example-db scores");
     System.out.println("      - Insert sample score data into Scores sample Cloud Spanner "
         + "database table.\n");
+    System.out.println("  java -jar leaderboard.jar insert my-instance example-db bulk-scores 16");
+    System.out.println("      - Insert sample score data for every player, reading and writing "
+        + "with 16 (by default 8) parallel workers, and report the throughput.\n");
     System.out.println("  java -jar leaderboard.jar query my-instance example-db");
     System.out.println("      - Query players with top ten scores of all time.\n");
     System.out.println("  java -jar leaderboard.jar query my-instance example-db 168");
     System.out.println("      - Query players with top ten scores within a timespan "
         + "specified in hours.\n");
+    System.out.println("  java -jar leaderboard.jar watch my-instance example-db 15 60");
+    System.out.println("      - Serve the leaderboards from memory for 60 seconds, with data "
+        + "at most 15 seconds old, and report the cache hit rate.\n");
     System.out.println("  java -jar leaderboard.jar delete my-instance example-db");
     System.out.println("      - Delete sample Cloud Spanner database.");
     System.exit(1);
   }
 
   public static void main(String[] args) throws Exception {
-    if (!(args.length == 3 || args.length == 4)) {
+    if (args.length < 3 || args.length > 5
+        || (args.length == 5 && !args[0].equals("insert") && !args[0].equals("watch"))) {
       printUsageAndExit();
     }
     SpannerOptions options = SpannerOptions.newBuilder().build();
@@ -316,7 +384,16 @@ public class App {
           } catch (ArrayIndexOutOfBoundsException exception) {
             insertType = "";
           }
-          insert(dbClient, insertType);
+          int workers = DEFAULT_BULK_WORKERS;
+          if (args.length == 5) {
+            try {
+              workers = Integer.parseInt(args[4]);
+            } catch (NumberFormatException e) {
+              System.err.println("insert command's 'workers' parameter must be a valid integer.");
+              System.exit(1);
+            }
+          }
+          insert(dbClient, insertType, workers);
           break;
         case "query":
           if (args.length == 4) {
@@ -332,6 +409,22 @@ public class App {
             query(dbClient);
           }
           break;
+        case "watch":
+          int maxStalenessSeconds = DEFAULT_MAX_STALENESS_SECONDS;
+          int watchSeconds = DEFAULT_WATCH_SECONDS;
+          try {
+            if (args.length >= 4) {
+              maxStalenessSeconds = Integer.parseInt(args[3]);
+            }
+            if (args.length == 5) {
+              watchSeconds = Integer.parseInt(args[4]);
+            }
+          } catch (NumberFormatException e) {
+            System.err.println("watch command's parameters must be valid integers.");
+            System.exit(1);
+          }
+          watch(dbClient, maxStalenessSeconds, watchSeconds);
+          break;
         case "delete":
           delete(dbAdminClient, db);
           break;
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Inserts random scores for every player, reading the players in parallel by key range.
+ *
+ * <p>App gives players IDs between 1,000,000,000 and 10,000,000,000. The loader splits that range
+ * into partitions, and each worker streams the IDs of one partition at a time. It generates the
+ * scores of each player and commits them in batches with {@code writeAtLeastOnce}, which takes a
+ * single round trip and holds no locks. The scores are insert-or-update mutations, so a batch that
+ * is replayed does no harm. The scores of a player are always committed together.
+ */
+class BulkScoreLoader {
+
+  static final long MIN_PLAYER_ID = 1_000_000_000L;
+  static final long MAX_PLAYER_ID = 10_000_000_000L;
+  static final int SCORES_PER_PLAYER = 4;
+  // Spanner counts every column value toward its limit of 80,000 mutations per commit.
+  static final int COLUMNS_PER_SCORE = 3;
+  static final int DEFAULT_MAX_MUTATIONS_PER_COMMIT = 6_000;
+  private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+  /** Streams the IDs of the players in a key range. */
+  interface PlayerSource {
+    void forEachPlayer(long startId, long endId, LongConsumer playerIds);
+  }
+
+  /** Commits a batch of mutations. */
+  interface ScoreWriter {
+    void write(List<Mutation> mutations);
+  }
+
+  private final PlayerSource players;
+  private final ScoreWriter writer;
+  private final int workers;
+  private final int partitions;
+  private final int maxScoresPerCommit;
+
+  private final LongAdder playerCount = new LongAdder();
+  private final LongAdder scoreCount = new LongAdder();
+  private final LongAdder partitionsDone = new LongAdder();
+  private final List<Long> commitNanos = new ArrayList<>();
+
+  BulkScoreLoader(PlayerSource players, ScoreWriter writer, int workers, int partitions,
+      int maxMutationsPerCommit) {
+    checkArgument(workers > 0, "The number of workers must be positive: %s", workers);
+    checkArgument(partitions > 0, "The number of partitions must be positive: %s", partitions);
+    checkArgument(maxMutationsPerCommit >= SCORES_PER_PLAYER * COLUMNS_PER_SCORE,
+        "A commit must fit the scores of at least one player");
+    this.players = players;
+    this.writer = writer;
+    this.workers = workers;
+    this.partitions = partitions;
+    this.maxScoresPerCommit = maxMutationsPerCommit / COLUMNS_PER_SCORE;
+  }
+
+  /** Returns a loader that reads and writes the database, with eight partitions per worker. */
+  static BulkScoreLoader forDatabase(DatabaseClient dbClient, int workers) {
+    PlayerSource players = (startId, endId, playerIds) -> {
+      Statement statement =
+          Statement.newBuilder(
+                  "SELECT PlayerId FROM Players WHERE PlayerId >= @StartId AND PlayerId < @EndId")
+              .bind("StartId")
+              .to(startId)
+              .bind("EndId")
+              .to(endId)
+              .build();
+      try (ResultSet resultSet = dbClient.singleUse().executeQuery(statement)) {
+        while (resultSet.next()) {
+          playerIds.accept(resultSet.getLong(0));
+        }
+      }
+    };
+    return new BulkScoreLoader(players, dbClient::writeAtLeastOnce, workers, workers * 8,
+        DEFAULT_MAX_MUTATIONS_PER_COMMIT);
+  }
+
+  /**
+   * Loads the scores of every partition, and prints the progress every ten seconds. Stops at the
+   * first partition that fails.
+   */
+  Result run() throws InterruptedException, ExecutionException {
+    long start = System.nanoTime();
+    // Scores are dated within the past two years.
+    long endMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    long startMicros = endMicros - TimeUnit.DAYS.toMicros(730);
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+    progress.scheduleAtFixedRate(
+        () -> System.out.printf("Inserted %,d score records for %,d players, %d of %d partitions "
+            + "done...\n", scoreCount.sum(), playerCount.sum(), partitionsDone.sum(), partitions),
+        PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    try {
+      CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+      long width = (MAX_PLAYER_ID - MIN_PLAYER_ID + partitions - 1) / partitions;
+      for (int i = 0; i < partitions; i++) {
+        long startId = MIN_PLAYER_ID + i * width;
+        long endId = Math.min(startId + width, MAX_PLAYER_ID);
+        completion.submit(() -> {
+          loadPartition(startId, endId, startMicros, endMicros);
+          partitionsDone.increment();
+          return null;
+        });
+      }
+      for (int done = 0; done < partitions; done++) {
+        completion.take().get();
+      }
+    } finally {
+      progress.shutdownNow();
+      executor.shutdownNow();
+    }
+    long[] latencies;
+    synchronized (commitNanos) {
+      latencies = commitNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+    return new Result(playerCount.sum(), scoreCount.sum(), System.nanoTime() - start, latencies);
+  }
+
+  private void loadPartition(long startId, long endId, long startMicros, long endMicros) {
+    List<Mutation> batch = new ArrayList<>(maxScoresPerCommit);
+    players.forEachPlayer(startId, endId, playerId -> {
+      if (batch.size() + SCORES_PER_PLAYER > maxScoresPerCommit) {
+        commit(batch);
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < SCORES_PER_PLAYER; i++) {
+        batch.add(
+            Mutation.newInsertOrUpdateBuilder("Scores")
+                .set("PlayerId")
+                .to(playerId)
+                // Generate random score between 1,000 and 1,000,000.
+                .set("Score")
+                .to(random.nextLong(1_000, 1_000_000))
+                .set("Timestamp")
+                .to(Timestamp.ofTimeMicroseconds(random.nextLong(startMicros, endMicros)))
+                .build());
+      }
+      playerCount.increment();
+    });
+    if (!batch.isEmpty()) {
+      commit(batch);
+    }
+  }
+
+  private void commit(List<Mutation> batch) {
+    long start = System.nanoTime();
+    writer.write(batch);
+    long latency = System.nanoTime() - start;
+    synchronized (commitNanos) {
+      commitNanos.add(latency);
+    }
+    scoreCount.add(batch.size());
+    batch.clear();
+  }
+
+  /** What a load inserted, and how long it took. */
+  static final class Result {
+    private final long players;
+    private final long scores;
+    private final long elapsedNanos;
+    private final long[] sortedCommitNanos;
+
+    Result(long players, long scores, long elapsedNanos, long[] sortedCommitNanos) {
+      this.players = players;
+      this.scores = scores;
+      this.elapsedNanos = elapsedNanos;
+      this.sortedCommitNanos = sortedCommitNanos;
+    }
+
+    long getPlayers() {
+      return players;
+    }
+
+    long getScores() {
+      return scores;
+    }
+
+    int getCommits() {
+      return sortedCommitNanos.length;
+    }
+
+    double getElapsedSeconds() {
+      return elapsedNanos / 1e9;
+    }
+
+    double getRowsPerSecond() {
+      return elapsedNanos == 0 ? 0 : scores / getElapsedSeconds();
+    }
+
+    /** Returns the commit latency at a percentile between 0 and 100, by the nearest rank. */
+    double getCommitLatencyMillis(double percentile) {
+      if (sortedCommitNanos.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * sortedCommitNanos.length);
+      return sortedCommitNanos[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Inserted %,d score records for %,d players in %.1f seconds "
+              + "(%,.0f rows/s)\nCommit latency over %,d commits: p50 %.1f ms, p90 %.1f ms, "
+              + "p99 %.1f ms, max %.1f ms",
+          scores, players, getElapsedSeconds(), getRowsPerSecond(), getCommits(),
+          getCommitLatencyMillis(50), getCommitLatencyMillis(90), getCommitLatencyMillis(99),
+          getCommitLatencyMillis(100));
+    }
+  }
+}
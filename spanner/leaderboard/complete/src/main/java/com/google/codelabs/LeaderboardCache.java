@@ -0,0 +1,331 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ReadOnlyTransaction;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.TimestampBound;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the top scores of each leaderboard in memory, so that reading a leaderboard does not query
+ * the database.
+ *
+ * <p>Each leaderboard covers a timespan in hours, or all time, and holds at most {@code size}
+ * scores in a min-heap. A leaderboard is loaded with a stale read, and read from memory until its
+ * data is older than the maximum staleness. Scores that leave the timespan of a leaderboard are
+ * dropped, and if the leaderboard was full it is loaded again, since the database may hold the
+ * scores that take their place.
+ *
+ * <p>New scores can be applied with {@link #offer} without reading the database, by a process that
+ * inserts them or reads them from a change stream. This sample's {@code watch} command does
+ * neither, since scores are inserted by separate {@code insert} runs, so it relies on the reloads
+ * alone and shows scores at most the maximum staleness late.
+ *
+ * <p>A cache can be shared between threads. Only one thread loads a given leaderboard at a time.
+ */
+class LeaderboardCache {
+
+  static final int ALL_TIME = 0;
+  static final int[] TIMESPANS = {ALL_TIME, 168, 720};
+
+  private static final Comparator<Entry> BY_SCORE =
+      Comparator.comparingLong(Entry::getScore).thenComparing(Entry::getTimestamp);
+
+  /** A score on a leaderboard. */
+  static final class Entry {
+    private final long playerId;
+    private final String playerName;
+    private final long score;
+    private final Timestamp timestamp;
+
+    Entry(long playerId, String playerName, long score, Timestamp timestamp) {
+      this.playerId = playerId;
+      this.playerName = playerName;
+      this.score = score;
+      this.timestamp = timestamp;
+    }
+
+    long getPlayerId() {
+      return playerId;
+    }
+
+    String getPlayerName() {
+      return playerName;
+    }
+
+    long getScore() {
+      return score;
+    }
+
+    Timestamp getTimestamp() {
+      return timestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) o;
+      return playerId == that.playerId
+          && score == that.score
+          && Objects.equals(playerName, that.playerName)
+          && Objects.equals(timestamp, that.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(playerId, playerName, score, timestamp);
+    }
+  }
+
+  /** The top scores since a time, as of the timestamp they were read at. */
+  static final class Snapshot {
+    private final List<Entry> entries;
+    private final Timestamp readTimestamp;
+
+    Snapshot(List<Entry> entries, Timestamp readTimestamp) {
+      this.entries = entries;
+      this.readTimestamp = readTimestamp;
+    }
+  }
+
+  /** Reads the top scores since a time, or of all time if the time is null. */
+  interface Loader {
+    Snapshot load(Timestamp since, int limit);
+  }
+
+  private final int size;
+  private final Duration maxStaleness;
+  private final Loader loader;
+  private final Clock clock;
+  private final Map<Integer, Leaderboard> leaderboards = new LinkedHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder servedStalenessMillis = new LongAdder();
+  private final AtomicLong maxServedStalenessMillis = new AtomicLong();
+
+  LeaderboardCache(int size, Duration maxStaleness, Loader loader, Clock clock,
+      int... timespans) {
+    this.size = size;
+    this.maxStaleness = maxStaleness;
+    this.loader = loader;
+    this.clock = clock;
+    for (int timespan : timespans) {
+      leaderboards.put(timespan, new Leaderboard(timespan));
+    }
+  }
+
+  /**
+   * Returns a cache of the leaderboards in {@link #TIMESPANS}. They are loaded with reads at most
+   * half the maximum staleness old, so that each load is served for at least the other half.
+   */
+  static LeaderboardCache forDatabase(DatabaseClient dbClient, int size, Duration maxStaleness) {
+    Loader loader = (since, limit) -> {
+      Statement.Builder builder =
+          Statement
+              .newBuilder(
+                "SELECT p.PlayerId, p.PlayerName, s.Score, s.Timestamp "
+                + "FROM Players p "
+                + "JOIN Scores s ON p.PlayerId = s.PlayerId "
+                + (since == null ? "" : "WHERE s.Timestamp > @Since ")
+                + "ORDER BY s.Score DESC LIMIT @Limit")
+              .bind("Limit")
+              .to(limit);
+      if (since != null) {
+        builder.bind("Since").to(since);
+      }
+      Statement statement = builder.build();
+      try (ReadOnlyTransaction transaction = dbClient.singleUseReadOnlyTransaction(
+          TimestampBound.ofMaxStaleness(maxStaleness.toMillis() / 2, TimeUnit.MILLISECONDS))) {
+        List<Entry> entries = new ArrayList<>();
+        try (ResultSet resultSet = transaction.executeQuery(statement)) {
+          while (resultSet.next()) {
+            entries.add(new Entry(resultSet.getLong("PlayerId"),
+                resultSet.getString("PlayerName"), resultSet.getLong("Score"),
+                resultSet.getTimestamp("Timestamp")));
+          }
+        }
+        return new Snapshot(entries, transaction.getReadTimestamp());
+      }
+    };
+    return new LeaderboardCache(size, maxStaleness, loader, Clock.systemUTC(), TIMESPANS);
+  }
+
+  /** Returns the top scores within a timespan in hours, or of all time, highest first. */
+  List<Entry> top(int timespan) {
+    Leaderboard leaderboard = leaderboards.get(timespan);
+    if (leaderboard == null) {
+      throw new IllegalArgumentException("No leaderboard for a timespan of " + timespan + " hours");
+    }
+    return leaderboard.top(clock.instant());
+  }
+
+  /** Adds a new score to the leaderboards that have been loaded and whose timespan it is in. */
+  void offer(Entry entry) {
+    Instant now = clock.instant();
+    for (Leaderboard leaderboard : leaderboards.values()) {
+      leaderboard.offer(entry, now);
+    }
+  }
+
+  /** Returns how often leaderboards were read from memory, and how old the data served was. */
+  Stats getStats() {
+    return new Stats(hits.sum(), misses.sum(), servedStalenessMillis.sum(),
+        maxServedStalenessMillis.get());
+  }
+
+  private static Instant toInstant(Timestamp timestamp) {
+    return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+  }
+
+  private static Timestamp toTimestamp(Instant instant) {
+    return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+  }
+
+  /** The cached scores of one timespan. */
+  private final class Leaderboard {
+    private final int timespan;
+    private final PriorityQueue<Entry> entries = new PriorityQueue<>(BY_SCORE);
+    private Instant readTime;
+    // Whether the database may hold lower scores that are not cached.
+    private boolean truncated;
+
+    Leaderboard(int timespan) {
+      this.timespan = timespan;
+    }
+
+    private Timestamp since(Instant now) {
+      return timespan == ALL_TIME ? null : toTimestamp(now.minus(Duration.ofHours(timespan)));
+    }
+
+    synchronized List<Entry> top(Instant now) {
+      if (readTime != null && !now.isAfter(readTime.plus(maxStaleness)) && expire(now)) {
+        hits.increment();
+      } else {
+        misses.increment();
+        Snapshot snapshot = loader.load(since(now), size);
+        entries.clear();
+        entries.addAll(snapshot.entries);
+        readTime = toInstant(snapshot.readTimestamp);
+        truncated = snapshot.entries.size() >= size;
+      }
+      long staleness = Math.max(0, Duration.between(readTime, now).toMillis());
+      servedStalenessMillis.add(staleness);
+      maxServedStalenessMillis.accumulateAndGet(staleness, Math::max);
+      List<Entry> top = new ArrayList<>(entries);
+      top.sort(Collections.reverseOrder(BY_SCORE));
+      return top;
+    }
+
+    /** Drops the scores that left the timespan, and returns false if it must be reloaded. */
+    private boolean expire(Instant now) {
+      Timestamp since = since(now);
+      if (since == null) {
+        return true;
+      }
+      boolean expired = false;
+      for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+        if (it.next().getTimestamp().compareTo(since) <= 0) {
+          it.remove();
+          expired = true;
+        }
+      }
+      return !(expired && truncated);
+    }
+
+    synchronized void offer(Entry entry, Instant now) {
+      Timestamp since = since(now);
+      if (readTime == null || (since != null && entry.getTimestamp().compareTo(since) <= 0)) {
+        return;
+      }
+      // A score that was already read replaces the cached copy.
+      entries.removeIf(cached -> cached.getPlayerId() == entry.getPlayerId()
+          && cached.getTimestamp().equals(entry.getTimestamp()));
+      entries.add(entry);
+      if (entries.size() > size) {
+        entries.poll();
+        truncated = true;
+      }
+    }
+  }
+
+  /** Hit rate and staleness of the leaderboards served. */
+  static final class Stats {
+    private final long hits;
+    private final long misses;
+    private final long totalStalenessMillis;
+    private final long maxStalenessMillis;
+
+    Stats(long hits, long misses, long totalStalenessMillis, long maxStalenessMillis) {
+      this.hits = hits;
+      this.misses = misses;
+      this.totalStalenessMillis = totalStalenessMillis;
+      this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    long getHits() {
+      return hits;
+    }
+
+    long getMisses() {
+      return misses;
+    }
+
+    double getHitRate() {
+      return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    double getAverageStalenessSeconds() {
+      return hits + misses == 0 ? 0 : totalStalenessMillis / 1e3 / (hits + misses);
+    }
+
+    double getMaxStalenessSeconds() {
+      return maxStalenessMillis / 1e3;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Leaderboard cache: %,d hits, %,d misses (%.1f%% hit rate), "
+              + "data served %.1f seconds old on average and %.1f seconds at most",
+          hits, misses, 100 * getHitRate(), getAverageStalenessSeconds(),
+          getMaxStalenessSeconds());
+    }
+  }
+}
@@ -26,6 +26,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 import org.junit.After;
@@ -57,12 +60,16 @@ public class AppTest {
     return bout.toString();
   }
 
-  private String runSample(String command, String commandOption) throws Exception {
+  private String runSample(String command, String commandOption, String... moreOptions)
+      throws Exception {
     PrintStream stdOut = System.out;
     ByteArrayOutputStream bout = new ByteArrayOutputStream();
     PrintStream out = new PrintStream(bout);
     System.setOut(out);
-    App.main(new String[] {command, instanceId, databaseId, commandOption});
+    List<String> args = new ArrayList<>(
+        Arrays.asList(command, instanceId, databaseId, commandOption));
+    args.addAll(Arrays.asList(moreOptions));
+    App.main(args.toArray(new String[0]));
     System.setOut(stdOut);
     return bout.toString();
   }
@@ -107,6 +114,10 @@ public class AppTest {
     out = runSample("insert", "scores");
     assertThat(out).contains("Done inserting score records");
 
+    out = runSample("insert", "bulk-scores", "4");
+    assertThat(out).contains("Commit latency over");
+    assertThat(out).contains("Done inserting score records");
+
     // Query Top Ten Players of all time.
     out = runSample("query");
     assertThat(out).contains("PlayerId: ");
@@ -130,6 +141,11 @@ public class AppTest {
     // Test that Top Ten Players of the Week (within past 168 hours) runs successfully.
     out = runSample("query", "168");
     assertThat(out).contains("PlayerId: ");
+
+    // Test that the leaderboards are served from memory between refreshes.
+    out = runSample("watch", "5", "2");
+    assertThat(out).contains("Top ten players of all time:");
+    assertThat(out).contains("Leaderboard cache: ");
   }
 
   private String formatForTest(String name) {
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@code BulkScoreLoader}, against an in-memory table of players. */
+@RunWith(JUnit4.class)
+public class BulkScoreLoaderTest {
+
+  private final NavigableSet<Long> playerIds = new TreeSet<>();
+  private final Set<String> rangesRead = new ConcurrentSkipListSet<>();
+  private final List<List<Mutation>> batches = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setUp() {
+    Random random = new Random(42);
+    while (playerIds.size() < 1000) {
+      playerIds.add(BulkScoreLoader.MIN_PLAYER_ID
+          + (long) (random.nextDouble()
+              * (BulkScoreLoader.MAX_PLAYER_ID - BulkScoreLoader.MIN_PLAYER_ID)));
+    }
+    playerIds.add(BulkScoreLoader.MIN_PLAYER_ID);
+    playerIds.add(BulkScoreLoader.MAX_PLAYER_ID - 1);
+  }
+
+  private BulkScoreLoader loader(int maxMutationsPerCommit, BulkScoreLoader.ScoreWriter writer) {
+    return new BulkScoreLoader(
+        (startId, endId, consumer) -> {
+          rangesRead.add(startId + "-" + endId);
+          playerIds.subSet(startId, endId).forEach(consumer::accept);
+        },
+        writer, 4, 7, maxMutationsPerCommit);
+  }
+
+  @Test
+  public void testInsertsScoresForEveryPlayer() throws Exception {
+    BulkScoreLoader.Result result =
+        loader(100, mutations -> batches.add(new ArrayList<>(mutations))).run();
+
+    assertThat(rangesRead).hasSize(7);
+    Map<Long, Integer> scoresByPlayer = new HashMap<>();
+    for (List<Mutation> batch : batches) {
+      assertThat(batch.size() * BulkScoreLoader.COLUMNS_PER_SCORE).isAtMost(100);
+      Set<Long> playersInBatch = new HashSet<>();
+      for (Mutation mutation : batch) {
+        Map<String, Value> values = mutation.asMap();
+        long playerId = values.get("PlayerId").getInt64();
+        playersInBatch.add(playerId);
+        scoresByPlayer.merge(playerId, 1, Integer::sum);
+        assertThat(values.get("Score").getInt64()).isIn(Range.closedOpen(1_000L, 1_000_000L));
+      }
+      // The scores of a player are committed together.
+      for (long playerId : playersInBatch) {
+        long scores = batch.stream()
+            .filter(mutation -> mutation.asMap().get("PlayerId").getInt64() == playerId)
+            .count();
+        assertThat(scores).isEqualTo((long) BulkScoreLoader.SCORES_PER_PLAYER);
+      }
+    }
+    assertThat(scoresByPlayer.keySet()).isEqualTo(playerIds);
+    assertThat(new HashSet<>(scoresByPlayer.values()))
+        .containsExactly(BulkScoreLoader.SCORES_PER_PLAYER);
+
+    assertThat(result.getPlayers()).isEqualTo((long) playerIds.size());
+    assertThat(result.getScores())
+        .isEqualTo((long) playerIds.size() * BulkScoreLoader.SCORES_PER_PLAYER);
+    assertThat(result.getCommits()).isEqualTo(batches.size());
+    assertThat(result.getCommitLatencyMillis(50)).isAtMost(result.getCommitLatencyMillis(100));
+    assertThat(result.toString()).contains("Commit latency over");
+  }
+
+  @Test
+  public void testFailedCommitStopsLoad() throws Exception {
+    try {
+      loader(BulkScoreLoader.DEFAULT_MAX_MUTATIONS_PER_COMMIT, mutations -> {
+        throw new IllegalStateException("commit failed");
+      }).run();
+      fail("Expected the failed commit to stop the load");
+    } catch (ExecutionException e) {
+      assertThat(e).hasCauseThat().hasMessageThat().isEqualTo("commit failed");
+    }
+  }
+
+  @Test
+  public void testRejectsCommitsTooSmallForOnePlayer() {
+    try {
+      loader(BulkScoreLoader.SCORES_PER_PLAYER * BulkScoreLoader.COLUMNS_PER_SCORE - 1,
+          mutations -> { });
+      fail("Expected the commit size to be rejected");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testRejectsNoWorkers() {
+    try {
+      new BulkScoreLoader((startId, endId, consumer) -> { }, mutations -> { }, 0, 7,
+          BulkScoreLoader.DEFAULT_MAX_MUTATIONS_PER_COMMIT);
+      fail("Expected the number of workers to be rejected");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.Timestamp;
+import com.google.codelabs.LeaderboardCache.Entry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@code LeaderboardCache}, against an in-memory table of scores. */
+@RunWith(JUnit4.class)
+public class LeaderboardCacheTest {
+
+  private static final Instant START = Instant.parse("2024-06-01T00:00:00Z");
+
+  private final TestClock clock = new TestClock();
+  private final List<Entry> scores = new ArrayList<>();
+  private final List<Timestamp> loadedSince = new ArrayList<>();
+  private LeaderboardCache cache;
+
+  private static Entry score(long playerId, long score, Duration age) {
+    Instant time = START.minus(age);
+    return new Entry(playerId, "Player " + playerId, score,
+        Timestamp.ofTimeSecondsAndNanos(time.getEpochSecond(), time.getNano()));
+  }
+
+  @Before
+  public void setUp() {
+    scores.add(score(1, 900, Duration.ofDays(100)));
+    scores.add(score(2, 800, Duration.ofHours(168).minusSeconds(5)));
+    scores.add(score(3, 700, Duration.ofHours(2)));
+    scores.add(score(4, 600, Duration.ofHours(1)));
+    LeaderboardCache.Loader loader = (since, limit) -> {
+      loadedSince.add(since);
+      List<Entry> top = scores.stream()
+          .filter(entry -> since == null || entry.getTimestamp().compareTo(since) > 0)
+          .sorted((a, b) -> Long.compare(b.getScore(), a.getScore()))
+          .limit(limit)
+          .collect(Collectors.toList());
+      Instant now = clock.instant();
+      return new LeaderboardCache.Snapshot(top,
+          Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano()));
+    };
+    cache = new LeaderboardCache(2, Duration.ofSeconds(10), loader, clock,
+        LeaderboardCache.TIMESPANS);
+  }
+
+  private static List<Long> players(List<Entry> entries) {
+    return entries.stream().map(Entry::getPlayerId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testServesFromMemoryUntilStale() {
+    assertThat(players(cache.top(LeaderboardCache.ALL_TIME))).containsExactly(1L, 2L).inOrder();
+    clock.advance(Duration.ofSeconds(4));
+    scores.add(score(5, 1000, Duration.ZERO));
+    assertThat(players(cache.top(LeaderboardCache.ALL_TIME))).containsExactly(1L, 2L).inOrder();
+    assertThat(loadedSince).hasSize(1);
+
+    clock.advance(Duration.ofSeconds(7));
+    assertThat(players(cache.top(LeaderboardCache.ALL_TIME))).containsExactly(5L, 1L).inOrder();
+    assertThat(loadedSince).hasSize(2);
+
+    LeaderboardCache.Stats stats = cache.getStats();
+    assertThat(stats.getHits()).isEqualTo(1L);
+    assertThat(stats.getMisses()).isEqualTo(2L);
+    assertThat(stats.getMaxStalenessSeconds()).isEqualTo(4.0);
+  }
+
+  @Test
+  public void testReloadsWhenScoresLeaveTimespan() {
+    assertThat(players(cache.top(168))).containsExactly(2L, 3L).inOrder();
+    assertThat(loadedSince).hasSize(1);
+
+    // Player 2's score leaves the past week before the data is stale, and player 4's takes its
+    // place.
+    clock.advance(Duration.ofSeconds(6));
+    assertThat(players(cache.top(168))).containsExactly(3L, 4L).inOrder();
+    assertThat(loadedSince).hasSize(2);
+  }
+
+  @Test
+  public void testOfferUpdatesLoadedLeaderboards() {
+    cache.top(LeaderboardCache.ALL_TIME);
+    cache.top(720);
+
+    cache.offer(score(6, 850, Duration.ZERO));
+    cache.offer(score(7, 100, Duration.ZERO));
+    cache.offer(score(8, 950, Duration.ofDays(40)));
+
+    assertThat(players(cache.top(LeaderboardCache.ALL_TIME))).containsExactly(8L, 1L).inOrder();
+    assertThat(players(cache.top(720))).containsExactly(6L, 2L).inOrder();
+    // The weekly leaderboard was not loaded, so it is read from the database.
+    assertThat(loadedSince).hasSize(2);
+    assertThat(players(cache.top(168))).containsExactly(2L, 3L).inOrder();
+    assertThat(loadedSince).hasSize(3);
+    assertThat(cache.getStats().getHitRate()).isEqualTo(0.4);
+  }
+
+  /** A clock that only moves when told to. */
+  private static class TestClock extends Clock {
+    private Instant now = START;
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}